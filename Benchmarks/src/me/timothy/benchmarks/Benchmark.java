@@ -0,0 +1,78 @@
+package me.timothy.benchmarks;
+
+/**
+ * A single benchmark, which may be run once for each of several parameter
+ * values. The runner calls {@link #setUp(String)} once for each parameter,
+ * then {@link #run(int, Blackhole)} many times while timing it, and finally
+ * {@link #tearDown()}.
+ *
+ * Anything computed inside run should be given to the blackhole, otherwise
+ * the JIT may decide it is never used and skip computing it.
+ *
+ * @author Timothy
+ */
+public abstract class Benchmark {
+	private final String name;
+	private final String paramName;
+	private final String[] params;
+
+	/**
+	 * Creates a benchmark without parameters
+	 * @param name the name, EG StringCodecBenchmark.readString
+	 */
+	protected Benchmark(String name) {
+		this(name, null);
+	}
+
+	/**
+	 * @param name the name, EG StringCodecBenchmark.readString
+	 * @param paramName the name of the parameter, or null if there is none
+	 * @param params the values of the parameter to run the benchmark with
+	 */
+	protected Benchmark(String name, String paramName, String... params) {
+		this.name = name;
+		this.paramName = paramName;
+		this.params = paramName == null ? new String[] { null } : params;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the name of the parameter, or null if there is none
+	 */
+	public String getParamName() {
+		return paramName;
+	}
+
+	/**
+	 * @return the values of the parameter, or a single null if there is no parameter
+	 */
+	public String[] getParams() {
+		return params;
+	}
+
+	/**
+	 * Prepares to run with the specified parameter
+	 * @param param the parameter, null if there is none
+	 * @throws Exception if the benchmark cannot be run
+	 */
+	public void setUp(String param) throws Exception {
+	}
+
+	/**
+	 * Performs the operation being measured ops times
+	 * @param ops the number of operations
+	 * @param bh the blackhole to consume results with
+	 * @throws Exception if an operation fails, which stops the benchmark
+	 */
+	public abstract void run(int ops, Blackhole bh) throws Exception;
+
+	/**
+	 * Cleans up after running with a parameter
+	 * @throws Exception if an exception occurs
+	 */
+	public void tearDown() throws Exception {
+	}
+}
@@ -0,0 +1,324 @@
+package me.timothy.benchmarks;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the benchmarks and writes the results. The results file uses the same
+ * JSON layout as JMH's <code>-rf json</code>, so it can be fed to the same tools,
+ * with an extra <code>commit</code> field so results can be tracked per commit.
+ *
+ * <pre>
+ * java me.timothy.benchmarks.BenchmarkRunner [options] [regex...]
+ *   -wi n       warmup iterations (default 3)
+ *   -i n        measurement iterations (default 5)
+ *   -r ms       time per iteration (default 1000)
+ *   -rf file    where to write the results (default bench_results.json)
+ *   -commit id  the commit being benchmarked, stored with the results
+ *   -l          list the benchmarks and exit
+ * </pre>
+ *
+ * Only the benchmarks whose name matches one of the regexes are run, or all of
+ * them if there are none. Every benchmark runs in this JVM one after the other,
+ * so a benchmark that needs an isolated JVM should be run on its own.
+ *
+ * @author Timothy
+ */
+public class BenchmarkRunner {
+	/**
+	 * Student's t for a 99.9% confidence interval, by degrees of freedom (index 0 is 1 df)
+	 */
+	private static final double[] T_999 = {
+		636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+		4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850,
+		3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646
+	};
+	private static final double T_999_LARGE = 3.291;
+
+	/**
+	 * Operations are run in batches that take about this long, so reading the clock is not measured
+	 */
+	private static final long BATCH_NANOS = 1000000;
+
+	private int warmupIterations = 3;
+	private int iterations = 5;
+	private long iterationMillis = 1000;
+	private String resultFile = "bench_results.json";
+	private String commit;
+	private List<Pattern> filters = new ArrayList<>();
+	private long lastIterationOps;
+
+	private static class Result {
+		Benchmark benchmark;
+		String param;
+		double[] scores;
+		double allocPerOp; // NaN if unknown
+	}
+
+	public static List<Benchmark> allBenchmarks() {
+		List<Benchmark> res = new ArrayList<>();
+		res.addAll(PacketCodecBenchmarks.create());
+		res.add(new DispatchBenchmark());
+		res.addAll(StringCodecBenchmarks.create());
+		res.add(new RelayBenchmark());
+		return res;
+	}
+
+	public static void main(String[] args) throws Exception {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		boolean list = false;
+		for(int i = 0; i < args.length; i++) {
+			switch(args[i]) {
+			case "-wi":
+				runner.warmupIterations = Integer.parseInt(args[++i]);
+				break;
+			case "-i":
+				runner.iterations = Integer.parseInt(args[++i]);
+				break;
+			case "-r":
+				runner.iterationMillis = Long.parseLong(args[++i]);
+				break;
+			case "-rf":
+				runner.resultFile = args[++i];
+				break;
+			case "-commit":
+				runner.commit = args[++i];
+				break;
+			case "-l":
+				list = true;
+				break;
+			default:
+				runner.filters.add(Pattern.compile(args[i]));
+			}
+		}
+
+		List<Benchmark> benchmarks = new ArrayList<>();
+		for(Benchmark b : allBenchmarks()) {
+			if(runner.matches(b))
+				benchmarks.add(b);
+		}
+
+		if(list) {
+			for(Benchmark b : benchmarks) {
+				System.out.println(b.getName() + (b.getParamName() != null ? " " + b.getParamName() + "=" + join(b.getParams()) : ""));
+			}
+			return;
+		}
+
+		List<Result> results = new ArrayList<>();
+		for(Benchmark b : benchmarks) {
+			for(String param : b.getParams()) {
+				results.add(runner.run(b, param));
+			}
+		}
+
+		runner.writeResults(results);
+		System.out.println("Results written to " + runner.resultFile);
+		System.exit(0); // benchmarks may leave non-daemon threads behind
+	}
+
+	private boolean matches(Benchmark b) {
+		if(filters.isEmpty())
+			return true;
+		for(Pattern p : filters) {
+			if(p.matcher(b.getName()).find())
+				return true;
+		}
+		return false;
+	}
+
+	private Result run(Benchmark b, String param) throws Exception {
+		String label = b.getName() + (param != null ? " [" + b.getParamName() + "=" + param + "]" : "");
+		System.out.println("# " + label);
+
+		Blackhole bh = new Blackhole();
+		b.setUp(param);
+		Result res = new Result();
+		res.benchmark = b;
+		res.param = param;
+		res.scores = new double[iterations];
+		try {
+			int batch = calibrate(b, bh);
+			for(int i = 0; i < warmupIterations; i++) {
+				double score = iteration(b, bh, batch);
+				System.out.println(String.format(Locale.ROOT, "  Warmup %d: %.3f ops/s", i + 1, score));
+			}
+
+			long allocBefore = allocatedBytes();
+			long totalOps = 0;
+			for(int i = 0; i < iterations; i++) {
+				res.scores[i] = iteration(b, bh, batch);
+				totalOps += lastIterationOps;
+				System.out.println(String.format(Locale.ROOT, "  Iteration %d: %.3f ops/s", i + 1, res.scores[i]));
+			}
+			long allocAfter = allocatedBytes();
+			res.allocPerOp = allocBefore < 0 || totalOps == 0 ? Double.NaN : (double) (allocAfter - allocBefore) / totalOps;
+		}finally {
+			b.tearDown();
+		}
+
+		System.out.println(String.format(Locale.ROOT, "  Result: %.3f +- %.3f ops/s, %.1f B/op", mean(res.scores), error(res.scores), res.allocPerOp));
+		return res;
+	}
+
+	/**
+	 * Finds how many operations take about {@link #BATCH_NANOS}
+	 */
+	private int calibrate(Benchmark b, Blackhole bh) throws Exception {
+		int ops = 1;
+		while(ops < (1 << 24)) {
+			long start = System.nanoTime();
+			b.run(ops, bh);
+			if(System.nanoTime() - start >= BATCH_NANOS)
+				break;
+			ops *= 2;
+		}
+		return ops;
+	}
+
+	/**
+	 * Runs batches for one iteration
+	 * @return the operations per second
+	 */
+	private double iteration(Benchmark b, Blackhole bh, int batch) throws Exception {
+		long ops = 0;
+		long start = System.nanoTime();
+		long end = start + iterationMillis * 1000000;
+		long now;
+		do {
+			b.run(batch, bh);
+			ops += batch;
+			now = System.nanoTime();
+		}while(now < end);
+		bh.publish();
+		lastIterationOps = ops;
+		return ops * 1e9 / (now - start);
+	}
+
+	/**
+	 * @return the bytes allocated by this thread so far, or -1 if the JVM can't tell
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if(sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled())
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private static double mean(double[] arr) {
+		double sum = 0;
+		for(double d : arr)
+			sum += d;
+		return sum / arr.length;
+	}
+
+	/**
+	 * @return half the width of the 99.9% confidence interval, or NaN if there is only one score
+	 */
+	private static double error(double[] arr) {
+		if(arr.length < 2)
+			return Double.NaN;
+		double mean = mean(arr);
+		double sq = 0;
+		for(double d : arr)
+			sq += (d - mean) * (d - mean);
+		double stdev = Math.sqrt(sq / (arr.length - 1));
+		int df = arr.length - 1;
+		double t = df <= T_999.length ? T_999[df - 1] : T_999_LARGE;
+		return t * stdev / Math.sqrt(arr.length);
+	}
+
+	private void writeResults(List<Result> results) throws IOException {
+		try(Writer out = new OutputStreamWriter(new FileOutputStream(resultFile), StandardCharsets.UTF_8)) {
+			out.write("[\n");
+			for(int i = 0; i < results.size(); i++) {
+				Result r = results.get(i);
+				double mean = mean(r.scores);
+				double err = error(r.scores);
+				StringBuilder sb = new StringBuilder();
+				sb.append("  {\n");
+				if(commit != null)
+					sb.append("    \"commit\" : ").append(quote(commit)).append(",\n");
+				sb.append("    \"jmhVersion\" : \"none\",\n");
+				sb.append("    \"benchmark\" : ").append(quote(getClass().getPackage().getName() + "." + r.benchmark.getName())).append(",\n");
+				sb.append("    \"mode\" : \"thrpt\",\n");
+				sb.append("    \"threads\" : 1,\n");
+				sb.append("    \"forks\" : 0,\n");
+				sb.append("    \"jvm\" : ").append(quote(System.getProperty("java.home"))).append(",\n");
+				sb.append("    \"jdkVersion\" : ").append(quote(System.getProperty("java.version"))).append(",\n");
+				sb.append("    \"warmupIterations\" : ").append(warmupIterations).append(",\n");
+				sb.append("    \"warmupTime\" : ").append(quote(iterationMillis + " ms")).append(",\n");
+				sb.append("    \"measurementIterations\" : ").append(iterations).append(",\n");
+				sb.append("    \"measurementTime\" : ").append(quote(iterationMillis + " ms")).append(",\n");
+				if(r.param != null)
+					sb.append("    \"params\" : { ").append(quote(r.benchmark.getParamName())).append(" : ").append(quote(r.param)).append(" },\n");
+				sb.append("    \"primaryMetric\" : {\n");
+				sb.append("      \"score\" : ").append(number(mean)).append(",\n");
+				sb.append("      \"scoreError\" : ").append(number(err)).append(",\n");
+				sb.append("      \"scoreConfidence\" : [ ").append(number(mean - err)).append(", ").append(number(mean + err)).append(" ],\n");
+				sb.append("      \"scoreUnit\" : \"ops/s\",\n");
+				sb.append("      \"rawData\" : [ [ ");
+				for(int j = 0; j < r.scores.length; j++) {
+					if(j > 0)
+						sb.append(", ");
+					sb.append(number(r.scores[j]));
+				}
+				sb.append(" ] ]\n");
+				sb.append("    },\n");
+				sb.append("    \"secondaryMetrics\" : {");
+				if(!Double.isNaN(r.allocPerOp)) {
+					sb.append("\n      \"\u00b7gc.alloc.rate.norm\" : {\n");
+					sb.append("        \"score\" : ").append(number(r.allocPerOp)).append(",\n");
+					sb.append("        \"scoreUnit\" : \"B/op\"\n");
+					sb.append("      }\n    ");
+				}
+				sb.append("}\n");
+				sb.append(i + 1 < results.size() ? "  },\n" : "  }\n");
+				out.write(sb.toString());
+			}
+			out.write("]\n");
+		}
+	}
+
+	private static String number(double d) {
+		if(Double.isNaN(d) || Double.isInfinite(d))
+			return "\"NaN\"";
+		return String.format(Locale.ROOT, "%.6f", d);
+	}
+
+	private static String quote(String str) {
+		StringBuilder sb = new StringBuilder("\"");
+		for(int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if(c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if(c < 0x20)
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	private static String join(String[] arr) {
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < arr.length; i++) {
+			if(i > 0)
+				sb.append(',');
+			sb.append(arr[i]);
+		}
+		return sb.toString();
+	}
+}
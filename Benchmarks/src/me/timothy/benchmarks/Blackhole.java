@@ -0,0 +1,44 @@
+package me.timothy.benchmarks;
+
+/**
+ * Consumes results so that the JIT cannot prove they are unused and
+ * remove the code that computed them.
+ *
+ * @author Timothy
+ */
+public class Blackhole {
+	private int intSink;
+	private long longSink;
+	private Object objSink;
+	private volatile int published;
+
+	public void consume(Object obj) {
+		objSink = obj;
+		if(obj != null)
+			intSink += System.identityHashCode(obj) & 1;
+	}
+
+	public void consume(int value) {
+		intSink += value;
+	}
+
+	public void consume(long value) {
+		longSink += value;
+	}
+
+	public void consume(boolean value) {
+		intSink += value ? 1 : 0;
+	}
+
+	/**
+	 * Makes everything that was consumed visible, so none of it can be dropped.
+	 * Called by the runner after each iteration.
+	 */
+	void publish() {
+		published = intSink + (int) longSink + (objSink != null ? 1 : 0);
+	}
+
+	int getPublished() {
+		return published;
+	}
+}
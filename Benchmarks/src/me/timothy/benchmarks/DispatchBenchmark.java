@@ -0,0 +1,76 @@
+package me.timothy.benchmarks;
+
+import java.nio.ByteBuffer;
+
+import me.timothy.dcrts.net.lobby.LobbyPackets;
+import me.timothy.dcrts.packet.PacketHandler;
+import me.timothy.dcrts.packet.PacketHeader;
+import me.timothy.dcrts.packet.PacketListener;
+import me.timothy.dcrts.packet.PacketManager;
+import me.timothy.dcrts.packet.ParsedPacket;
+import me.timothy.dcrts.peer.OtherPeer;
+import me.timothy.dcrts.peer.Peer;
+import me.timothy.dcrts.utils.NetUtils;
+
+/**
+ * Broadcasting a parsed packet to the registered listeners, by the number of
+ * listeners registered for its header. PING is used since the lobby's packet
+ * announcer ignores it, so the only other listener is the announcer itself.
+ *
+ * @author Timothy
+ */
+public class DispatchBenchmark extends Benchmark {
+	/**
+	 * Counts the packets it receives, which is about the least a listener can do
+	 */
+	public static class CountingListener implements PacketListener {
+		private int count;
+
+		@PacketHandler(header=PacketHeader.PING, priority=3)
+		public void onPing(Peer peer, ParsedPacket packet) {
+			count++;
+		}
+	}
+
+	private CountingListener[] listeners;
+	private Peer peer;
+	private ParsedPacket packet;
+
+	public DispatchBenchmark() {
+		super("DispatchBenchmark.broadcastPacket", "listeners", "0", "1", "4", "16", "64");
+	}
+
+	@Override
+	public void setUp(String param) throws Exception {
+		LobbyPackets.init();
+		listeners = new CountingListener[Integer.parseInt(param)];
+		for(int i = 0; i < listeners.length; i++) {
+			listeners[i] = new CountingListener();
+			PacketManager.instance.registerClass(listeners[i]);
+		}
+
+		peer = new OtherPeer("Benchmark Peer", NetUtils.INIT_ID + 1);
+		ByteBuffer buffer = ByteBuffer.allocate(8);
+		buffer.putLong(System.currentTimeMillis());
+		buffer.flip();
+		packet = PacketManager.instance.parse(PacketHeader.PING, buffer);
+	}
+
+	@Override
+	public void run(int ops, Blackhole bh) throws Exception {
+		for(int i = 0; i < ops; i++) {
+			PacketManager.instance.broadcastPacket(peer, packet);
+		}
+		for(CountingListener l : listeners) {
+			bh.consume(l.count);
+		}
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		for(CountingListener l : listeners) {
+			PacketManager.instance.unregisterClass(l);
+		}
+		listeners = null;
+	}
+}
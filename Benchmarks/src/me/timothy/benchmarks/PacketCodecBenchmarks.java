@@ -0,0 +1,275 @@
+package me.timothy.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.timothy.dcrts.net.connect.ConnectionPackets;
+import me.timothy.dcrts.net.lobby.LobbyPackets;
+import me.timothy.dcrts.net.module.ModuleHandler;
+import me.timothy.dcrts.net.topology.RelayTree;
+import me.timothy.dcrts.packet.FrameBuffer;
+import me.timothy.dcrts.packet.PacketHeader;
+import me.timothy.dcrts.packet.PacketManager;
+import me.timothy.dcrts.peer.OtherPeer;
+import me.timothy.dcrts.peer.Peer;
+import me.timothy.dcrts.utils.BufferPool;
+import me.timothy.dcrts.utils.NetUtils;
+
+/**
+ * Encoding and parsing every packet registered by LobbyPackets and
+ * ConnectionPackets, through the packet manager the same way the game does.
+ *
+ * @author Timothy
+ */
+public class PacketCodecBenchmarks {
+	/**
+	 * The headers with a parser and a sender, in the order they are benchmarked
+	 */
+	private static final String[] HEADERS = {
+		"PING", "RETURN_PING", "CONNECT", "ASSIGN_ID", "DISCONNECT", "UPDATE_SETTINGS",
+		"SET_READY", "INTERRUPT_READY", "BEGIN_COUNTDOWN", "ERROR",
+		"CHANGE_NAME", "SEND_NET_INFO", "CHANGE_MODULE", "RECONFIGURE", "LOAD_REPORT",
+		"WHISPER", "DESTROYING_CHANNEL"
+	};
+
+	/**
+	 * The module named in change module packets. Its jar is hashed for every packet.
+	 */
+	private static final String MODULE = RelayTree.BROADCAST_MODULE;
+
+	/**
+	 * The number of peers in the relay tree of reconfigure packets
+	 */
+	private static final int TREE_PEERS = 12;
+
+	private static final int PEER_ID = NetUtils.INIT_ID + 3;
+
+	private PacketCodecBenchmarks() {
+	}
+
+	public static List<Benchmark> create() {
+		List<Benchmark> res = new ArrayList<>();
+		res.add(new Encode());
+		res.add(new Parse());
+		return res;
+	}
+
+	/**
+	 * Sets up what every packet codec benchmark needs: the parsers and senders,
+	 * and the module jars for CHANGE_MODULE and RECONFIGURE to hash
+	 */
+	private static abstract class CodecBenchmark extends Benchmark {
+		protected PacketHeader header;
+		protected Object[] args;
+		private List<File> createdJars = new ArrayList<>();
+		private File createdDir;
+
+		protected CodecBenchmark(String name) {
+			super(name, "header", HEADERS);
+		}
+
+		@Override
+		public void setUp(String param) throws Exception {
+			LobbyPackets.init();
+			ConnectionPackets.init();
+			header = PacketHeader.valueOf(param);
+			args = sampleArguments(header);
+
+			for(String module : hashedModules(header)) {
+				File jar = ModuleHandler.getFileForModule(module);
+				if(!jar.exists()) {
+					if(!jar.getParentFile().exists())
+						createdDir = jar.getParentFile();
+					createdJars.add(jar);
+					writeJar(jar);
+				}
+			}
+		}
+
+		@Override
+		public void tearDown() throws Exception {
+			for(File jar : createdJars) {
+				jar.delete();
+			}
+			createdJars.clear();
+			if(createdDir != null) {
+				createdDir.delete();
+				createdDir = null;
+			}
+		}
+
+		/**
+		 * @return true if the packet is only sent on direct connections, which have no peer id
+		 */
+		protected boolean isDirect() {
+			return header == PacketHeader.DESTROYING_CHANNEL;
+		}
+
+		/**
+		 * Writes a packet the same way the game does
+		 * @return the buffer, which should be released
+		 */
+		protected ByteBuffer encode() {
+			ByteBuffer buffer = isDirect() ? NetUtils.createBufferNoID(header) : NetUtils.createBuffer(PEER_ID, header);
+			PacketManager.instance.send(header, buffer, args);
+			return buffer;
+		}
+	}
+
+	/**
+	 * Creates a buffer, writes the packet into it and releases it
+	 */
+	private static class Encode extends CodecBenchmark {
+		Encode() {
+			super("PacketCodecBenchmarks.encode");
+		}
+
+		@Override
+		public void run(int ops, Blackhole bh) throws Exception {
+			for(int i = 0; i < ops; i++) {
+				ByteBuffer buffer = encode();
+				bh.consume(buffer.position());
+				BufferPool.instance.release(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Parses a packet that was written once during setup
+	 */
+	private static class Parse extends CodecBenchmark {
+		private ByteBuffer frame;
+		private int payloadStart;
+
+		Parse() {
+			super("PacketCodecBenchmarks.parse");
+		}
+
+		@Override
+		public void setUp(String param) throws Exception {
+			super.setUp(param);
+			ByteBuffer buffer = encode();
+			buffer.flip();
+			frame = ByteBuffer.allocate(buffer.remaining());
+			frame.put(buffer);
+			frame.flip();
+			BufferPool.instance.release(buffer);
+			payloadStart = FrameBuffer.LENGTH_BYTES + (isDirect() ? 4 : 8); // id and header
+		}
+
+		@Override
+		public void run(int ops, Blackhole bh) throws Exception {
+			for(int i = 0; i < ops; i++) {
+				frame.position(payloadStart);
+				bh.consume(PacketManager.instance.parse(header, frame));
+			}
+		}
+
+		@Override
+		public void tearDown() throws Exception {
+			super.tearDown();
+			frame = null;
+		}
+	}
+
+	/**
+	 * @param header the header
+	 * @return typical arguments for the sender of the header
+	 */
+	private static Object[] sampleArguments(PacketHeader header) {
+		Peer peer = new OtherPeer("Benchmark Peer", PEER_ID);
+		switch(header) {
+		case PING:
+		case RETURN_PING:
+			return new Object[] { System.currentTimeMillis() };
+		case CONNECT:
+			return new Object[] { true, false, PEER_ID, "Benchmark Peer" };
+		case ASSIGN_ID:
+			return new Object[] { false, PEER_ID, NetUtils.INIT_ID };
+		case DISCONNECT:
+			return new Object[] { "The host has left the game" };
+		case UPDATE_SETTINGS:
+			return new Object[] { null };
+		case SET_READY:
+			return new Object[] { true };
+		case BEGIN_COUNTDOWN:
+			return new Object[] { System.nanoTime() + 3000000000L, System.nanoTime() };
+		case ERROR:
+			return new Object[] { "Unexpected packet CHANGE_NAME while in game" };
+		case CHANGE_NAME:
+			return new Object[] { "Benchmark Peer 2" };
+		case SEND_NET_INFO:
+			int clients = 8;
+			Object[] res = new Object[clients * 2 + 1];
+			res[0] = clients;
+			for(int i = 0; i < clients; i++) {
+				int id = NetUtils.INIT_ID + i + 1;
+				res[i * 2 + 1] = id;
+				res[i * 2 + 2] = new InetSocketAddress("127.0.0.1", NetUtils.getDirectPort(id));
+			}
+			return res;
+		case CHANGE_MODULE:
+			return new Object[] { peer, true, MODULE };
+		case RECONFIGURE:
+			return new Object[] { 1, sampleTree() };
+		case LOAD_REPORT:
+			return new Object[] { 0.75, 3 };
+		case WHISPER:
+			return new Object[] { peer, "gl hf" };
+		default:
+			return new Object[0];
+		}
+	}
+
+	/**
+	 * @param header the header
+	 * @return the modules whose jars are hashed when the header is sent
+	 */
+	private static String[] hashedModules(PacketHeader header) {
+		switch(header) {
+		case CHANGE_MODULE:
+			return new String[] { MODULE };
+		case RECONFIGURE:
+			return new String[] { RelayTree.BROADCAST_MODULE, RelayTree.MIDNODE_MODULE, RelayTree.LISTENER_MODULE };
+		default:
+			return new String[0];
+		}
+	}
+
+	/**
+	 * @return a tree of {@link #TREE_PEERS} peers, a broadcaster with two midnodes
+	 * that the rest listen to
+	 */
+	private static RelayTree sampleTree() {
+		Peer[] peers = new Peer[TREE_PEERS];
+		for(int i = 0; i < peers.length; i++) {
+			peers[i] = new OtherPeer("Benchmark Peer " + i, NetUtils.INIT_ID + i + 1);
+		}
+		Map<Peer, Peer> parents = new HashMap<>();
+		for(int i = 1; i < peers.length; i++) {
+			parents.put(peers[i], i < 3 ? peers[0] : peers[1 + i % 2]);
+		}
+		return new RelayTree(peers[0], parents);
+	}
+
+	/**
+	 * Writes a module jar of a realistic size, so CHANGE_MODULE and RECONFIGURE have something to hash
+	 */
+	private static void writeJar(File jar) throws IOException {
+		jar.getParentFile().mkdirs();
+		byte[] data = new byte[16 * 1024];
+		for(int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 31);
+		}
+		try(FileOutputStream out = new FileOutputStream(jar)) {
+			out.write(data);
+		}
+	}
+}
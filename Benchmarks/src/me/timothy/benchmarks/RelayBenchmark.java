@@ -0,0 +1,165 @@
+package me.timothy.benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import me.timothy.dcrts.GameState;
+import me.timothy.dcrts.net.LogicModule;
+import me.timothy.dcrts.net.NetReactor;
+import me.timothy.dcrts.net.NetState;
+import me.timothy.dcrts.net.OutboundQueue;
+import me.timothy.dcrts.net.lobby.LobbyPackets;
+import me.timothy.dcrts.net.packets.PingEncoder;
+import me.timothy.dcrts.packet.PacketHeader;
+import me.timothy.dcrts.packet.PacketManager;
+import me.timothy.dcrts.peer.LocalPeer;
+import me.timothy.dcrts.peer.OtherPeer;
+import me.timothy.dcrts.peer.Peer;
+import me.timothy.dcrts.peer.PeerRegistry;
+import me.timothy.dcrts.settings.GameSettingsBuilder;
+import me.timothy.dcrts.utils.BufferPool;
+import me.timothy.dcrts.utils.NetUtils;
+import me.timothy.modules.broadcast.BroadcastModule;
+
+/**
+ * Relaying a frame through the BroadcastModule to every other directly
+ * connected peer and handling it locally, by the number of connected peers.
+ * The peers are real loopback connections whose other end is read and
+ * thrown away on a separate thread. Frames that do not fit in a socket
+ * buffer are queued, and dropped once a queue is over its watermark, so a
+ * slow drain thread does not disconnect anyone.
+ *
+ * @author Timothy
+ */
+public class RelayBenchmark extends Benchmark {
+	/**
+	 * A logic module that does nothing, since the relay path never asks it anything
+	 */
+	private static class IdleLogicModule extends LogicModule {
+		@Override
+		public void onActivate() {
+		}
+
+		@Override
+		public void onDeactivate() {
+		}
+	}
+
+	private List<SocketChannel> channels;
+	private Selector drainSelector;
+	private Thread drainThread;
+	private BroadcastModule module;
+	private Peer from;
+	private ByteBuffer received;
+
+	public RelayBenchmark() {
+		super("RelayBenchmark.handleRead", "peers", "2", "4", "16", "64", "256");
+	}
+
+	@Override
+	public void setUp(String param) throws Exception {
+		LobbyPackets.init();
+		NetReactor.instance.setDefaultOverflowPolicy(OutboundQueue.OverflowPolicy.DROP, OutboundQueue.DEFAULT_HIGH_WATERMARK);
+
+		int numPeers = Integer.parseInt(param);
+		channels = new ArrayList<>();
+		drainSelector = Selector.open();
+		PeerRegistry peers = new PeerRegistry();
+		NetState netState = new NetState();
+		module = new BroadcastModule();
+		IdleLogicModule logicModule = new IdleLogicModule();
+		List<Peer> none = new ArrayList<>();
+
+		try(ServerSocketChannel server = ServerSocketChannel.open()) {
+			server.bind(new InetSocketAddress("127.0.0.1", 0));
+			for(int i = 0; i < numPeers; i++) {
+				SocketChannel client = SocketChannel.open(server.getLocalAddress());
+				SocketChannel accepted = server.accept();
+				channels.add(client);
+				channels.add(accepted);
+
+				accepted.configureBlocking(false);
+				accepted.register(drainSelector, SelectionKey.OP_READ);
+				client.configureBlocking(false);
+
+				Peer peer = new OtherPeer("Peer " + i, NetUtils.INIT_ID + 1 + i);
+				peers.add(peer, client);
+				netState.registerPeer(peer, client, module, logicModule, none);
+			}
+		}
+
+		LocalPeer local = new LocalPeer("Benchmark", NetUtils.INIT_ID);
+		netState.setLocalPeer(local, module, logicModule, none);
+		module.setResources(PacketManager.instance, netState, new GameState(local, peers, new GameSettingsBuilder().create()));
+		from = peers.getPeers().get(0);
+
+		ByteBuffer buffer = NetUtils.createBuffer(from.getID(), PacketHeader.PING);
+		PingEncoder.PING.write(buffer, System.currentTimeMillis());
+		buffer.flip();
+		received = ByteBuffer.allocateDirect(buffer.remaining());
+		received.put(buffer);
+		received.flip();
+		BufferPool.instance.release(buffer);
+
+		drainThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "Relay benchmark drain");
+		drainThread.setDaemon(true);
+		drainThread.start();
+	}
+
+	/**
+	 * Reads and throws away everything relayed to the peers until the selector is closed
+	 */
+	private void drain() {
+		ByteBuffer sink = ByteBuffer.allocateDirect(64 * 1024);
+		try {
+			while(drainSelector.isOpen()) {
+				drainSelector.select();
+				Iterator<SelectionKey> it = drainSelector.selectedKeys().iterator();
+				while(it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					sink.clear();
+					if(((SocketChannel) key.channel()).read(sink) < 0)
+						key.cancel();
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			if(drainSelector.isOpen())
+				e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void run(int ops, Blackhole bh) throws Exception {
+		for(int i = 0; i < ops; i++) {
+			received.rewind();
+			module.handleRead(received, from);
+		}
+		bh.consume(received.position());
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		drainSelector.close();
+		drainThread.join(1000);
+		for(SocketChannel channel : channels) {
+			NetReactor.instance.unregister(channel);
+			channel.close();
+		}
+		channels = null;
+		module.nullResources();
+	}
+}
@@ -0,0 +1,97 @@
+package me.timothy.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import me.timothy.dcrts.utils.NetUtils;
+
+/**
+ * Writing and reading the strings in packets (names, reasons, whispers and
+ * module names), by the kind of string.
+ *
+ * @author Timothy
+ */
+public class StringCodecBenchmarks {
+	private static final String[] KINDS = { "ascii8", "ascii32", "ascii200", "unicode" };
+
+	private StringCodecBenchmarks() {
+	}
+
+	public static List<Benchmark> create() {
+		List<Benchmark> res = new ArrayList<>();
+		res.add(new Put());
+		res.add(new Read());
+		return res;
+	}
+
+	/**
+	 * @param kind one of {@link #KINDS}
+	 * @return a string of that kind
+	 */
+	private static String sampleString(String kind) {
+		switch(kind) {
+		case "ascii8":
+			return "Timothy1";
+		case "ascii32":
+			return "BroadcastModule, MidnodeModule.";
+		case "ascii200":
+			StringBuilder sb = new StringBuilder();
+			while(sb.length() < 200)
+				sb.append("The host has left the game. ");
+			sb.setLength(200);
+			return sb.toString();
+		case "unicode":
+			return "J\u00FCrgen \u65E5\u672C\u8A9E \u0416\u0443\u043A"; // German, Japanese and Russian
+		default:
+			throw new IllegalArgumentException("Unknown kind of string " + kind);
+		}
+	}
+
+	private static class Put extends Benchmark {
+		private ByteBuffer buffer;
+		private String string;
+
+		Put() {
+			super("StringCodecBenchmarks.putString", "string", KINDS);
+		}
+
+		@Override
+		public void setUp(String param) throws Exception {
+			string = sampleString(param);
+			buffer = ByteBuffer.allocateDirect(1024);
+		}
+
+		@Override
+		public void run(int ops, Blackhole bh) throws Exception {
+			for(int i = 0; i < ops; i++) {
+				buffer.clear();
+				NetUtils.putString(buffer, string);
+				bh.consume(buffer.position());
+			}
+		}
+	}
+
+	private static class Read extends Benchmark {
+		private ByteBuffer buffer;
+
+		Read() {
+			super("StringCodecBenchmarks.readString", "string", KINDS);
+		}
+
+		@Override
+		public void setUp(String param) throws Exception {
+			buffer = ByteBuffer.allocateDirect(1024);
+			NetUtils.putString(buffer, sampleString(param));
+			buffer.flip();
+		}
+
+		@Override
+		public void run(int ops, Blackhole bh) throws Exception {
+			for(int i = 0; i < ops; i++) {
+				buffer.rewind();
+				bh.consume(NetUtils.readString(buffer));
+			}
+		}
+	}
+}
@@ -3,14 +3,13 @@ package me.timothy.modules.broadcast;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.List;
 
 import me.timothy.dcrts.net.NetModule;
-import me.timothy.dcrts.packet.PacketHeader;
-import me.timothy.dcrts.packet.PacketManager;
-import me.timothy.dcrts.packet.ParsedPacket;
+import me.timothy.dcrts.net.NetReactor;
+import me.timothy.dcrts.packet.FrameBuffer;
 import me.timothy.dcrts.peer.Peer;
-import me.timothy.dcrts.utils.NetUtils;
 
 /**
  * Broadcast Module has two main uses, a client-server like relationship
@@ -38,109 +37,125 @@ import me.timothy.dcrts.utils.NetUtils;
  * Metadata on peers:
  * <ol>
  *   <li>directlyConnected - Boolean, whether this peer is directly connected</li>
- *   <li>parentNode - Peer, the parent node, if this peer is not directly connected</oli>
+ *   <li>belowPeer - Boolean, whether this peer has been placed in the relay tree. Peers
+ *   that have not are directly connected if there is a connection to them</li>
+ *   <li>parent - Peer, the parent node, if this peer is not directly connected</oli>
  * </ol>
  * @author Timothy
  *
  */
 public class BroadcastModule extends NetModule {
-	private ReadThread readThread;
-	private ByteBuffer copyBuffer;
-	
 	public BroadcastModule() {
 		super();
-		copyBuffer = ByteBuffer.allocate(PacketHeader.getLargestPacketSize());
 	}
 	
 	@Override
 	public void onActivate() {
 		super.onActivate();
 		System.out.println("BroadcastModule activated!");
-		readThread = new ReadThread(this, gameState, netState);
-		readThread.start();
+		setReading(getDirectPeers());
 	}
 
 	@Override
 	public void onDeactivate() {
 		super.onDeactivate();
 		System.out.println("BroadcastModule deactivated!");
-		readThread.stopReading();
 	}
 	
+	/**
+	 * Relays every frame to the other peers and then handles it locally. The frames
+	 * are relayed as read-only views of the receive buffer, so nothing is copied unless
+	 * a peer cannot take the whole frame immediately (see NetReactor#write)
+	 */
 	@Override
 	public void handleRead(ByteBuffer buffer, Peer from) {
-		int initSpot = -1, finishSpot = -1;
 		while(buffer.hasRemaining()) { 
-			initSpot = buffer.position();
-			int peerId = buffer.getInt();
-			int headerInt = buffer.getInt();
-			
-			Peer peer = NetUtils.getPeerByID(gameState.getConnectedPeers(), peerId);
-			PacketHeader header = PacketHeader.byValue(headerInt);
-
-			ParsedPacket parsed = PacketManager.instance.parse(header, buffer);
-			PacketManager.instance.broadcastPacket(peer, parsed);
-			finishSpot = buffer.position();
-			
-			buffer.position(initSpot);
-			for(int i = 0; i < (finishSpot - initSpot); i++) {
-				copyBuffer.put(buffer.get());
-			}
-			
-			if(buffer.position() != finishSpot)
-				throw new AssertionError("Buffer position does not match what it should be!");
-			
-			copyBuffer.flip();
+			int frameStart = buffer.position();
+			int frameEnd = frameStart + FrameBuffer.LENGTH_BYTES + buffer.getInt(frameStart);
 			
+			ByteBuffer frame = buffer.duplicate();
+			frame.limit(frameEnd);
+			frame = frame.slice().asReadOnlyBuffer();
 			try {
-				sendData(copyBuffer, from);
+				sendData(frame, from);
 			} catch (IOException e) {
-				throw new RuntimeException(e);
+				e.printStackTrace(); // still handled locally
 			}
-			
-			System.out.println("Copied " + copyBuffer.position() + " bytes to other peers");
-			copyBuffer.clear();
+			dispatchFrame(frame);
+			buffer.position(frameEnd);
 		}
 	}
-
+	
+	/**
+	 * Sends the buffer to every directly connected peer. The buffers position is not
+	 * changed, and it may be reused as soon as this returns. A peer whose connection
+	 * fails, or whose outbound queue overflows (see OutboundQueue.OverflowPolicy), is
+	 * closed by the reactor and skipped, so one slow peer never keeps the buffer from
+	 * the others and this does not throw because of it.
+	 */
 	@Override
 	public void sendData(ByteBuffer buffer, Peer... except) throws IOException {
-		int bufferStartPos = buffer.position();
-		List<Peer> peers = gameState.getConnectedPeers();
-		
-		synchronized(peers) {
-			for(Peer p : peers) {
-				boolean run = true;
-				for(Peer tmp : except) {
-					if(tmp.equals(p)) {
-						run = false;
-						break;
-					}
-				}
-				if(!run)
-					continue;
-				handleMeta(p);
-				if((boolean) p.metaData.get("directlyConnected")) {
-					SocketChannel sc = netState.getSocketChannelOf(p);
-					if(sc == null) {
-						System.err.println("No socket channel detected for supposedly directly connected peer '" + p.getName() + "' (" + p.getID() + ")");
-						continue;
-					}
-					buffer.position(bufferStartPos);
-					sc.write(buffer);
-				}else {
-					System.err.println("Peer is not directly connected, DOING NOTHING!");
+		for(Peer p : gameState.getConnectedPeers()) {
+			boolean run = true;
+			for(Peer tmp : except) {
+				if(p.equals(tmp)) {
+					run = false;
+					break;
 				}
 			}
+			if(!run)
+				continue;
+			if(!isDirectlyConnected(p))
+				continue; // a midnode relays it
+			SocketChannel sc = netState.getSocketChannelOf(p);
+			if(sc == null) {
+				System.err.println("No socket channel detected for supposedly directly connected peer '" + p.getName() + "' (" + p.getID() + ")");
+				continue;
+			}
+			try {
+				NetReactor.instance.write(sc, buffer.duplicate());
+			} catch (IOException e) {
+				// the reactor closes the connection; the others still get the frame
+				System.err.println("[BroadcastModule] Could not send to " + p.getName() + " (" + e.getMessage() + ")");
+			}
 		}
 	}
+	
+	/**
+	 * Reads from the peers that are now directly connected
+	 */
+	@Override
+	public void onTopologyChanged() {
+		setReading(getDirectPeers());
+	}
+	
+	/**
+	 * @return the peers that frames are sent to and read from
+	 */
+	protected List<Peer> getDirectPeers() {
+		List<Peer> res = new ArrayList<>();
+		for(Peer p : gameState.getConnectedPeers()) {
+			if(isDirectlyConnected(p))
+				res.add(p);
+		}
+		return res;
+	}
+	
+	/**
+	 * @param peer the peer
+	 * @return if frames are sent straight to the peer
+	 */
+	protected boolean isDirectlyConnected(Peer peer) {
+		handleMeta(peer);
+		return Boolean.TRUE.equals(peer.metaData.get("directlyConnected"));
+	}
 	/**
 	 * Handles defaulting metadata values for a peer, to avoid
 	 * null pointer exceptions
 	 * @param peer the peer
 	 */
 	protected void handleMeta(Peer peer) {
-		if(!peer.metaData.containsKey("directlyConnected")) {
+		if(!peer.metaData.containsKey("directlyConnected") && !peer.metaData.containsKey("belowPeer")) {
 			if(netState.getSocketChannelOf(peer) != null)
 				peer.metaData.put("directlyConnected", true);
 		}
@@ -3,6 +3,7 @@ package me.timothy.dcrts;
 import java.util.List;
 
 import me.timothy.dcrts.peer.Peer;
+import me.timothy.dcrts.peer.PeerRegistry;
 import me.timothy.dcrts.settings.GameSettings;
 
 /**
@@ -12,20 +13,17 @@ import me.timothy.dcrts.settings.GameSettings;
  */
 public class GameState {
 	private Peer local;
-	private List<Peer> connectedPeers; // ListenerModule depends on index 0 being original host
+	private PeerRegistry peers; // ListenerModule depends on index 0 being original host
 	private GameSettings settings;
 	
 	/**
 	 * @param local 
-	 * @param peers should be a synchronized list
+	 * @param peers the connected peers
 	 * @param settings 
 	 */
-	public GameState(Peer local, List<Peer> peers, GameSettings settings) {
-		if(!peers.getClass().getName().toLowerCase().contains("sync"))
-			throw new RuntimeException("Not a synchronized list!");
-		
+	public GameState(Peer local, PeerRegistry peers, GameSettings settings) {
 		this.local = local;
-		connectedPeers = peers;
+		this.peers = peers;
 		this.settings = settings;
 	}
 	
@@ -38,12 +36,27 @@ public class GameState {
 	}
 	
 	/**
-	 * Returns a synchronized list of peers. As per synchronization
-	 * rules, when iterating over the list it must be inside
-	 * a synchronized block.
+	 * Returns the connected peers at this moment. The list cannot be
+	 * modified and does not change, so it may be iterated over without
+	 * synchronizing.
 	 * @return the list of connected peers
 	 */
 	public List<Peer> getConnectedPeers() {
-		return connectedPeers;
+		return peers.getPeers();
+	}
+	
+	/**
+	 * @return the registry of connected peers
+	 */
+	public PeerRegistry getPeers() {
+		return peers;
+	}
+	
+	/**
+	 * @param id the id
+	 * @return the connected peer with the id, or null if there is none
+	 */
+	public Peer getPeerByID(int id) {
+		return peers.getPeer(id);
 	}
 }
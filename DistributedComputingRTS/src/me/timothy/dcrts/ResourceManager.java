@@ -1,69 +1,91 @@
 package me.timothy.dcrts;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.file.Files;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import me.timothy.dcrts.resources.DirectoryResourceSource;
+import me.timothy.dcrts.resources.HttpResourceSource;
+import me.timothy.dcrts.resources.ResourceSource;
+import me.timothy.dcrts.resources.ResourceStore;
+import me.timothy.dcrts.utils.ByteBufferInputStream;
+
 import org.newdawn.slick.Image;
 import org.newdawn.slick.SlickException;
+import org.newdawn.slick.opengl.ImageData;
+import org.newdawn.slick.opengl.ImageDataFactory;
+import org.newdawn.slick.opengl.LoadableImageData;
 
+/**
+ * Loads the images the game draws. The images are kept in a {@link ResourceStore}
+ * in the resource folder, which fetches whatever changed from the resource source
+ * on startup. Until the source has been reached once, the resources shipped in
+ * the resource folder, listed in its manifest.txt, are used instead.
+ * 
+ * @author Timothy
+ */
 public class ResourceManager {
-	private static Map<String, Image> loadedImages = new HashMap<>();;
+	public static final String RESOURCE_FOLDER = "res";
+	public static final String DEFAULT_SOURCE = "http://umad-barnyard.com/dcrts/resources/";
+	
+	private static Map<String, Image> loadedImages = new HashMap<>();
+	private static volatile ResourceStore store = createStore(new HttpResourceSource(DEFAULT_SOURCE));
+	
+	/**
+	 * Sets where resources are fetched from. Must be called before they are loaded
+	 * 
+	 * @param source the source, such as a {@link DirectoryResourceSource}
+	 */
+	public static void setSource(ResourceSource source) {
+		store = createStore(source);
+	}
+	
+	private static ResourceStore createStore(ResourceSource source) {
+		File folder = new File(RESOURCE_FOLDER);
+		return new ResourceStore(folder, source, new DirectoryResourceSource(folder));
+	}
 	
 	public static void loadResource(String str) throws IOException, SlickException {
-		File asFile = new File("res", str);
-		
-		if(!asFile.exists()) {
-			InputStream inStream = ResourceManager.class.getResourceAsStream("../res/" + str);
-			
-			new File(asFile.getParent()).mkdirs();
-			asFile.createNewFile();
-			
-			Files.copy(inStream, asFile.toPath());
-			inStream.close();
-			
-			inStream = new FileInputStream(asFile);
-		}
-		
-		loadedImages.put(str, new Image(asFile.getAbsolutePath()));
+		uploadResource(str, decodeResource(str));
+	}
+	
+	/**
+	 * Decodes a resource without touching OpenGL, so it may be called from any
+	 * thread. The resource is read from the store through a memory-mapped buffer,
+	 * and fetched first if its contents are not in the store yet.
+	 * 
+	 * @param str the resource
+	 * @return the decoded image, to be passed to {@link #uploadResource(String, ImageData)}
+	 * @throws IOException if the resource could not be read
+	 */
+	public static ImageData decodeResource(String str) throws IOException {
+		LoadableImageData data = ImageDataFactory.getImageDataFor(str);
+		data.loadImage(new ByteBufferInputStream(store.map(str)));
+		return data;
+	}
+	
+	/**
+	 * Uploads a decoded resource as a texture. Must be called on the OpenGL thread
+	 * 
+	 * @param str the resource
+	 * @param data the image from {@link #decodeResource(String)}
+	 * @throws SlickException if the texture could not be created
+	 */
+	public static void uploadResource(String str, ImageData data) throws SlickException {
+		loadedImages.put(str, new Image(data));
 	}
 	
+	/**
+	 * Checks the manifest of the resource source for changes. This is the
+	 * only thing read from the source if nothing changed.
+	 * 
+	 * @return the path of every resource
+	 * @throws IOException if the manifest could not be read, and there is no copy of it
+	 */
 	public static List<String> getAllResourceFiles() throws IOException {
-		List<String> result = new ArrayList<>();
-		
-		File resourcesFile = new File("res", "resources.txt");
-		
-		if(!resourcesFile.exists()) {
-			File parent = new File(resourcesFile.getParent());
-			if(!parent.exists())
-				parent.mkdirs();
-			URL resourcesUrl = new URL("http://umad-barnyard.com/dcrts/resources/resources.txt");
-			HttpURLConnection conn = (HttpURLConnection) resourcesUrl.openConnection();
-			
-			InputStream inStream = conn.getInputStream();
-			Files.copy(inStream, resourcesFile.toPath());
-			inStream.close();
-			conn.disconnect();
-		}
-		
-		BufferedReader inReader = new BufferedReader(new FileReader(resourcesFile));
-		String ln;
-		while((ln = inReader.readLine()) != null) {
-			result.add(ln);
-		}
-		inReader.close();
-		
-		return result;
+		return store.sync().getPaths();
 	}
 
 	public static Image getResource(String string) {
@@ -0,0 +1,205 @@
+package me.timothy.dcrts;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.timothy.dcrts.net.module.ModuleHandler;
+
+import org.newdawn.slick.SlickException;
+import org.newdawn.slick.opengl.ImageData;
+
+/**
+ * Loads the modules and resources on a pool of worker threads. Module jars are
+ * read, hashed and class-loaded in parallel, the resource list is fetched and
+ * every resource is decoded in parallel, and the only thing left for the OpenGL
+ * thread is uploading the decoded resources as textures, see
+ * {@link #uploadDecoded(long)}.
+ *
+ * @author Timothy
+ */
+public class StartupLoader {
+	/**
+	 * A resource that has been decoded and is waiting to be uploaded
+	 */
+	private static class Decoded {
+		final String name;
+		final ImageData data;
+
+		Decoded(String name, ImageData data) {
+			this.name = name;
+			this.data = data;
+		}
+	}
+
+	private List<File> moduleJars;
+	private ExecutorService workers;
+
+	private AtomicInteger modulesLoaded;
+	/**
+	 * How many resources there are, or -1 if the list has not been fetched yet
+	 */
+	private volatile int resourceCount;
+	/**
+	 * How many resources have been uploaded, or failed to load
+	 */
+	private AtomicInteger resourcesDone;
+	private Queue<Decoded> decoded;
+
+	private long startTime;
+	private long finishTime;
+
+	/**
+	 * @param moduleFiles the files in the module folder. Anything that is not a jar is skipped
+	 */
+	public StartupLoader(File[] moduleFiles) {
+		moduleJars = new ArrayList<>();
+		if(moduleFiles != null) {
+			for(File f : moduleFiles) {
+				if(f.getName().endsWith(".jar"))
+					moduleJars.add(f);
+			}
+		}
+		modulesLoaded = new AtomicInteger();
+		resourceCount = -1;
+		resourcesDone = new AtomicInteger();
+		decoded = new ConcurrentLinkedQueue<>();
+	}
+
+	/**
+	 * Starts loading everything on the workers
+	 */
+	public void start() {
+		startTime = System.nanoTime();
+		final AtomicInteger threadNum = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "StartupLoader-" + threadNum.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		for(final File jar : moduleJars) {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						ModuleHandler.loadModule(jar.toURI().toURL());
+					} catch (IOException | RuntimeException e) {
+						e.printStackTrace();
+					}
+					if(modulesLoaded.incrementAndGet() == moduleJars.size())
+						System.out.println("Finished loading modules");
+				}
+			});
+		}
+
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				List<String> resources;
+				try {
+					resources = ResourceManager.getAllResourceFiles();
+				} catch (IOException e) {
+					e.printStackTrace();
+					resources = Collections.emptyList();
+				}
+				System.out.println("Loading resources...");
+				for(final String resource : resources) {
+					workers.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								decoded.add(new Decoded(resource, ResourceManager.decodeResource(resource)));
+							} catch (IOException | RuntimeException e) {
+								e.printStackTrace();
+								resourcesDone.incrementAndGet();
+							}
+						}
+					});
+				}
+				resourceCount = resources.size();
+			}
+		});
+	}
+
+	/**
+	 * Uploads the resources that have been decoded as textures. Must be called on
+	 * the OpenGL thread. Stops once the time is up, so frames keep being drawn while
+	 * resources are still decoding.
+	 *
+	 * @param maxMillis roughly how long to spend uploading
+	 */
+	public void uploadDecoded(long maxMillis) {
+		long deadline = System.nanoTime() + maxMillis * 1000000;
+		Decoded next;
+		while(System.nanoTime() < deadline && (next = decoded.poll()) != null) {
+			try {
+				ResourceManager.uploadResource(next.name, next.data);
+			} catch (SlickException | RuntimeException e) {
+				e.printStackTrace();
+			}
+			resourcesDone.incrementAndGet();
+		}
+
+		if(finishTime == 0 && isFinished()) {
+			finishTime = System.nanoTime();
+			workers.shutdown();
+			System.out.println("Finished loading resources");
+		}
+	}
+
+	public boolean isLoadingModules() {
+		return modulesLoaded.get() < moduleJars.size();
+	}
+
+	/**
+	 * @return if every module and resource has been loaded
+	 */
+	public boolean isFinished() {
+		int count = resourceCount;
+		return !isLoadingModules() && count >= 0 && resourcesDone.get() >= count;
+	}
+
+	/**
+	 * The progress of the modules while there are modules loading, and of the
+	 * resources after that
+	 *
+	 * @return the progress from 0 to 1
+	 */
+	public double getProgress() {
+		if(isLoadingModules())
+			return modulesLoaded.get() / (double) moduleJars.size();
+		int count = resourceCount;
+		if(count < 0)
+			return 0;
+		if(count == 0)
+			return 1;
+		return resourcesDone.get() / (double) count;
+	}
+
+	public int getModuleCount() {
+		return moduleJars.size();
+	}
+
+	public int getResourceCount() {
+		return Math.max(0, resourceCount);
+	}
+
+	/**
+	 * @return how long loading took in milliseconds, or how long it has taken so far
+	 */
+	public long getElapsedMillis() {
+		return ((finishTime != 0 ? finishTime : System.nanoTime()) - startTime) / 1000000;
+	}
+}
@@ -0,0 +1,33 @@
+package me.timothy.dcrts.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Receives the frames that the {@link NetReactor} reads from a channel. All
+ * methods are called on an event loop thread, so they should not block. That
+ * includes the packet handlers of the packets a listener broadcasts, unless
+ * the header is marked with {@link me.timothy.dcrts.packet.PacketManager#setBlocking(me.timothy.dcrts.packet.PacketHeader, boolean)}.
+ *
+ * @author Timothy
+ */
+public interface ChannelListener {
+	/**
+	 * Called for every complete frame that is read from the channel. The
+	 * frame is only valid until this method returns.
+	 *
+	 * @param channel the channel the frame was read from
+	 * @param frame the frame, positioned at its length (see FrameBuffer)
+	 */
+	public void onFrame(SocketChannel channel, ByteBuffer frame);
+
+	/**
+	 * Called once when the channel reaches end-of-stream or fails. The channel
+	 * has already been closed and will not be read from again.
+	 *
+	 * @param channel the channel
+	 * @param cause the exception, or null if the other end closed the connection
+	 */
+	public void onClosed(SocketChannel channel, IOException cause);
+}
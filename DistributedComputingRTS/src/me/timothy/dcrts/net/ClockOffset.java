@@ -0,0 +1,184 @@
+package me.timothy.dcrts.net;
+
+/**
+ * Estimates how far the monotonic clock of a peer is from the local one, from
+ * the ping exchanges of an {@link RttService}, the way NTP does. The answer to a
+ * ping carries the peer's clock when it answered, which is taken to be halfway
+ * through the round trip, so each exchange gives the offset to within half of
+ * its round trip.<br>
+ * <br>
+ * Of the latest {@link #FILTER} exchanges, the one with the shortest round trip
+ * is used, since it was delayed the least. The fastest exchange of every
+ * {@link #FILTER} is also kept, for the last {@link #WINDOW} of them, and the
+ * drift between the clocks is the slope of a least squares fit of their
+ * offsets. It is used to carry the offset forward from when it was measured.
+ *
+ * @author Timothy
+ */
+public class ClockOffset {
+	/**
+	 * How many exchanges the offset is picked from, and each point of the drift
+	 */
+	public static final int FILTER = 8;
+
+	/**
+	 * How many points the drift is fit over
+	 */
+	public static final int WINDOW = 32;
+
+	/**
+	 * How long the points must span before the drift is used
+	 */
+	public static final long MIN_DRIFT_SPAN_NS = 10000000000L;
+
+	/**
+	 * Drifts larger than this, 500 parts per million, are taken to be noise
+	 */
+	public static final double MAX_DRIFT = 500e-6;
+
+	private long[] midpoints;
+	private long[] offsets;
+	private long[] rtts;
+	private long samples;
+
+	private long[] pointMidpoints;
+	private long[] pointOffsets;
+	private long points;
+	private double drift;
+
+	public ClockOffset() {
+		midpoints = new long[FILTER];
+		offsets = new long[FILTER];
+		rtts = new long[FILTER];
+		pointMidpoints = new long[WINDOW];
+		pointOffsets = new long[WINDOW];
+	}
+
+	/**
+	 * Records an exchange
+	 *
+	 * @param sent the local clock when the ping was sent
+	 * @param remote the peer's clock when it answered
+	 * @param received the local clock when the answer was received
+	 */
+	public synchronized void record(long sent, long remote, long received) {
+		long rtt = received - sent;
+		if(rtt < 0)
+			return;
+		long midpoint = sent + rtt / 2;
+		int i = (int) (samples % FILTER);
+		midpoints[i] = midpoint;
+		offsets[i] = remote - midpoint;
+		rtts[i] = rtt;
+		samples++;
+
+		if(samples % FILTER == 0) {
+			int best = getBest();
+			int p = (int) (points % WINDOW);
+			pointMidpoints[p] = midpoints[best];
+			pointOffsets[p] = offsets[best];
+			points++;
+			drift = fitDrift();
+		}
+	}
+
+	/**
+	 * @return if there has been at least one exchange
+	 */
+	public synchronized boolean hasOffset() {
+		return samples > 0;
+	}
+
+	/**
+	 * @param localTime the local clock
+	 * @return the peer's clock minus the local clock at that time, or 0 if there
+	 * has not been an exchange
+	 */
+	public synchronized long getOffset(long localTime) {
+		if(samples == 0)
+			return 0;
+		int best = getBest();
+		return offsets[best] + Math.round(drift * (localTime - midpoints[best]));
+	}
+
+	/**
+	 * @return how far off {@link #getOffset(long)} may be from the exchange it is
+	 * based on, half of its round trip, or -1 if there has not been an exchange
+	 */
+	public synchronized long getError() {
+		return samples == 0 ? -1 : rtts[getBest()] / 2;
+	}
+
+	/**
+	 * @return how many nanoseconds the peer's clock gains on the local one every
+	 * nanosecond, or 0 if it is not known yet
+	 */
+	public synchronized double getDrift() {
+		return drift;
+	}
+
+	/**
+	 * @param remoteTime the peer's clock
+	 * @return the local clock at that time
+	 */
+	public synchronized long toLocal(long remoteTime) {
+		if(samples == 0)
+			return remoteTime;
+		long guess = remoteTime - offsets[getBest()];
+		return remoteTime - getOffset(guess);
+	}
+
+	/**
+	 * @param localTime the local clock
+	 * @return the peer's clock at that time
+	 */
+	public long toRemote(long localTime) {
+		return localTime + getOffset(localTime);
+	}
+
+	/**
+	 * @return the index of the exchange with the shortest round trip of the latest few
+	 */
+	private int getBest() {
+		int count = (int) Math.min(samples, FILTER);
+		int best = 0;
+		for(int i = 1; i < count; i++) {
+			if(rtts[i] < rtts[best])
+				best = i;
+		}
+		return best;
+	}
+
+	private double fitDrift() {
+		int count = (int) Math.min(points, WINDOW);
+		if(count < 4)
+			return 0;
+
+		// relative to the first point, so the sums stay small
+		int first = (int) ((points - count) % WINDOW);
+		long originX = pointMidpoints[first];
+		long originY = pointOffsets[first];
+		double sumX = 0, sumY = 0, sumXX = 0, sumXY = 0, maxX = 0;
+		for(int i = 0; i < count; i++) {
+			double x = pointMidpoints[i] - originX;
+			double y = pointOffsets[i] - originY;
+			sumX += x;
+			sumY += y;
+			sumXX += x * x;
+			sumXY += x * y;
+			maxX = Math.max(maxX, x);
+		}
+		double denominator = count * sumXX - sumX * sumX;
+		if(maxX < MIN_DRIFT_SPAN_NS || denominator == 0)
+			return 0;
+		double res = (count * sumXY - sumX * sumY) / denominator;
+		return Math.abs(res) > MAX_DRIFT ? 0 : res;
+	}
+
+	@Override
+	public synchronized String toString() {
+		if(samples == 0)
+			return "offset unknown";
+		return String.format("offset %.3f ms (+-%.3f), drift %.1f ppm", getOffset(System.nanoTime()) / 1e6, getError() / 1e6, getDrift() * 1e6);
+	}
+}
@@ -0,0 +1,540 @@
+package me.timothy.dcrts.net;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import me.timothy.dcrts.net.packets.DirectConnectionPacket;
+import me.timothy.dcrts.net.packets.EmptyEncoder;
+import me.timothy.dcrts.net.packets.PingEncoder;
+import me.timothy.dcrts.packet.FrameBuffer;
+import me.timothy.dcrts.packet.PacketHeader;
+import me.timothy.dcrts.packet.PacketManager;
+import me.timothy.dcrts.packet.ParsedPacket;
+import me.timothy.dcrts.peer.Peer;
+import me.timothy.dcrts.utils.BufferPool;
+import me.timothy.dcrts.utils.NetUtils;
+
+/**
+ * The direct connections of the local peer (see {@link NetModule#ensureDirectConnection(Peer)}).
+ * This belongs to the net state rather than to a net module, so the socket stays
+ * bound and the connections stay open while the local net module is swapped.
+ * Accepted connections are passed to whichever net module is active.<br>
+ * <br>
+ * Connections are pooled, at most one to each peer, and reused by every message
+ * sent to that peer. Senders that connect to the same peer at once share a
+ * single connect and handshake. The pool holds at most {@link #MAX_CONNECTIONS},
+ * and the connection used least recently is closed to make room, as is any
+ * connection not used for {@link #IDLE_TIMEOUT_MS}. Connections that are quiet
+ * for {@link #KEEPALIVE_INTERVAL_MS} are sent a ping, which is dropped by the
+ * other side and does not count as a use, so dead connections are noticed
+ * before a message is lost on them.<br>
+ * <br>
+ * A connection is closed by sending DESTROYING_CHANNEL and reading until the
+ * other side closes, or for up to {@link #CLOSE_TIMEOUT_MS}, so messages already
+ * on the way are not cut off. If both peers connect at once, the connection
+ * opened by the peer with the lower id is kept.<br>
+ * <br>
+ * Every packet read from a direct connection is wrapped in a DirectConnectionPacket
+ *
+ * @author Timothy
+ */
+class DirectConnectionServer implements ChannelListener {
+	/**
+	 * The most connections kept open at once
+	 */
+	public static final int MAX_CONNECTIONS = 8;
+
+	/**
+	 * How long a connection may go unused before it is closed
+	 */
+	public static final long IDLE_TIMEOUT_MS = 30000;
+
+	/**
+	 * How long a connection may go without being written to before it is pinged
+	 */
+	public static final long KEEPALIVE_INTERVAL_MS = 5000;
+
+	/**
+	 * How long a closing connection is read for before it is closed anyway
+	 */
+	public static final long CLOSE_TIMEOUT_MS = 2000;
+
+	/**
+	 * How often connections are checked for keepalives and timeouts
+	 */
+	private static final long MAINTENANCE_INTERVAL_MS = 1000;
+
+	/**
+	 * The wrapper each reading thread fills when decoding flyweights
+	 */
+	private static final ThreadLocal<DirectConnectionPacket> wrappers = new ThreadLocal<DirectConnectionPacket>() {
+		@Override
+		protected DirectConnectionPacket initialValue() {
+			return new DirectConnectionPacket(null);
+		}
+	};
+
+	/**
+	 * A connection in the pool
+	 */
+	private static class Pooled {
+		final Peer peer;
+		final SocketChannel channel;
+		final boolean outgoing;
+		volatile long lastUsed;
+		volatile long lastWritten;
+
+		Pooled(Peer peer, SocketChannel channel, boolean outgoing) {
+			this.peer = peer;
+			this.channel = channel;
+			this.outgoing = outgoing;
+			lastUsed = lastWritten = System.currentTimeMillis();
+		}
+	}
+
+	private NetState netState;
+	private ServerSocketChannel serverSocket;
+	private AcceptionThread acceptionThread;
+	private MaintenanceThread maintenanceThread;
+
+	/**
+	 * Every connection that is read, pooled or closing
+	 */
+	private Map<SocketChannel, Peer> monitoring;
+
+	/**
+	 * In order of use, least recent first. Guarded by itself
+	 */
+	private LinkedHashMap<Peer, Pooled> pool;
+
+	/**
+	 * The connections that are closing, and when to close them
+	 */
+	private Map<SocketChannel, Long> closing;
+
+	/**
+	 * The connects in progress
+	 */
+	private ConcurrentMap<Peer, FutureTask<SocketChannel>> connecting;
+
+	private class AcceptionThread extends Thread {
+		AcceptionThread() {
+			super("DirectConnectionAcception");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while(!isInterrupted()) {
+				try {
+					SocketChannel channel = serverSocket.accept();
+					netState.getLocalNetModule().onConnectionAcception(channel);
+				} catch (ClosedChannelException e) {
+					break;
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private class MaintenanceThread extends Thread {
+		MaintenanceThread() {
+			super("DirectConnectionPool");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while(!isInterrupted()) {
+				try {
+					Thread.sleep(MAINTENANCE_INTERVAL_MS);
+				} catch (InterruptedException e) {
+					break;
+				}
+				maintain();
+			}
+		}
+	}
+
+	DirectConnectionServer(NetState netState) {
+		this.netState = netState;
+		monitoring = new ConcurrentHashMap<>();
+		pool = new LinkedHashMap<>(16, 0.75f, true);
+		closing = new ConcurrentHashMap<>();
+		connecting = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Binds the socket and starts accepting, unless that has already been done
+	 *
+	 * @param port the port
+	 * @throws IOException if the socket could not be bound
+	 */
+	synchronized void open(int port) throws IOException {
+		if(serverSocket != null)
+			return;
+
+		ServerSocketChannel socket = ServerSocketChannel.open();
+		try {
+			socket.bind(new InetSocketAddress(port));
+			socket.configureBlocking(true);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		System.out.println("NetModule Direct-Connection Port: " + port + " (ID=" + netState.getLocalPeer().getID() + ")");
+		serverSocket = socket;
+
+		acceptionThread = new AcceptionThread();
+		acceptionThread.start();
+		maintenanceThread = new MaintenanceThread();
+		maintenanceThread.start();
+	}
+
+	/**
+	 * Stops accepting and closes every direct connection
+	 */
+	synchronized void close() {
+		if(serverSocket == null)
+			return;
+
+		acceptionThread.interrupt();
+		maintenanceThread.interrupt();
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		serverSocket = null;
+		acceptionThread = null;
+		maintenanceThread = null;
+
+		synchronized(pool) {
+			pool.clear();
+		}
+		for(SocketChannel sc : monitoring.keySet()) {
+			closeNow(sc);
+		}
+		closing.clear();
+	}
+
+	/**
+	 * Returns the pooled connection to the peer, connecting and sending the
+	 * local id if there is none. If another thread is already connecting to
+	 * the peer, this waits for it instead.
+	 *
+	 * @param peer the peer
+	 * @param address the direct connection address of the peer
+	 * @return the connection
+	 * @throws IOException if the connection could not be made
+	 */
+	SocketChannel connect(final Peer peer, final InetSocketAddress address) throws IOException {
+		Pooled pooled = get(peer);
+		if(pooled != null) {
+			pooled.lastUsed = System.currentTimeMillis();
+			return pooled.channel;
+		}
+
+		FutureTask<SocketChannel> task = new FutureTask<>(new Callable<SocketChannel>() {
+			@Override
+			public SocketChannel call() throws IOException {
+				Pooled pooled = get(peer);
+				return pooled != null ? pooled.channel : handshake(peer, address);
+			}
+		});
+		FutureTask<SocketChannel> running = connecting.putIfAbsent(peer, task);
+		if(running == null) {
+			running = task;
+			try {
+				task.run();
+			} finally {
+				connecting.remove(peer, task);
+			}
+		}
+
+		try {
+			return running.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while connecting directly to " + peer.getName());
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException)
+				throw (IOException) cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Pools a connection the peer opened, once it has sent its id
+	 *
+	 * @param peer the peer
+	 * @param channel the connection
+	 * @throws IOException if the channel could not be made non-blocking
+	 */
+	void accept(Peer peer, SocketChannel channel) throws IOException {
+		add(peer, channel, false);
+	}
+
+	/**
+	 * Sends a buffer over the pooled connection to the peer
+	 *
+	 * @param peer the peer
+	 * @param buffer the data, flipped
+	 * @return if it was sent, false if there is no connection to the peer
+	 * @throws IOException if the connection failed, in which case it is closed
+	 */
+	boolean send(Peer peer, ByteBuffer buffer) throws IOException {
+		Pooled pooled = get(peer);
+		if(pooled == null)
+			return false;
+
+		pooled.lastUsed = pooled.lastWritten = System.currentTimeMillis();
+		try {
+			NetReactor.instance.write(pooled.channel, buffer);
+		} catch (IOException e) {
+			closeNow(pooled.channel);
+			throw e;
+		}
+		return true;
+	}
+
+	/**
+	 * @param peer the peer
+	 * @return the pooled connection to the peer, or null if there is none
+	 */
+	SocketChannel getChannel(Peer peer) {
+		Pooled pooled = get(peer);
+		return pooled != null ? pooled.channel : null;
+	}
+
+	/**
+	 * Takes the connection to the peer out of the pool and closes it
+	 *
+	 * @param peer the peer
+	 */
+	void release(Peer peer) {
+		Pooled pooled;
+		synchronized(pool) {
+			pooled = pool.remove(peer);
+		}
+		if(pooled != null)
+			retire(pooled.channel);
+	}
+
+	@Override
+	public void onFrame(SocketChannel channel, ByteBuffer frame) {
+		Peer peer = monitoring.get(channel);
+		if(peer == null)
+			return;
+
+		frame.getInt(); // length
+		int headerInt = frame.getInt();
+		PacketHeader header = PacketHeader.byValue(headerInt);
+		if(header == null) {
+			System.err.println("[NetModule] No header with the id " + headerInt + " detected on a direct connection!");
+			return;
+		}
+		if(header == PacketHeader.PING)
+			return; // keepalive
+
+		if(header == PacketHeader.DESTROYING_CHANNEL) {
+			synchronized(pool) {
+				Pooled pooled = pool.get(peer);
+				if(pooled != null && pooled.channel == channel)
+					pool.remove(peer);
+			}
+			closing.put(channel, System.currentTimeMillis());
+		}else {
+			Pooled pooled = get(peer);
+			if(pooled != null && pooled.channel == channel)
+				pooled.lastUsed = System.currentTimeMillis();
+		}
+		ParsedPacket parsed = PacketManager.instance.parse(header, frame);
+
+		ParsedPacket wrapped = PacketManager.instance.isDecodingFlyweights() ? wrappers.get().set(parsed) : new DirectConnectionPacket(parsed);
+		PacketManager.instance.broadcastPacket(peer, wrapped);
+	}
+
+	@Override
+	public void onClosed(SocketChannel channel, IOException cause) {
+		if(cause != null && !closing.containsKey(channel))
+			cause.printStackTrace();
+		closeNow(channel);
+	}
+
+	private Pooled get(Peer peer) {
+		synchronized(pool) {
+			return pool.get(peer);
+		}
+	}
+
+	private SocketChannel handshake(Peer peer, InetSocketAddress address) throws IOException {
+		SocketChannel channel = SocketChannel.open(address);
+		try {
+			channel.configureBlocking(true);
+			ByteBuffer buffer = ByteBuffer.allocate(4);
+			buffer.putInt(netState.getLocalPeer().getID());
+			buffer.flip();
+			while(buffer.hasRemaining())
+				channel.write(buffer);
+			return add(peer, channel, true);
+		} catch (IOException e) {
+			closeNow(channel);
+			throw e;
+		}
+	}
+
+	/**
+	 * Starts reading the connection and pools it, unless the pool has a
+	 * connection to the peer that is kept over it
+	 *
+	 * @return the pooled connection to the peer
+	 */
+	private SocketChannel add(Peer peer, SocketChannel channel, boolean outgoing) throws IOException {
+		channel.configureBlocking(false);
+		Pooled added = new Pooled(peer, channel, outgoing);
+		monitoring.put(channel, peer);
+		NetReactor.instance.register(channel, this, FrameBuffer.MIN_DIRECT_FRAME_SIZE);
+
+		Pooled replaced, evicted = null;
+		SocketChannel res;
+		synchronized(pool) {
+			Pooled old = pool.get(peer);
+			if(old != null && !keepOver(added, old)) {
+				replaced = added;
+				res = old.channel;
+			}else {
+				pool.put(peer, added);
+				replaced = old;
+				res = channel;
+				if(pool.size() > MAX_CONNECTIONS) {
+					Iterator<Pooled> it = pool.values().iterator();
+					evicted = it.next();
+					it.remove();
+				}
+			}
+		}
+		if(replaced != null)
+			retire(replaced.channel);
+		if(evicted != null)
+			retire(evicted.channel);
+		return res;
+	}
+
+	/**
+	 * @return if the new connection should be kept over the old one to the same peer
+	 */
+	private boolean keepOver(Pooled added, Pooled old) {
+		if(added.outgoing == old.outgoing)
+			return false;
+		int localId = netState.getLocalPeer().getID();
+		return added.outgoing ? localId < added.peer.getID() : added.peer.getID() < localId;
+	}
+
+	/**
+	 * Tells the other side the connection is closing, and closes it once the
+	 * other side does or {@link #CLOSE_TIMEOUT_MS} passes
+	 */
+	private void retire(SocketChannel channel) {
+		closing.put(channel, System.currentTimeMillis() + CLOSE_TIMEOUT_MS);
+		ByteBuffer buffer = NetUtils.createBufferNoID(PacketHeader.DESTROYING_CHANNEL);
+		try {
+			EmptyEncoder.DESTROYING_CHANNEL.write(buffer);
+			buffer.flip();
+			NetReactor.instance.write(channel, buffer);
+		} catch (IOException e) {
+			closeNow(channel);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
+	}
+
+	private void closeNow(SocketChannel channel) {
+		closing.remove(channel);
+		Peer peer = monitoring.remove(channel);
+		if(peer != null) {
+			synchronized(pool) {
+				Pooled pooled = pool.get(peer);
+				if(pooled != null && pooled.channel == channel)
+					pool.remove(peer);
+			}
+		}
+		NetReactor.instance.unregister(channel);
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Closes idle connections, pings quiet ones and finishes closing the ones
+	 * that are done
+	 */
+	private void maintain() {
+		long now = System.currentTimeMillis();
+		List<Pooled> idle = new ArrayList<>();
+		List<Pooled> quiet = new ArrayList<>();
+		synchronized(pool) {
+			Iterator<Pooled> it = pool.values().iterator();
+			while(it.hasNext()) {
+				Pooled pooled = it.next();
+				if(now - pooled.lastUsed >= IDLE_TIMEOUT_MS) {
+					it.remove();
+					idle.add(pooled);
+				}else if(now - pooled.lastWritten >= KEEPALIVE_INTERVAL_MS) {
+					quiet.add(pooled);
+				}
+			}
+		}
+		for(Pooled pooled : idle) {
+			retire(pooled.channel);
+		}
+		for(Pooled pooled : quiet) {
+			keepAlive(pooled, now);
+		}
+
+		for(Map.Entry<SocketChannel, Long> entry : closing.entrySet()) {
+			SocketChannel channel = entry.getKey();
+			long closeAt = entry.getValue();
+			if(now < closeAt)
+				continue;
+			if(!channel.isOpen() || now >= closeAt + CLOSE_TIMEOUT_MS || NetReactor.instance.getOutboundQueue(channel).isEmpty())
+				closeNow(channel);
+		}
+	}
+
+	private void keepAlive(Pooled pooled, long now) {
+		pooled.lastWritten = now;
+		ByteBuffer buffer = NetUtils.createBufferNoID(PacketHeader.PING);
+		try {
+			PingEncoder.PING.write(buffer, System.nanoTime());
+			buffer.flip();
+			NetReactor.instance.write(pooled.channel, buffer);
+		} catch (IOException e) {
+			System.err.println("[NetModule] Direct connection to " + pooled.peer.getName() + " was lost (" + e.getMessage() + ")");
+			closeNow(pooled.channel);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
+	}
+}
@@ -1,25 +1,39 @@
 package me.timothy.dcrts.net;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import me.timothy.dcrts.peer.Peer;
+
 import org.hyperic.sigar.Sigar;
-import org.hyperic.sigar.SigarException;
 
 public abstract class LogicModule extends Module {
 	public static final Sigar sigar = new Sigar();
 	
-	protected int maxCPU;
-	
-	private double lastCPUPerc;
-	private long lastCPUCall;
+	protected int maxCPU = 90;
 	
 	/**
 	 * Sets the maximum average cpu usage (+/- 1) in percent this
 	 * logic module will use at any given point. Beyond that,
 	 * the module will begin deflecting packets to other nodes.
 	 * 
-	 * @param max the maximum average cpu
+	 * @param max the maximum average cpu, above 0 and at most 100
 	 */
 	public void setMaxCPU(int max) {
+		if(max <= 0 || max > 100)
+			throw new IllegalArgumentException("The cpu limit must be above 0 and at most 100, got " + max);
 		maxCPU = max;
+		if(netState != null)
+			netState.getAdmissionController().setMaxCpu(max / 100.0);
+	}
+
+	/**
+	 * Passes the cpu limit on to the admission controller
+	 */
+	@Override
+	protected void onResourcesSet() {
+		if(netState != null)
+			netState.getAdmissionController().setMaxCpu(maxCPU / 100.0);
 	}
 	
 	public int getMaxCPU() {
@@ -30,32 +44,44 @@ public abstract class LogicModule extends Module {
 	 * Checks if this logic module is accepting packets at this time.
 	 * Common reasons include the maximum number of threads have been
 	 * spawned and are in use or cpu usage has hit the max (as specified
-	 * by {@link LogicModule#getMaxCPU()}
-	 * 
+	 * by {@link LogicModule#getMaxCPU()}) or too much work is queued
+	 * (see {@link me.timothy.dcrts.net.admission.AdmissionController})
 	 * 
 	 * @return if this computer is accepting logic packets at this time
 	 */
 	public boolean acceptingPackets() {
-		return !isCPULimitReached();
+		return !netState.getAdmissionController().isOverloaded();
 	}
 	
 	/**
-	 * Checks if the cpu limit has been reached. Polls a maximum
-	 * of 10 times a second
+	 * Checks if the cpu limit has been reached. The cpu usage is
+	 * polled a maximum of 10 times a second and smoothed, and is
+	 * ignored if it cannot be read
 	 * @return if the cpu limit has been reached
 	 */
 	protected boolean isCPULimitReached() {
-		try {
-			if(System.currentTimeMillis() - lastCPUCall < 100)
-				return lastCPUPerc >= maxCPU;
-			lastCPUPerc = sigar.getCpuPerc().getCombined();
-			lastCPUCall = System.currentTimeMillis();
-			return lastCPUPerc >= maxCPU;
-		} catch (SigarException e) {
-			e.printStackTrace();
-			return true;
-		}
+		return netState.getAdmissionController().getCpuLoad() >= maxCPU / 100.0;
 	}
 	
-	
+	/**
+	 * Decides where a piece of logic work should be done, and if it
+	 * is not here sends it to the peer that should do it. Work that
+	 * is done here should be counted with
+	 * {@link me.timothy.dcrts.net.admission.AdmissionController#onTaskQueued()}
+	 * and {@link me.timothy.dcrts.net.admission.AdmissionController#onTaskFinished(long)}
+	 * 
+	 * @param buffer the packet describing the work, ready to be written
+	 * @return the peer the work was sent to, or null if it should be done here
+	 * @throws IOException if the work could not be sent
+	 */
+	protected Peer deflect(ByteBuffer buffer) throws IOException {
+		Peer local = netState.getLocalPeer();
+		Peer target = netState.getAdmissionController().route(local);
+		if(target == local)
+			return null;
+		NetModule netModule = netState.getLocalNetModule();
+		netModule.ensureDirectConnection(target);
+		netModule.sendDirectly(target, buffer);
+		return target;
+	}
 }
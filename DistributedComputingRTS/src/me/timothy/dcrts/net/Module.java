@@ -27,7 +27,28 @@ public abstract class Module implements PacketListener {
 	 * onActivate. This is called immediately prior to nullResources
 	 */
 	public abstract void onDeactivate();
-	
+
+	/**
+	 * Called instead of onDeactivate when the module is swapped out but
+	 * may be swapped back in, in which case it is resumed with
+	 * resume. A suspended module must stop handling packets, but should
+	 * keep whatever is expensive to set up again, such as threads and
+	 * buffers. A suspended module that is not resumed is deactivated
+	 * with onDeactivate. By default this is just onDeactivate.
+	 */
+	public void suspend() {
+		onDeactivate();
+	}
+
+	/**
+	 * Called instead of onActivate when a suspended module is swapped
+	 * back in. Anything may have changed while it was suspended. By
+	 * default this is just onActivate.
+	 */
+	public void resume() {
+		onActivate();
+	}
+
 	/**
 	 * Nulls out packet manager, net state and game state.
 	 */
@@ -47,6 +68,14 @@ public abstract class Module implements PacketListener {
 		pManager = pm;
 		netState = ns;
 		gameState = gs;
+		onResourcesSet();
+	}
+
+	/**
+	 * Called at the end of setResources, so a module can pass its
+	 * settings on to the net state. By default this does nothing.
+	 */
+	protected void onResourcesSet() {
 	}
 	
 	/**
@@ -3,20 +3,21 @@ package me.timothy.dcrts.net;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.ClosedByInterruptException;
-import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import me.timothy.dcrts.net.packets.DirectConnectionPacket;
-import me.timothy.dcrts.packet.PacketHandler;
+import me.timothy.dcrts.net.packets.ReturnPingEncoder;
+import me.timothy.dcrts.packet.FrameBuffer;
+import me.timothy.dcrts.packet.HeaderRegistry;
 import me.timothy.dcrts.packet.PacketHeader;
-import me.timothy.dcrts.packet.PacketListener;
 import me.timothy.dcrts.packet.PacketManager;
 import me.timothy.dcrts.packet.ParsedPacket;
 import me.timothy.dcrts.peer.Peer;
+import me.timothy.dcrts.utils.BufferPool;
 import me.timothy.dcrts.utils.NetUtils;
 
 /**
@@ -26,88 +27,59 @@ import me.timothy.dcrts.utils.NetUtils;
  * @author Timothy
  */
 public abstract class NetModule extends Module {
-	protected ServerSocketChannel directConnectionServerSocket;
+	private ModuleChannelReader reader;
+	private LinkReader linkReader;
 	
-	private DirectConnectionAcceptionThread dcat;
-	private DirectConnectionMonitorThread dcmt;
-	private class DirectConnectionAcceptionThread extends Thread {
+	/**
+	 * Reads the connections that the module has chosen to read from, see
+	 * {@link NetModule#startReading(Peer)}
+	 */
+	private class ModuleChannelReader implements ChannelListener {
+		Map<SocketChannel, Peer> reading;
+		
+		ModuleChannelReader() {
+			reading = new ConcurrentHashMap<>();
+		}
+		
 		@Override
-		public void run() {
-			while(true) {
-				try {
-					SocketChannel channel = directConnectionServerSocket.accept();
-					onConnectionAcception(channel);
-				} catch (IOException e) {
-					if(e instanceof ClosedByInterruptException)
-						break;
-					e.printStackTrace();
-				}
-				
-			}
+		public void onFrame(SocketChannel channel, ByteBuffer frame) {
+			if(handleLinkLocal(channel, frame))
+				return;
+			handleRead(frame, reading.get(channel));
+		}
+		
+		@Override
+		public void onClosed(SocketChannel channel, IOException cause) {
+			Peer peer = reading.remove(channel);
+			System.err.println("Lost connection to " + (peer == null ? "unknown peer" : peer.getName()) + 
+					(cause == null ? "" : " (" + cause.getMessage() + ")"));
 		}
 	}
 	
-	private class DirectConnectionMonitorThread extends Thread implements PacketListener {
-		List<Peer> monitoring;
+	/**
+	 * Reads the connections to peers the module does not read from. Pings are answered
+	 * on the connection they came in on, so latency can be measured to every peer rather
+	 * than only the ones the module relays with. Anything else was sent by a peer that
+	 * has not yet learned the tree changed, and is handled as if it had started here,
+	 * so it still reaches everyone.
+	 */
+	private class LinkReader implements ChannelListener {
+		Map<SocketChannel, Peer> linked;
 		
-		DirectConnectionMonitorThread() {
-			monitoring = Collections.synchronizedList(new ArrayList<Peer>());
+		LinkReader() {
+			linked = new ConcurrentHashMap<>();
 		}
 		
 		@Override
-		public void run() {
-			List<Peer> toRem = new ArrayList<>();
-			ByteBuffer buffer = ByteBuffer.allocate(PacketHeader.getLargestPacketSize());
-			while(true) {
-				synchronized(monitoring) { 
-					for(Peer peer : monitoring) {
-						if(!peer.metaData.containsKey("directConnection")) {
-							toRem.add(peer);
-							continue;
-						}
-						
-						SocketChannel sc = (SocketChannel) peer.metaData.get("directConnection");
-						int read;
-						try {
-							read = sc.read(buffer);
-						} catch (IOException e) {
-							e.printStackTrace();
-							toRem.add(peer);
-							continue;
-						}
-						if(read == 0)
-							break;
-						
-						buffer.flip();
-						
-						int headerInt = buffer.getInt();
-						System.out.println("headerInt: " + headerInt);
-						PacketHeader header = PacketHeader.byValue(headerInt);
-						ParsedPacket parsed = PacketManager.instance.parse(header, buffer);
-						
-						ParsedPacket wrapped = new DirectConnectionPacket(parsed);
-						PacketManager.instance.broadcastPacket(peer, wrapped);
-						
-						buffer.clear();
-					}
-					monitoring.removeAll(toRem);
-				}
-				try {
-					Thread.sleep(2);
-				} catch (InterruptedException e) {
-					break;
-				}
-			}
+		public void onFrame(SocketChannel channel, ByteBuffer frame) {
+			if(!linked.containsKey(channel) || handleLinkLocal(channel, frame))
+				return;
+			handleStray(frame);
 		}
 		
-		@SuppressWarnings("unused")
-		@PacketHandler(header=PacketHeader.DIRECT_PACKET, priority=1)
-		public void onDestroyConnection(Peer peer, ParsedPacket packet) {
-			DirectConnectionPacket dcp = (DirectConnectionPacket) packet;
-			if(dcp.getPacket().getHeader() != PacketHeader.DESTROYING_CHANNEL)
-				return;
-			
-			stopMonitoring(peer);
+		@Override
+		public void onClosed(SocketChannel channel, IOException cause) {
+			linked.remove(channel);
 		}
 	}
 	
@@ -118,36 +90,71 @@ public abstract class NetModule extends Module {
 	@Override
 	public void onActivate() {
 		try {
-			int id = gameState.getLocalPeer().getID();
-			int port = NetUtils.getDirectPort(id);
-			System.out.println("NetModule Direct-Connection Port: " + port + " (ID=" + id + ")");
-			directConnectionServerSocket = ServerSocketChannel.open();
-			directConnectionServerSocket.bind(new InetSocketAddress(port));
-			directConnectionServerSocket.configureBlocking(true);
-			
-			dcat = new DirectConnectionAcceptionThread();
-			dcat.start();
-			
-			dcmt = new DirectConnectionMonitorThread();
-			dcmt.start();
-			
-			pManager.registerClass(dcmt);
+			netState.getDirectConnections().open(NetUtils.getDirectPort(gameState.getLocalPeer().getID()));
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		
+		reader = new ModuleChannelReader();
+		linkReader = new LinkReader();
+		linkConnectedPeers();
 	}
 	
 	@Override
 	public void onDeactivate() {
-		dcat.interrupt();
-		dcmt.interrupt();
-		try {
-			directConnectionServerSocket.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+		unlinkAll();
+	}
+	
+	/**
+	 * Stops reading every connection, keeping the readers. The direct connections
+	 * belong to the net state, so they are left open for the next module.
+	 */
+	@Override
+	public void suspend() {
+		unlinkAll();
+	}
+	
+	/**
+	 * Reads the connections again and picks the neighbours with
+	 * {@link #onTopologyChanged()}, since the tree may have changed while the
+	 * module was suspended.
+	 */
+	@Override
+	public void resume() {
+		linkConnectedPeers();
+		onTopologyChanged();
+	}
+	
+	/**
+	 * Starts reading every connection with the link reader
+	 */
+	private void linkConnectedPeers() {
+		for(Peer peer : gameState.getConnectedPeers()) {
+			SocketChannel channel = netState.getSocketChannelOf(peer);
+			if(channel == null)
+				continue;
+			linkReader.linked.put(channel, peer);
+			NetReactor.instance.register(channel, linkReader);
 		}
-		
-		pManager.unregisterClass(dcmt);
+	}
+	
+	private void unlinkAll() {
+		for(SocketChannel sc : reader.reading.keySet()) {
+			NetReactor.instance.unregister(sc);
+		}
+		reader.reading.clear();
+		for(SocketChannel sc : linkReader.linked.keySet()) {
+			NetReactor.instance.unregister(sc);
+		}
+		linkReader.linked.clear();
+	}
+	
+	/**
+	 * Called when the relay tree changed, after the metadata of the peers has been
+	 * updated (see {@link me.timothy.dcrts.net.topology.RelayTopology}). Modules that
+	 * relay should pick their neighbours again. Does nothing by default.
+	 */
+	public void onTopologyChanged() {
 	}
 	
 	/**
@@ -163,38 +170,34 @@ public abstract class NetModule extends Module {
 	 * if that peer is connected logically. This may be used to send secure
 	 * messages.
 	 * 
+	 * Direct connections are pooled, so this only connects if there is no
+	 * connection to the peer already, and threads that connect to the same
+	 * peer at once share the connect. Connections that go unused are closed
+	 * by the pool, see {@link DirectConnectionServer}
 	 * 
 	 * Encryption is up to the implementation
 	 * @param peer the peer 
 	 */
 	public void ensureDirectConnection(Peer peer) throws IOException {
-		if(getMonitoringChannel(peer) != null)
-			return;
-		
 		InetSocketAddress addr = (InetSocketAddress) netState.getSocketAddressOf(peer);
 		int port = NetUtils.getDirectPort(peer.getID());
 		InetSocketAddress conAddr = new InetSocketAddress(addr.getHostString(), port);
-		SocketChannel channel = SocketChannel.open(conAddr);
-		channel.configureBlocking(true);
-		ByteBuffer buffer = ByteBuffer.allocate(4);
-		buffer.putInt(netState.getLocalPeer().getID());
-		buffer.flip();
-		channel.write(buffer);
-		
-		buffer.clear();
-		monitorDirectConnection(peer, channel);
+		netState.getDirectConnections().connect(peer, conAddr);
 	}
 	/**
-	 * Sends a message directly to the specified peer. This must be 
-	 * preceded with ensureDirectConnection to avoid errors.
+	 * Sends a message directly to the specified peer. This should be 
+	 * preceded with ensureDirectConnection, but the pool may close the
+	 * connection in between, in which case it is made again.
 	 * @param peer the peer
+	 * @throws IOException if the message could not be sent
 	 */
 	public void sendDirectly(Peer peer, ByteBuffer buffer) throws IOException {
-		SocketChannel channel = getMonitoringChannel(peer);
-		if(channel == null)
-			throw new IllegalArgumentException("Call ensureDirectConnection first! (No direct channel with peer has been created)");
-		
-		channel.write(buffer);
+		DirectConnectionServer directConnections = netState.getDirectConnections();
+		if(directConnections.send(peer, buffer))
+			return;
+		ensureDirectConnection(peer);
+		if(!directConnections.send(peer, buffer))
+			throw new IOException("The direct connection to " + peer.getName() + " was closed before it could be used");
 	}
 	
 	/**
@@ -203,38 +206,25 @@ public abstract class NetModule extends Module {
 	 * @throws IOException if an exception occurs
 	 */
 	public void destroyUnnecessaryConnections() throws IOException {
-		List<Peer> connected = gameState.getConnectedPeers();
-		
-		synchronized(connected) {
-			for(Peer peer : connected) {
-				destroyUnnecessaryConnection(peer);
-			}
+		for(Peer peer : gameState.getConnectedPeers()) {
+			destroyUnnecessaryConnection(peer);
 		}
 	}
 	
 	/**
 	 * Destroys a specific unnecessary connection caused from ensureDirectConnection,
-	 * and forgets the associated encryption key
+	 * and forgets the associated encryption key. The pool closes connections that
+	 * go unused on its own, so this is only needed to close one early
 	 * 
 	 * @param peer the peer
 	 * @throws IOException if an exception occurs
 	 */
 	public void destroyUnnecessaryConnection(Peer peer) throws IOException {
-		SocketChannel channel = getMonitoringChannel(peer);
-		if(channel == null)
-			return;
-		
-		ByteBuffer buffer = ByteBuffer.allocate(PacketHeader.DESTROYING_CHANNEL.getMaxPacketSize());
-		buffer.putInt(PacketHeader.DESTROYING_CHANNEL.getValue());
-		pManager.send(PacketHeader.DESTROYING_CHANNEL, buffer);
-		buffer.flip();
-		
-		channel.write(buffer);
 		stopMonitoring(peer);
 	}
 	
 	/**
-	 * Called when a direct connection is accepted
+	 * Called when a direct connection is accepted, on whichever module is active
 	 * @param channel
 	 * @throws IOException
 	 */
@@ -249,13 +239,11 @@ public abstract class NetModule extends Module {
 		InetSocketAddress peerAddr;
 		
 		Peer expected = null;
-		synchronized(peers) {
-			for(Peer peer : peers) { 
-				peerAddr = (InetSocketAddress) netState.getSocketAddressOf(peer);
-				if(NetUtils.addressMatches(peerAddr, channelAddr)) {
-					expected = peer;
-					break;
-				}
+		for(Peer peer : peers) { 
+			peerAddr = (InetSocketAddress) netState.getSocketAddressOf(peer);
+			if(NetUtils.addressMatches(peerAddr, channelAddr)) {
+				expected = peer;
+				break;
 			}
 		}
 		
@@ -274,7 +262,7 @@ public abstract class NetModule extends Module {
 			System.err.println("ID: " + peerId + ", Expected ID: " + expected.getID());
 			System.err.println("--");
 			System.err.println("Checking if that peer's address also matches (LAN connections can do this)");
-			Peer peer = NetUtils.getPeerByID(peers, peerId);
+			Peer peer = gameState.getPeerByID(peerId);
 			boolean killConnection = false;
 			if(peer == null) {
 				System.err.println("No peer found by that id, killing connection");
@@ -286,7 +274,7 @@ public abstract class NetModule extends Module {
 					System.err.println("Address matches, allowing the connection");
 				}else {
 					System.err.println("Address does NOT match, disallowing connection");
-					System.err.println("  (That ID's Addr: '" + peerAddr.getHostName() + "' vs this connections '" + channelAddr.getHostName() + "'");
+					System.err.println("  (That ID's Addr: '" + peerAddr.getHostString() + "' vs this connections '" + channelAddr.getHostString() + "'");
 					killConnection = true;
 				}
 			}
@@ -302,39 +290,208 @@ public abstract class NetModule extends Module {
 	}
 	
 	/**
+	 * Starts reading packets from the connection to the specified peer, passing
+	 * them to {@link #handleRead(ByteBuffer, Peer)}. Does nothing if there is no
+	 * connection to the peer. Reading stops when the module is deactivated or
+	 * suspended.
 	 * 
-	 * @param buffer the buffer
+	 * @param peer the peer
+	 */
+	protected void startReading(Peer peer) {
+		SocketChannel channel = netState.getSocketChannelOf(peer);
+		if(channel == null)
+			return;
+		
+		linkReader.linked.remove(channel);
+		reader.reading.put(channel, peer);
+		NetReactor.instance.register(channel, reader);
+	}
+	
+	/**
+	 * Stops reading packets from the connection to the specified peer. Pings on
+	 * the connection are still answered.
+	 * 
+	 * @param peer the peer
+	 */
+	protected void stopReading(Peer peer) {
+		SocketChannel channel = netState.getSocketChannelOf(peer);
+		if(channel == null || reader.reading.remove(channel) == null)
+			return;
+		
+		linkReader.linked.put(channel, peer);
+		NetReactor.instance.register(channel, linkReader);
+	}
+	
+	/**
+	 * Reads from exactly the specified peers, starting and stopping reading
+	 * as necessary
+	 * 
+	 * @param peers the peers to read from
+	 */
+	protected void setReading(Collection<Peer> peers) {
+		for(Peer peer : new ArrayList<>(reader.reading.values())) {
+			if(!peers.contains(peer))
+				stopReading(peer);
+		}
+		for(Peer peer : peers) {
+			if(!reader.reading.containsValue(peer))
+				startReading(peer);
+		}
+	}
+	
+	/**
+	 * Checks if a frame only concerns the two ends of the connection it came in on,
+	 * in which case it should never be relayed. Pings are, since they measure the
+	 * latency of a single connection.
+	 * 
+	 * @param frame the frame, positioned at its length
+	 * @return if the frame should not be relayed
+	 */
+	protected static boolean isLinkLocal(ByteBuffer frame) {
+		int header = frame.getInt(frame.position() + FrameBuffer.LENGTH_BYTES + 4);
+		return header == PacketHeader.PING.getValue() || header == PacketHeader.RETURN_PING.getValue();
+	}
+	
+	/**
+	 * Handles a frame that only concerns the connection it came in on. Pings are
+	 * answered on the same connection and returned pings are handled locally, and
+	 * neither is passed to {@link #handleRead(ByteBuffer, Peer)}.
+	 * 
+	 * @param channel the connection
+	 * @param frame the frame, positioned at its length
+	 * @return if the frame was link-local and has been handled
+	 */
+	private boolean handleLinkLocal(SocketChannel channel, ByteBuffer frame) {
+		if(!isLinkLocal(frame))
+			return false;
+		if(frame.getInt(frame.position() + FrameBuffer.LENGTH_BYTES + 4) == PacketHeader.PING.getValue())
+			answerPing(channel, frame);
+		else
+			dispatchFrame(frame);
+		return true;
+	}
+	
+	/**
+	 * Sends a frame from a peer that is not a neighbour on to everyone, as if it had
+	 * been sent from here, and handles it locally. Frames this peer sent itself are
+	 * dropped, since everyone else has seen them.
+	 * 
+	 * @param frame the frame, positioned at its length with its limit at the end of the frame
+	 */
+	protected void handleStray(ByteBuffer frame) {
+		if(frame.getInt(frame.position() + FrameBuffer.LENGTH_BYTES) == gameState.getLocalPeer().getID())
+			return;
+		try {
+			sendData(frame.duplicate());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		dispatchFrame(frame);
+	}
+	
+	/**
+	 * Answers a ping on the connection it came in on
+	 * 
+	 * @param channel the connection
+	 * @param frame the ping, positioned at its length
+	 */
+	protected void answerPing(SocketChannel channel, ByteBuffer frame) {
+		long timeSent = frame.getLong(frame.position() + FrameBuffer.LENGTH_BYTES + 8);
+		ByteBuffer buffer = NetUtils.createBuffer(gameState.getLocalPeer().getID(), PacketHeader.RETURN_PING);
+		try {
+			ReturnPingEncoder.INSTANCE.write(buffer, timeSent);
+			buffer.flip();
+			NetReactor.instance.write(channel, buffer);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
+	}
+	
+	/**
+	 * Handles one or more complete frames that were read from a connection.
+	 * 
+	 * @param buffer the buffer, containing only complete frames (see FrameBuffer)
 	 * @param from may or may not affect anything, based on the module. may or may not be allowed to be null
 	 */
 	public void handleRead(ByteBuffer buffer, Peer from) {
 		while(buffer.hasRemaining()) {
-			int peerId = buffer.getInt();
-			int headerInt = buffer.getInt();
+			int frameStart = buffer.position();
+			int frameEnd = frameStart + FrameBuffer.LENGTH_BYTES + buffer.getInt(frameStart);
+			ByteBuffer frame = buffer.duplicate();
+			frame.limit(frameEnd);
+			dispatchFrame(frame);
+			buffer.position(frameEnd);
+		}
+	}
+	
+	/**
+	 * Parses a single frame and broadcasts it to the local listeners
+	 * 
+	 * @param frame the frame, positioned at its length with its limit at the end of the frame
+	 */
+	protected void dispatchFrame(ByteBuffer frame) {
+		frame.getInt(); // length
+		int peerId = frame.getInt();
+		int headerInt = frame.getInt();
 
-			Peer peer = NetUtils.getPeerByID(gameState.getConnectedPeers(), peerId);
-			PacketHeader header = PacketHeader.byValue(headerInt);
+		if(peerId == gameState.getLocalPeer().getID())
+			return; // came back around while the tree was changing
+		Peer peer = gameState.getPeerByID(peerId);
+		PacketHeader header = PacketHeader.byValue(headerInt);
+		if(header == null) {
+			handleUnknownHeader(headerInt, peer, frame);
+			return;
+		}
 
-			ParsedPacket parsed = PacketManager.instance.parse(header, buffer);
-			PacketManager.instance.broadcastPacket(peer, parsed);
+		ParsedPacket parsed = PacketManager.instance.parse(header, frame);
+		PacketManager.instance.broadcastPacket(peer, parsed);
+	}
+	
+	/**
+	 * Called for a frame whose header is not in {@link PacketHeader}. If a module
+	 * registered the header with the {@link HeaderRegistry} the frame is passed to
+	 * {@link #handleModuleFrame(HeaderRegistry.Header, Peer, ByteBuffer)}, otherwise
+	 * it is ignored.
+	 * 
+	 * @param headerInt the header value
+	 * @param from the peer that sent the frame
+	 * @param frame the frame, positioned after the header
+	 */
+	protected void handleUnknownHeader(int headerInt, Peer from, ByteBuffer frame) {
+		HeaderRegistry.Header registered = HeaderRegistry.instance.lookup(headerInt);
+		if(registered == null) {
+			System.err.println("[" + name + "] No header with the id " + headerInt + " detected!");
+			return;
 		}
+		handleModuleFrame(registered, from, frame);
+	}
+	
+	/**
+	 * Handles a frame with a header that a module registered with the {@link HeaderRegistry}.
+	 * Does nothing by default.
+	 * 
+	 * @param header the header
+	 * @param from the peer that sent the frame
+	 * @param frame the frame, positioned after the header with its limit at the end of the frame
+	 */
+	protected void handleModuleFrame(HeaderRegistry.Header header, Peer from, ByteBuffer frame) {
 	}
 	
 	protected void monitorDirectConnection(Peer peer, SocketChannel channel) {
 		try {
-			channel.configureBlocking(false);
+			netState.getDirectConnections().accept(peer, channel);
 		} catch (IOException e) {
 			e.printStackTrace();
-			return;
 		}
-		peer.metaData.put("directConnection", channel);
-		dcmt.monitoring.add(peer);
 	}
 	
 	protected void stopMonitoring(Peer peer) {
-		peer.metaData.remove("directConnection");
+		netState.getDirectConnections().release(peer);
 	}
 	
 	protected SocketChannel getMonitoringChannel(Peer peer) {
-		return peer.metaData.containsKey("directConnection") ? (SocketChannel) peer.metaData.get("directConnection") : null;
+		return netState.getDirectConnections().getChannel(peer);
 	}
 }
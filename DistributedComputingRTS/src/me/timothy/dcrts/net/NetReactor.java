@@ -0,0 +1,429 @@
+package me.timothy.dcrts.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import me.timothy.dcrts.packet.FrameBuffer;
+
+/**
+ * Reads every connection in the game (lobby connections, game connections and
+ * direct connections) using a small, fixed number of event loop threads rather
+ * than one polling thread per reader. Each event loop owns a selector, and each
+ * channel is assigned to one event loop, so frames from a single channel are
+ * always delivered in order and on the same thread.
+ *
+ * A channel is read from while it has a {@link ChannelListener}. Registering a
+ * different listener for a channel hands the channel over without losing any
+ * partially read frames, which is what happens when the lobby gives its
+ * connection to the game or the net module of a peer changes. Writes that
+ * cannot be completed immediately are queued in the channels {@link OutboundQueue}
+ * and finished when the channel is writable again, so a slow peer never holds
+ * up writes to the others.
+ *
+ * @author Timothy
+ */
+public class NetReactor {
+	public static final NetReactor instance = new NetReactor();
+
+	/**
+	 * The number of event loop threads used if {@link #setEventLoops(int)} is not called
+	 */
+	public static final int DEFAULT_EVENT_LOOPS = 1;
+
+	private int numEventLoops;
+	private EventLoop[] eventLoops;
+	private int nextEventLoop;
+	private ConcurrentMap<SocketChannel, Connection> connections;
+	private volatile OutboundQueue.OverflowPolicy overflowPolicy;
+	private volatile int highWatermark;
+
+	private NetReactor() {
+		numEventLoops = DEFAULT_EVENT_LOOPS;
+		connections = new ConcurrentHashMap<>();
+		overflowPolicy = OutboundQueue.OverflowPolicy.DISCONNECT;
+		highWatermark = OutboundQueue.DEFAULT_HIGH_WATERMARK;
+	}
+
+	/**
+	 * Sets the number of event loop threads. Must be called before the
+	 * reactor is started.
+	 *
+	 * @param num the number of event loops, at least 1
+	 * @throws IllegalStateException if the reactor is already running
+	 */
+	public synchronized void setEventLoops(int num) {
+		if(num < 1)
+			throw new IllegalArgumentException("Need at least one event loop, got " + num);
+		if(eventLoops != null)
+			throw new IllegalStateException("The reactor is already running");
+		numEventLoops = num;
+	}
+
+	public synchronized int getEventLoops() {
+		return numEventLoops;
+	}
+
+	/**
+	 * Sets the overflow policy used by the outbound queues of channels that are
+	 * registered from now on. Existing queues can be changed through
+	 * {@link #getOutboundQueue(SocketChannel)}
+	 *
+	 * @param policy the policy
+	 * @param highWatermark the high watermark, in bytes
+	 */
+	public void setDefaultOverflowPolicy(OutboundQueue.OverflowPolicy policy, int highWatermark) {
+		if(policy == null || highWatermark <= 0)
+			throw new IllegalArgumentException("Invalid overflow policy " + policy + " at " + highWatermark + " bytes");
+		overflowPolicy = policy;
+		this.highWatermark = highWatermark;
+	}
+
+	/**
+	 * Starts the event loops. Called automatically the first time a
+	 * channel is registered.
+	 *
+	 * @throws IOException if a selector could not be opened
+	 */
+	public synchronized void start() throws IOException {
+		if(eventLoops != null)
+			return;
+
+		EventLoop[] loops = new EventLoop[numEventLoops];
+		for(int i = 0; i < loops.length; i++) {
+			loops[i] = new EventLoop(i, Selector.open());
+		}
+		for(EventLoop loop : loops) {
+			loop.start();
+		}
+		eventLoops = loops;
+	}
+
+	/**
+	 * Stops the event loops and forgets every channel. The channels themselves
+	 * are not closed. The reactor may be started again afterwards.
+	 */
+	public synchronized void shutdown() {
+		if(eventLoops == null)
+			return;
+
+		for(EventLoop loop : eventLoops) {
+			loop.running = false;
+			loop.selector.wakeup();
+		}
+		eventLoops = null;
+		connections.clear();
+	}
+
+	/**
+	 * Starts reading from the channel, delivering every frame to the listener. If
+	 * the channel is already registered the listener replaces the previous one,
+	 * and any partially read frame is kept.
+	 *
+	 * @param channel the channel to read from
+	 * @param listener the listener to deliver frames to
+	 */
+	public void register(SocketChannel channel, ChannelListener listener) {
+		register(channel, listener, FrameBuffer.MIN_FRAME_SIZE);
+	}
+
+	/**
+	 * Starts reading from the channel, like {@link #register(SocketChannel, ChannelListener)},
+	 * with frames that may be shorter than the id and header. Frames shorter than
+	 * the minimum close the channel as corrupt.
+	 *
+	 * @param channel the channel to read from
+	 * @param listener the listener to deliver frames to
+	 * @param minFrameSize the shortest length a frame may have (see FrameBuffer)
+	 */
+	public void register(SocketChannel channel, ChannelListener listener, int minFrameSize) {
+		Connection conn = connectionOf(channel);
+		conn.frames.setMinFrameSize(minFrameSize);
+		conn.listener = listener;
+		conn.updateInterest();
+	}
+
+	/**
+	 * Stops reading from the channel until a listener is registered again. Unread
+	 * data stays in the channel, so nothing is lost if another listener takes over.
+	 *
+	 * @param channel the channel to stop reading from
+	 */
+	public void unregister(SocketChannel channel) {
+		Connection conn = connections.get(channel);
+		if(conn == null)
+			return;
+
+		conn.listener = null;
+		conn.updateInterest();
+	}
+
+	/**
+	 * Writes the buffer to the channel without blocking. Whatever cannot be written
+	 * immediately is copied to the channels outbound queue, so the buffer may be
+	 * reused as soon as this returns. Writes to a channel are kept in order. Channels
+	 * that are still in blocking mode are written to directly.
+	 *
+	 * @param channel the channel to write to
+	 * @param buffer the data, flipped. Should contain whole frames
+	 * @throws IOException if an i/o exception occurs
+	 */
+	public void write(SocketChannel channel, ByteBuffer buffer) throws IOException {
+		if(channel.isBlocking()) {
+			channel.write(buffer);
+			return;
+		}
+
+		connectionOf(channel).write(buffer);
+	}
+
+	/**
+	 * Returns the outbound queue of the channel, which is created if it does not exist
+	 *
+	 * @param channel the channel, which must be in non-blocking mode
+	 * @return the channels outbound queue
+	 */
+	public OutboundQueue getOutboundQueue(SocketChannel channel) {
+		return connectionOf(channel).outbound;
+	}
+
+	private Connection connectionOf(SocketChannel channel) {
+		Connection conn = connections.get(channel);
+		if(conn == null) {
+			purgeClosed();
+			conn = new Connection(channel, nextEventLoop());
+			Connection prev = connections.putIfAbsent(channel, conn);
+			if(prev != null)
+				conn = prev;
+			else
+				conn.updateInterest();
+		}
+		return conn;
+	}
+
+	private synchronized EventLoop nextEventLoop() {
+		if(eventLoops == null) {
+			try {
+				start();
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to start the reactor", e);
+			}
+		}
+
+		EventLoop loop = eventLoops[nextEventLoop];
+		nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+		return loop;
+	}
+
+	/**
+	 * Channels that were closed by us are never selected again, so they are
+	 * removed here instead of by the event loops.
+	 */
+	private void purgeClosed() {
+		Iterator<Connection> iter = connections.values().iterator();
+		while(iter.hasNext()) {
+			if(!iter.next().channel.isOpen())
+				iter.remove();
+		}
+	}
+
+	/**
+	 * The state of one registered channel
+	 */
+	private class Connection {
+		final SocketChannel channel;
+		final EventLoop loop;
+		final FrameBuffer frames;
+		final OutboundQueue outbound;
+		volatile ChannelListener listener;
+		SelectionKey key;
+
+		Connection(SocketChannel channel, EventLoop loop) {
+			this.channel = channel;
+			this.loop = loop;
+			frames = new FrameBuffer();
+			outbound = new OutboundQueue(overflowPolicy, highWatermark);
+		}
+
+		/**
+		 * Updates the interest set to match the listener and pending writes.
+		 * Selection keys are only ever touched from the event loop.
+		 */
+		void updateInterest() {
+			loop.execute(new Runnable() {
+				@Override
+				public void run() {
+					int ops = 0;
+					if(listener != null)
+						ops |= SelectionKey.OP_READ;
+					if(!outbound.isEmpty())
+						ops |= SelectionKey.OP_WRITE;
+
+					try {
+						if(key == null) {
+							channel.configureBlocking(false);
+							key = channel.register(loop.selector, ops, Connection.this);
+						}else if(key.isValid()) {
+							key.interestOps(ops);
+						}
+
+						if(listener != null)
+							deliverFrames();
+					} catch (ClosedChannelException | CancelledKeyException e) {
+						connections.remove(channel);
+					} catch (IOException e) {
+						closed(e);
+					}
+				}
+			});
+		}
+
+		void write(ByteBuffer buffer) throws IOException {
+			boolean needsFlush;
+			try {
+				needsFlush = outbound.write(channel, buffer);
+			} catch (final IOException e) {
+				loop.execute(new Runnable() {
+					@Override
+					public void run() {
+						closed(e);
+					}
+				});
+				throw e;
+			}
+
+			if(needsFlush)
+				updateInterest();
+		}
+
+		/**
+		 * Called by the event loop when the channel is writable
+		 */
+		void flush() throws IOException {
+			if(outbound.flush(channel))
+				updateInterest();
+		}
+
+		/**
+		 * Called by the event loop when the channel is readable
+		 */
+		void read() throws IOException {
+			int read = frames.readFrom(channel);
+			if(read < 0) {
+				closed(null);
+				return;
+			}
+
+			deliverFrames();
+		}
+
+		/**
+		 * Hands the complete frames that have been read to the listener. Frames are
+		 * left in the buffer if there is no listener, until one is registered.
+		 */
+		void deliverFrames() throws IOException {
+			ChannelListener l;
+			ByteBuffer frame;
+			while((l = listener) != null && (frame = frames.nextFrame()) != null) {
+				try {
+					l.onFrame(channel, frame);
+				}catch(RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		void closed(IOException cause) {
+			if(!connections.remove(channel, this))
+				return;
+			if(key != null)
+				key.cancel();
+			outbound.clear();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+
+			ChannelListener l = listener;
+			if(l != null)
+				l.onClosed(channel, cause);
+		}
+	}
+
+	/**
+	 * Waits on a selector and services the channels registered with it
+	 */
+	private class EventLoop extends Thread {
+		final Selector selector;
+		final Queue<Runnable> tasks;
+		volatile boolean running;
+
+		EventLoop(int index, Selector selector) {
+			super("NetReactor-" + index);
+			setDaemon(true);
+			this.selector = selector;
+			tasks = new ConcurrentLinkedQueue<>();
+			running = true;
+		}
+
+		/**
+		 * Runs the task on this event loop
+		 * @param task the task
+		 */
+		void execute(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			while(running) {
+				try {
+					selector.select();
+				} catch (IOException e) {
+					e.printStackTrace();
+					break;
+				}
+
+				Runnable task;
+				while((task = tasks.poll()) != null) {
+					task.run();
+				}
+
+				Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+				while(iter.hasNext()) {
+					SelectionKey key = iter.next();
+					iter.remove();
+					Connection conn = (Connection) key.attachment();
+
+					try {
+						if(key.isValid() && key.isWritable())
+							conn.flush();
+						if(key.isValid() && key.isReadable())
+							conn.read();
+					} catch (CancelledKeyException e) {
+						// closed by another thread while we were using it
+					} catch (IOException e) {
+						conn.closed(e);
+					}
+				}
+			}
+
+			try {
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
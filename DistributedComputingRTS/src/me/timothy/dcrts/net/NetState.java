@@ -9,6 +9,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import me.timothy.dcrts.GameState;
+import me.timothy.dcrts.net.admission.AdmissionController;
+import me.timothy.dcrts.net.admission.SigarLoadMetrics;
+import me.timothy.dcrts.net.module.ModuleHandler;
+import me.timothy.dcrts.packet.PacketManager;
 import me.timothy.dcrts.peer.Peer;
 import me.timothy.dcrts.utils.ErrorUtils;
 
@@ -114,9 +119,20 @@ public class NetState {
 	private Map<Peer, NetInfo> peerInfo;
 	private Peer localPeer;
 	private NetInfo localInfo;
+	/**
+	 * The net modules the local peer has been swapped away from, suspended
+	 * by name so swapping back to them is cheap
+	 */
+	private Map<String, NetModule> standbyModules;
+	private DirectConnectionServer directConnections;
+	private volatile AdmissionController admission;
+	private volatile RttService rttService;
 	
 	public NetState() {
 		peerInfo = new HashMap<>();
+		standbyModules = new HashMap<>();
+		directConnections = new DirectConnectionServer(this);
+		admission = new AdmissionController(new SigarLoadMetrics());
 	}
 	
 	public NetModule getNetTypeOf(Peer peer) {
@@ -137,7 +153,14 @@ public class NetState {
 	
 	/**
 	 * Will do necessary work of deactivating/activating if the peer
-	 * is the local peer
+	 * is the local peer. The local peers old module is suspended and kept
+	 * as the standby for its name, and if there is already a standby for
+	 * the new modules name it is resumed in place of the new module. If
+	 * the local module already has the new modules name nothing changes.
+	 * In either case the new module is never activated, so prefer
+	 * {@link #setLocalNetModule(String, PacketManager, GameState)}, which
+	 * only builds a module when it is needed.
+	 * 
 	 * @param peer the peer
 	 * @param netModule the net module
 	 */
@@ -145,14 +168,117 @@ public class NetState {
 		if(netModule == null)
 			ErrorUtils.nullPointer(new String[] { "netModule" }, netModule);
 		if(peer.equals(localPeer)) {
-			localInfo.netModule.onDeactivate();
-			localInfo.netModule = netModule;
-			netModule.onActivate();
+			synchronized(standbyModules) {
+				NetModule old = localInfo.netModule;
+				if(old.getName().equals(netModule.getName()))
+					return;
+				NetModule standby = standbyModules.remove(netModule.getName());
+				old.suspend();
+				NetModule replaced = standbyModules.put(old.getName(), old);
+				if(replaced != null)
+					replaced.onDeactivate();
+				
+				if(standby != null) {
+					localInfo.netModule = standby;
+					standby.resume();
+				}else {
+					localInfo.netModule = netModule;
+					netModule.onActivate();
+				}
+			}
 			return;
 		}
 		peerInfo.get(peer).netModule = netModule;
 	}
 	
+	/**
+	 * Swaps the local peers net module to the one with the name, resuming
+	 * its standby if there is one and building and resourcing a new one
+	 * only if there is not. Does nothing if the local module already has
+	 * the name.
+	 * 
+	 * @param name the name of the net module
+	 * @param pm the packet manager, for a new module
+	 * @param gs the game state, for a new module
+	 */
+	public void setLocalNetModule(String name, PacketManager pm, GameState gs) {
+		synchronized(standbyModules) {
+			if(localInfo.netModule.getName().equals(name))
+				return;
+			NetModule netModule = standbyModules.get(name);
+			if(netModule == null) {
+				netModule = ModuleHandler.getNetModuleByName(name);
+				if(netModule == null)
+					ErrorUtils.nullPointer(new String[] { "netModule" }, netModule);
+				netModule.setResources(pm, this, gs);
+			}
+			setNetModuleOf(localPeer, netModule);
+		}
+	}
+	
+	/**
+	 * Deactivates the local modules and every standby module, and closes the
+	 * direct connections. Called when the game is over.
+	 */
+	public void deactivateLocalModules() {
+		synchronized(standbyModules) {
+			localInfo.netModule.onDeactivate();
+			localInfo.logicModule.onDeactivate();
+			for(NetModule standby : standbyModules.values()) {
+				standby.onDeactivate();
+			}
+			standbyModules.clear();
+		}
+		directConnections.close();
+	}
+	
+	/**
+	 * The direct connections outlive the net module, so that swapping it
+	 * keeps the socket bound
+	 * 
+	 * @return the direct connections of the local peer
+	 */
+	DirectConnectionServer getDirectConnections() {
+		return directConnections;
+	}
+	
+	/**
+	 * The admission controller belongs to the game rather than the logic
+	 * module, so what it has learned survives swapping the logic module
+	 * 
+	 * @return what decides where the local peers logic work is done
+	 */
+	public AdmissionController getAdmissionController() {
+		return admission;
+	}
+	
+	/**
+	 * Replaces the admission controller, such as to read the load from
+	 * somewhere other than Sigar
+	 * 
+	 * @param admission the admission controller
+	 */
+	public void setAdmissionController(AdmissionController admission) {
+		if(admission == null)
+			ErrorUtils.nullPointer(new String[] { "admission" }, admission);
+		this.admission = admission;
+	}
+	
+	/**
+	 * @return what measures the round trip times to the connected peers, or
+	 * null if the game has not begun
+	 */
+	public RttService getRttService() {
+		return rttService;
+	}
+	
+	/**
+	 * @param rttService what measures the round trip times to the connected peers
+	 */
+	public void setRttService(RttService rttService) {
+		this.rttService = rttService;
+	}
+	
 	/**
 	 * Will do necessary work of deactivating/activating if the peer
 	 * is the local peer
@@ -177,6 +303,7 @@ public class NetState {
 		if(peer == localPeer)
 			throw new AssertionError("...wut? (attempt to set the socket channel of local peer)");
 		peerInfo.get(peer).channel = channel;
+		attachOutboundQueue(peer, channel);
 	}
 	
 	/**
@@ -215,6 +342,14 @@ public class NetState {
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
+		attachOutboundQueue(peer, channel);
+	}
+	
+	private void attachOutboundQueue(Peer peer, SocketChannel channel) {
+		if(channel == null || channel.isBlocking())
+			peer.setOutboundQueue(null);
+		else
+			peer.setOutboundQueue(NetReactor.instance.getOutboundQueue(channel));
 	}
 	
 	/**
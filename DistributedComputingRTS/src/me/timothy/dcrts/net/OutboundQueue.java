@@ -0,0 +1,280 @@
+package me.timothy.dcrts.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+
+import me.timothy.dcrts.packet.FrameBuffer;
+import me.timothy.dcrts.packet.HeaderRegistry;
+import me.timothy.dcrts.utils.BufferPool;
+
+/**
+ * The data waiting to be written to a single connection. Data is only queued
+ * when the connection could not take it immediately, and the queue is drained
+ * with gathering writes whenever the connection becomes writable again (see
+ * {@link NetReactor}).
+ *
+ * A peer that stops reading would otherwise make its queue grow forever, so
+ * once more than the high watermark is queued the {@link OverflowPolicy} decides
+ * what happens to new frames.
+ *
+ * @author Timothy
+ */
+public class OutboundQueue {
+	/**
+	 * What to do with new frames once a queue is over its high watermark
+	 */
+	public static enum OverflowPolicy {
+		/**
+		 * New frames are thrown away until the queue drains below the watermark
+		 */
+		DROP,
+
+		/**
+		 * A new frame replaces a queued frame with the same sender and header,
+		 * if there is one and the header is replaceable (see
+		 * HeaderRegistry.Header#isReplaceable()), so only the most recent of each
+		 * such packet is sent. The new frame takes the place of the old one in the
+		 * queue, so the order of the frames is kept. Any other frame is queued as
+		 * usual. Frames on direct connections, which have no sender, are never
+		 * replaced.
+		 */
+		COALESCE,
+
+		/**
+		 * The connection is closed
+		 */
+		DISCONNECT
+	}
+
+	/**
+	 * The high watermark used if none is specified, in bytes
+	 */
+	public static final int DEFAULT_HIGH_WATERMARK = 1024 * 1024;
+
+	/**
+	 * The most buffers that will be passed to a single gathering write
+	 */
+	private static final int MAX_GATHER = 64;
+
+	/**
+	 * Bytes after the length that identify a frame when coalescing, the
+	 * sender and the header
+	 */
+	private static final int COALESCE_KEY_BYTES = 8;
+
+	/**
+	 * Where the header is in a frame, after the length and the sender
+	 */
+	private static final int HEADER_OFFSET = FrameBuffer.LENGTH_BYTES + 4;
+
+	private ArrayDeque<ByteBuffer> queue;
+	private ByteBuffer[] gather;
+	private int queuedBytes;
+	private long flushedBytes;
+	private long droppedFrames;
+
+	private volatile OverflowPolicy policy;
+	private volatile int highWatermark;
+
+	public OutboundQueue(OverflowPolicy policy, int highWatermark) {
+		queue = new ArrayDeque<>();
+		gather = new ByteBuffer[MAX_GATHER];
+		setOverflowPolicy(policy, highWatermark);
+	}
+
+	/**
+	 * Sets what to do once more than highWatermark bytes are queued
+	 *
+	 * @param policy the policy
+	 * @param highWatermark the high watermark, in bytes
+	 */
+	public void setOverflowPolicy(OverflowPolicy policy, int highWatermark) {
+		if(policy == null)
+			throw new IllegalArgumentException("policy cannot be null");
+		if(highWatermark <= 0)
+			throw new IllegalArgumentException("The high watermark must be positive, got " + highWatermark);
+		this.policy = policy;
+		this.highWatermark = highWatermark;
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return policy;
+	}
+
+	public int getHighWatermark() {
+		return highWatermark;
+	}
+
+	/**
+	 * Writes as much of the buffer as possible straight to the channel if nothing
+	 * is queued, and queues a copy of the rest.
+	 *
+	 * @param channel the channel
+	 * @param buffer the data, flipped. Should contain whole frames
+	 * @return true if the queue was empty before and now needs flushing
+	 * @throws IOException if an i/o exception occurs, or the queue overflowed
+	 * and the connection should be closed
+	 */
+	synchronized boolean write(GatheringByteChannel channel, ByteBuffer buffer) throws IOException {
+		if(queue.isEmpty()) {
+			channel.write(buffer);
+			if(!buffer.hasRemaining())
+				return false;
+			// part of a frame has been written; the rest has to follow regardless
+			add(buffer);
+			return true;
+		}
+
+		if(queuedBytes + buffer.remaining() > highWatermark) {
+			switch(policy) {
+			case DROP:
+				droppedFrames++;
+				return false;
+			case COALESCE:
+				if(replace(buffer))
+					return false;
+				break;
+			case DISCONNECT:
+				throw new IOException("Outbound queue overflowed (over " + highWatermark + " bytes)");
+			}
+		}
+		add(buffer);
+		return false;
+	}
+
+	/**
+	 * Writes as much of the queue as the channel will take
+	 *
+	 * @param channel the channel
+	 * @return true if the queue is now empty
+	 * @throws IOException if an i/o exception occurs
+	 */
+	synchronized boolean flush(GatheringByteChannel channel) throws IOException {
+		while(!queue.isEmpty()) {
+			int num = 0;
+			for(ByteBuffer buf : queue) {
+				gather[num++] = buf;
+				if(num == gather.length)
+					break;
+			}
+
+			long written = channel.write(gather, 0, num);
+			queuedBytes -= written;
+			flushedBytes += written;
+			for(int i = 0; i < num && !gather[i].hasRemaining(); i++) {
+				BufferPool.instance.release(queue.poll());
+			}
+			for(int i = 0; i < num; i++) {
+				gather[i] = null;
+			}
+
+			if(written == 0 || (!queue.isEmpty() && queue.peek().position() > 0))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Throws away everything that is queued, for when the connection is closed
+	 */
+	synchronized void clear() {
+		ByteBuffer buf;
+		while((buf = queue.poll()) != null) {
+			BufferPool.instance.release(buf);
+		}
+		queuedBytes = 0;
+	}
+
+	/**
+	 * @return if anything is waiting to be written
+	 */
+	public synchronized boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	/**
+	 * @return the number of buffers waiting to be written
+	 */
+	public synchronized int getDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return the number of bytes that have been sent but not yet written to the connection
+	 */
+	public synchronized int getBytesInFlight() {
+		return queuedBytes;
+	}
+
+	/**
+	 * @return the number of bytes that have been written from the queue since it was
+	 * created. Bytes written straight to the connection are not counted, so this only
+	 * grows while the connection is backed up
+	 */
+	public synchronized long getBytesFlushed() {
+		return flushedBytes;
+	}
+
+	/**
+	 * @return the number of frames thrown away by the DROP policy
+	 */
+	public synchronized long getDroppedFrames() {
+		return droppedFrames;
+	}
+
+	private void add(ByteBuffer buffer) {
+		ByteBuffer copy = BufferPool.instance.acquire(buffer.remaining());
+		copy.put(buffer);
+		copy.flip();
+		queue.add(copy);
+		queuedBytes += copy.remaining();
+	}
+
+	/**
+	 * Replaces a queued frame that has the same key as the buffer, if the
+	 * header of the buffer is replaceable. The buffer takes the place of the
+	 * queued frame rather than going to the back of the queue.
+	 *
+	 * @param buffer the buffer containing exactly one frame
+	 * @return true if a frame was replaced
+	 */
+	private boolean replace(ByteBuffer buffer) {
+		int start = buffer.position();
+		if(buffer.remaining() < FrameBuffer.LENGTH_BYTES + COALESCE_KEY_BYTES
+				|| buffer.getInt(start) != buffer.remaining() - FrameBuffer.LENGTH_BYTES)
+			return false;
+		HeaderRegistry.Header header = HeaderRegistry.instance.lookup(buffer.getInt(start + HEADER_OFFSET));
+		if(header == null || !header.isReplaceable())
+			return false;
+
+		for(ByteBuffer queued : queue) {
+			if(queued.position() > 0 || queued.remaining() < FrameBuffer.LENGTH_BYTES + COALESCE_KEY_BYTES
+					|| queued.getInt(0) != queued.remaining() - FrameBuffer.LENGTH_BYTES)
+				continue;
+			if(queued.getLong(FrameBuffer.LENGTH_BYTES) != buffer.getLong(start + FrameBuffer.LENGTH_BYTES))
+				continue;
+
+			queuedBytes += buffer.remaining() - queued.remaining();
+			if(buffer.remaining() <= queued.capacity()) {
+				queued.clear();
+				queued.put(buffer);
+				queued.flip();
+				return true;
+			}
+
+			ByteBuffer copy = BufferPool.instance.acquire(buffer.remaining());
+			copy.put(buffer);
+			copy.flip();
+			ArrayDeque<ByteBuffer> replaced = new ArrayDeque<>(queue.size());
+			for(ByteBuffer buf : queue) {
+				replaced.add(buf == queued ? copy : buf);
+			}
+			queue = replaced;
+			BufferPool.instance.release(queued);
+			return true;
+		}
+		return false;
+	}
+}
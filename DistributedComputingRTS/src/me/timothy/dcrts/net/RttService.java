@@ -0,0 +1,244 @@
+package me.timothy.dcrts.net;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.timothy.dcrts.net.packets.ReturnPingPacket;
+import me.timothy.dcrts.packet.PacketHandler;
+import me.timothy.dcrts.packet.PacketHeader;
+import me.timothy.dcrts.packet.PacketListener;
+import me.timothy.dcrts.packet.PacketManager;
+import me.timothy.dcrts.packet.ParsedPacket;
+import me.timothy.dcrts.peer.Peer;
+
+/**
+ * Measures the round trip time to peers for as long as it runs, so anything
+ * can read the latest {@link RttStats} of a peer without waiting for a
+ * measurement.<br>
+ * <br>
+ * Every peer is sent a ping each interval, and up to {@link #PIPELINE_DEPTH}
+ * pings may be waiting for an answer at once, so a slow peer is still sampled
+ * every interval. The long echoed by a ping is a sequence number rather than
+ * a time, and the answer is matched to the ping it answers by it and timed
+ * with {@link System#nanoTime()}. Answers that match nothing, such as to pings
+ * someone else sent, are ignored, and pings not answered within
+ * {@link #PING_TIMEOUT_NS} count as lost. Answers also carry the clock of the
+ * peer when it answered, which keeps a {@link ClockOffset} to every peer.
+ *
+ * @author Timothy
+ */
+public class RttService extends Thread implements PacketListener {
+	/**
+	 * Sends the pings for the service
+	 */
+	public interface Transport {
+		/**
+		 * @return the peers to measure
+		 */
+		List<Peer> getPeers();
+
+		/**
+		 * Sends a ping to the peer
+		 *
+		 * @param peer the peer
+		 * @param sequence the long the ping carries
+		 * @return if the ping was sent, false if there is no way to the peer right now
+		 * @throws IOException if the ping could not be sent
+		 */
+		boolean sendPing(Peer peer, long sequence) throws IOException;
+	}
+
+	/**
+	 * How often each peer is pinged, by default
+	 */
+	public static final long DEFAULT_INTERVAL_MS = 250;
+
+	/**
+	 * How many pings to a peer may be waiting for an answer at once
+	 */
+	public static final int PIPELINE_DEPTH = 4;
+
+	/**
+	 * How long a ping is waited on before it is counted as lost
+	 */
+	public static final long PING_TIMEOUT_NS = 2000000000L;
+
+	/**
+	 * Shared by every service, so that two services never wait on the same
+	 * sequence number. The sign bit is set so the numbers do not look like the
+	 * times other pings carry
+	 */
+	private static final AtomicLong nextSequence = new AtomicLong(Long.MIN_VALUE + 1);
+
+	/**
+	 * The pings waiting on a single peer
+	 */
+	private static class Link {
+		final RttStats stats = new RttStats();
+		final ClockOffset clock = new ClockOffset();
+		final long[] sequences = new long[PIPELINE_DEPTH];
+		final long[] sentAt = new long[PIPELINE_DEPTH];
+
+		/**
+		 * Takes a free slot for a new ping, counting pings that timed out as lost
+		 *
+		 * @return the slot, or -1 if the pipeline is full
+		 */
+		synchronized int take(long sequence, long now) {
+			int free = -1;
+			for(int i = 0; i < PIPELINE_DEPTH; i++) {
+				if(sequences[i] != 0 && now - sentAt[i] > PING_TIMEOUT_NS) {
+					sequences[i] = 0;
+					stats.recordLoss();
+				}
+				if(sequences[i] == 0 && free < 0)
+					free = i;
+			}
+			if(free >= 0) {
+				sequences[free] = sequence;
+				sentAt[free] = now;
+			}
+			return free;
+		}
+
+		/**
+		 * Frees the slot of a ping that was not sent
+		 */
+		synchronized void cancel(long sequence) {
+			for(int i = 0; i < PIPELINE_DEPTH; i++) {
+				if(sequences[i] == sequence)
+					sequences[i] = 0;
+			}
+		}
+
+		/**
+		 * Records the answer to a ping, if it is waited on
+		 */
+		synchronized void answer(long sequence, long answeredAt, long now) {
+			for(int i = 0; i < PIPELINE_DEPTH; i++) {
+				if(sequences[i] == sequence) {
+					sequences[i] = 0;
+					stats.record(now - sentAt[i]);
+					clock.record(sentAt[i], answeredAt, now);
+					return;
+				}
+			}
+		}
+	}
+
+	private Transport transport;
+	private long interval;
+	private ConcurrentMap<Peer, Link> links;
+
+	private volatile boolean running;
+
+	public RttService(String name, Transport transport) {
+		this(name, transport, DEFAULT_INTERVAL_MS);
+	}
+
+	/**
+	 * @param name the name of the thread
+	 * @param transport what sends the pings
+	 * @param interval how often each peer is pinged, in milliseconds
+	 */
+	public RttService(String name, Transport transport, long interval) {
+		super(name);
+		if(interval <= 0)
+			throw new IllegalArgumentException("The interval must be positive, got " + interval);
+		setDaemon(true);
+		this.transport = transport;
+		this.interval = interval;
+		links = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * @param peer the peer
+	 * @return what has been measured to the peer, or null if the peer is not being measured
+	 */
+	public RttStats getStats(Peer peer) {
+		Link link = links.get(peer);
+		return link != null ? link.stats : null;
+	}
+
+	/**
+	 * @param peer the peer
+	 * @return the offset of the peer's clock, or null if the peer is not being measured
+	 */
+	public ClockOffset getClock(Peer peer) {
+		Link link = links.get(peer);
+		return link != null ? link.clock : null;
+	}
+
+	@Override
+	public void start() {
+		running = true;
+		PacketManager.instance.registerClass(this);
+		super.start();
+	}
+
+	/**
+	 * Stops measuring. The stats are kept as they are
+	 */
+	public void shutdown() {
+		running = false;
+		PacketManager.instance.unregisterClass(this);
+		interrupt();
+	}
+
+	@Override
+	public void run() {
+		while(running) {
+			List<Peer> peers = transport.getPeers();
+			links.keySet().retainAll(peers);
+			for(Peer peer : peers) {
+				if(!running)
+					break;
+				ping(peer);
+			}
+
+			try {
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	@PacketHandler(header=PacketHeader.RETURN_PING, priority=4)
+	public void onReturnPing(Peer peer, ParsedPacket packet) {
+		if(peer == null)
+			return;
+		long now = System.nanoTime();
+		Link link = links.get(peer);
+		if(link != null) {
+			ReturnPingPacket returnPing = (ReturnPingPacket) packet;
+			link.answer(returnPing.getTimeSent(), returnPing.getAnsweredAt(), now);
+		}
+	}
+
+	private void ping(Peer peer) {
+		Link link = links.get(peer);
+		if(link == null) {
+			link = new Link();
+			Link existing = links.putIfAbsent(peer, link);
+			if(existing != null)
+				link = existing;
+		}
+
+		long sequence = nextSequence.getAndIncrement();
+		if(link.take(sequence, System.nanoTime()) < 0)
+			return;
+		boolean sent = false;
+		try {
+			sent = transport.sendPing(peer, sequence);
+		} catch (IOException e) {
+			System.err.println("[" + getName() + "] Could not ping " + peer + " (" + e.getMessage() + ")");
+		} finally {
+			if(!sent)
+				link.cancel(sequence);
+		}
+	}
+}
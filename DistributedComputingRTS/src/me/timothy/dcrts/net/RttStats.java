@@ -0,0 +1,138 @@
+package me.timothy.dcrts.net;
+
+import java.util.Arrays;
+
+/**
+ * The round trip times measured to a single peer by an {@link RttService}.
+ * Keeps the smallest round trip seen, a smoothed round trip the way TCP
+ * smooths it, and the 99th percentile of the last {@link #WINDOW} round trips,
+ * along with how many pings were lost.
+ *
+ * @author Timothy
+ */
+public class RttStats {
+	/**
+	 * How much of the smoothed round trip time each new sample makes up
+	 */
+	public static final double RTT_GAIN = 1.0 / 8;
+
+	/**
+	 * How many of the latest round trips the percentiles are taken over
+	 */
+	public static final int WINDOW = 128;
+
+	private long min = -1;
+	private long smoothed = -1;
+	private long last = -1;
+	private long[] window;
+	private long samples;
+	private long lost;
+
+	public RttStats() {
+		window = new long[WINDOW];
+	}
+
+	/**
+	 * Records a round trip
+	 * @param rtt the round trip time, in nanoseconds
+	 */
+	public synchronized void record(long rtt) {
+		if(rtt < 0)
+			return;
+		if(min < 0 || rtt < min)
+			min = rtt;
+		if(smoothed < 0)
+			smoothed = rtt;
+		else
+			smoothed += Math.round((rtt - smoothed) * RTT_GAIN);
+		last = rtt;
+		window[(int) (samples % WINDOW)] = rtt;
+		samples++;
+	}
+
+	/**
+	 * Records a ping that was never answered
+	 */
+	public synchronized void recordLoss() {
+		lost++;
+	}
+
+	/**
+	 * @return if the round trip time has been measured at least once
+	 */
+	public synchronized boolean hasRtt() {
+		return samples > 0;
+	}
+
+	/**
+	 * @return the smallest round trip time in nanoseconds, or -1 if it has not been measured
+	 */
+	public synchronized long getMin() {
+		return min;
+	}
+
+	/**
+	 * @return the smoothed round trip time in nanoseconds, or -1 if it has not been measured
+	 */
+	public synchronized long getSmoothed() {
+		return smoothed;
+	}
+
+	/**
+	 * @return the latest round trip time in nanoseconds, or -1 if it has not been measured
+	 */
+	public synchronized long getLast() {
+		return last;
+	}
+
+	/**
+	 * @return the 99th percentile of the recent round trip times in nanoseconds, or -1
+	 * if it has not been measured
+	 */
+	public long getP99() {
+		return getPercentile(0.99);
+	}
+
+	/**
+	 * @param fraction the percentile, from 0 to 1
+	 * @return the percentile of the recent round trip times in nanoseconds, or -1
+	 * if it has not been measured
+	 */
+	public long getPercentile(double fraction) {
+		if(fraction < 0 || fraction > 1)
+			throw new IllegalArgumentException("The percentile must be from 0 to 1, got " + fraction);
+		long[] recent;
+		synchronized(this) {
+			if(samples == 0)
+				return -1;
+			recent = Arrays.copyOf(window, (int) Math.min(samples, WINDOW));
+		}
+		Arrays.sort(recent);
+		int index = (int) Math.ceil(fraction * recent.length) - 1;
+		return recent[Math.max(0, index)];
+	}
+
+	/**
+	 * @return how many round trips have been measured
+	 */
+	public synchronized long getSamples() {
+		return samples;
+	}
+
+	/**
+	 * @return how many pings were never answered
+	 */
+	public synchronized long getLost() {
+		return lost;
+	}
+
+	@Override
+	public String toString() {
+		long p99 = getP99();
+		synchronized(this) {
+			if(samples == 0)
+				return "rtt unknown, " + lost + " lost";
+			return String.format("rtt %.1f ms (min %.1f, p99 %.1f), %d lost", smoothed / 1e6, min / 1e6, p99 / 1e6, lost);
+		}
+	}
+}
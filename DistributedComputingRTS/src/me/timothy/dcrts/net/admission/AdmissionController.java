@@ -0,0 +1,266 @@
+package me.timothy.dcrts.net.admission;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import me.timothy.dcrts.peer.Peer;
+
+/**
+ * Decides whether logic work is done here or sent to another peer. How much
+ * more work the peer can take is summed up as a capacity score from 0 (none)
+ * to 1 (idle), made from:
+ * <ul>
+ *   <li>The smoothed cpu load, against the most the logic may use</li>
+ *   <li>How long new work would wait, the number of tasks queued times the
+ *   smoothed time a task takes, against the longest wait allowed</li>
+ * </ul>
+ * The peer is overloaded once either is over its limit. Every peer gossips its
+ * score (see {@link LoadGossip}), and work that arrives while this peer is
+ * overloaded is routed to the peer with the most capacity, if it has enough
+ * more to be worth the trip.
+ *
+ * @author Timothy
+ */
+public class AdmissionController {
+	/**
+	 * How often the cpu load is read, at most
+	 */
+	public static final long SAMPLE_INTERVAL_NS = 100000000L;
+
+	/**
+	 * How much of the smoothed cpu load each new sample makes up
+	 */
+	public static final double CPU_GAIN = 1.0 / 4;
+
+	/**
+	 * How much of the smoothed service time each finished task makes up
+	 */
+	public static final double SERVICE_TIME_GAIN = 1.0 / 8;
+
+	public static final double DEFAULT_MAX_CPU = 0.9;
+
+	/**
+	 * The longest new work should wait before it is started, in nanoseconds
+	 */
+	public static final long DEFAULT_MAX_WAIT_NS = 50000000L;
+
+	/**
+	 * How much more capacity another peer needs for work to be routed to it
+	 */
+	public static final double ROUTE_MARGIN = 0.1;
+
+	/**
+	 * How much capacity is taken off a peer each time work is routed to it,
+	 * until its next report, so one report does not draw all the work
+	 */
+	public static final double ROUTED_COST = 0.05;
+
+	/**
+	 * How long a report is used for
+	 */
+	public static final long REPORT_TTL_NS = 5000000000L;
+
+	private static class Report {
+		volatile double capacity;
+		final int queueDepth;
+		final long received;
+
+		Report(double capacity, int queueDepth, long received) {
+			this.capacity = capacity;
+			this.queueDepth = queueDepth;
+			this.received = received;
+		}
+	}
+
+	private LoadMetrics metrics;
+	private volatile double maxCpu = DEFAULT_MAX_CPU;
+	private volatile long maxWait = DEFAULT_MAX_WAIT_NS;
+
+	private double smoothedCpu = -1;
+	private long lastSample;
+	private double serviceTime = -1;
+	private int queueDepth;
+
+	private Map<Peer, Report> reports;
+
+	public AdmissionController(LoadMetrics metrics) {
+		this.metrics = metrics;
+		reports = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * @param maxCpu the most the cpu load may be, from 0 to 1
+	 */
+	public void setMaxCpu(double maxCpu) {
+		if(maxCpu <= 0 || maxCpu > 1)
+			throw new IllegalArgumentException("The cpu limit must be above 0 and at most 1, got " + maxCpu);
+		this.maxCpu = maxCpu;
+	}
+
+	public double getMaxCpu() {
+		return maxCpu;
+	}
+
+	/**
+	 * @param maxWait the longest new work should wait before it is started, in nanoseconds
+	 */
+	public void setMaxWait(long maxWait) {
+		this.maxWait = maxWait;
+	}
+
+	/**
+	 * Called when a task is queued here
+	 */
+	public synchronized void onTaskQueued() {
+		queueDepth++;
+	}
+
+	/**
+	 * Called when a task queued here is finished
+	 * @param serviceNanos how long it took to run, in nanoseconds
+	 */
+	public synchronized void onTaskFinished(long serviceNanos) {
+		if(queueDepth > 0)
+			queueDepth--;
+		if(serviceNanos < 0)
+			return;
+		if(serviceTime < 0)
+			serviceTime = serviceNanos;
+		else
+			serviceTime += (serviceNanos - serviceTime) * SERVICE_TIME_GAIN;
+	}
+
+	public synchronized int getQueueDepth() {
+		return queueDepth;
+	}
+
+	/**
+	 * @return the smoothed cpu load, or a negative number if it is not known
+	 */
+	public synchronized double getCpuLoad() {
+		sample();
+		return smoothedCpu;
+	}
+
+	/**
+	 * @return how long new work would wait, in nanoseconds
+	 */
+	public synchronized double getExpectedWait() {
+		return serviceTime < 0 ? 0 : queueDepth * serviceTime;
+	}
+
+	/**
+	 * @return the capacity score, from 0 (none) to 1 (idle)
+	 */
+	public synchronized double getCapacity() {
+		sample();
+		double cpuHeadroom = smoothedCpu < 0 ? 1 : Math.max(0, 1 - smoothedCpu / maxCpu);
+		return cpuHeadroom / (1 + getExpectedWait() / maxWait);
+	}
+
+	/**
+	 * @return if the cpu load or the wait is over its limit
+	 */
+	public synchronized boolean isOverloaded() {
+		sample();
+		return smoothedCpu >= maxCpu || getExpectedWait() > maxWait;
+	}
+
+	/**
+	 * Records the score another peer reported
+	 *
+	 * @param peer the peer
+	 * @param capacity its capacity score
+	 * @param queueDepth how many tasks it has
+	 */
+	public void onReport(Peer peer, double capacity, int queueDepth) {
+		reports.put(peer, new Report(capacity, queueDepth, System.nanoTime()));
+	}
+
+	/**
+	 * Forgets the peers that are not in the collection
+	 *
+	 * @param peers the peers to remember
+	 */
+	public void retain(Collection<Peer> peers) {
+		reports.keySet().retainAll(peers);
+	}
+
+	/**
+	 * @param peer the peer
+	 * @return the capacity the peer last reported, less what has been routed to it since, or
+	 * a negative number if it has not reported recently
+	 */
+	public double getCapacityOf(Peer peer) {
+		Report report = reports.get(peer);
+		if(report == null || System.nanoTime() - report.received > REPORT_TTL_NS)
+			return -1;
+		return report.capacity;
+	}
+
+	/**
+	 * @param peer the peer
+	 * @return how many tasks the peer last reported, or -1 if it has not reported recently
+	 */
+	public int getQueueDepthOf(Peer peer) {
+		Report report = reports.get(peer);
+		if(report == null || System.nanoTime() - report.received > REPORT_TTL_NS)
+			return -1;
+		return report.queueDepth;
+	}
+
+	/**
+	 * Picks where new work should be done. Work stays here unless this peer is
+	 * overloaded and another peer has reported at least {@link #ROUTE_MARGIN} more
+	 * capacity, in which case the peer with the most capacity gets it. Routes
+	 * are picked one at a time, so work routed at once is spread by the
+	 * capacity each route takes off.
+	 *
+	 * @param local the local peer
+	 * @return the peer the work should be done by
+	 */
+	public synchronized Peer route(Peer local) {
+		if(!isOverloaded())
+			return local;
+
+		double localCapacity = getCapacity();
+		Peer best = null;
+		Report bestReport = null;
+		double bestCapacity = localCapacity + ROUTE_MARGIN;
+		long now = System.nanoTime();
+		for(Map.Entry<Peer, Report> entry : reports.entrySet()) {
+			Report report = entry.getValue();
+			if(now - report.received > REPORT_TTL_NS)
+				continue;
+			if(report.capacity > bestCapacity) {
+				best = entry.getKey();
+				bestReport = report;
+				bestCapacity = report.capacity;
+			}
+		}
+		if(best == null)
+			return local;
+
+		bestReport.capacity -= ROUTED_COST;
+		return best;
+	}
+
+	/**
+	 * Reads the cpu load, unless it was read recently
+	 */
+	private void sample() {
+		long now = System.nanoTime();
+		if(lastSample != 0 && now - lastSample < SAMPLE_INTERVAL_NS)
+			return;
+		lastSample = now;
+
+		double load = metrics.getCpuLoad();
+		if(load < 0)
+			return;
+		if(smoothedCpu < 0)
+			smoothedCpu = load;
+		else
+			smoothedCpu += (load - smoothedCpu) * CPU_GAIN;
+	}
+}
@@ -0,0 +1,28 @@
+package me.timothy.dcrts.net.admission;
+
+/**
+ * Load that is whatever it was last set to, instead of being measured. Lets
+ * the admission policy be checked, or many peers be simulated on one machine,
+ * without Sigar.
+ *
+ * @author Timothy
+ */
+public class FixedLoadMetrics implements LoadMetrics {
+	private volatile double cpuLoad;
+
+	/**
+	 * @param cpuLoad the cpu load, from 0 to 1, or negative if it is not known
+	 */
+	public FixedLoadMetrics(double cpuLoad) {
+		this.cpuLoad = cpuLoad;
+	}
+
+	public void setCpuLoad(double cpuLoad) {
+		this.cpuLoad = cpuLoad;
+	}
+
+	@Override
+	public double getCpuLoad() {
+		return cpuLoad;
+	}
+}
@@ -0,0 +1,97 @@
+package me.timothy.dcrts.net.admission;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import me.timothy.dcrts.GameState;
+import me.timothy.dcrts.net.NetState;
+import me.timothy.dcrts.net.packets.LoadReportEncoder;
+import me.timothy.dcrts.net.packets.LoadReportPacket;
+import me.timothy.dcrts.packet.PacketHandler;
+import me.timothy.dcrts.packet.PacketHeader;
+import me.timothy.dcrts.packet.PacketListener;
+import me.timothy.dcrts.packet.PacketManager;
+import me.timothy.dcrts.packet.ParsedPacket;
+import me.timothy.dcrts.peer.Peer;
+import me.timothy.dcrts.utils.BufferPool;
+import me.timothy.dcrts.utils.NetUtils;
+
+/**
+ * Runs on every peer, sending the local capacity score to everyone once a
+ * second and passing the scores other peers send to the
+ * {@link AdmissionController} of the net state. A report is 16 bytes, so this
+ * costs next to nothing even with many peers.
+ *
+ * @author Timothy
+ */
+public class LoadGossip extends Thread implements PacketListener {
+	/**
+	 * How often the local score is sent
+	 */
+	public static final long REPORT_INTERVAL_MS = 1000;
+
+	private NetState netState;
+	private GameState gameState;
+
+	private volatile boolean running;
+
+	public LoadGossip(NetState netState, GameState gameState) {
+		super("LoadGossip");
+		setDaemon(true);
+		this.netState = netState;
+		this.gameState = gameState;
+	}
+
+	@Override
+	public void start() {
+		running = true;
+		PacketManager.instance.registerClass(this);
+		super.start();
+	}
+
+	/**
+	 * Stops sending reports and forgets the ones that were received
+	 */
+	public void shutdown() {
+		running = false;
+		PacketManager.instance.unregisterClass(this);
+		interrupt();
+		netState.getAdmissionController().retain(Collections.<Peer>emptyList());
+	}
+
+	@Override
+	public void run() {
+		while(running) {
+			try {
+				Thread.sleep(REPORT_INTERVAL_MS);
+			} catch (InterruptedException e) {
+				break;
+			}
+			AdmissionController controller = netState.getAdmissionController();
+			controller.retain(gameState.getConnectedPeers());
+			report(controller);
+		}
+	}
+
+	@PacketHandler(header=PacketHeader.LOAD_REPORT, priority=5)
+	public void onLoadReport(Peer peer, ParsedPacket packet) {
+		if(peer == null || peer == gameState.getLocalPeer())
+			return;
+		LoadReportPacket report = (LoadReportPacket) packet;
+		netState.getAdmissionController().onReport(peer, report.getCapacity(), report.getQueueDepth());
+	}
+
+	private void report(AdmissionController controller) {
+		ByteBuffer buffer = NetUtils.createBuffer(gameState.getLocalPeer().getID(), PacketHeader.LOAD_REPORT);
+		try {
+			LoadReportEncoder.INSTANCE.write(buffer, controller.getCapacity(), controller.getQueueDepth());
+			buffer.flip();
+			netState.getLocalNetModule().sendData(buffer);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package me.timothy.dcrts.net.admission;
+
+/**
+ * Where an {@link AdmissionController} reads how busy the machine is from
+ *
+ * @author Timothy
+ */
+public interface LoadMetrics {
+	/**
+	 * @return how busy every cpu is on average, from 0 to 1, or a negative
+	 * number if it is not known
+	 */
+	public double getCpuLoad();
+}
@@ -0,0 +1,28 @@
+package me.timothy.dcrts.net.admission;
+
+import me.timothy.dcrts.net.LogicModule;
+
+import org.hyperic.sigar.SigarException;
+
+/**
+ * Reads the combined cpu usage from Sigar. If Sigar cannot be used, such as
+ * when its native library is missing, the load is unknown from then on
+ *
+ * @author Timothy
+ */
+public class SigarLoadMetrics implements LoadMetrics {
+	private volatile boolean failed;
+
+	@Override
+	public double getCpuLoad() {
+		if(failed)
+			return -1;
+		try {
+			return LogicModule.sigar.getCpuPerc().getCombined();
+		} catch (SigarException | UnsatisfiedLinkError e) {
+			failed = true;
+			System.err.println("[SigarLoadMetrics] Cannot read the cpu usage, it will be ignored (" + e.getMessage() + ")");
+			return -1;
+		}
+	}
+}
@@ -1,9 +1,25 @@
 package me.timothy.dcrts.net.connect;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
 import me.timothy.dcrts.GameState;
 import me.timothy.dcrts.net.LogicModule;
 import me.timothy.dcrts.net.NetModule;
+import me.timothy.dcrts.net.NetReactor;
 import me.timothy.dcrts.net.NetState;
+import me.timothy.dcrts.net.RttService;
+import me.timothy.dcrts.net.admission.LoadGossip;
+import me.timothy.dcrts.net.topology.RelayTopology;
+import me.timothy.dcrts.net.topology.TopologyOptimizer;
+import me.timothy.dcrts.net.packets.PingEncoder;
+import me.timothy.dcrts.packet.PacketHeader;
+import me.timothy.dcrts.packet.PacketManager;
+import me.timothy.dcrts.peer.Peer;
+import me.timothy.dcrts.utils.BufferPool;
+import me.timothy.dcrts.utils.NetUtils;
 
 /**
  * The connection handler is the sole handler for
@@ -18,6 +34,12 @@ import me.timothy.dcrts.net.NetState;
  * so the modules must handle synchronization appropriately.
  * Creating the initial modules is part of the ConnectingBuilder.
  * 
+ * Every peer keeps a view of the relay tree, and the broadcaster
+ * that hosted the lobby also runs the optimizer that builds it.
+ * Every peer also gossips how much more logic work it can take,
+ * and measures the round trip time to every peer it has a connection
+ * to, for anything that reads {@link NetState#getRttService()}.
+ * 
  * @author Timothy
  * @see me.timothy.dcrts.net.Module
  * @see me.timothy.dcrts.net.NetModule
@@ -31,16 +53,64 @@ public class ConnectingHandler {
 	private NetState netState;
 	private GameState gameState;
 	
+	private RelayTopology topology;
+	private TopologyOptimizer optimizer;
+	private LoadGossip loadGossip;
+	private RttService rttService;
+	
 	public ConnectingHandler(NetModule nm, LogicModule lm, NetState ns, GameState gs) {
+		this(nm, lm, ns, gs, new RelayTopology(ns, gs), null);
+	}
+	
+	/**
+	 * @param nm the initial net module
+	 * @param lm the initial logic module
+	 * @param ns the net state
+	 * @param gs the game state
+	 * @param top the local view of the relay tree
+	 * @param opt the optimizer of the relay tree, or null if this peer does not build it
+	 */
+	public ConnectingHandler(NetModule nm, LogicModule lm, NetState ns, GameState gs, RelayTopology top, TopologyOptimizer opt) {
 		netModule = nm;
 		logicModule = lm;
 		netState = ns;
 		gameState = gs;
+		topology = top;
+		optimizer = opt;
+		loadGossip = new LoadGossip(ns, gs);
+		rttService = new RttService("GameRtt", new RttService.Transport() {
+			@Override
+			public List<Peer> getPeers() {
+				return gameState.getConnectedPeers();
+			}
+
+			@Override
+			public boolean sendPing(Peer peer, long sequence) throws IOException {
+				SocketChannel channel = netState.getSocketChannelOf(peer);
+				if(channel == null)
+					return false;
+				ByteBuffer buffer = NetUtils.createBuffer(gameState.getLocalPeer().getID(), PacketHeader.PING);
+				try {
+					PingEncoder.PING.write(buffer, sequence);
+					buffer.flip();
+					NetReactor.instance.write(channel, buffer);
+				} finally {
+					BufferPool.instance.release(buffer);
+				}
+				return true;
+			}
+		});
 	}
 	
 	public void begin() {
+		PacketManager.instance.registerClass(topology);
 		netModule.onActivate();
 		logicModule.onActivate();
+		netState.setRttService(rttService);
+		rttService.start();
+		if(optimizer != null)
+			optimizer.start();
+		loadGossip.start();
 	}
 	
 	public NetState getNetState() {
@@ -50,9 +120,25 @@ public class ConnectingHandler {
 	public GameState getGameState() {
 		return gameState;
 	}
+	
+	public RelayTopology getTopology() {
+		return topology;
+	}
+	
+	/**
+	 * @return the optimizer of the relay tree, or null if this peer does not build it
+	 */
+	public TopologyOptimizer getOptimizer() {
+		return optimizer;
+	}
 
 	public void destroy() {
-		netModule.onDeactivate();
-		logicModule.onDeactivate();
+		if(optimizer != null)
+			optimizer.shutdown();
+		loadGossip.shutdown();
+		rttService.shutdown();
+		netState.setRttService(null);
+		PacketManager.instance.unregisterClass(topology);
+		netState.deactivateLocalModules();
 	}
 }
@@ -2,11 +2,23 @@ package me.timothy.dcrts.net.connect;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import me.timothy.dcrts.net.module.ModuleHandler;
+import me.timothy.dcrts.net.packets.ChangeModuleEncoder;
 import me.timothy.dcrts.net.packets.ChangeModulePacket;
 import me.timothy.dcrts.net.packets.DestroyingChannelPacket;
+import me.timothy.dcrts.net.packets.EmptyEncoder;
+import me.timothy.dcrts.net.packets.LoadReportEncoder;
+import me.timothy.dcrts.net.packets.LoadReportPacket;
+import me.timothy.dcrts.net.packets.ReconfigurePacket;
+import me.timothy.dcrts.net.packets.WhisperEncoder;
 import me.timothy.dcrts.net.packets.WhisperPacket;
+import me.timothy.dcrts.net.topology.RelayTree;
+import me.timothy.dcrts.packet.HeaderRegistry;
 import me.timothy.dcrts.packet.PacketHeader;
 import me.timothy.dcrts.packet.PacketListener;
 import me.timothy.dcrts.packet.PacketManager;
@@ -22,6 +34,24 @@ import me.timothy.dcrts.utils.NetUtils;
  */
 public class ConnectionPackets implements PacketListener {
 	private static ConnectionPackets instance;
+	
+	/*
+	 * The flyweights each reading thread fills when decoding flyweights,
+	 * see PacketManager.DecodeMode
+	 */
+	private static final ThreadLocal<ChangeModulePacket> changeModules = new ThreadLocal<ChangeModulePacket>() {
+		@Override
+		protected ChangeModulePacket initialValue() {
+			return new ChangeModulePacket(-1, null, false, null, ChangeModulePacket.NO_PARENT);
+		}
+	};
+	private static final ThreadLocal<LoadReportPacket> loadReports = new ThreadLocal<LoadReportPacket>() {
+		@Override
+		protected LoadReportPacket initialValue() {
+			return new LoadReportPacket(0, 0);
+		}
+	};
+	private static final DestroyingChannelPacket DESTROYING_CHANNEL = new DestroyingChannelPacket();
 
 	private ConnectionPackets() {
 
@@ -40,10 +70,21 @@ public class ConnectionPackets implements PacketListener {
 		pm.registerPacketParser(instance, "parseChangeModule", PacketHeader.CHANGE_MODULE);
 		pm.registerPacketParser(instance, "parseWhisper", PacketHeader.WHISPER);
 		pm.registerPacketParser(instance, "parseDestroyChannel", PacketHeader.DESTROYING_CHANNEL);
+		pm.registerPacketParser(instance, "parseReconfigure", PacketHeader.RECONFIGURE);
+		pm.registerPacketParser(instance, "parseLoadReport", PacketHeader.LOAD_REPORT);
+		
+		pm.registerEncoder(ChangeModuleEncoder.INSTANCE);
+		pm.registerEncoder(LoadReportEncoder.INSTANCE);
+		pm.registerEncoder(WhisperEncoder.INSTANCE);
+		pm.registerEncoder(EmptyEncoder.DESTROYING_CHANNEL);
+		pm.registerPacketSender(instance, "createReconfigure", PacketHeader.RECONFIGURE);
 		
-		pm.registerPacketSender(instance, "createChangeModule", PacketHeader.CHANGE_MODULE);
-		pm.registerPacketSender(instance, "createWhisper", PacketHeader.WHISPER);
-		pm.registerPacketSender(instance, "createDestroyChannel", PacketHeader.DESTROYING_CHANNEL);
+		// their handlers hash module jars and swap modules
+		pm.setBlocking(PacketHeader.CHANGE_MODULE, true);
+		pm.setBlocking(PacketHeader.RECONFIGURE, true);
+		
+		// only the latest capacity of a peer matters
+		HeaderRegistry.instance.lookup(PacketHeader.LOAD_REPORT.getValue()).setReplaceable(true);
 	}
 	
 	/**
@@ -57,70 +98,123 @@ public class ConnectionPackets implements PacketListener {
 		
 		boolean netMod = buffer.get() == 1;
 		
-		int mLen = buffer.getInt();
-		String module = NetUtils.readString(buffer, mLen);
-		int sha1HashLen = buffer.getInt(); // 20
+		String module = NetUtils.readString(buffer);
+		int hashLen = buffer.getInt(); // 20, or 32 for SHA-256
 		
-		byte[] hash = new byte[sha1HashLen];
+		if(PacketManager.instance.isDecodingFlyweights()) {
+			ChangeModulePacket packet = changeModules.get();
+			buffer.get(packet.getHashBuffer(hashLen));
+			return packet.set(peerId, module, netMod, buffer.getInt());
+		}
+		byte[] hash = new byte[hashLen];
 		buffer.get(hash);
+		int parent = buffer.getInt();
 		
-		return new ChangeModulePacket(peerId, module, netMod, hash);
+		return new ChangeModulePacket(peerId, module, netMod, hash, parent);
 	}
 
 	/**
-	 * Writes a change module packet, should not be called outside of the packet manager
+	 * Parses a reconfigure packet, should not be called outside of the packet manager
+	 * @param header the header
 	 * @param buffer the buffer
-	 * @param arguments Length 3, contains a peer (whose changing the module), if the module is an et module,
-	 * 				and a string (the name of the module that is being changed to)
+	 * @return the parsed packet
 	 */
-	public void createChangeModule(ByteBuffer buffer, Object... arguments) {
-		Peer peer = (Peer) arguments[0];
-		boolean netMod = (boolean) arguments[1];
-		String module = (String) arguments[2];
-		
-		byte[] sha1Hash = null;
-		try {
-			sha1Hash = NetUtils.sha1Hash(ModuleHandler.getFileForModule(module));
-		} catch (IOException e) {
-			e.printStackTrace();
-			return;
+	public ParsedPacket parseReconfigure(PacketHeader header, ByteBuffer buffer) {
+		int epoch = buffer.getInt();
+		
+		int numModules = buffer.get();
+		String[] moduleNames = new String[numModules];
+		Map<String, byte[]> hashes = new HashMap<>();
+		for(int i = 0; i < numModules; i++) {
+			moduleNames[i] = NetUtils.readString(buffer);
+			byte[] hash = new byte[buffer.get()];
+			buffer.get(hash);
+			hashes.put(moduleNames[i], hash);
+		}
+		
+		Map<Integer, String> modules = new HashMap<>();
+		Map<Integer, Integer> parents = new HashMap<>();
+		int root = buffer.getInt();
+		modules.put(root, moduleNames[buffer.get()]);
+		int numPeers = buffer.getInt();
+		for(int i = 0; i < numPeers; i++) {
+			int peerId = buffer.getInt();
+			parents.put(peerId, buffer.getInt());
+			modules.put(peerId, moduleNames[buffer.get()]);
 		}
 		
-		buffer.putInt(peer.getID());
-		buffer.put(netMod ? (byte) 1 : (byte) 0);
-		buffer.putInt(module.length());
-		NetUtils.putString(buffer, module);
-		buffer.putInt(sha1Hash.length);
-		buffer.put(sha1Hash);
+		return new ReconfigurePacket(epoch, root, parents, modules, hashes);
 	}
 	
 	/**
-	 * Parses a whisper packet, should not be called outside of the packet manager
+	 * Writes a reconfigure packet, should not be called outside of the packet manager
+	 * @param buffer the buffer
+	 * @param arguments Length 2, the epoch (an int) and the new relay tree
+	 */
+	public void createReconfigure(ByteBuffer buffer, Object... arguments) {
+		int epoch = (int) arguments[0];
+		RelayTree tree = (RelayTree) arguments[1];
+		
+		List<String> moduleNames = new ArrayList<>();
+		for(Peer p : tree.getPeers()) {
+			if(!moduleNames.contains(tree.getRoleOf(p)))
+				moduleNames.add(tree.getRoleOf(p));
+		}
+		
+		buffer.putInt(epoch);
+		buffer.put((byte) moduleNames.size());
+		for(String module : moduleNames) {
+			byte[] hash;
+			try {
+				hash = ModuleHandler.hashModule(module);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+			NetUtils.putString(buffer, module);
+			buffer.put((byte) hash.length);
+			buffer.put(hash);
+		}
+		
+		Peer root = tree.getRoot();
+		buffer.putInt(root.getID());
+		buffer.put((byte) moduleNames.indexOf(tree.getRoleOf(root)));
+		buffer.putInt(tree.getPeers().size() - 1);
+		for(Peer p : tree.getPeers()) {
+			if(p == root)
+				continue;
+			buffer.putInt(p.getID());
+			buffer.putInt(tree.getParent(p).getID());
+			buffer.put((byte) moduleNames.indexOf(tree.getRoleOf(p)));
+		}
+	}
+	
+	/**
+	 * Parses a load report packet, should not be called outside of the packet manager
 	 * @param header the header
 	 * @param buffer the buffer
 	 * @return the parsed packet
 	 */
-	public ParsedPacket parseWhisper(PacketHeader header, ByteBuffer buffer) {
-		int pId = buffer.getInt();
-		int msgLen = buffer.getInt();
-		String msg = NetUtils.readString(buffer, msgLen);
+	public ParsedPacket parseLoadReport(PacketHeader header, ByteBuffer buffer) {
+		float capacity = buffer.getFloat();
+		int queueDepth = buffer.getInt();
 		
-		return new WhisperPacket(pId, msg);
+		if(PacketManager.instance.isDecodingFlyweights())
+			return loadReports.get().set(capacity, queueDepth);
+		return new LoadReportPacket(capacity, queueDepth);
 	}
 	
 	/**
-	 * Writes a whisper packet, should not be called outside of the packet manager
+	 * Parses a whisper packet, should not be called outside of the packet manager
+	 * @param header the header
 	 * @param buffer the buffer
-	 * @param arguments Length 2 (Peer that it is being sent to, message that is being sent)
+	 * @return the parsed packet
 	 */
-	public void createWhisper(ByteBuffer buffer, Object... arguments) {
-		Peer peer = (Peer) arguments[0];
-		String msg = (String) arguments[1];
-		int len = msg.length();
-		
-		buffer.putInt(peer.getID());
-		buffer.putInt(len);
-		NetUtils.putString(buffer, msg);
+	public ParsedPacket parseWhisper(PacketHeader header, ByteBuffer buffer) {
+		int pId = buffer.getInt();
+		String msg = NetUtils.readString(buffer);
+		
+		return new WhisperPacket(pId, msg);
 	}
 	
 	/**
@@ -130,15 +224,9 @@ public class ConnectionPackets implements PacketListener {
 	 * @return a DestroyingChannelPacket
 	 */
 	public ParsedPacket parseDestroyChannel(PacketHeader header, ByteBuffer buffer) {
+		if(PacketManager.instance.isDecodingFlyweights())
+			return DESTROYING_CHANNEL;
 		return new DestroyingChannelPacket();
 	}
 	
-	/**
-	 * Writes a destroy channel packet, should not be called outside of the packet manager
-	 * @param buffer the buffer
-	 * @param arguments none
-	 */
-	public void createDestroyChannel(ByteBuffer buffer, Object... arguments) {
-		
-	}
 }
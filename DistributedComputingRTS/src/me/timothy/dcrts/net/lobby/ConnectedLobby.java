@@ -1,22 +1,35 @@
 package me.timothy.dcrts.net.lobby;
 
 import java.io.IOException;
+import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.Arrays;
+import java.util.List;
 
 import me.timothy.dcrts.DCRTSEntry;
+import me.timothy.dcrts.net.ChannelListener;
+import me.timothy.dcrts.net.ClockOffset;
+import me.timothy.dcrts.net.NetReactor;
+import me.timothy.dcrts.net.packets.AssignIDEncoder;
 import me.timothy.dcrts.net.packets.AssignIDPacket;
+import me.timothy.dcrts.net.packets.BeginCountdownPacket;
 import me.timothy.dcrts.net.packets.ChangeNamePacket;
+import me.timothy.dcrts.net.packets.ConnectEncoder;
 import me.timothy.dcrts.net.packets.ConnectPacket;
 import me.timothy.dcrts.net.packets.DisconnectPacket;
+import me.timothy.dcrts.net.packets.EmptyEncoder;
+import me.timothy.dcrts.net.packets.PingEncoder;
 import me.timothy.dcrts.net.packets.PingPacket;
+import me.timothy.dcrts.net.packets.ReturnPingEncoder;
 import me.timothy.dcrts.net.packets.SendNetInfoPacket;
+import me.timothy.dcrts.net.packets.SetReadyEncoder;
 import me.timothy.dcrts.net.packets.SetReadyPacket;
+import me.timothy.dcrts.net.packets.StringEncoder;
 import me.timothy.dcrts.net.packets.UpdateSettingsPacket;
+import me.timothy.dcrts.packet.FrameBuffer;
 import me.timothy.dcrts.packet.PacketHandler;
 import me.timothy.dcrts.packet.PacketHeader;
 import me.timothy.dcrts.packet.PacketListener;
@@ -25,10 +38,12 @@ import me.timothy.dcrts.packet.ParsedPacket;
 import me.timothy.dcrts.peer.LocalPeer;
 import me.timothy.dcrts.peer.OtherPeer;
 import me.timothy.dcrts.peer.Peer;
+import me.timothy.dcrts.peer.PeerRegistry;
 import me.timothy.dcrts.settings.GameSettings;
 import me.timothy.dcrts.state.ConnectionState;
 import me.timothy.dcrts.state.MainMenuState;
 import me.timothy.dcrts.state.MessageState;
+import me.timothy.dcrts.utils.BufferPool;
 import me.timothy.dcrts.utils.ErrorUtils;
 import me.timothy.dcrts.utils.NetUtils;
 
@@ -37,72 +52,86 @@ import org.newdawn.slick.state.transition.FadeInTransition;
 import org.newdawn.slick.state.transition.FadeOutTransition;
 
 public class ConnectedLobby extends Lobby implements PacketListener {
+	/**
+	 * How long to keep retrying a refused connection to another peer when
+	 * creating the connections for the game, in milliseconds
+	 */
+	private static final long PEER_CONNECT_TIMEOUT = 10000;
+	private static final long PEER_CONNECT_RETRY = 50;
+	
 	private SocketChannel connection;
 	private SocketAddress address;
 
 	private IncomingPacketReader incReader;
-	private Thread incReaderThread;
 
 	private GameSettings gameSettings;
 
-	private Peer serverPeer; // this peer is included with the connectedPeers
+	private Peer serverPeer; // this peer is included with the peers
 	private boolean destroying;
 
-	protected class IncomingPacketReader implements Runnable {
+	protected class IncomingPacketReader implements ChannelListener {
 		@Override
-		public void run() {
-			ByteBuffer buffer = ByteBuffer.allocate(512);
-			while(connection != null && connection.isOpen()) {
-				try {
-					int numBytes = -1;
-					synchronized(connection) {
-						numBytes = connection.read(buffer);
-					}
-					if(numBytes == 0) {
-						Thread.sleep(1);
-						continue;
-					}
-					if(numBytes == buffer.capacity()) {
-						throw new IOException("May have overflowed!");
-					}
-
-					buffer.flip();
-
-					while(buffer.remaining() > 0) {
-						if(connectedPeers == null)
-							break; // we've been destroyed! :(
-						parseNextPacket(buffer);
-					}
+		public void onFrame(SocketChannel channel, ByteBuffer frame) {
+			PeerRegistry registry = peers;
+			if(registry == null)
+				return; // we've been destroyed! :(
+			parseNextPacket(registry, frame);
+		}
 
-					buffer.clear();
-					Thread.yield();
-				} catch (IOException | InterruptedException e) {
-					if(!destroying) {
-						System.err.println("Connection lost (CLIENT to SERVER)");
-						destroy();
-						DCRTSEntry.instance.enterState(MainMenuState.ID, new EmptyTransition(), new FadeInTransition());
-					}
-					break;
-				}
+		@Override
+		public void onClosed(SocketChannel channel, IOException cause) {
+			if(!destroying) {
+				System.err.println("Connection lost (CLIENT to SERVER)");
+				destroy();
+				DCRTSEntry.instance.enterState(MainMenuState.ID, new EmptyTransition(), new FadeInTransition());
 			}
 		}
 
-		private void parseNextPacket(ByteBuffer buffer) {
-			int peerId = buffer.getInt();
-			int headerInt = buffer.getInt();
+		private void parseNextPacket(PeerRegistry registry, ByteBuffer frame) {
+			int frameStart = frame.position();
+			frame.getInt(); // length
+			int peerId = frame.getInt();
+			int headerInt = frame.getInt();
 
-			Peer peer = NetUtils.getPeerByID(connectedPeers, peerId);
+			Peer peer = registry.getPeer(peerId);
 			PacketHeader header = PacketHeader.byValue(headerInt);
 			if(header == null) {
 				System.out.println("[ConnectedLobby] No header with the id " + headerInt + " detected!");
 				return;
 			}
 			
-			ParsedPacket parsed = PacketManager.instance.parse(header, buffer);
+			ParsedPacket parsed = PacketManager.instance.parse(header, frame);
+			FrameBuffer.skipToEnd(frame, frameStart);
 			PacketManager.instance.broadcastPacket(peer, parsed);
 		}
 	}
 
+	/**
+	 * Connects to another peer when creating the connections for the game. That
+	 * peer opens its server socket when it gets SEND_NET_INFO as well, which may
+	 * be after we do, so refused connections are retried for a while.
+	 * 
+	 * @param address the address of the peer
+	 * @return the connected channel
+	 * @throws IOException if the connection could not be made
+	 */
+	protected static SocketChannel connectToPeer(InetSocketAddress address) throws IOException {
+		long giveUpAt = System.currentTimeMillis() + PEER_CONNECT_TIMEOUT;
+		while(true) {
+			try {
+				return SocketChannel.open(address);
+			} catch (ConnectException e) {
+				if(System.currentTimeMillis() >= giveUpAt)
+					throw e;
+			}
+			try {
+				Thread.sleep(PEER_CONNECT_RETRY);
+			} catch (InterruptedException e) {
+				throw new ConnectException("Interrupted connecting to " + address);
+			}
+		}
+	}
+
 	/**
 	 * Sends the specified buffer to the host. Does not flip
 	 * or rewind the buffer
@@ -110,22 +139,24 @@ public class ConnectedLobby extends Lobby implements PacketListener {
 	 * @param buffer the buffer
 	 */
 	protected void send(ByteBuffer buffer) {
-		synchronized(connection) {
-			try {
-				connection.write(buffer); // throwing INTERRUPT exception when always rendering
-			} catch (IOException e) {
-				throw new RuntimeException(e);
-			}
+		try {
+			NetReactor.instance.write(connection, buffer);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
 	}
 
 	@Override
 	public void changeName(String newName) {
 		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.CHANGE_NAME);
-		PacketManager.instance.send(PacketHeader.CHANGE_NAME, buffer, newName);
-		buffer.flip();
+		try {
+			StringEncoder.CHANGE_NAME.write(buffer, newName);
+			buffer.flip();
 
-		send(buffer);
+			send(buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
 
 		localPeer.setName(newName);
 	}
@@ -138,20 +169,28 @@ public class ConnectedLobby extends Lobby implements PacketListener {
 	@Override
 	public void updateSettings(GameSettings settings) {
 		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.UPDATE_SETTINGS);
-		PacketManager.instance.send(PacketHeader.UPDATE_SETTINGS, buffer, settings);
+		try {
+			PacketManager.instance.send(PacketHeader.UPDATE_SETTINGS, buffer, settings);
 
-		buffer.flip();
-		send(buffer);
+			buffer.flip();
+			send(buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
 		gameSettings = settings;
 	}
 
 	@Override
 	public void setReady(boolean ready) {
 		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.SET_READY);
-		PacketManager.instance.send(PacketHeader.SET_READY, buffer, ready);
+		try {
+			SetReadyEncoder.INSTANCE.write(buffer, ready);
 
-		buffer.flip();
-		send(buffer);
+			buffer.flip();
+			send(buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
 
 		localPeer.setReady(ready);
 	}
@@ -168,10 +207,14 @@ public class ConnectedLobby extends Lobby implements PacketListener {
 	@Override
 	public void interruptReady() {
 		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.INTERRUPT_READY);
-		PacketManager.instance.send(PacketHeader.INTERRUPT_READY, buffer);
+		try {
+			EmptyEncoder.INTERRUPT_READY.write(buffer);
 
-		buffer.flip();
-		send(buffer);
+			buffer.flip();
+			send(buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
 
 		localPeer.setReady(false);
 	}
@@ -194,13 +237,16 @@ public class ConnectedLobby extends Lobby implements PacketListener {
 		PacketManager.instance.registerClass(this);
 
 		incReader = new IncomingPacketReader();
-		incReaderThread = new Thread(incReader);
-		incReaderThread.start();
+		NetReactor.instance.register(connection, incReader);
 
 		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.CONNECT);
-		PacketManager.instance.send(PacketHeader.CONNECT, buffer, false, false, localPeer.getName());
-		buffer.flip();
-		send(buffer);
+		try {
+			ConnectEncoder.INSTANCE.writeUnassigned(buffer, false, localPeer.getName());
+			buffer.flip();
+			send(buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
 	}
 
 	@Override
@@ -210,16 +256,21 @@ public class ConnectedLobby extends Lobby implements PacketListener {
 		System.out.println("--Destroying Client--");
 		destroying = true;
 		address = null;
-		incReaderThread.interrupt();
+		if(connection != null)
+			NetReactor.instance.unregister(connection);
 		incReader = null;
 		PacketManager.instance.unregisterClass(this);
 
 		if(connection != null && connection.isOpen()) {
 			ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.DISCONNECT);
-			PacketManager.instance.send(PacketHeader.DISCONNECT, buffer, "Client destroyed");
-			buffer.flip();
+			try {
+				StringEncoder.DISCONNECT.write(buffer, "Client destroyed");
+				buffer.flip();
 
-			send(buffer);
+				send(buffer);
+			} finally {
+				BufferPool.instance.release(buffer);
+			}
 			try {
 				connection.close();
 			} catch (IOException e) {
@@ -231,12 +282,20 @@ public class ConnectedLobby extends Lobby implements PacketListener {
 	}
 
 	@Override
-	public void ping() {
-		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.PING);
-		PacketManager.instance.send(PacketHeader.PING, buffer, System.currentTimeMillis());
-		buffer.flip();
-
-		send(buffer);
+	protected boolean ping(Peer peer, long sequence) throws IOException {
+		SocketChannel conn = connection;
+		Peer local = localPeer;
+		if(conn == null || local == null || peer != serverPeer)
+			return false;
+		ByteBuffer buffer = NetUtils.createBuffer(local.getID(), PacketHeader.PING);
+		try {
+			PingEncoder.PING.write(buffer, sequence);
+			buffer.flip();
+			NetReactor.instance.write(conn, buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
+		return true;
 	}
 
 	public void setAddress(SocketAddress addr) {
@@ -247,9 +306,13 @@ public class ConnectedLobby extends Lobby implements PacketListener {
 	public void onPinged(Peer peer, ParsedPacket parsedPacket) {
 		PingPacket packet = (PingPacket) parsedPacket;
 		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.RETURN_PING);
-		PacketManager.instance.send(PacketHeader.RETURN_PING, buffer, packet.getTimeSent());
-		buffer.flip();
-		send(buffer);
+		try {
+			ReturnPingEncoder.INSTANCE.write(buffer, packet.getTimeSent());
+			buffer.flip();
+			send(buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
 	}
 
 	@PacketHandler(priority=3, header=PacketHeader.ASSIGN_ID)
@@ -258,10 +321,14 @@ public class ConnectedLobby extends Lobby implements PacketListener {
 
 		if(packet.requestingID()) {
 			ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.ERROR);
-			PacketManager.instance.send(PacketHeader.ERROR, buffer, "You should talk to the host about that!");
-			buffer.flip();
+			try {
+				StringEncoder.ERROR.write(buffer, "You should talk to the host about that!");
+				buffer.flip();
 
-			send(buffer);
+				send(buffer);
+			} finally {
+				BufferPool.instance.release(buffer);
+			}
 			return;
 		}
 
@@ -269,14 +336,18 @@ public class ConnectedLobby extends Lobby implements PacketListener {
 			Peer thePeer = getPeerByID(packet.getPeerID());
 			if(thePeer == null) {
 				ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.ERROR);
-				PacketManager.instance.send(PacketHeader.ERROR, buffer, 
-						"I don't know any peer with id " + packet.getPeerID() + "!");
-				buffer.flip();
+				try {
+					StringEncoder.ERROR.write(buffer, 
+							"I don't know any peer with id " + packet.getPeerID() + "!");
+					buffer.flip();
 
-				send(buffer);
+					send(buffer);
+				} finally {
+					BufferPool.instance.release(buffer);
+				}
 				return;
 			}
-			thePeer.setID(packet.getID());
+			peers.changeID(thePeer, packet.getID());
 			return;
 		}
 
@@ -284,9 +355,13 @@ public class ConnectedLobby extends Lobby implements PacketListener {
 		int suggestedID = packet.getID();
 
 		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.ASSIGN_ID);
-		PacketManager.instance.send(PacketHeader.ASSIGN_ID, buffer, false, suggestedID, localPeer.getID());
-		buffer.flip();
-		send(buffer);
+		try {
+			AssignIDEncoder.INSTANCE.write(buffer, suggestedID, localPeer.getID());
+			buffer.flip();
+			send(buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
 
 		localPeer.setID(suggestedID);
 		System.out.println("Set my id to " + suggestedID);
@@ -302,23 +377,30 @@ public class ConnectedLobby extends Lobby implements PacketListener {
 	@PacketHandler(priority=3, header=PacketHeader.CONNECT)
 	public void onConnect(Peer peer, ParsedPacket parsedPacket) {
 		ConnectPacket packet = (ConnectPacket) parsedPacket;
-		if(NetUtils.getPeerByID(connectedPeers, packet.getID()) != null) {
+		if(peers.getPeer(packet.getID()) != null) {
 			ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.ERROR);
-			PacketManager.instance.send(PacketHeader.ERROR, buffer, "A peer is already connected with that id!");
-			buffer.flip();
+			try {
+				StringEncoder.ERROR.write(buffer, "A peer is already connected with that id!");
+				buffer.flip();
 
-			send(buffer);
+				send(buffer);
+			} finally {
+				BufferPool.instance.release(buffer);
+			}
 			return;
 		}
 
 		Peer newPeer = new OtherPeer(packet.getName(), packet.getID());
 		newPeer.setReady(packet.ready());
 
-		synchronized(connectedPeers) {
-			if(connectedPeers.size() == 0) {
+		synchronized(peers) {
+			if(peers.isEmpty()) {
 				serverPeer = newPeer;
+				serverPeer.setOutboundQueue(NetReactor.instance.getOutboundQueue(connection));
+				peers.add(newPeer, connection);
+			}else {
+				peers.add(newPeer);
 			}
-			connectedPeers.add(newPeer);
 		}
 
 		System.out.println("Peer connected: " + newPeer.getName() + "(" + newPeer.getID() + ")");
@@ -348,7 +430,7 @@ public class ConnectedLobby extends Lobby implements PacketListener {
 			return;
 		}else {
 			System.out.println("Peer " + peer.getName() + " disconnected");
-			connectedPeers.remove(peer);
+			peers.remove(peer);
 			// TODO send message to chat
 		}
 	}
@@ -369,14 +451,32 @@ public class ConnectedLobby extends Lobby implements PacketListener {
 	@PacketHandler(priority=3, header=PacketHeader.INTERRUPT_READY) 
 	public void onInterruptReady(Peer peer, ParsedPacket packet) {
 		peer.setReady(false);
+		cancelStart();
+	}
+
+	/**
+	 * Converts the deadline to the local clock with the offset measured to the
+	 * host. Until there is one, the deadline is taken relative to when the
+	 * packet arrived, which starts the game late by the time it took to arrive
+	 */
+	@PacketHandler(priority=3, header=PacketHeader.BEGIN_COUNTDOWN)
+	public void onBeginCountdown(Peer peer, ParsedPacket packet) {
+		BeginCountdownPacket countdown = (BeginCountdownPacket) packet;
+		ClockOffset clock = getClockOffset(serverPeer);
+		long deadline;
+		if(clock != null && clock.hasOffset()) {
+			deadline = clock.toLocal(countdown.getDeadline());
+			System.out.println("[ConnectedLobby] Starting in " + (deadline - System.nanoTime()) / 1000000 + " ms, " + clock);
+		}else {
+			deadline = System.nanoTime() + (countdown.getDeadline() - countdown.getSentAt());
+			System.out.println("[ConnectedLobby] Starting in " + (deadline - System.nanoTime()) / 1000000 + " ms, the host's clock is not known yet");
+		}
+		setStartDeadline(deadline);
 	}
 
 	@PacketHandler(priority=3, header=PacketHeader.SEND_NET_INFO)
 	public void onStartGame(Peer peer, ParsedPacket packet) {
-		final SendNetInfoPacket snip = (SendNetInfoPacket) packet;
-		final MessageState messageState = (MessageState) DCRTSEntry.GAME_STATES[MessageState.ID];
-		messageState.prepare("Creating connections", 9999, -1);
-		DCRTSEntry.instance.enterState(MessageState.ID, new FadeOutTransition(), new FadeInTransition());
+		final SendNetInfoPacket snip = (SendNetInfoPacket) PacketManager.retain(packet); // used by the thread below
 
 		/*
 		 * This opens up a connection on NetUtils#PORT + (rid - INIT_ID), so 
@@ -392,16 +492,25 @@ public class ConnectedLobby extends Lobby implements PacketListener {
 
 			@Override
 			public void run() {
+				// the net info is sent with the countdown, and used once it runs out
+				try {
+					if(!awaitStart())
+						return;
+				} catch (InterruptedException e) {
+					return;
+				}
+				final MessageState messageState = (MessageState) DCRTSEntry.GAME_STATES[MessageState.ID];
+				messageState.prepare("Creating connections", 9999, -1);
+				DCRTSEntry.instance.enterState(MessageState.ID, new FadeOutTransition(), new FadeInTransition());
+
+				final List<Peer> connectedPeers = peers.getPeers();
 				final int con = connectedPeers.size() - 1;
-				final SocketChannel[] connections = new SocketChannel[connectedPeers.size()];
 				int numBelowMyIDTmp = 0;
 
-				for(int i = 0; i < connectedPeers.size(); i++) {
-					if(connectedPeers.get(i) == serverPeer) {
-						connections[i] = connection;
+				for(Peer p : connectedPeers) {
+					if(p == serverPeer)
 						continue;
-					}
-					if(connectedPeers.get(i).getID() < localPeer.getID()) 
+					if(p.getID() < localPeer.getID()) 
 						numBelowMyIDTmp++;
 				}
 				final int numBelowMyID = numBelowMyIDTmp;
@@ -431,18 +540,15 @@ public class ConnectedLobby extends Lobby implements PacketListener {
 								int id = buffer.getInt();
 								buffer.clear();
 
-								for(int j = 0; j < con + 1; j++) {
-									if(connectedPeers.get(j).getID() == id) {
-										InetSocketAddress expected = snip.getAddress(id); 
-										if(!expected.getHostName().equals(((InetSocketAddress) sc.getRemoteAddress()).getHostName())) {
-											System.err.println("Expected address and remote address don't match (" + id + ", " + 
-													expected.getHostName() + " vs " + 
-													((InetSocketAddress) sc.getRemoteAddress()).getHostName() + ")");
-										}
-										connections[j] = sc;
-										break;
+								Peer p = peers.getPeer(id);
+								if(p != null) {
+									InetSocketAddress expected = snip.getAddress(id); 
+									InetSocketAddress remote = (InetSocketAddress) sc.getRemoteAddress();
+									if(!NetUtils.addressMatches(expected, remote)) {
+										System.err.println("Expected address and remote address don't match (" + id + ", " + 
+												expected.getHostString() + " vs " + remote.getHostString() + ")");
 									}
-									System.out.println("Here3");
+									peers.setChannel(p, sc);
 								}
 								System.out.println("Done, " + id + " connected");
 							}
@@ -460,14 +566,14 @@ public class ConnectedLobby extends Lobby implements PacketListener {
 				ByteBuffer buffer = ByteBuffer.allocate(4);
 				buffer.putInt(localPeer.getID());
 				buffer.flip();
-				for(int i = 0; i < connectedPeers.size(); i++) {
-					int rid = connectedPeers.get(i).getID();
-					if(rid < localPeer.getID())
+				for(Peer p : connectedPeers) {
+					int rid = p.getID();
+					if(p == serverPeer || rid < localPeer.getID())
 						continue;
 					SocketChannel sc = null;
 					try {
 						System.out.println("Connecting to " + snip.getAddress(rid));
-						sc = SocketChannel.open(snip.getAddress(rid));
+						sc = connectToPeer(snip.getAddress(rid));
 						sc.configureBlocking(true);
 						sc.write(buffer);
 						sc.configureBlocking(false);
@@ -477,7 +583,8 @@ public class ConnectedLobby extends Lobby implements PacketListener {
 
 					buffer.rewind();
 
-					connections[i] = sc;
+					if(sc != null)
+						peers.setChannel(p, sc);
 				}
 
 				System.out.println("Created all outgoing connections (" + 
@@ -485,8 +592,8 @@ public class ConnectedLobby extends Lobby implements PacketListener {
 
 				while(true) {
 					boolean cont = false;
-					for(int i = 0; i < connections.length; i++) {
-						if(connections[i] == null) {
+					for(PeerRegistry.Entry entry : peers.getEntries()) {
+						if(entry.getChannel() == null) {
 							cont = true;
 							break;
 						}
@@ -505,7 +612,7 @@ public class ConnectedLobby extends Lobby implements PacketListener {
 				System.out.println("All connections completed");
 
 				ConnectionState connState = (ConnectionState) DCRTSEntry.GAME_STATES[ConnectionState.ID];
-				connState.prepare(localPeer, serverPeer, connectedPeers, Arrays.asList(connections), gameSettings);
+				connState.prepare(localPeer, serverPeer, peers, gameSettings);
 				DCRTSEntry.instance.enterState(ConnectionState.ID, new FadeOutTransition(), new FadeInTransition());
 			}
 
@@ -6,20 +6,28 @@ import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 
 import me.timothy.dcrts.DCRTSEntry;
+import me.timothy.dcrts.net.ChannelListener;
+import me.timothy.dcrts.net.NetReactor;
+import me.timothy.dcrts.net.packets.AssignIDEncoder;
 import me.timothy.dcrts.net.packets.AssignIDPacket;
+import me.timothy.dcrts.net.packets.BeginCountdownEncoder;
 import me.timothy.dcrts.net.packets.ChangeNamePacket;
+import me.timothy.dcrts.net.packets.ConnectEncoder;
 import me.timothy.dcrts.net.packets.ConnectPacket;
-import me.timothy.dcrts.net.packets.CountdownChangedPacket;
 import me.timothy.dcrts.net.packets.DisconnectPacket;
+import me.timothy.dcrts.net.packets.EmptyEncoder;
+import me.timothy.dcrts.net.packets.PingEncoder;
 import me.timothy.dcrts.net.packets.PingPacket;
+import me.timothy.dcrts.net.packets.ReturnPingEncoder;
+import me.timothy.dcrts.net.packets.SetReadyEncoder;
 import me.timothy.dcrts.net.packets.SetReadyPacket;
+import me.timothy.dcrts.net.packets.StringEncoder;
 import me.timothy.dcrts.net.packets.UpdateSettingsPacket;
+import me.timothy.dcrts.packet.FrameBuffer;
 import me.timothy.dcrts.packet.PacketHandler;
 import me.timothy.dcrts.packet.PacketHeader;
 import me.timothy.dcrts.packet.PacketListener;
@@ -29,27 +37,26 @@ import me.timothy.dcrts.peer.LocalPeer;
 import me.timothy.dcrts.peer.OtherPeer;
 import me.timothy.dcrts.peer.PartialPeer;
 import me.timothy.dcrts.peer.Peer;
+import me.timothy.dcrts.peer.PeerRegistry;
 import me.timothy.dcrts.settings.GameSettings;
 import me.timothy.dcrts.state.ConnectionState;
+import me.timothy.dcrts.utils.BufferPool;
 import me.timothy.dcrts.utils.NetUtils;
 
 public class HostedLobby extends Lobby implements PacketListener {
 	public static final int COUNTDOWN_SECONDS = 3;
 	
 	private ServerSocketChannel servChannel;
-	private List<SocketChannel> connections;
 	private GameSettings settings;
 	
 	private Thread connThread;
 	private ConnectionListener connListener;
-	private Thread connChanThread;
 	private ConnectionChannelReader connChanReader;
 	
 	private int idCounter;
 	
 	private Thread countingThread;
-	private int countdown;
-	private boolean counting;
+	private volatile boolean counting;
 	
 	protected class ConnectionListener implements Runnable {
 		@Override
@@ -58,10 +65,11 @@ public class HostedLobby extends Lobby implements PacketListener {
 				try {
 					SocketChannel incoming = servChannel.accept();
 					incoming.configureBlocking(false);
-					synchronized(connections) {
-						connectedPeers.add(new PartialPeer());
-						connections.add(incoming);
-					}
+					PartialPeer partPeer = new PartialPeer();
+					partPeer.setOutboundQueue(NetReactor.instance.getOutboundQueue(incoming));
+					peers.add(partPeer, incoming);
+					NetReactor.instance.register(incoming, connChanReader);
+					interruptCountdown();
 				}catch(AsynchronousCloseException e) {
 					break;
 				}catch (IOException e) {
@@ -73,58 +81,47 @@ public class HostedLobby extends Lobby implements PacketListener {
 		}
 	}
 	
-	protected class ConnectionChannelReader implements Runnable {
+	protected class ConnectionChannelReader implements ChannelListener {
+		@Override
+		public void onFrame(SocketChannel channel, ByteBuffer frame) {
+			PeerRegistry registry = peers;
+			if(registry == null)
+				return;
+			parseNextPacket(registry.getPeer(channel), frame);
+		}
 
 		@Override
-		public void run() {
-			ByteBuffer buffer = ByteBuffer.allocate(512);
-			while(servChannel.isOpen()) {
-				try {
-					boolean readSomething = false;
-					synchronized(connections) {
-						for(SocketChannel sch : connections) {
-							int numBytes = sch.read(buffer);
-							
-							if(numBytes == 0) {
-								continue;
-							}
-							readSomething = true;
-							if(numBytes == buffer.capacity()) {
-								System.err.println("Too many bytes were sent! May have overflowed!");
-							}
-							buffer.flip();
-							
-							while(buffer.remaining() > 0) {
-								parseNextPacket(buffer);
-							}
-							
-							buffer.clear();
-						}
-					}
-					if(!readSomething)
-						Thread.sleep(1);
-					else
-						Thread.yield();
-				} catch (IOException e) {
-					e.printStackTrace();
-					break;
-				} catch (InterruptedException e) {
-					break;
-				} 
-			}
+		public void onClosed(SocketChannel channel, IOException cause) {
+			if(cause != null)
+				cause.printStackTrace();
+			
+			PeerRegistry registry = peers;
+			Peer peer = registry != null ? registry.getPeer(channel) : null;
+			if(peer == null)
+				return;
+			PacketManager.instance.broadcastPacket(peer, new DisconnectPacket("Connection lost"));
 		}
 
-		private void parseNextPacket(ByteBuffer buffer) {
-			int peerId = buffer.getInt();
-			int headerInt = buffer.getInt();
+		/**
+		 * Parses a frame from a peer. Peers are known by the connection rather than
+		 * the id in the frame, since peers that are still connecting share an id.
+		 */
+		private void parseNextPacket(Peer peer, ByteBuffer frame) {
+			int frameStart = frame.position();
+			frame.getInt(); // length
+			frame.getInt(); // peer id
+			int headerInt = frame.getInt();
 			
-			Peer peer = NetUtils.getPeerByID(connectedPeers, peerId);
 			PacketHeader header = PacketHeader.byValue(headerInt);
+			if(header == null) {
+				System.out.println("[HostedLobby] No header with the id " + headerInt + " detected!");
+				return;
+			}
 			
-			ParsedPacket parsed = PacketManager.instance.parse(header, buffer);
+			ParsedPacket parsed = PacketManager.instance.parse(header, frame);
+			FrameBuffer.skipToEnd(frame, frameStart);
 			PacketManager.instance.broadcastPacket(peer, parsed);
 		}
-		
 	}
 	
 	public HostedLobby() {
@@ -134,10 +131,14 @@ public class HostedLobby extends Lobby implements PacketListener {
 	@Override
 	public void changeName(String newName) {
 		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.CHANGE_NAME);
-		PacketManager.instance.send(PacketHeader.CHANGE_NAME, buffer, newName);
-		buffer.flip();
-		
-		sendToAll(buffer);
+		try {
+			StringEncoder.CHANGE_NAME.write(buffer, newName);
+			buffer.flip();
+			
+			sendToAll(buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
 		
 		localPeer.setName(newName);
 	}
@@ -150,54 +151,72 @@ public class HostedLobby extends Lobby implements PacketListener {
 	@Override
 	public void updateSettings(GameSettings settings) {
 		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.UPDATE_SETTINGS);
-		PacketManager.instance.send(PacketHeader.UPDATE_SETTINGS, buffer, settings);
-		
-		buffer.flip();
-		sendToAll(buffer);
+		try {
+			PacketManager.instance.send(PacketHeader.UPDATE_SETTINGS, buffer, settings);
+			
+			buffer.flip();
+			sendToAll(buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
 		this.settings = settings;
 	}
 
 	@Override
 	public void setReady(boolean ready) {
 		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.SET_READY);
-		PacketManager.instance.send(PacketHeader.SET_READY, buffer, ready);
-		
-		buffer.flip();
-		sendToAll(buffer);
+		try {
+			SetReadyEncoder.INSTANCE.write(buffer, ready);
+			
+			buffer.flip();
+			sendToAll(buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
 		
 		localPeer.setReady(ready);
 	}
 	
+	/**
+	 * Tells everyone when the game starts, as a deadline on the hosts clock,
+	 * along with the addresses they connect to then. Each peer converts the
+	 * deadline to its own clock with the offset it measured to the host, so
+	 * the game starts at the same moment everywhere without the countdown
+	 * being sent every second. Someone joining or leaving stops the countdown,
+	 * see {@link #interruptCountdown()}.
+	 */
 	@Override
-	public void beginCountdown() {
-		if(counting)
+	public synchronized void beginCountdown() {
+		if(counting || !isEveryoneReady())
 			return;
 		counting = true;
-		countdown = COUNTDOWN_SECONDS;
-		PacketManager.instance.broadcastPacket(localPeer, new CountdownChangedPacket(countdown));
+		long now = System.nanoTime();
+		final long deadline = now + COUNTDOWN_SECONDS * 1000000000L;
+		setStartDeadline(deadline);
+		
+		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.BEGIN_COUNTDOWN);
+		try {
+			BeginCountdownEncoder.INSTANCE.write(buffer, deadline, now);
+			buffer.flip();
+			sendToAll(buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
+		sendNetInfo();
 		
 		countingThread = new Thread(new Runnable() {
 
 			@Override
 			public void run() {
-				while(counting && countdown > 0) {
-					try {
-						Thread.sleep(1000);
-					} catch (InterruptedException e) {
-						break;
-					}
-					countdown--;
-					PacketManager.instance.broadcastPacket(localPeer, new CountdownChangedPacket(countdown));
+				try {
+					if(awaitStart())
+						startGame();
+				} catch (InterruptedException e) {
 				}
 			}
 			
-		});
+		}, "Countdown");
 		countingThread.start();
-		
-		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.BEGIN_COUNTDOWN);
-		PacketManager.instance.send(PacketHeader.BEGIN_COUNTDOWN, buffer, COUNTDOWN_SECONDS, System.currentTimeMillis());
-		buffer.flip();
-		sendToAll(buffer);
 	}
 
 	@Override
@@ -205,9 +224,6 @@ public class HostedLobby extends Lobby implements PacketListener {
 		super.begin();
 		System.out.println("--Beginning Server--");
 		try {
-			connections = new ArrayList<>();
-			connections = Collections.synchronizedList(connections);
-			
 			servChannel = ServerSocketChannel.open();
 			servChannel.bind(new InetSocketAddress(NetUtils.PORT));
 			
@@ -219,9 +235,7 @@ public class HostedLobby extends Lobby implements PacketListener {
 
 			PacketManager.instance.registerClass(this);
 			connThread = new Thread(connListener);
-			connChanThread = new Thread(connChanReader);
 			connThread.start();
-			connChanThread.start();
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -233,16 +247,17 @@ public class HostedLobby extends Lobby implements PacketListener {
 			return;
 		
 		localPeer.setReady(false);
-		countdown = COUNTDOWN_SECONDS;
-		counting = false;
-		countingThread.interrupt();
-		countingThread = null;
+		stopCountdown();
 		
 		
 		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.INTERRUPT_READY);
-		PacketManager.instance.send(PacketHeader.INTERRUPT_READY, buffer);
-		buffer.flip();
-		sendToAll(buffer);
+		try {
+			EmptyEncoder.INTERRUPT_READY.write(buffer);
+			buffer.flip();
+			sendToAll(buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
 	}
 	
 	@Override
@@ -254,13 +269,12 @@ public class HostedLobby extends Lobby implements PacketListener {
 			e.printStackTrace();
 		}
 		connThread.interrupt();
-		connChanThread.interrupt();
-		Thread.yield();
+		for(PeerRegistry.Entry entry : peers.getEntries()) {
+			NetReactor.instance.unregister(entry.getChannel());
+		}
 		
 		PacketManager.instance.unregisterClass(this);
-		connections = null;
 		connThread = null;
-		connChanThread = null;
 		settings = null;
 		connListener = null;
 		connChanReader = null;
@@ -271,75 +285,156 @@ public class HostedLobby extends Lobby implements PacketListener {
 	
 	public void shutdownServer() {
 		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.DISCONNECT);
-		PacketManager.instance.send(PacketHeader.DISCONNECT, buffer, "Server shutting down");
-		buffer.flip();
-		synchronized(connectedPeers) {
-			while(connections.size() > 0) {
-				SocketChannel sc = connections.get(0);
-				
+		try {
+			StringEncoder.DISCONNECT.write(buffer, "Server shutting down");
+			buffer.flip();
+			for(PeerRegistry.Entry entry : peers.clear()) {
+				SocketChannel sc = entry.getChannel();
 				try {
-					sc.write(buffer);
+					NetReactor.instance.write(sc, buffer.duplicate());
 					sc.close();
 				} catch (IOException e) {
 					e.printStackTrace();
 				}
-				buffer.rewind();
-				connections.remove(0);
-				connectedPeers.remove(0);
 			}
+		} finally {
+			BufferPool.instance.release(buffer);
 		}
 	}
 	
 	@Override
-	public void ping() {
-		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.PING);
-		PacketManager.instance.send(PacketHeader.PING, buffer, System.currentTimeMillis());
-		buffer.flip();
-		
-		sendToAll(buffer);
+	protected boolean ping(Peer peer, long sequence) throws IOException {
+		PeerRegistry registry = peers;
+		Peer local = localPeer;
+		SocketChannel connection = registry != null ? registry.getChannel(peer) : null;
+		if(connection == null || local == null)
+			return false;
+		ByteBuffer buffer = NetUtils.createBuffer(local.getID(), PacketHeader.PING);
+		try {
+			PingEncoder.PING.write(buffer, sequence);
+			buffer.flip();
+			NetReactor.instance.write(connection, buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
+		return true;
 	}
 	
 	protected void writeToPeer(Peer peer, ByteBuffer buffer) {
-		synchronized(connectedPeers) { // I love thread safety
-			int ind = connectedPeers.indexOf(peer);
+		SocketChannel connection = peers.getChannel(peer);
+		if(connection == null) {
+			System.err.println("[HostedLobby] No connection to " + peer);
+			return;
+		}
+		try {
+			NetReactor.instance.write(connection, buffer);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Queues the buffer to every connection except those to the specified
+	 * peers. Does not change the buffers position.
+	 * 
+	 * @param buffer the buffer, flipped
+	 * @param exceptAr the peers not to send to
+	 */
+	protected void sendToAll(ByteBuffer buffer, Peer... exceptAr) {
+		List<Peer> except = Arrays.asList(exceptAr);
+		for(PeerRegistry.Entry entry : peers.getEntries()) {
+			if(except.contains(entry.getPeer()))
+				continue;
 			try {
-				connections.get(ind).write(buffer);
+				NetReactor.instance.write(entry.getChannel(), buffer.duplicate());
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
 	}
-	
-	protected void sendToAll(ByteBuffer buffer, Peer... exceptAr) {
-		List<Peer> except = Arrays.asList(exceptAr);
-		if(except.size() == connectedPeers.size()) {
+
+	/**
+	 * Stops the countdown when someone joins or leaves during it, since the
+	 * net info everyone was sent no longer matches who will be in the game.
+	 * The host stays ready, so the countdown begins again, with new net info,
+	 * once everyone is ready.
+	 */
+	private synchronized void interruptCountdown() {
+		if(!counting)
 			return;
+		stopCountdown();
+		
+		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.INTERRUPT_READY);
+		try {
+			EmptyEncoder.INTERRUPT_READY.write(buffer);
+			buffer.flip();
+			sendToAll(buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
+		buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.SET_READY);
+		try {
+			SetReadyEncoder.INSTANCE.write(buffer, localPeer.isReady());
+			buffer.flip();
+			sendToAll(buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
 		}
-		synchronized(connectedPeers) {
-			int counter = 0;
-			for(SocketChannel connection : connections) {
-				Peer peer = connectedPeers.get(counter);
-				counter++;
-				if(except.contains(peer))
-					continue;
+	}
+	
+	private void stopCountdown() {
+		counting = false;
+		cancelStart();
+		if(countingThread != null)
+			countingThread.interrupt();
+		countingThread = null;
+	}
+	
+	/**
+	 * Sends the id and address of every peer, so they can connect to each other
+	 * once the game starts
+	 */
+	private void sendNetInfo() {
+		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.SEND_NET_INFO);
+		try {
+			List<PeerRegistry.Entry> entries = peers.getEntries();
+			Object[] args = new Object[entries.size() * 2 + 1];
+			args[0] = entries.size();
+			for(int i = 0; i < entries.size(); i++) {
+				args[i * 2 + 1] = entries.get(i).getPeer().getID();
 				try {
-					connection.write(buffer);
+					args[i * 2 + 2] = entries.get(i).getChannel().getRemoteAddress();
 				} catch (IOException e) {
+					// this will never happen
 					e.printStackTrace();
 				}
-				buffer.rewind();
 			}
+			PacketManager.instance.send(PacketHeader.SEND_NET_INFO, buffer, args);
+			buffer.flip();
+			
+			sendToAll(buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
 		}
 	}
+	
+	private void startGame() {
+		// *tear*, they grow up so fast!
+		((ConnectionState) DCRTSEntry.GAME_STATES[ConnectionState.ID]).prepare(localPeer, localPeer, peers, settings);
+		DCRTSEntry.instance.enterState(ConnectionState.ID);
+	}
 
 	private void suggestId(Peer peer) {
-		PacketHeader header = PacketHeader.ASSIGN_ID; 
 		idCounter++;
 		final int assID = idCounter;
-		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), header);
-		PacketManager.instance.send(header, buffer, false, assID, peer.getID());
-		buffer.flip();
-		writeToPeer(peer, buffer);
+		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.ASSIGN_ID);
+		try {
+			AssignIDEncoder.INSTANCE.write(buffer, assID, peer.getID());
+			buffer.flip();
+			writeToPeer(peer, buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
 	}
 
 	// listeners
@@ -349,9 +444,13 @@ public class HostedLobby extends Lobby implements PacketListener {
 	public void onPinged(Peer peer, ParsedPacket parsedPacket) {
 		PingPacket packet = (PingPacket) parsedPacket;
 		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.RETURN_PING);
-		PacketManager.instance.send(PacketHeader.RETURN_PING, buffer, packet.getTimeSent());
-		buffer.flip();
-		writeToPeer(peer, buffer);
+		try {
+			ReturnPingEncoder.INSTANCE.write(buffer, packet.getTimeSent());
+			buffer.flip();
+			writeToPeer(peer, buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
 	}
 	
 	// handle connections
@@ -363,19 +462,25 @@ public class HostedLobby extends Lobby implements PacketListener {
 		partPeer.setName(conPacket.getName());
 		suggestId(partPeer);
 		
-		synchronized(connectedPeers) {
-			ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.CONNECT);
-			PacketManager.instance.send(PacketHeader.CONNECT, buffer, localPeer);
+		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.CONNECT);
+		try {
+			ConnectEncoder.INSTANCE.write(buffer, localPeer);
 			buffer.flip();
 			
 			writeToPeer(peer, buffer);
-			for(Peer p : connectedPeers) {
-				if(p.equals(partPeer))
-					continue;
-				buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.CONNECT);
-				PacketManager.instance.send(PacketHeader.CONNECT, buffer, p);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
+		for(Peer p : peers) {
+			if(p instanceof PartialPeer)
+				continue; // ourself, or still connecting and announced once it has an id
+			buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.CONNECT);
+			try {
+				ConnectEncoder.INSTANCE.write(buffer, p);
 				buffer.flip();
 				writeToPeer(peer, buffer);
+			} finally {
+				BufferPool.instance.release(buffer);
 			}
 		}
 	}
@@ -390,46 +495,48 @@ public class HostedLobby extends Lobby implements PacketListener {
 			return;
 		}else {
 			PartialPeer partPeer = (PartialPeer) peer;
-			final int ind = connectedPeers.indexOf(partPeer);
 			int wantedID = assignIDPacket.getID();
-			// check for a clash
-			synchronized(connectedPeers) {
-				for(Peer p : connectedPeers) {
-					if(p == partPeer)
-						continue;
-					if(p.getID() == wantedID) {
-						System.err.println("Peer asked for a used id!");
-						suggestId(peer);
-						return;
-					}
+			OtherPeer otherPeer;
+			synchronized(peers) {
+				// check for a clash
+				Peer holder = peers.getPeer(wantedID);
+				if(holder != null && holder != partPeer) {
+					System.err.println("Peer asked for a used id!");
+					suggestId(peer);
+					return;
 				}
 				// upgrade that fool
 				partPeer.setID(wantedID);
 				System.out.println(partPeer.getName() + " now has the id " + wantedID);
+				otherPeer = new OtherPeer(partPeer);
+				peers.replace(partPeer, otherPeer);
 			}
-			OtherPeer otherPeer = new OtherPeer(partPeer);
-			connectedPeers.set(ind, otherPeer);
 			ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.CONNECT);
-			PacketManager.instance.send(PacketHeader.CONNECT, buffer, true, false, wantedID, otherPeer.getName());
-			buffer.flip();
-			sendToAll(buffer, otherPeer);
+			try {
+				ConnectEncoder.INSTANCE.write(buffer, false, wantedID, otherPeer.getName());
+				buffer.flip();
+				sendToAll(buffer, otherPeer);
+			} finally {
+				BufferPool.instance.release(buffer);
+			}
 		}
 	}
 	
 	@PacketHandler(priority=3, header=PacketHeader.DISCONNECT)
 	public void onDisconnect(Peer peer, ParsedPacket packet) {
-		synchronized(connectedPeers) {
-			int ind = connectedPeers.indexOf(peer);
-			connections.remove(ind);
-			connectedPeers.remove(ind);
-		}
+		peers.remove(peer);
+		interruptCountdown();
 		DisconnectPacket discPacket = (DisconnectPacket) packet;
 		handleChat(peer, peer.getName() + " has disconnected (" + discPacket.getReason() + ").");
 		if(peer instanceof OtherPeer) {
 			ByteBuffer buffer = NetUtils.createBuffer(peer.getID(), PacketHeader.DISCONNECT);
-			PacketManager.instance.send(PacketHeader.DISCONNECT, buffer, discPacket.getReason());
-			buffer.flip();
-			sendToAll(buffer);
+			try {
+				StringEncoder.DISCONNECT.write(buffer, discPacket.getReason());
+				buffer.flip();
+				sendToAll(buffer);
+			} finally {
+				BufferPool.instance.release(buffer);
+			}
 		}
 	}
 	
@@ -438,9 +545,13 @@ public class HostedLobby extends Lobby implements PacketListener {
 		UpdateSettingsPacket uSettingsPacket = (UpdateSettingsPacket) packet;
 		
 		ByteBuffer buffer = NetUtils.createBuffer(peer.getID(), PacketHeader.UPDATE_SETTINGS);
-		PacketManager.instance.send(PacketHeader.UPDATE_SETTINGS, buffer, uSettingsPacket);
-		buffer.flip();
-		sendToAll(buffer);
+		try {
+			PacketManager.instance.send(PacketHeader.UPDATE_SETTINGS, buffer, uSettingsPacket);
+			buffer.flip();
+			sendToAll(buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
 	}
 	
 	@PacketHandler(priority=3, header=PacketHeader.BEGIN_COUNTDOWN)
@@ -450,86 +561,50 @@ public class HostedLobby extends Lobby implements PacketListener {
 		beginCountdown();
 	}
 	
-	@PacketHandler(priority=3, header=PacketHeader.SYNC_COUNTDOWN)
-	public void onCountdownChange(Peer peer, ParsedPacket packet) {
-		if(peer != localPeer) {
-			// ...what?
-			ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.ERROR);
-			PacketManager.instance.send(PacketHeader.ERROR, buffer, "Countdown is handled by host");
-			buffer.flip();
-			
-			writeToPeer(peer, buffer);
-			return;
-		}
-		
-		ByteBuffer buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.SYNC_COUNTDOWN);
-		PacketManager.instance.send(PacketHeader.SYNC_COUNTDOWN, buffer, countdown);
-		buffer.flip();
-		
-		sendToAll(buffer);
-		
-		if(countdown <= 0) {
-			// *tear*, they grow up so fast!
-			buffer = NetUtils.createBuffer(localPeer.getID(), PacketHeader.SEND_NET_INFO);
-			Object[] args = null;
-			synchronized(connectedPeers) {
-				args = new Object[connections.size() * 2 + 1];
-				args[0] = connections.size();
-				for(int i = 0; i < connections.size(); i++) {
-					args[i * 2 + 1] = connectedPeers.get(i).getID();
-					try {
-						args[i * 2 + 2] = connections.get(i).getRemoteAddress();
-					} catch (IOException e) {
-						// this will never happen
-						e.printStackTrace();
-					}
-				}
-			}
-			PacketManager.instance.send(PacketHeader.SEND_NET_INFO, buffer, args);
-			buffer.flip();
-			
-			sendToAll(buffer);
-			
-			((ConnectionState) DCRTSEntry.GAME_STATES[ConnectionState.ID]).prepare(localPeer, localPeer, connectedPeers, connections, settings);
-			DCRTSEntry.instance.enterState(ConnectionState.ID);
-		}
-	}
-	
 	@PacketHandler(priority=3, header=PacketHeader.CHANGE_NAME)
 	public void onChangeName(Peer peer, ParsedPacket packet) {
 		ChangeNamePacket chNamePacket = (ChangeNamePacket) packet;
 		peer.setName(chNamePacket.getNewName());
 		
 		ByteBuffer buffer = NetUtils.createBuffer(peer.getID(), PacketHeader.CHANGE_NAME);
-		PacketManager.instance.send(PacketHeader.CHANGE_NAME, buffer, chNamePacket.getNewName());
-		buffer.flip();
-		sendToAll(buffer, peer);
+		try {
+			StringEncoder.CHANGE_NAME.write(buffer, chNamePacket.getNewName());
+			buffer.flip();
+			sendToAll(buffer, peer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
 	}
 	
 	@PacketHandler(priority=3, header=PacketHeader.SET_READY)
 	public void onSetReady(Peer peer, ParsedPacket packet) {
 		SetReadyPacket sRdPacket = (SetReadyPacket) packet;
 		ByteBuffer buffer = NetUtils.createBuffer(peer.getID(), PacketHeader.SET_READY);
-		PacketManager.instance.send(PacketHeader.SET_READY, buffer, sRdPacket.ready());
-		
-		buffer.flip();
-		sendToAll(buffer, peer);
+		try {
+			SetReadyEncoder.INSTANCE.write(buffer, sRdPacket.ready());
+			
+			buffer.flip();
+			sendToAll(buffer, peer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
 		
 		peer.setReady(sRdPacket.ready());
 	}
 	
 	@PacketHandler(priority=3, header=PacketHeader.INTERRUPT_READY) 
 	public void onInterruptReady(Peer peer, ParsedPacket packet) {
-		countdown = COUNTDOWN_SECONDS;
-		counting = false;
-		countingThread.interrupt();
-		countingThread = null;
+		stopCountdown();
 		
 		peer.setReady(false);
 		
 		ByteBuffer buffer = NetUtils.createBuffer(peer.getID(), PacketHeader.INTERRUPT_READY);
-		PacketManager.instance.send(PacketHeader.INTERRUPT_READY, buffer);
-		buffer.flip();
-		sendToAll(buffer, peer);
+		try {
+			EmptyEncoder.INTERRUPT_READY.write(buffer);
+			buffer.flip();
+			sendToAll(buffer, peer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
 	}
 }
@@ -1,11 +1,17 @@
 package me.timothy.dcrts.net.lobby;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import me.timothy.dcrts.net.ChatMessage;
+import me.timothy.dcrts.net.ClockOffset;
+import me.timothy.dcrts.net.RttService;
+import me.timothy.dcrts.net.RttStats;
 import me.timothy.dcrts.peer.Peer;
+import me.timothy.dcrts.peer.PeerRegistry;
 import me.timothy.dcrts.settings.GameSettings;
 
 /**
@@ -16,9 +22,14 @@ import me.timothy.dcrts.settings.GameSettings;
  * @author Timothy
  */
 public abstract class Lobby {
-	protected List<Peer> connectedPeers;
+	protected PeerRegistry peers;
 	protected Peer localPeer;
 	protected List<ChatMessage> chatLog;
+	private RttService rttService;
+	
+	private final Object startLock = new Object();
+	private boolean starting;
+	private long startDeadline;
 	
 	public Lobby() {
 	}
@@ -29,16 +40,16 @@ public abstract class Lobby {
 	 * @return number of connected peers
 	 */
 	public int numPeers() {
-		return connectedPeers.size() + 1;
+		return peers.size() + 1;
 	}
 	
 	/**
 	 * Gets all of the peers that are connected, excluding
-	 * the local peer
-	 * @return
+	 * the local peer. The list does not change, see {@link PeerRegistry#getPeers()}
+	 * @return the peers connected at this moment
 	 */
 	public List<Peer> getConnected() {
-		return connectedPeers;
+		return peers.getPeers();
 	}
 	
 	/**
@@ -77,8 +88,21 @@ public abstract class Lobby {
 	 * Begin the lobby
 	 */
 	public void begin() {
-		connectedPeers = Collections.synchronizedList(new ArrayList<Peer>());
+		peers = new PeerRegistry();
 		chatLog = Collections.synchronizedList(new ArrayList<ChatMessage>());
+		rttService = new RttService("LobbyRtt", new RttService.Transport() {
+			@Override
+			public List<Peer> getPeers() {
+				PeerRegistry registry = peers;
+				return registry != null ? registry.getPeers() : Collections.<Peer>emptyList();
+			}
+
+			@Override
+			public boolean sendPing(Peer peer, long sequence) throws IOException {
+				return ping(peer, sequence);
+			}
+		});
+		rttService.start();
 	}
 	
 	/**
@@ -93,19 +117,17 @@ public abstract class Lobby {
 	public abstract void interruptReady();
 	
 	protected Peer getPeerByID(int id) {
-		synchronized(connectedPeers) {
-			for(Peer peer : connectedPeers) {
-				if(peer.getID() == id)
-					return peer;
-			}
-		}
-		return null;
+		return peers.getPeer(id);
 	}
 	/**
 	 * 'Destroy' the connection and clean up memory.
 	 */
 	public void destroy() {
-		connectedPeers = null;
+		cancelStart();
+		if(rttService != null)
+			rttService.shutdown();
+		rttService = null;
+		peers = null;
 		localPeer = null;
 		chatLog = null;
 	}
@@ -134,18 +156,100 @@ public abstract class Lobby {
 	}
 	
 	/**
-	 * Ping the relevant peer
+	 * Pings a peer for the round trip times, see {@link #getRttStats(Peer)}
+	 * 
+	 * @param peer the peer
+	 * @param sequence the long the ping carries
+	 * @return if the ping was sent, false if there is no connection to the peer
+	 * @throws IOException if the ping could not be sent
 	 */
-	public abstract void ping();
+	protected abstract boolean ping(Peer peer, long sequence) throws IOException;
+	
+	/**
+	 * The peers the lobby has a connection to are pinged for as long as
+	 * the lobby is open, so this is always up to date
+	 * 
+	 * @param peer the peer
+	 * @return the round trip times to the peer, or null if it is not in the lobby
+	 */
+	public RttStats getRttStats(Peer peer) {
+		RttService service = rttService;
+		return service != null ? service.getStats(peer) : null;
+	}
+	
+	/**
+	 * @param peer the peer
+	 * @return the offset of the peer's clock, or null if it is not in the lobby
+	 */
+	public ClockOffset getClockOffset(Peer peer) {
+		RttService service = rttService;
+		return service != null ? service.getClock(peer) : null;
+	}
+	
+	/**
+	 * Sets when the game starts, replacing the last deadline
+	 * 
+	 * @param deadline when the game starts, on the local monotonic clock
+	 */
+	protected void setStartDeadline(long deadline) {
+		synchronized(startLock) {
+			starting = true;
+			startDeadline = deadline;
+			startLock.notifyAll();
+		}
+	}
+	
+	/**
+	 * Stops the game from starting at the deadline
+	 */
+	protected void cancelStart() {
+		synchronized(startLock) {
+			starting = false;
+			startLock.notifyAll();
+		}
+	}
+	
+	/**
+	 * Waits for the game to start
+	 * 
+	 * @return true once the deadline is reached, false if it was cancelled or replaced
+	 * first, or if there is none
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	protected boolean awaitStart() throws InterruptedException {
+		synchronized(startLock) {
+			if(!starting)
+				return false;
+			long deadline = startDeadline;
+			while(starting && startDeadline == deadline) {
+				long left = deadline - System.nanoTime();
+				if(left <= 0)
+					return true;
+				TimeUnit.NANOSECONDS.timedWait(startLock, left);
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * @return the seconds until the game starts, rounded up, or -1 if the countdown
+	 * has not begun
+	 */
+	public int getCountdown() {
+		synchronized(startLock) {
+			if(!starting)
+				return -1;
+			long left = Math.max(0, startDeadline - System.nanoTime());
+			return (int) ((left + 999999999L) / 1000000000L);
+		}
+	}
 	
 	public boolean isEveryoneReady() {
 		if(!localPeer.isReady())
 			return false;
-		synchronized(connectedPeers) {
-			for(Peer p : connectedPeers) {
-				if(!p.isReady())
-					return false;
-			}
+		for(Peer p : peers) {
+			if(!p.isReady())
+				return false;
 		}
 		return true;
 	}
@@ -6,20 +6,26 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Map;
 
+import me.timothy.dcrts.net.packets.AssignIDEncoder;
 import me.timothy.dcrts.net.packets.AssignIDPacket;
+import me.timothy.dcrts.net.packets.BeginCountdownEncoder;
 import me.timothy.dcrts.net.packets.BeginCountdownPacket;
 import me.timothy.dcrts.net.packets.ChangeNamePacket;
+import me.timothy.dcrts.net.packets.ConnectEncoder;
 import me.timothy.dcrts.net.packets.ConnectPacket;
-import me.timothy.dcrts.net.packets.CountdownChangedPacket;
 import me.timothy.dcrts.net.packets.DisconnectPacket;
+import me.timothy.dcrts.net.packets.EmptyEncoder;
 import me.timothy.dcrts.net.packets.ErrorPacket;
 import me.timothy.dcrts.net.packets.InterruptReadyPacket;
+import me.timothy.dcrts.net.packets.PingEncoder;
 import me.timothy.dcrts.net.packets.PingPacket;
+import me.timothy.dcrts.net.packets.ReturnPingEncoder;
 import me.timothy.dcrts.net.packets.ReturnPingPacket;
 import me.timothy.dcrts.net.packets.SendNetInfoPacket;
+import me.timothy.dcrts.net.packets.SetReadyEncoder;
 import me.timothy.dcrts.net.packets.SetReadyPacket;
+import me.timothy.dcrts.net.packets.StringEncoder;
 import me.timothy.dcrts.net.packets.UpdateSettingsPacket;
 import me.timothy.dcrts.packet.PacketHandler;
 import me.timothy.dcrts.packet.PacketHeader;
@@ -37,6 +43,42 @@ import me.timothy.dcrts.utils.NetUtils;
  */
 public class LobbyPackets implements PacketListener {
 	private static LobbyPackets instance;
+	
+	/*
+	 * The flyweights each reading thread fills when decoding flyweights,
+	 * see PacketManager.DecodeMode
+	 */
+	private static final ThreadLocal<PingPacket> pings = new ThreadLocal<PingPacket>() {
+		@Override
+		protected PingPacket initialValue() {
+			return new PingPacket(0);
+		}
+	};
+	private static final ThreadLocal<ReturnPingPacket> returnPings = new ThreadLocal<ReturnPingPacket>() {
+		@Override
+		protected ReturnPingPacket initialValue() {
+			return new ReturnPingPacket(0, 0);
+		}
+	};
+	private static final ThreadLocal<AssignIDPacket> assignIds = new ThreadLocal<AssignIDPacket>() {
+		@Override
+		protected AssignIDPacket initialValue() {
+			return new AssignIDPacket(false, -1, -1);
+		}
+	};
+	private static final ThreadLocal<SetReadyPacket> setReadies = new ThreadLocal<SetReadyPacket>() {
+		@Override
+		protected SetReadyPacket initialValue() {
+			return new SetReadyPacket(false);
+		}
+	};
+	private static final ThreadLocal<SendNetInfoPacket> netInfos = new ThreadLocal<SendNetInfoPacket>() {
+		@Override
+		protected SendNetInfoPacket initialValue() {
+			return new SendNetInfoPacket(new HashMap<Integer, InetSocketAddress>());
+		}
+	};
+	private static final InterruptReadyPacket INTERRUPT_READY = new InterruptReadyPacket();
 
 	private LobbyPackets() {
 
@@ -62,23 +104,21 @@ public class LobbyPackets implements PacketListener {
 		pm.registerPacketParser(instance, "parseSetReady", PacketHeader.SET_READY);
 		pm.registerPacketParser(instance, "parseInterruptReady", PacketHeader.INTERRUPT_READY);
 		pm.registerPacketParser(instance, "parseBeginCountdown", PacketHeader.BEGIN_COUNTDOWN);
-		pm.registerPacketParser(instance, "parseSyncCountdown", PacketHeader.SYNC_COUNTDOWN);
 		pm.registerPacketParser(instance, "parseError", PacketHeader.ERROR);
 		pm.registerPacketParser(instance, "parseChangeName", PacketHeader.CHANGE_NAME);
 		pm.registerPacketParser(instance, "parseSendNetInfo", PacketHeader.SEND_NET_INFO);
 
-		pm.registerPacketSender(instance, "createPing", PacketHeader.PING);
-		pm.registerPacketSender(instance, "createReturnPing", PacketHeader.RETURN_PING);
-		pm.registerPacketSender(instance, "createConnect", PacketHeader.CONNECT);
-		pm.registerPacketSender(instance, "createAssignID", PacketHeader.ASSIGN_ID);
-		pm.registerPacketSender(instance, "createDisconnect", PacketHeader.DISCONNECT);
+		pm.registerEncoder(PingEncoder.PING);
+		pm.registerEncoder(ReturnPingEncoder.INSTANCE);
+		pm.registerEncoder(ConnectEncoder.INSTANCE);
+		pm.registerEncoder(AssignIDEncoder.INSTANCE);
+		pm.registerEncoder(StringEncoder.DISCONNECT);
+		pm.registerEncoder(SetReadyEncoder.INSTANCE);
+		pm.registerEncoder(EmptyEncoder.INTERRUPT_READY);
+		pm.registerEncoder(BeginCountdownEncoder.INSTANCE);
+		pm.registerEncoder(StringEncoder.ERROR);
+		pm.registerEncoder(StringEncoder.CHANGE_NAME);
 		pm.registerPacketSender(instance, "createUpdateSettings", PacketHeader.UPDATE_SETTINGS);
-		pm.registerPacketSender(instance, "createSetReady", PacketHeader.SET_READY);
-		pm.registerPacketSender(instance, "createInterruptReady", PacketHeader.INTERRUPT_READY);
-		pm.registerPacketSender(instance, "createBeginCountdown", PacketHeader.BEGIN_COUNTDOWN);
-		pm.registerPacketSender(instance, "createSyncCountdown", PacketHeader.SYNC_COUNTDOWN);
-		pm.registerPacketSender(instance, "createError", PacketHeader.ERROR);
-		pm.registerPacketSender(instance, "createChangeName", PacketHeader.CHANGE_NAME);
 		pm.registerPacketSender(instance, "createSendNetInfo", PacketHeader.SEND_NET_INFO);
 
 		pm.registerClass(instance);
@@ -108,20 +148,11 @@ public class LobbyPackets implements PacketListener {
 	public ParsedPacket parsePing(PacketHeader header, ByteBuffer buffer) {
 		long timeSent = buffer.getLong();
 
+		if(PacketManager.instance.isDecodingFlyweights())
+			return pings.get().set(timeSent);
 		return new PingPacket(timeSent);
 	}
 
-	/**
-	 * Writes a ping packet, should not be called outside of the packet manager
-	 * @param buffer the buffer
-	 * @param arguments Length 1, contains a long (timeSent)
-	 */
-	public void createPing(ByteBuffer buffer, Object... arguments) {
-		long timeSent = (long) arguments[0];
-
-		buffer.putLong(timeSent);
-	}
-	
 	/**
 	 * Parses a return ping packet, should not be called outside of the packet manager
 	 * @param header the header
@@ -130,19 +161,11 @@ public class LobbyPackets implements PacketListener {
 	 */
 	public ParsedPacket parseReturnPing(PacketHeader header, ByteBuffer buffer) {
 		long timeSent = buffer.getLong();
+		long answeredAt = buffer.getLong();
 
-		return new ReturnPingPacket(timeSent);
-	}
-
-	/**
-	 * Writes a return ping packet, should not be called outside of the packet manager
-	 * @param buffer the buffer
-	 * @param arguments Length 1, contains a long (timeSent)
-	 */
-	public void createReturnPing(ByteBuffer buffer, Object... arguments) {
-		long timeSent = (long) arguments[0];
-
-		buffer.putLong(timeSent);
+		if(PacketManager.instance.isDecodingFlyweights())
+			return returnPings.get().set(timeSent, answeredAt);
+		return new ReturnPingPacket(timeSent, answeredAt);
 	}
 
 	/**
@@ -157,58 +180,11 @@ public class LobbyPackets implements PacketListener {
 		int id = -1;
 		if(idAssigned)
 			id = buffer.getInt();
-		int nmLen = buffer.getInt();
-		String name = NetUtils.readString(buffer, nmLen);
+		String name = NetUtils.readString(buffer);
 
 		return new ConnectPacket(name, idAssigned, ready, id);
 	}
 
-	/**
-	 * Writes a connect packet, should not be called outside of the packet manager
-	 * @param buffer the buffer
-	 * @param arguments either a peer, or (a boolean (if an id has been assigned to this peer yet), another boolean (readyness),
-	 * followed by an int IF the first boolean was true (the assigned id), followed by a string (name))
-	 */
-	public void createConnect(ByteBuffer buffer, Object... arguments) {
-		if(arguments[0] instanceof Peer) {
-			createConnectByPeer(buffer, (Peer) arguments[0]);
-			return;
-		}
-
-		boolean assignedId = (boolean) arguments[0];
-		boolean ready = (boolean) arguments[1];
-		int id = -1;
-		String name;
-		if(assignedId) {
-			id = (int) arguments[2];
-			name = (String) arguments[3];
-		}else {
-			name = (String) arguments[2];
-		}
-
-		buffer.put(!assignedId ? (byte) 0 : (byte) 1);
-		buffer.put(!ready ? (byte) 0 : (byte) 1);
-		if(assignedId)
-			buffer.putInt(id);
-		buffer.putInt(name.length());
-		NetUtils.putString(buffer, name);
-	}
-
-	/**
-	 * Writes a connect packet based on a peer. This should only be called by createConnect.
-	 * Assumes the peer has an id assigned already
-	 * 
-	 * @param buffer the buffer
-	 * @param peer the peer
-	 */
-	public void createConnectByPeer(ByteBuffer buffer, Peer peer) {
-		buffer.put((byte) 1);
-		buffer.put(peer.isReady() ? (byte) 1 : (byte) 0);
-		buffer.putInt(peer.getID());
-		buffer.putInt(peer.getName().length());
-		NetUtils.putString(buffer, peer.getName());
-	}
-
 	/**
 	 * Parses a assignid packet, should not be called outside of the packet manager
 	 * @param header the header
@@ -224,33 +200,11 @@ public class LobbyPackets implements PacketListener {
 			peerID = buffer.getInt(); // underflows because it hates america
 		}
 
+		if(PacketManager.instance.isDecodingFlyweights())
+			return assignIds.get().set(request, id, peerID);
 		return new AssignIDPacket(request, id, peerID);
 	}
 
-	/**
-	 * Writes an assign id packet to the buffer, should not be called outside of the packet manager
-	 * @param buffer the buffer
-	 * @param arguments a boolean (true for requesting to be assigned an id, false to assign an id). If false,
-	 * an integer for the id that is being assigned
-	 */
-	public void createAssignID(ByteBuffer buffer, Object... arguments) {
-		boolean request = (boolean) arguments[0];
-		int id = -1;
-		int relevantPeerID = -1;
-		if(!request) {
-			id = (int) arguments[1];
-			relevantPeerID = (int) arguments[2];
-		}
-
-		if(request) {
-			buffer.put((byte) 1);
-		}else {
-			buffer.put((byte) 0);
-			buffer.putInt(id);
-			buffer.putInt(relevantPeerID);
-		}
-	}
-
 	/**
 	 * Parses a disconnect packet, should not be called outside of the packet manager
 	 * @param header the header
@@ -258,24 +212,11 @@ public class LobbyPackets implements PacketListener {
 	 * @return the parsed packet
 	 */
 	public ParsedPacket parseDisconnect(PacketHeader header, ByteBuffer buffer) {
-		int reasonLen = buffer.getInt();
-		String reason = NetUtils.readString(buffer, reasonLen);
+		String reason = NetUtils.readString(buffer);
 
 		return new DisconnectPacket(reason);
 	}
 
-	/**
-	 * Writes a disconnect packet to the buffer, should not be called outside of the packet manager
-	 * @param buffer the buffer to write into
-	 * @param arguments a string, for the reason
-	 */
-	public void createDisconnect(ByteBuffer buffer, Object... arguments) {
-		String reason = (String) arguments[0];
-
-		buffer.putInt(reason.length());
-		NetUtils.putString(buffer, reason);
-	}
-
 	/**
 	 * Parses an update settings packet, should not be called outside of the packet manager.
 	 * @param header the header
@@ -308,20 +249,11 @@ public class LobbyPackets implements PacketListener {
 	public ParsedPacket parseSetReady(PacketHeader header, ByteBuffer buffer) {
 		boolean ready = (buffer.get() == 1);
 
+		if(PacketManager.instance.isDecodingFlyweights())
+			return setReadies.get().set(ready);
 		return new SetReadyPacket(ready);
 	}
 
-	/**
-	 * Creates a set ready packet, should not be called outside of the packet manager
-	 * @param buffer the buffer to write into
-	 * @param arguments the arguments, 1 boolean (Boolean) of readyness
-	 */
-	public void createSetReady(ByteBuffer buffer, Object... arguments) {
-		boolean ready = (boolean) arguments[0];
-
-		buffer.put(ready ? (byte) 1 : (byte) 0);
-	}
-
 	/**
 	 * Parses a interrupt-ready packet, should not be called outside of the packet manager
 	 * @param header the header
@@ -329,18 +261,11 @@ public class LobbyPackets implements PacketListener {
 	 * @return a interrupt ready packet
 	 */
 	public ParsedPacket parseInterruptReady(PacketHeader header, ByteBuffer buffer) {
+		if(PacketManager.instance.isDecodingFlyweights())
+			return INTERRUPT_READY;
 		return new InterruptReadyPacket();
 	}
 
-	/**
-	 * Creates an interrupt-ready packet, should not be called outside the packet manager
-	 * @param buffer the buffer to write into
-	 * @param arguments empty/null
-	 */
-	public void createInterruptReady(ByteBuffer buffer, Object... arguments) {
-
-	}
-
 	/**
 	 * Parses a begin-countdown packet, should not be called outside of the packet manager
 	 * @param header the header (BEGIN_COUNTDOWN)
@@ -348,39 +273,9 @@ public class LobbyPackets implements PacketListener {
 	 * @return the begin countdown packet
 	 */
 	public ParsedPacket parseBeginCountdown(PacketHeader header, ByteBuffer buffer) {
-		return new BeginCountdownPacket();
-	}
-
-	/**
-	 * Creates a begin-countdown packet, should not be called outside the packet manager
-	 * @param buffer the buffer to write into
-	 * @param args empty/null
-	 */
-	public void createBeginCountdown(ByteBuffer buffer, Object... args) {
-
-	}
-
-	/**
-	 * Parses a sync countdown packet, should not be called outside the packet manager
-	 * @param header the header 
-	 * @param buffer the buffer
-	 * @return a sync countdown packet
-	 */
-	public ParsedPacket parseSyncCountdown(PacketHeader header, ByteBuffer buffer) {
-		int newNum = buffer.getInt();
-
-		return new CountdownChangedPacket(newNum);
-	}
-
-	/**
-	 * Creates a sync countdown packet, should not be called outside of the packet manager
-	 * @param buffer the buffer
-	 * @param arguments an integer of the seconds remaining
-	 */
-	public void createSyncCountdown(ByteBuffer buffer, Object... arguments) {
-		int secsRemaining = (int) arguments[0];
-
-		buffer.putInt(secsRemaining);
+		long deadline = buffer.getLong();
+		long sentAt = buffer.getLong();
+		return new BeginCountdownPacket(deadline, sentAt);
 	}
 
 	/**
@@ -390,24 +285,11 @@ public class LobbyPackets implements PacketListener {
 	 * @return an error packet
 	 */
 	public ParsedPacket parseError(PacketHeader header, ByteBuffer buffer) {
-		int reasonLen = buffer.getInt();
-		String reason = NetUtils.readString(buffer, reasonLen);
+		String reason = NetUtils.readString(buffer);
 
 		return new ErrorPacket(reason);
 	}
 
-	/**
-	 * Creates an error packet, should not be called outside of the packet manager
-	 * @param buffer the buffer
-	 * @param arguments a string, of the reason an error resulted
-	 */
-	public void createError(ByteBuffer buffer, Object... arguments) {
-		String reason = (String) arguments[0];
-
-		buffer.putInt(reason.length());
-		NetUtils.putString(buffer, reason);
-	}
-	
 	/**
 	 * Parses a change name packet, should not be called outside the packet manager
 	 * @param header the header (change name)
@@ -415,23 +297,11 @@ public class LobbyPackets implements PacketListener {
 	 * @return the change name packet
 	 */
 	public ParsedPacket parseChangeName(PacketHeader header, ByteBuffer buffer) {
-		int newNameLen = buffer.getInt();
-		String newName = NetUtils.readString(buffer, newNameLen);
+		String newName = NetUtils.readString(buffer);
 		
 		return new ChangeNamePacket(newName);
 	}
 	
-	/**
-	 * Creates a change name packet, should not be called outside of the packet manager
-	 * @param buffer the buffer
-	 * @param arguments a string, the new name you want
-	 */
-	public void createChangeName(ByteBuffer buffer, Object... arguments) {
-		String newName = (String) arguments[0];
-		buffer.putInt(newName.length());
-		NetUtils.putString(buffer, newName);
-	}
-	
 	/**
 	 * Parses a send net info packet, should not be called outside of the packet manager
 	 * @param header the header
@@ -440,7 +310,8 @@ public class LobbyPackets implements PacketListener {
 	 */
 	public ParsedPacket parseSendNetInfo(PacketHeader header, ByteBuffer buffer) {
 		int nClients = buffer.getInt();
-		Map<Integer, InetSocketAddress> addresses = new HashMap<>();
+		SendNetInfoPacket packet = PacketManager.instance.isDecodingFlyweights() ? netInfos.get().clear() 
+				: new SendNetInfoPacket(new HashMap<Integer, InetSocketAddress>());
 		
 		for(int i = 0; i < nClients; i++) {
 			int id = buffer.getInt();
@@ -461,9 +332,9 @@ public class LobbyPackets implements PacketListener {
 				System.out.println("Attempted to parse a buffer with an invalid inet address " + Arrays.toString(arr));
 				e.printStackTrace();
 			}
-			addresses.put(id, sAddr);
+			packet.putAddress(id, sAddr);
 		}
-		return new SendNetInfoPacket(addresses);
+		return packet;
 	}
 	
 	/**
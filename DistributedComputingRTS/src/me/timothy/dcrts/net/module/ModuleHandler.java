@@ -1,18 +1,21 @@
 package me.timothy.dcrts.net.module;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarFile;
 import java.util.zip.ZipEntry;
 
 import me.timothy.dcrts.net.LogicModule;
+import me.timothy.dcrts.net.Module;
 import me.timothy.dcrts.net.NetModule;
+import me.timothy.dcrts.utils.NetUtils;
 
 import org.yaml.snakeyaml.Yaml;
 
@@ -28,12 +31,26 @@ public class ModuleHandler {
 	
 	public static final String MODULE_FOLDER = "modules/"; 
 	
-	private static List<LogicModule> logModules;
-	private static List<NetModule> netModules;
+	/**
+	 * The registered modules by name. These instances are never activated,
+	 * see {@link #getNetModuleType(String)}
+	 */
+	private static Map<String, LogicModule> logModules;
+	private static Map<String, NetModule> netModules;
+	
+	private static ModuleHashCache hashCache;
+	/**
+	 * Hashes of the modules that were registered from the class path, by
+	 * digest and then name. Classes cannot change once loaded
+	 */
+	private static Map<String, Map<String, byte[]>> classHashes;
+	private static volatile String hashAlgorithm = NetUtils.SHA1;
 	
 	static {
-		netModules = new ArrayList<>();
-		logModules = new ArrayList<>();
+		netModules = new ConcurrentHashMap<>();
+		logModules = new ConcurrentHashMap<>();
+		hashCache = new ModuleHashCache();
+		classHashes = new ConcurrentHashMap<>();
 	}
 	
 	private ModuleHandler() {
@@ -70,36 +87,63 @@ public class ModuleHandler {
 		return getLogicModuleByName("EmptyModule");
 	}
 	
+	/**
+	 * Creates a new instance of a logic module
+	 * 
+	 * @param name the name of the module
+	 * @return the new module, or null if there is no module by that name
+	 */
 	public static LogicModule getLogicModuleByName(String name) {
-		for(LogicModule lm : logModules) {
-			if(lm.getName().equals(name)) {
-				Class<? extends LogicModule> cl = lm.getClass();
-				LogicModule module = null;
-				try {
-					module = cl.newInstance();
-				} catch (InstantiationException | IllegalAccessException e) {
-					e.printStackTrace();
-				}
-				return module;
-			}
-		}
-		return null;
+		LogicModule lm = logModules.get(name);
+		return lm != null ? newInstance(lm) : null;
 	}
 	
+	/**
+	 * Creates a new instance of a net module. The local peer swapping back to
+	 * a module it has had before resumes the old instance instead, see
+	 * {@link me.timothy.dcrts.net.NetState#setNetModuleOf}
+	 * 
+	 * @param name the name of the module
+	 * @return the new module, or null if there is no module by that name
+	 */
 	public static NetModule getNetModuleByName(String name) {
-		for(NetModule nm : netModules) {
-			if(nm.getName().equals(name)) {
-				Class<? extends NetModule> cl = nm.getClass();
-				NetModule module = null;
-				try {
-					module = cl.newInstance();
-				} catch (InstantiationException | IllegalAccessException e) {
-					e.printStackTrace();
-				}
-				return module;
-			}
+		NetModule nm = netModules.get(name);
+		return nm != null ? newInstance(nm) : null;
+	}
+	
+	/**
+	 * Gets the registered instance of a logic module, which is shared and
+	 * must never be activated. Used to record which module a remote peer has.
+	 * 
+	 * @param name the name of the module
+	 * @return the module, or null if there is no module by that name
+	 */
+	public static LogicModule getLogicModuleType(String name) {
+		return logModules.get(name);
+	}
+	
+	/**
+	 * Gets the registered instance of a net module, which is shared and
+	 * must never be activated. Used to record which module a remote peer has,
+	 * so moving remote peers around does not create modules.
+	 * 
+	 * @param name the name of the module
+	 * @return the module, or null if there is no module by that name
+	 */
+	public static NetModule getNetModuleType(String name) {
+		return netModules.get(name);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <T extends Module> T newInstance(T registered) {
+		T module = null;
+		try {
+			module = (T) registered.getClass().newInstance();
+			module.setName(registered.getName());
+		} catch (InstantiationException | IllegalAccessException e) {
+			e.printStackTrace();
 		}
-		return null;
+		return module;
 	}
 
 	/**
@@ -123,7 +167,7 @@ public class ModuleHandler {
 		inStream.close();
 		jarFile.close();
 		
-		URLClassLoader urlClassLoader = new URLClassLoader(new URL[] { url });
+		URLClassLoader urlClassLoader = new URLClassLoader(new URL[] { url }, ModuleHandler.class.getClassLoader());
 		String main = (String) objs.get("main");
 		String type = (String) objs.get("type");
 		String name = (String) objs.get("name");
@@ -136,10 +180,27 @@ public class ModuleHandler {
 			return;
 		}
 		
+		if(registerModule(cl, type, name)) {
+			File file = getFileForModule(name);
+			if(file.exists())
+				hashCache.getHash(file, hashAlgorithm);
+		}
+	}
+	
+	/**
+	 * Registers a module whose main class is already loaded, such as one
+	 * on the classpath rather than in a jar in the modules folder
+	 * 
+	 * @param cl the main class of the module
+	 * @param type the type of module, either "logic" or "net"
+	 * @param name the name of the module
+	 * @return if the module was registered
+	 */
+	public static boolean registerModule(Class<?> cl, String type, String name) {
 		if(type.equals("logic")) {
 			if(!LogicModule.class.isAssignableFrom(cl)) {
 				System.err.println("Misconfigured module (main class does not subclass LogicModule) " + name);
-				return;
+				return false;
 			}
 
 			LogicModule logModule = null;
@@ -148,15 +209,15 @@ public class ModuleHandler {
 			} catch (InstantiationException | IllegalAccessException e) {
 				System.err.println("Misconfigured module (invalid constructor in main class) " + name);
 				e.printStackTrace();
-				return;
+				return false;
 			}
 			
 			logModule.setName(name);
-			logModules.add(logModule);
+			logModules.put(name, logModule);
 		}else if(type.equals("net")) {
 			if(!NetModule.class.isAssignableFrom(cl)) {
 				System.err.println("Misconfigured module (main class does not subclass NetModule) " + name);
-				return;
+				return false;
 			}
 
 			NetModule netModule = null;
@@ -165,14 +226,103 @@ public class ModuleHandler {
 			} catch (InstantiationException | IllegalAccessException e) {
 				System.err.println("Misconfigured module (invalid constructor in main class) " + name);
 				e.printStackTrace();
-				return;
+				return false;
 			}
 			
 			netModule.setName(name);
-			netModules.add(netModule);
+			netModules.put(name, netModule);
+		}else {
+			System.err.println("Misconfigured module (unknown type " + type + ") " + name);
+			return false;
 		}
 		
 		System.out.println("Successfully loaded " + name + " (" + cl.getCanonicalName() + ")");
+		return true;
+	}
+
+	/**
+	 * Sets the digest the modules are hashed with when changing modules. Peers
+	 * check hashes with whichever digest made them (see {@link #verifyModule(String, byte[])}),
+	 * so this only has to be set on the peers that send them
+	 * 
+	 * @param algorithm {@link NetUtils#SHA1} or {@link NetUtils#SHA256}
+	 */
+	public static void setHashAlgorithm(String algorithm) {
+		if(!algorithm.equals(NetUtils.SHA1) && !algorithm.equals(NetUtils.SHA256))
+			throw new IllegalArgumentException("Unsupported module hash " + algorithm);
+		hashAlgorithm = algorithm;
+	}
+	
+	public static String getHashAlgorithm() {
+		return hashAlgorithm;
+	}
+	
+	/**
+	 * Hashes a module so peers can check they are running the same one, with
+	 * the digest set by {@link #setHashAlgorithm(String)}
+	 * 
+	 * @param name the name of the module
+	 * @return the hash
+	 * @throws IOException if the module could not be read
+	 * @see #hashModule(String, String)
+	 */
+	public static byte[] hashModule(String name) throws IOException {
+		return hashModule(name, hashAlgorithm);
+	}
+
+	/**
+	 * Hashes a module so peers can check they are running the same one. Modules
+	 * are hashed by their jar, or by their main class if they were registered from
+	 * the class path (see {@link #registerModule(Class, String, String)}). Hashes
+	 * are cached until the jar changes.
+	 * 
+	 * @param name the name of the module
+	 * @param algorithm the digest, see {@link NetUtils#hash(File, String)}
+	 * @return the hash, which must not be modified
+	 * @throws IOException if the module could not be read
+	 */
+	public static byte[] hashModule(String name, String algorithm) throws IOException {
+		File file = getFileForModule(name);
+		if(file.exists())
+			return hashCache.getHash(file, algorithm);
+		
+		Map<String, byte[]> byName = classHashes.get(algorithm);
+		if(byName == null) {
+			byName = new ConcurrentHashMap<>();
+			classHashes.put(algorithm, byName);
+		}
+		byte[] hash = byName.get(name);
+		if(hash != null)
+			return hash;
+		
+		Module registered = netModules.containsKey(name) ? netModules.get(name) : logModules.get(name);
+		if(registered == null)
+			throw new FileNotFoundException(file.getPath());
+		Class<?> cl = registered.getClass();
+		
+		try(InputStream in = cl.getResourceAsStream(cl.getSimpleName() + ".class")) {
+			if(in == null)
+				throw new FileNotFoundException(file.getPath());
+			hash = NetUtils.hash(in, algorithm);
+		}
+		byName.put(name, hash);
+		return hash;
+	}
+	
+	/**
+	 * Checks a module against the hash another peer sent, hashing it with the
+	 * same digest as the other peer
+	 * 
+	 * @param name the name of the module
+	 * @param expected the hash the other peer sent
+	 * @return if the module has that hash
+	 * @throws IOException if the module could not be read
+	 */
+	public static boolean verifyModule(String name, byte[] expected) throws IOException {
+		String algorithm = expected != null ? NetUtils.getHashAlgorithm(expected.length) : null;
+		if(algorithm == null)
+			return false;
+		return Arrays.equals(hashModule(name, algorithm), expected);
 	}
 
 	public static File getFileForModule(String string) {
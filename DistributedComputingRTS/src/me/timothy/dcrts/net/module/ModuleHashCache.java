@@ -0,0 +1,83 @@
+package me.timothy.dcrts.net.module;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import me.timothy.dcrts.utils.NetUtils;
+
+/**
+ * Remembers the hashes of module jars, so changing modules does not read and
+ * hash the whole jar on every peer every time. A hash is kept until the size
+ * or the modification time of its file changes, which is checked on every
+ * lookup and costs far less than reading the file.
+ *
+ * @author Timothy
+ */
+public class ModuleHashCache {
+	private static class Entry {
+		final long length;
+		final long lastModified;
+		final byte[] hash;
+
+		Entry(long length, long lastModified, byte[] hash) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * Hashes by the absolute path of the file and then the digest
+	 */
+	private ConcurrentHashMap<String, Map<String, Entry>> entries;
+
+	public ModuleHashCache() {
+		entries = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Gets the hash of a file, hashing it if it is not cached or changed since
+	 * it was hashed
+	 *
+	 * @param file the file
+	 * @param algorithm the digest, see {@link NetUtils#hash(File, String)}
+	 * @return the hash, which must not be modified
+	 * @throws IOException if the file could not be read
+	 */
+	public byte[] getHash(File file, String algorithm) throws IOException {
+		long length = file.length();
+		long lastModified = file.lastModified();
+		Map<String, Entry> byAlgorithm = getEntries(file);
+		Entry entry = byAlgorithm.get(algorithm);
+		if(entry != null && entry.length == length && entry.lastModified == lastModified)
+			return entry.hash;
+
+		byte[] hash = NetUtils.hash(file, algorithm);
+		// if the file changed while it was hashed, the next lookup hashes it again
+		byAlgorithm.put(algorithm, new Entry(length, lastModified, hash));
+		return hash;
+	}
+
+	/**
+	 * Forgets every hash of a file
+	 *
+	 * @param file the file
+	 */
+	public void invalidate(File file) {
+		entries.remove(file.getAbsolutePath());
+	}
+
+	private Map<String, Entry> getEntries(File file) {
+		String key = file.getAbsolutePath();
+		Map<String, Entry> res = entries.get(key);
+		if(res == null) {
+			res = new ConcurrentHashMap<>();
+			Map<String, Entry> existing = entries.putIfAbsent(key, res);
+			if(existing != null)
+				res = existing;
+		}
+		return res;
+	}
+}
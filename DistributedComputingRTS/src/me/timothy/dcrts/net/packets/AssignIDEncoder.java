@@ -0,0 +1,57 @@
+package me.timothy.dcrts.net.packets;
+
+import java.nio.ByteBuffer;
+
+import me.timothy.dcrts.packet.PacketEncoder;
+import me.timothy.dcrts.packet.PacketHeader;
+
+/**
+ * Writes assign id packets, which either request an id or assign one
+ * 
+ * @author Timothy
+ */
+public class AssignIDEncoder extends PacketEncoder {
+	public static final AssignIDEncoder INSTANCE = new AssignIDEncoder();
+	
+	private AssignIDEncoder() {
+		super(PacketHeader.ASSIGN_ID);
+	}
+	
+	/**
+	 * Writes a request to be assigned an id
+	 * @param buffer the buffer, positioned after the header
+	 */
+	public void writeRequest(ByteBuffer buffer) {
+		buffer.put((byte) 1);
+		finish(buffer);
+	}
+	
+	/**
+	 * Writes the assignment of an id
+	 * @param buffer the buffer, positioned after the header
+	 * @param id the id being assigned
+	 * @param relevantPeerID the id of the peer doing the assigning
+	 */
+	public void write(ByteBuffer buffer, int id, int relevantPeerID) {
+		put(buffer, id, relevantPeerID);
+		finish(buffer);
+	}
+	
+	/**
+	 * @param args a boolean (true for requesting to be assigned an id, false to assign an id). If false,
+	 * an int for the id that is being assigned and an int for the relevant peer
+	 */
+	@Override
+	public void encode(ByteBuffer buffer, Object[] args) {
+		if((boolean) args[0])
+			buffer.put((byte) 1);
+		else
+			put(buffer, (int) args[1], (int) args[2]);
+	}
+	
+	private static void put(ByteBuffer buffer, int id, int relevantPeerID) {
+		buffer.put((byte) 0);
+		buffer.putInt(id);
+		buffer.putInt(relevantPeerID);
+	}
+}
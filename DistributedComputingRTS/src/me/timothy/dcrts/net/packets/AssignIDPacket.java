@@ -1,15 +1,17 @@
 package me.timothy.dcrts.net.packets;
 
+import me.timothy.dcrts.packet.Flyweight;
 import me.timothy.dcrts.packet.PacketHeader;
 import me.timothy.dcrts.packet.ParsedPacket;
 
 /**
  * The packet related to {@link PacketHeader#ASSIGN_ID}. ID is always
- * -1 if requestingID is true
+ * -1 if requestingID is true. It may be reused as a flyweight
+ * with {@link #set(boolean, int, int)}
  * 
  * @author Timothy
  */
-public class AssignIDPacket implements ParsedPacket {
+public class AssignIDPacket implements Flyweight {
 	private boolean requestingID;
 	private int id;
 	private int peerID;
@@ -20,6 +22,24 @@ public class AssignIDPacket implements ParsedPacket {
 		this.peerID = peerID;
 	}
 	
+	/**
+	 * @param requestingID if an id is being requested
+	 * @param id the id being assigned, or -1
+	 * @param peerID the id of the peer doing the assigning, or -1
+	 * @return this packet
+	 */
+	public AssignIDPacket set(boolean requestingID, int id, int peerID) {
+		this.requestingID = requestingID;
+		this.id = id;
+		this.peerID = peerID;
+		return this;
+	}
+	
+	@Override
+	public ParsedPacket retain() {
+		return new AssignIDPacket(requestingID, id, peerID);
+	}
+	
 	@Override
 	public PacketHeader getHeader() {
 		return PacketHeader.ASSIGN_ID;
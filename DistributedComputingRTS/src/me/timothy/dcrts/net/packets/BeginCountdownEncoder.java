@@ -0,0 +1,40 @@
+package me.timothy.dcrts.net.packets;
+
+import java.nio.ByteBuffer;
+
+import me.timothy.dcrts.packet.PacketEncoder;
+import me.timothy.dcrts.packet.PacketHeader;
+
+/**
+ * Writes begin countdown packets, see {@link BeginCountdownPacket}
+ * 
+ * @author Timothy
+ */
+public class BeginCountdownEncoder extends PacketEncoder {
+	public static final BeginCountdownEncoder INSTANCE = new BeginCountdownEncoder();
+	
+	private BeginCountdownEncoder() {
+		super(PacketHeader.BEGIN_COUNTDOWN);
+	}
+	
+	/**
+	 * Writes the packet
+	 * @param buffer the buffer, positioned after the header
+	 * @param deadline when the game starts, on the local clock
+	 * @param sentAt now, on the local clock
+	 */
+	public void write(ByteBuffer buffer, long deadline, long sentAt) {
+		buffer.putLong(deadline);
+		buffer.putLong(sentAt);
+		finish(buffer);
+	}
+	
+	/**
+	 * @param args Length 2, contains a long (deadline) and a long (sentAt)
+	 */
+	@Override
+	public void encode(ByteBuffer buffer, Object[] args) {
+		buffer.putLong((long) args[0]);
+		buffer.putLong((long) args[1]);
+	}
+}
@@ -3,10 +3,24 @@ package me.timothy.dcrts.net.packets;
 import me.timothy.dcrts.packet.PacketHeader;
 import me.timothy.dcrts.packet.ParsedPacket;
 
+/**
+ * The packet related to {@link PacketHeader#BEGIN_COUNTDOWN}. Both times are
+ * the monotonic clock of the host, which every peer converts to its own clock
+ * to start the game at the same moment
+ * 
+ * @author Timothy
+ */
 public class BeginCountdownPacket implements ParsedPacket {
+	private long deadline;
+	private long sentAt;
 
-	public BeginCountdownPacket() {
-		
+	/**
+	 * @param deadline when the game starts
+	 * @param sentAt when the packet was sent
+	 */
+	public BeginCountdownPacket(long deadline, long sentAt) {
+		this.deadline = deadline;
+		this.sentAt = sentAt;
 	}
 	
 	@Override
@@ -14,4 +28,17 @@ public class BeginCountdownPacket implements ParsedPacket {
 		return PacketHeader.BEGIN_COUNTDOWN;
 	}
 
+	/**
+	 * @return when the game starts, on the host's clock
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * @return when the packet was sent, on the host's clock
+	 */
+	public long getSentAt() {
+		return sentAt;
+	}
 }
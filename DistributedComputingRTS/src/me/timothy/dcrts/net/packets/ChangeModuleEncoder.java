@@ -0,0 +1,62 @@
+package me.timothy.dcrts.net.packets;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import me.timothy.dcrts.net.module.ModuleHandler;
+import me.timothy.dcrts.packet.PacketEncoder;
+import me.timothy.dcrts.packet.PacketHeader;
+import me.timothy.dcrts.peer.Peer;
+import me.timothy.dcrts.utils.NetUtils;
+
+/**
+ * Writes change module packets, with the hash of the module
+ * 
+ * @author Timothy
+ */
+public class ChangeModuleEncoder extends PacketEncoder {
+	public static final ChangeModuleEncoder INSTANCE = new ChangeModuleEncoder();
+	
+	private ChangeModuleEncoder() {
+		super(PacketHeader.CHANGE_MODULE);
+	}
+	
+	/**
+	 * Writes the packet
+	 * @param buffer the buffer, positioned after the header
+	 * @param peer the peer whose module is changing
+	 * @param netMod if the module is a net module
+	 * @param module the name of the module that is being changed to
+	 * @param parent the peer above that peer in the relay tree, or null
+	 * @throws IOException if the module could not be hashed
+	 */
+	public void write(ByteBuffer buffer, Peer peer, boolean netMod, String module, Peer parent) throws IOException {
+		put(buffer, peer, netMod, module, parent);
+		finish(buffer);
+	}
+	
+	/**
+	 * @param args Length 3 or 4, contains a peer (whose changing the module), if the module is a net module,
+	 * 				a string (the name of the module that is being changed to), and optionally the peer above
+	 * 				that peer in the relay tree
+	 */
+	@Override
+	public void encode(ByteBuffer buffer, Object[] args) {
+		try {
+			put(buffer, (Peer) args[0], (boolean) args[1], (String) args[2], args.length > 3 ? (Peer) args[3] : null);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private static void put(ByteBuffer buffer, Peer peer, boolean netMod, String module, Peer parent) throws IOException {
+		byte[] hash = ModuleHandler.hashModule(module);
+		
+		buffer.putInt(peer.getID());
+		buffer.put(netMod ? (byte) 1 : (byte) 0);
+		NetUtils.putString(buffer, module);
+		buffer.putInt(hash.length);
+		buffer.put(hash);
+		buffer.putInt(parent != null ? parent.getID() : ChangeModulePacket.NO_PARENT);
+	}
+}
@@ -1,19 +1,61 @@
 package me.timothy.dcrts.net.packets;
 
+import me.timothy.dcrts.packet.Flyweight;
 import me.timothy.dcrts.packet.PacketHeader;
 import me.timothy.dcrts.packet.ParsedPacket;
 
-public class ChangeModulePacket implements ParsedPacket {
+/**
+ * The packet related to {@link PacketHeader#CHANGE_MODULE}. It may be
+ * reused as a flyweight, in which case the hash array is reused too
+ * 
+ * @author Timothy
+ */
+public class ChangeModulePacket implements Flyweight {
+	/**
+	 * The parent sent when the change does not place the peer in the relay tree
+	 */
+	public static final int NO_PARENT = -1;
+	
 	private int peer;
 	private String moduleName;
-	private byte[] sha1Hash;
+	private byte[] hash;
 	private boolean netModule;
+	private int parent;
 	
-	public ChangeModulePacket(int p, String mod, boolean net, byte[] hash) {
+	public ChangeModulePacket(int p, String mod, boolean net, byte[] hash, int par) {
 		peer = p;
 		moduleName = mod;
-		sha1Hash = hash;
+		this.hash = hash;
 		netModule = net;
+		parent = par;
+	}
+	
+	/**
+	 * Sets every field, keeping the hash array if it is the right length
+	 * so it can be read into with {@link #getHashBuffer(int)}
+	 * 
+	 * @param p the id of the peer
+	 * @param mod the name of the module
+	 * @param net if it is a net module
+	 * @param par the id of the parent, or {@link #NO_PARENT}
+	 * @return this packet
+	 */
+	public ChangeModulePacket set(int p, String mod, boolean net, int par) {
+		peer = p;
+		moduleName = mod;
+		netModule = net;
+		parent = par;
+		return this;
+	}
+	
+	/**
+	 * @param length the length of the hash
+	 * @return the array the hash should be read into, which is reused if it is the right length
+	 */
+	public byte[] getHashBuffer(int length) {
+		if(hash == null || hash.length != length)
+			hash = new byte[length];
+		return hash;
 	}
 	
 	/**
@@ -35,11 +77,23 @@ public class ChangeModulePacket implements ParsedPacket {
 		return netModule;
 	}
 	
-	public byte[] getExpectedSHA1Hash() {
-		return sha1Hash;
+	public byte[] getExpectedHash() {
+		return hash;
+	}
+	
+	/**
+	 * @return the id of the peer above this peer in the relay tree, or {@link #NO_PARENT}
+	 */
+	public int getParent() {
+		return parent;
 	}
 	
 	
+	@Override
+	public ParsedPacket retain() {
+		return new ChangeModulePacket(peer, moduleName, netModule, hash.clone(), parent);
+	}
+	
 	@Override
 	public PacketHeader getHeader() {
 		return PacketHeader.CHANGE_MODULE;
@@ -0,0 +1,79 @@
+package me.timothy.dcrts.net.packets;
+
+import java.nio.ByteBuffer;
+
+import me.timothy.dcrts.packet.PacketEncoder;
+import me.timothy.dcrts.packet.PacketHeader;
+import me.timothy.dcrts.peer.Peer;
+import me.timothy.dcrts.utils.NetUtils;
+
+/**
+ * Writes connect packets, for a peer that may or may not have been
+ * assigned an id yet
+ * 
+ * @author Timothy
+ */
+public class ConnectEncoder extends PacketEncoder {
+	public static final ConnectEncoder INSTANCE = new ConnectEncoder();
+	
+	private ConnectEncoder() {
+		super(PacketHeader.CONNECT);
+	}
+	
+	/**
+	 * Writes the packet for a peer that has been assigned an id
+	 * @param buffer the buffer, positioned after the header
+	 * @param peer the peer
+	 */
+	public void write(ByteBuffer buffer, Peer peer) {
+		put(buffer, true, peer.isReady(), peer.getID(), peer.getName());
+		finish(buffer);
+	}
+	
+	/**
+	 * Writes the packet for a peer that has been assigned an id
+	 * @param buffer the buffer, positioned after the header
+	 * @param ready if the peer is ready
+	 * @param id the id of the peer
+	 * @param name the name of the peer
+	 */
+	public void write(ByteBuffer buffer, boolean ready, int id, String name) {
+		put(buffer, true, ready, id, name);
+		finish(buffer);
+	}
+	
+	/**
+	 * Writes the packet for a peer that has not been assigned an id yet
+	 * @param buffer the buffer, positioned after the header
+	 * @param ready if the peer is ready
+	 * @param name the name of the peer
+	 */
+	public void writeUnassigned(ByteBuffer buffer, boolean ready, String name) {
+		put(buffer, false, ready, -1, name);
+		finish(buffer);
+	}
+	
+	/**
+	 * @param args either a peer, or (a boolean (if an id has been assigned to this peer yet), another boolean (readyness),
+	 * followed by an int IF the first boolean was true (the assigned id), followed by a string (name))
+	 */
+	@Override
+	public void encode(ByteBuffer buffer, Object[] args) {
+		if(args[0] instanceof Peer) {
+			Peer peer = (Peer) args[0];
+			put(buffer, true, peer.isReady(), peer.getID(), peer.getName());
+		}else if((boolean) args[0]) {
+			put(buffer, true, (boolean) args[1], (int) args[2], (String) args[3]);
+		}else {
+			put(buffer, false, (boolean) args[1], -1, (String) args[2]);
+		}
+	}
+	
+	private static void put(ByteBuffer buffer, boolean assignedId, boolean ready, int id, String name) {
+		buffer.put(assignedId ? (byte) 1 : (byte) 0);
+		buffer.put(ready ? (byte) 1 : (byte) 0);
+		if(assignedId)
+			buffer.putInt(id);
+		NetUtils.putString(buffer, name);
+	}
+}
@@ -1,19 +1,42 @@
 package me.timothy.dcrts.net.packets;
 
+import me.timothy.dcrts.packet.Flyweight;
 import me.timothy.dcrts.packet.PacketHeader;
+import me.timothy.dcrts.packet.PacketManager;
 import me.timothy.dcrts.packet.ParsedPacket;
 
-public class DirectConnectionPacket implements ParsedPacket {
+/**
+ * A packet that came in over a direct connection. It may be reused as a
+ * flyweight with {@link #set(ParsedPacket)}, and retaining it retains the
+ * packet inside, which may be a flyweight too
+ * 
+ * @author Timothy
+ */
+public class DirectConnectionPacket implements Flyweight {
 	private ParsedPacket realPacket;
 	
 	public DirectConnectionPacket(ParsedPacket real) {
 		realPacket = real;
 	}
 	
+	/**
+	 * @param real the packet that came in
+	 * @return this packet
+	 */
+	public DirectConnectionPacket set(ParsedPacket real) {
+		realPacket = real;
+		return this;
+	}
+	
 	public ParsedPacket getPacket() {
 		return realPacket;
 	}
 	
+	@Override
+	public ParsedPacket retain() {
+		return new DirectConnectionPacket(PacketManager.retain(realPacket));
+	}
+	
 	@Override
 	public PacketHeader getHeader() {
 		return PacketHeader.DIRECT_PACKET;
@@ -0,0 +1,35 @@
+package me.timothy.dcrts.net.packets;
+
+import java.nio.ByteBuffer;
+
+import me.timothy.dcrts.packet.PacketEncoder;
+import me.timothy.dcrts.packet.PacketHeader;
+
+/**
+ * Writes the packets that have nothing but their header
+ * 
+ * @author Timothy
+ */
+public class EmptyEncoder extends PacketEncoder {
+	public static final EmptyEncoder INTERRUPT_READY = new EmptyEncoder(PacketHeader.INTERRUPT_READY);
+	public static final EmptyEncoder DESTROYING_CHANNEL = new EmptyEncoder(PacketHeader.DESTROYING_CHANNEL);
+	
+	private EmptyEncoder(PacketHeader header) {
+		super(header);
+	}
+	
+	/**
+	 * Writes the packet
+	 * @param buffer the buffer, positioned after the header
+	 */
+	public void write(ByteBuffer buffer) {
+		finish(buffer);
+	}
+	
+	/**
+	 * @param args ignored
+	 */
+	@Override
+	public void encode(ByteBuffer buffer, Object[] args) {
+	}
+}
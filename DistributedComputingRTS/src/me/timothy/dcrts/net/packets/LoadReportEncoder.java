@@ -0,0 +1,43 @@
+package me.timothy.dcrts.net.packets;
+
+import java.nio.ByteBuffer;
+
+import me.timothy.dcrts.packet.PacketEncoder;
+import me.timothy.dcrts.packet.PacketHeader;
+
+/**
+ * Writes load report packets
+ * 
+ * @author Timothy
+ */
+public class LoadReportEncoder extends PacketEncoder {
+	public static final LoadReportEncoder INSTANCE = new LoadReportEncoder();
+	
+	private LoadReportEncoder() {
+		super(PacketHeader.LOAD_REPORT);
+	}
+	
+	/**
+	 * Writes the packet
+	 * @param buffer the buffer, positioned after the header
+	 * @param capacity the capacity score, from 0 (none) to 1 (idle)
+	 * @param queueDepth how many tasks are waiting or running
+	 */
+	public void write(ByteBuffer buffer, double capacity, int queueDepth) {
+		put(buffer, capacity, queueDepth);
+		finish(buffer);
+	}
+	
+	/**
+	 * @param args Length 2 (the capacity score as a double, the queue depth as an int)
+	 */
+	@Override
+	public void encode(ByteBuffer buffer, Object[] args) {
+		put(buffer, (double) args[0], (int) args[1]);
+	}
+	
+	private static void put(ByteBuffer buffer, double capacity, int queueDepth) {
+		buffer.putFloat((float) capacity);
+		buffer.putInt(queueDepth);
+	}
+}
@@ -0,0 +1,58 @@
+package me.timothy.dcrts.net.packets;
+
+import me.timothy.dcrts.packet.Flyweight;
+import me.timothy.dcrts.packet.PacketHeader;
+import me.timothy.dcrts.packet.ParsedPacket;
+
+/**
+ * How much more logic work the sender can take, see
+ * {@link me.timothy.dcrts.net.admission.AdmissionController}. It may
+ * be reused as a flyweight with {@link #set(float, int)}
+ * 
+ * @author Timothy
+ */
+public class LoadReportPacket implements Flyweight {
+	private float capacity;
+	private int queueDepth;
+	
+	/**
+	 * @param capacity the capacity score, from 0 (none) to 1 (idle)
+	 * @param queueDepth how many tasks are waiting or running
+	 */
+	public LoadReportPacket(float capacity, int queueDepth) {
+		this.capacity = capacity;
+		this.queueDepth = queueDepth;
+	}
+	
+	/**
+	 * @param capacity the capacity score, from 0 (none) to 1 (idle)
+	 * @param queueDepth how many tasks are waiting or running
+	 * @return this packet
+	 */
+	public LoadReportPacket set(float capacity, int queueDepth) {
+		this.capacity = capacity;
+		this.queueDepth = queueDepth;
+		return this;
+	}
+	
+	/**
+	 * @return the capacity score, from 0 (none) to 1 (idle)
+	 */
+	public float getCapacity() {
+		return capacity;
+	}
+	
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+	
+	@Override
+	public ParsedPacket retain() {
+		return new LoadReportPacket(capacity, queueDepth);
+	}
+	
+	@Override
+	public PacketHeader getHeader() {
+		return PacketHeader.LOAD_REPORT;
+	}
+}
@@ -0,0 +1,38 @@
+package me.timothy.dcrts.net.packets;
+
+import java.nio.ByteBuffer;
+
+import me.timothy.dcrts.packet.PacketEncoder;
+import me.timothy.dcrts.packet.PacketHeader;
+
+/**
+ * Writes ping packets, which are just the time the ping was sent, or
+ * whatever the sender wants echoed, see {@link ReturnPingEncoder}
+ * 
+ * @author Timothy
+ */
+public class PingEncoder extends PacketEncoder {
+	public static final PingEncoder PING = new PingEncoder(PacketHeader.PING);
+	
+	private PingEncoder(PacketHeader header) {
+		super(header);
+	}
+	
+	/**
+	 * Writes the packet
+	 * @param buffer the buffer, positioned after the header
+	 * @param timeSent the time the ping was first sent
+	 */
+	public void write(ByteBuffer buffer, long timeSent) {
+		buffer.putLong(timeSent);
+		finish(buffer);
+	}
+	
+	/**
+	 * @param args Length 1, contains a long (timeSent)
+	 */
+	@Override
+	public void encode(ByteBuffer buffer, Object[] args) {
+		buffer.putLong((long) args[0]);
+	}
+}
@@ -1,15 +1,31 @@
 package me.timothy.dcrts.net.packets;
 
+import me.timothy.dcrts.packet.Flyweight;
 import me.timothy.dcrts.packet.PacketHeader;
 import me.timothy.dcrts.packet.ParsedPacket;
 
-public class PingPacket implements ParsedPacket {
+/**
+ * The packet related to {@link PacketHeader#PING}. It may be reused
+ * as a flyweight with {@link #set(long)}, see {@link Flyweight}
+ * 
+ * @author Timothy
+ */
+public class PingPacket implements Flyweight {
 	private long timeSent;
 	
 	public PingPacket(long timeSent) {
 		this.timeSent = timeSent;
 	}
 	
+	/**
+	 * @param timeSent the time the ping was first sent
+	 * @return this packet
+	 */
+	public PingPacket set(long timeSent) {
+		this.timeSent = timeSent;
+		return this;
+	}
+	
 	@Override
 	public PacketHeader getHeader() {
 		return PacketHeader.PING;
@@ -18,6 +34,11 @@ public class PingPacket implements ParsedPacket {
 	public long getTimeSent() {
 		return timeSent;
 	}
+	
+	@Override
+	public ParsedPacket retain() {
+		return new PingPacket(timeSent);
+	}
 
 	@Override
 	public int hashCode() {
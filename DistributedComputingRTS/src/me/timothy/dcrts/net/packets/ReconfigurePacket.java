@@ -0,0 +1,72 @@
+package me.timothy.dcrts.net.packets;
+
+import java.util.Map;
+
+import me.timothy.dcrts.packet.PacketHeader;
+import me.timothy.dcrts.packet.ParsedPacket;
+
+/**
+ * The whole relay tree, replacing whatever tree came before it. Every peer gets
+ * its net module and parent, and peers whose module did not change keep it.
+ * Epochs only ever grow, so a reconfiguration that arrives twice or late is
+ * ignored.
+ *
+ * @author Timothy
+ */
+public class ReconfigurePacket implements ParsedPacket {
+	private int epoch;
+	private int root;
+	private Map<Integer, Integer> parents;
+	private Map<Integer, String> modules;
+	private Map<String, byte[]> hashes;
+
+	/**
+	 * @param ep the epoch
+	 * @param r the id of the root
+	 * @param par the id of the parent of every peer except the root
+	 * @param mods the net module of every peer, including the root
+	 * @param hash the hash of every module in mods, SHA1 unless the sender chose SHA-256
+	 */
+	public ReconfigurePacket(int ep, int r, Map<Integer, Integer> par, Map<Integer, String> mods, Map<String, byte[]> hash) {
+		epoch = ep;
+		root = r;
+		parents = par;
+		modules = mods;
+		hashes = hash;
+	}
+
+	public int getEpoch() {
+		return epoch;
+	}
+
+	public int getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return the id of the parent of every peer except the root
+	 */
+	public Map<Integer, Integer> getParents() {
+		return parents;
+	}
+
+	/**
+	 * @return the name of the net module of every peer, including the root
+	 */
+	public Map<Integer, String> getModules() {
+		return modules;
+	}
+
+	/**
+	 * @param module the name of a module in the packet
+	 * @return the hash the module is expected to have, see ModuleHandler#verifyModule
+	 */
+	public byte[] getExpectedHash(String module) {
+		return hashes.get(module);
+	}
+
+	@Override
+	public PacketHeader getHeader() {
+		return PacketHeader.RECONFIGURE;
+	}
+}
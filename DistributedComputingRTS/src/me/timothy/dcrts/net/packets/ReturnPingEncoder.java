@@ -0,0 +1,40 @@
+package me.timothy.dcrts.net.packets;
+
+import java.nio.ByteBuffer;
+
+import me.timothy.dcrts.packet.PacketEncoder;
+import me.timothy.dcrts.packet.PacketHeader;
+
+/**
+ * Writes return ping packets, which are the time the ping was first sent
+ * followed by the monotonic clock of the peer answering it
+ * 
+ * @author Timothy
+ */
+public class ReturnPingEncoder extends PacketEncoder {
+	public static final ReturnPingEncoder INSTANCE = new ReturnPingEncoder();
+	
+	private ReturnPingEncoder() {
+		super(PacketHeader.RETURN_PING);
+	}
+	
+	/**
+	 * Writes the packet, answered now
+	 * @param buffer the buffer, positioned after the header
+	 * @param timeSent the time the ping was first sent
+	 */
+	public void write(ByteBuffer buffer, long timeSent) {
+		buffer.putLong(timeSent);
+		buffer.putLong(System.nanoTime());
+		finish(buffer);
+	}
+	
+	/**
+	 * @param args Length 1, contains a long (timeSent)
+	 */
+	@Override
+	public void encode(ByteBuffer buffer, Object[] args) {
+		buffer.putLong((long) args[0]);
+		buffer.putLong(System.nanoTime());
+	}
+}
@@ -1,21 +1,55 @@
 package me.timothy.dcrts.net.packets;
 
 import me.timothy.dcrts.packet.PacketHeader;
+import me.timothy.dcrts.packet.ParsedPacket;
 
 /**
- * Time sent is based on the original packet, not the more recent time
+ * Time sent is based on the original packet, not the more recent time. The
+ * time it was answered is the monotonic clock of the peer that answered, see
+ * {@link me.timothy.dcrts.net.ClockOffset}
  * @author Timothy
  *
  */
 public class ReturnPingPacket extends PingPacket {
+	private long answeredAt;
 
-	public ReturnPingPacket(long timeSent) {
+	public ReturnPingPacket(long timeSent, long answeredAt) {
 		super(timeSent);
+		this.answeredAt = answeredAt;
+	}
+	
+	/**
+	 * @param timeSent the time the ping was first sent
+	 * @param answeredAt the clock of the peer that answered, when it answered
+	 * @return this packet
+	 */
+	public ReturnPingPacket set(long timeSent, long answeredAt) {
+		set(timeSent);
+		this.answeredAt = answeredAt;
+		return this;
 	}
 	
 	@Override
 	public PacketHeader getHeader() {
 		return PacketHeader.RETURN_PING;
 	}
+	
+	public long getAnsweredAt() {
+		return answeredAt;
+	}
+	
+	@Override
+	public ParsedPacket retain() {
+		return new ReturnPingPacket(getTimeSent(), answeredAt);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * super.hashCode() + (int) (answeredAt ^ (answeredAt >>> 32));
+	}
 
+	@Override
+	public boolean equals(Object obj) {
+		return super.equals(obj) && answeredAt == ((ReturnPingPacket) obj).answeredAt;
+	}
 }
@@ -1,22 +1,48 @@
 package me.timothy.dcrts.net.packets;
 
 import java.net.InetSocketAddress;
+import java.util.HashMap;
 import java.util.Map;
 
+import me.timothy.dcrts.packet.Flyweight;
 import me.timothy.dcrts.packet.PacketHeader;
 import me.timothy.dcrts.packet.ParsedPacket;
 
-public class SendNetInfoPacket implements ParsedPacket {
+/**
+ * The packet related to {@link PacketHeader#SEND_NET_INFO}. It may be
+ * reused as a flyweight with {@link #clear()} and {@link #putAddress(int, InetSocketAddress)}
+ * 
+ * @author Timothy
+ */
+public class SendNetInfoPacket implements Flyweight {
 	private Map<Integer, InetSocketAddress> peerAddresses;
 	
 	public SendNetInfoPacket(Map<Integer, InetSocketAddress> addresses) {
 		peerAddresses = addresses;
 	}
 	
+	/**
+	 * Forgets every address
+	 * @return this packet
+	 */
+	public SendNetInfoPacket clear() {
+		peerAddresses.clear();
+		return this;
+	}
+	
+	public void putAddress(int id, InetSocketAddress address) {
+		peerAddresses.put(id, address);
+	}
+	
 	public InetSocketAddress getAddress(int id) {
 		return peerAddresses.get(id);
 	}
 	
+	@Override
+	public ParsedPacket retain() {
+		return new SendNetInfoPacket(new HashMap<>(peerAddresses));
+	}
+	
 	@Override
 	public PacketHeader getHeader() {
 		return PacketHeader.SEND_NET_INFO;
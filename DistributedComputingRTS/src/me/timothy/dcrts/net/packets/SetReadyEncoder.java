@@ -0,0 +1,37 @@
+package me.timothy.dcrts.net.packets;
+
+import java.nio.ByteBuffer;
+
+import me.timothy.dcrts.packet.PacketEncoder;
+import me.timothy.dcrts.packet.PacketHeader;
+
+/**
+ * Writes set ready packets
+ * 
+ * @author Timothy
+ */
+public class SetReadyEncoder extends PacketEncoder {
+	public static final SetReadyEncoder INSTANCE = new SetReadyEncoder();
+	
+	private SetReadyEncoder() {
+		super(PacketHeader.SET_READY);
+	}
+	
+	/**
+	 * Writes the packet
+	 * @param buffer the buffer, positioned after the header
+	 * @param ready if the peer is ready
+	 */
+	public void write(ByteBuffer buffer, boolean ready) {
+		buffer.put(ready ? (byte) 1 : (byte) 0);
+		finish(buffer);
+	}
+	
+	/**
+	 * @param args Length 1, contains a boolean (ready)
+	 */
+	@Override
+	public void encode(ByteBuffer buffer, Object[] args) {
+		buffer.put((boolean) args[0] ? (byte) 1 : (byte) 0);
+	}
+}
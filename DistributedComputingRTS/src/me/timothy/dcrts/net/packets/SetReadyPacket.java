@@ -1,9 +1,16 @@
 package me.timothy.dcrts.net.packets;
 
+import me.timothy.dcrts.packet.Flyweight;
 import me.timothy.dcrts.packet.PacketHeader;
 import me.timothy.dcrts.packet.ParsedPacket;
 
-public class SetReadyPacket implements ParsedPacket {
+/**
+ * The packet related to {@link PacketHeader#SET_READY}. It may be reused
+ * as a flyweight with {@link #set(boolean)}
+ * 
+ * @author Timothy
+ */
+public class SetReadyPacket implements Flyweight {
 	
 	private boolean ready;
 	
@@ -11,10 +18,24 @@ public class SetReadyPacket implements ParsedPacket {
 		this.ready = ready;
 	}
 	
+	/**
+	 * @param ready if the peer is ready
+	 * @return this packet
+	 */
+	public SetReadyPacket set(boolean ready) {
+		this.ready = ready;
+		return this;
+	}
+	
 	public boolean ready() {
 		return ready;
 	}
 	
+	@Override
+	public ParsedPacket retain() {
+		return new SetReadyPacket(ready);
+	}
+	
 	@Override
 	public PacketHeader getHeader() {
 		return PacketHeader.SET_READY;
@@ -0,0 +1,41 @@
+package me.timothy.dcrts.net.packets;
+
+import java.nio.ByteBuffer;
+
+import me.timothy.dcrts.packet.PacketEncoder;
+import me.timothy.dcrts.packet.PacketHeader;
+import me.timothy.dcrts.utils.NetUtils;
+
+/**
+ * Writes the packets that are a single string, such as the reason for
+ * a disconnect or an error, or a new name
+ * 
+ * @author Timothy
+ */
+public class StringEncoder extends PacketEncoder {
+	public static final StringEncoder DISCONNECT = new StringEncoder(PacketHeader.DISCONNECT);
+	public static final StringEncoder ERROR = new StringEncoder(PacketHeader.ERROR);
+	public static final StringEncoder CHANGE_NAME = new StringEncoder(PacketHeader.CHANGE_NAME);
+	
+	private StringEncoder(PacketHeader header) {
+		super(header);
+	}
+	
+	/**
+	 * Writes the packet
+	 * @param buffer the buffer, positioned after the header
+	 * @param string the string
+	 */
+	public void write(ByteBuffer buffer, String string) {
+		NetUtils.putString(buffer, string);
+		finish(buffer);
+	}
+	
+	/**
+	 * @param args Length 1, contains a string
+	 */
+	@Override
+	public void encode(ByteBuffer buffer, Object[] args) {
+		NetUtils.putString(buffer, (String) args[0]);
+	}
+}
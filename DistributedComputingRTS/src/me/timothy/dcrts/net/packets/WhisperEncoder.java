@@ -0,0 +1,45 @@
+package me.timothy.dcrts.net.packets;
+
+import java.nio.ByteBuffer;
+
+import me.timothy.dcrts.packet.PacketEncoder;
+import me.timothy.dcrts.packet.PacketHeader;
+import me.timothy.dcrts.peer.Peer;
+import me.timothy.dcrts.utils.NetUtils;
+
+/**
+ * Writes whisper packets
+ * 
+ * @author Timothy
+ */
+public class WhisperEncoder extends PacketEncoder {
+	public static final WhisperEncoder INSTANCE = new WhisperEncoder();
+	
+	private WhisperEncoder() {
+		super(PacketHeader.WHISPER);
+	}
+	
+	/**
+	 * Writes the packet
+	 * @param buffer the buffer, positioned after the header
+	 * @param peer the peer it is being sent to
+	 * @param message the message
+	 */
+	public void write(ByteBuffer buffer, Peer peer, String message) {
+		put(buffer, peer, message);
+		finish(buffer);
+	}
+	
+	/**
+	 * @param args Length 2 (Peer that it is being sent to, message that is being sent)
+	 */
+	@Override
+	public void encode(ByteBuffer buffer, Object[] args) {
+		put(buffer, (Peer) args[0], (String) args[1]);
+	}
+	
+	private static void put(ByteBuffer buffer, Peer peer, String message) {
+		buffer.putInt(peer.getID());
+		NetUtils.putString(buffer, message);
+	}
+}
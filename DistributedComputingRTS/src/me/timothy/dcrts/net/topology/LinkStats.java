@@ -0,0 +1,73 @@
+package me.timothy.dcrts.net.topology;
+
+import me.timothy.dcrts.net.RttStats;
+
+/**
+ * What has been measured about the connection to a single peer. The round trip
+ * time is read from the {@link RttStats} of the peer, and the throughput is the largest
+ * rate the connection has recently been seen to drain at while it was backed up,
+ * which is a lower bound on what the peer can relay.
+ *
+ * @author Timothy
+ */
+public class LinkStats {
+	/**
+	 * How much of the throughput estimate decays every sample, so it follows
+	 * the link if it gets slower
+	 */
+	public static final double THROUGHPUT_DECAY = 1.0 / 16;
+
+	private volatile RttStats rtt;
+	private double throughput = -1;
+
+	/**
+	 * @param rtt the round trip times to the peer, or null if they are not measured
+	 */
+	public void setRttStats(RttStats rtt) {
+		this.rtt = rtt;
+	}
+
+	/**
+	 * Records how fast the connection drained while it had data waiting
+	 * @param bytes the number of bytes written
+	 * @param nanos how long writing them took
+	 */
+	public synchronized void recordThroughput(long bytes, long nanos) {
+		if(bytes <= 0 || nanos <= 0)
+			return;
+		double sample = bytes * 1e9 / nanos;
+		if(throughput < 0)
+			throughput = sample;
+		else
+			throughput = Math.max(sample, throughput - throughput * THROUGHPUT_DECAY);
+	}
+
+	/**
+	 * @return if the round trip time has been measured at least once
+	 */
+	public boolean hasRtt() {
+		RttStats r = rtt;
+		return r != null && r.hasRtt();
+	}
+
+	/**
+	 * @return the smoothed round trip time in nanoseconds, or -1 if it has not been measured
+	 */
+	public long getRtt() {
+		RttStats r = rtt;
+		return r != null ? r.getSmoothed() : -1;
+	}
+
+	/**
+	 * @return the throughput in bytes per second, or -1 if it has not been measured
+	 */
+	public synchronized double getThroughput() {
+		return throughput;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("rtt %.1f ms, %s", getRtt() / 1e6,
+				throughput < 0 ? "throughput unknown" : String.format("%.0f KB/s", throughput / 1024));
+	}
+}
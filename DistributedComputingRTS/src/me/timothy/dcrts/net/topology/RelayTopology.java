@@ -0,0 +1,235 @@
+package me.timothy.dcrts.net.topology;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import me.timothy.dcrts.GameState;
+import me.timothy.dcrts.net.NetModule;
+import me.timothy.dcrts.net.NetState;
+import me.timothy.dcrts.net.module.ModuleHandler;
+import me.timothy.dcrts.net.packets.ChangeModulePacket;
+import me.timothy.dcrts.net.packets.ReconfigurePacket;
+import me.timothy.dcrts.packet.PacketHandler;
+import me.timothy.dcrts.packet.PacketHeader;
+import me.timothy.dcrts.packet.PacketListener;
+import me.timothy.dcrts.packet.PacketManager;
+import me.timothy.dcrts.packet.ParsedPacket;
+import me.timothy.dcrts.peer.Peer;
+import me.timothy.dcrts.utils.NetUtils;
+
+/**
+ * Every peers view of the relay tree. Change module packets that carry a parent
+ * (see {@link ChangeModulePacket#getParent()}) move a peer in the tree, and the
+ * metadata the net modules use to find their neighbours is rewritten from the tree
+ * before the new module is activated:<br>
+ * <ul>
+ *   <li>The parent of the local peer gets 'abovePeer' and 'directlyConnected'</li>
+ *   <li>Its children get 'belowPeer' and 'directlyConnected'</li>
+ *   <li>Everyone further below gets 'belowPeer' and 'parent', the peer above them</li>
+ * </ul>
+ * Once every module has seen the packet, the local net module is told with
+ * {@link NetModule#onTopologyChanged()}.<br>
+ * <br>
+ * A {@link ReconfigurePacket} replaces the whole tree in one step. Only the peers
+ * whose module changed get a new one, so the local module keeps reading the
+ * connections that are still links, and is only replaced if its own role changed.
+ * Reconfigurations are relayed before they are applied, so each travels the tree
+ * it replaces.
+ *
+ * @author Timothy
+ */
+public class RelayTopology implements PacketListener {
+	private NetState netState;
+	private GameState gameState;
+
+	private Map<Peer, Peer> parents;
+	private int epoch;
+
+	public RelayTopology(NetState netState, GameState gameState) {
+		this.netState = netState;
+		this.gameState = gameState;
+		parents = new HashMap<>();
+	}
+
+	/**
+	 * @param peer the peer
+	 * @return the peer above the specified peer, or null if it is not in the tree or is the root
+	 */
+	public synchronized Peer getParent(Peer peer) {
+		return parents.get(peer);
+	}
+
+	/**
+	 * Moves a peer in the local view of the tree and rewrites the metadata of the
+	 * peers to match. The net modules are not told.
+	 *
+	 * @param peer the peer
+	 * @param parent the peer above it, or null to remove it from the tree
+	 */
+	public synchronized void setParent(Peer peer, Peer parent) {
+		if(parent == null)
+			parents.remove(peer);
+		else
+			parents.put(peer, parent);
+		rewriteMeta();
+	}
+
+	/**
+	 * @return the epoch of the last reconfiguration applied, or 0 if there has not been one
+	 */
+	public synchronized int getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Replaces the tree, if the reconfiguration is newer than the current one, and
+	 * changes the modules of the peers whose role changed
+	 *
+	 * @param packet the reconfiguration
+	 * @return if it was applied
+	 */
+	public boolean apply(ReconfigurePacket packet) {
+		Peer local = gameState.getLocalPeer();
+		Map<Peer, String> changed = new HashMap<>();
+		synchronized(this) {
+			if(packet.getEpoch() <= epoch)
+				return false;
+			if(!verifyHashes(packet))
+				return false;
+
+			Map<Peer, Peer> newParents = new HashMap<>();
+			for(Map.Entry<Integer, Integer> entry : packet.getParents().entrySet()) {
+				Peer peer = getPeer(entry.getKey());
+				Peer parent = getPeer(entry.getValue());
+				if(peer != null && parent != null)
+					newParents.put(peer, parent);
+			}
+			for(Map.Entry<Integer, String> entry : packet.getModules().entrySet()) {
+				Peer peer = getPeer(entry.getKey());
+				if(peer == null || (peer != local && !netState.isRegistered(peer)))
+					continue;
+				if(!netState.getNetTypeOf(peer).getName().equals(entry.getValue()))
+					changed.put(peer, entry.getValue());
+			}
+
+			epoch = packet.getEpoch();
+			parents = newParents;
+			rewriteMeta();
+		}
+
+		for(Map.Entry<Peer, String> entry : changed.entrySet()) {
+			if(entry.getKey() == local) {
+				netState.setLocalNetModule(entry.getValue(), PacketManager.instance, gameState);
+			}else {
+				netState.setNetModuleOf(entry.getKey(), ModuleHandler.getNetModuleType(entry.getValue()));
+			}
+		}
+		if(!changed.containsKey(local))
+			netState.getLocalNetModule().onTopologyChanged();
+		return true;
+	}
+
+	@PacketHandler(header=PacketHeader.RECONFIGURE, priority=2)
+	public void onReconfigure(Peer from, ParsedPacket packet) {
+		apply((ReconfigurePacket) packet);
+	}
+
+	private boolean verifyHashes(ReconfigurePacket packet) {
+		for(String module : new HashSet<>(packet.getModules().values())) {
+			try {
+				if(!ModuleHandler.verifyModule(module, packet.getExpectedHash(module))) {
+					System.err.println("[RelayTopology] The hash of " + module + " does NOT match the hash in reconfiguration " + packet.getEpoch() + ", ignoring it");
+					return false;
+				}
+			} catch (IOException e) {
+				System.err.println("[RelayTopology] Failed to hash " + module + ", ignoring reconfiguration " + packet.getEpoch());
+				e.printStackTrace();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@PacketHandler(header=PacketHeader.CHANGE_MODULE, priority=2)
+	public void onChangeModule(Peer from, ParsedPacket packet) {
+		ChangeModulePacket cmp = (ChangeModulePacket) packet;
+		if(!cmp.isNetModule() || cmp.getParent() == ChangeModulePacket.NO_PARENT)
+			return;
+
+		Peer peer = getPeer(cmp.getPeer());
+		Peer parent = getPeer(cmp.getParent());
+		if(peer == null || parent == null) {
+			System.err.println("[RelayTopology] Unknown peer in change module packet (" + cmp.getPeer() + " below " + cmp.getParent() + ")");
+			return;
+		}
+		setParent(peer, parent);
+	}
+
+	/**
+	 * Called after every module has handled the change, so a module that was just
+	 * activated is told as well
+	 */
+	@PacketHandler(header=PacketHeader.CHANGE_MODULE, priority=20)
+	public void afterChangeModule(Peer from, ParsedPacket packet) {
+		ChangeModulePacket cmp = (ChangeModulePacket) packet;
+		if(!cmp.isNetModule() || cmp.getParent() == ChangeModulePacket.NO_PARENT)
+			return;
+
+		netState.getLocalNetModule().onTopologyChanged();
+	}
+
+	private Peer getPeer(int id) {
+		Peer local = gameState.getLocalPeer();
+		return local.getID() == id ? local : gameState.getPeerByID(id);
+	}
+
+	/**
+	 * Rewrites the metadata of every peer. Keys are set before the stale ones are
+	 * removed, so a module relaying on another thread never sees a neighbour without
+	 * any of them.
+	 */
+	private void rewriteMeta() {
+		Peer local = gameState.getLocalPeer();
+		List<Peer> peers = gameState.getConnectedPeers();
+
+		Peer above = parents.get(local);
+		for(Peer p : peers) {
+			if(p == above) {
+				p.metaData.put("abovePeer", true);
+				p.metaData.put("directlyConnected", true);
+				p.metaData.remove("belowPeer");
+				p.metaData.remove("parent");
+			}else if(isBelow(local, p, peers.size())) {
+				p.metaData.put("belowPeer", true);
+				Peer parent = parents.get(p);
+				if(parent == local) {
+					p.metaData.put("directlyConnected", true);
+					p.metaData.remove("parent");
+				}else {
+					p.metaData.put("parent", parent);
+					p.metaData.remove("directlyConnected");
+				}
+				p.metaData.remove("abovePeer");
+			}else {
+				NetUtils.clearNetMeta(Collections.singletonList(p));
+			}
+		}
+	}
+
+	/**
+	 * @return if peer is below ancestor, following at most maxSteps parents in case of a loop
+	 */
+	private boolean isBelow(Peer ancestor, Peer peer, int maxSteps) {
+		Peer p = parents.get(peer);
+		for(int i = 0; p != null && i < maxSteps; i++) {
+			if(p == ancestor)
+				return true;
+			p = parents.get(p);
+		}
+		return false;
+	}
+}
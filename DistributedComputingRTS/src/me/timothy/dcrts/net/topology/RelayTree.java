@@ -0,0 +1,193 @@
+package me.timothy.dcrts.net.topology;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import me.timothy.dcrts.peer.Peer;
+
+/**
+ * A spanning tree over the peers, rooted at the broadcaster. Frames flow along
+ * its edges: the root runs the BroadcastModule, peers with children run the
+ * MidnodeModule and relay, and the leaves run the ListenerModule. Trees are
+ * not changed once made, see {@link RelayTreeBuilder} for making new ones.
+ *
+ * @author Timothy
+ */
+public class RelayTree {
+	public static final String BROADCAST_MODULE = "BroadcastModule";
+	public static final String MIDNODE_MODULE = "MidnodeModule";
+	public static final String LISTENER_MODULE = "ListenerModule";
+
+	private final Peer root;
+	private final Map<Peer, Peer> parents;
+	private final Map<Peer, List<Peer>> children;
+
+	/**
+	 * Creates a tree
+	 * @param root the root
+	 * @param parents the parent of every peer except the root. Copied
+	 * @throws IllegalArgumentException if a peer is not connected to the root
+	 */
+	public RelayTree(Peer root, Map<Peer, Peer> parents) {
+		this.root = root;
+		this.parents = new HashMap<>(parents);
+		children = new HashMap<>();
+		children.put(root, new ArrayList<Peer>());
+		for(Peer p : this.parents.keySet()) {
+			children.put(p, new ArrayList<Peer>());
+		}
+		for(Map.Entry<Peer, Peer> entry : this.parents.entrySet()) {
+			List<Peer> siblings = children.get(entry.getValue());
+			if(siblings == null)
+				throw new IllegalArgumentException("Parent of " + entry.getKey().getName() + " is not in the tree");
+			siblings.add(entry.getKey());
+		}
+		Comparator<Peer> byId = new Comparator<Peer>() {
+			@Override
+			public int compare(Peer p1, Peer p2) {
+				return Integer.compare(p1.getID(), p2.getID());
+			}
+		};
+		for(List<Peer> list : children.values()) {
+			Collections.sort(list, byId);
+		}
+		for(Peer p : this.parents.keySet()) {
+			if(getDepth(p) < 0)
+				throw new IllegalArgumentException(p.getName() + " is not connected to the root");
+		}
+	}
+
+	public Peer getRoot() {
+		return root;
+	}
+
+	/**
+	 * @param peer the peer
+	 * @return if the peer is in the tree
+	 */
+	public boolean contains(Peer peer) {
+		return children.containsKey(peer);
+	}
+
+	/**
+	 * @param peer the peer
+	 * @return the parent of the peer, or null for the root and peers not in the tree
+	 */
+	public Peer getParent(Peer peer) {
+		return parents.get(peer);
+	}
+
+	/**
+	 * @param peer the peer
+	 * @return the children of the peer, sorted by id. Must not be modified
+	 */
+	public List<Peer> getChildren(Peer peer) {
+		List<Peer> res = children.get(peer);
+		return res != null ? Collections.unmodifiableList(res) : Collections.<Peer>emptyList();
+	}
+
+	/**
+	 * @return every peer in the tree, including the root
+	 */
+	public Set<Peer> getPeers() {
+		return Collections.unmodifiableSet(children.keySet());
+	}
+
+	/**
+	 * @param peer the peer
+	 * @return the number of hops from the root to the peer, or -1 if it is not in the tree
+	 */
+	public int getDepth(Peer peer) {
+		if(!contains(peer))
+			return -1;
+		int depth = 0;
+		for(Peer p = peer; p != root; p = parents.get(p)) {
+			if(p == null || depth > parents.size())
+				return -1;
+			depth++;
+		}
+		return depth;
+	}
+
+	/**
+	 * @return the largest depth of any peer
+	 */
+	public int getHeight() {
+		int height = 0;
+		for(Peer p : parents.keySet()) {
+			height = Math.max(height, getDepth(p));
+		}
+		return height;
+	}
+
+	/**
+	 * @param ancestor the peer that may be above
+	 * @param peer the peer that may be below
+	 * @return if peer is in the subtree of ancestor, including if they are the same
+	 */
+	public boolean isInSubtree(Peer ancestor, Peer peer) {
+		for(Peer p = peer; p != null; p = parents.get(p)) {
+			if(p == ancestor)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param peer the peer
+	 * @return the name of the net module the peer should run
+	 */
+	public String getRoleOf(Peer peer) {
+		if(peer == root)
+			return BROADCAST_MODULE;
+		return getChildren(peer).isEmpty() ? LISTENER_MODULE : MIDNODE_MODULE;
+	}
+
+	/**
+	 * Finds the peers that have to be told about their place in this tree, if the
+	 * peers are currently placed as in the old tree. A peer has to be told if its
+	 * parent or its role changed. They are ordered so parents come before their
+	 * children, so every change can be applied as soon as it arrives without making
+	 * a loop.
+	 *
+	 * @param old the old tree, or null if there was none
+	 * @return the peers whose place changed
+	 */
+	public List<Peer> getChanges(RelayTree old) {
+		List<Peer> res = new ArrayList<>();
+		for(Peer p : parents.keySet()) {
+			if(old == null || !old.contains(p) || old.getParent(p) != getParent(p) || !old.getRoleOf(p).equals(getRoleOf(p)))
+				res.add(p);
+		}
+		final Map<Peer, Integer> depths = new HashMap<>();
+		for(Peer p : res) {
+			depths.put(p, getDepth(p));
+		}
+		Collections.sort(res, new Comparator<Peer>() {
+			@Override
+			public int compare(Peer p1, Peer p2) {
+				return Integer.compare(depths.get(p1), depths.get(p2));
+			}
+		});
+		return res;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder res = new StringBuilder();
+		append(res, root, "");
+		return res.toString();
+	}
+
+	private void append(StringBuilder res, Peer peer, String indent) {
+		res.append(indent).append(peer.getName()).append(" (").append(peer.getID()).append(")\n");
+		for(Peer child : getChildren(peer)) {
+			append(res, child, indent + "  ");
+		}
+	}
+}
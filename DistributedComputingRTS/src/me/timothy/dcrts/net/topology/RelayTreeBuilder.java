@@ -0,0 +1,334 @@
+package me.timothy.dcrts.net.topology;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.timothy.dcrts.peer.Peer;
+
+/**
+ * Works out relay trees that get frames from the root to everyone quickly
+ * without any peer sending more than it can.<br>
+ * <br>
+ * Latencies are only measured from the root, so the latency between two peers
+ * is estimated as the sum of their distances from the root, half of their round
+ * trip times. This is right when most of the latency is in each peer's own
+ * connection, which it usually is. How many children a peer may have is its
+ * measured throughput divided by the rate of the stream it relays, between two
+ * and the maximum fan-out, so the tree is O(log N) deep.<br>
+ * <br>
+ * Peers are placed closest first, each under the peer with room that gets
+ * frames to it soonest. Rebalancing keeps the old tree, only placing peers that
+ * joined or whose parent left, and moving a few peers whose place got much worse
+ * than the best one, by both a fraction and a fixed amount.
+ *
+ * @author Timothy
+ */
+public class RelayTreeBuilder {
+	/**
+	 * The fewest children a peer may have. Throughput is only ever underestimated,
+	 * so no peer is limited to a single child, which would make the tree a chain
+	 */
+	public static final int MIN_FAN_OUT = 2;
+
+	/**
+	 * The most children a peer may have if nothing is known about its throughput
+	 */
+	public static final int DEFAULT_MAX_FAN_OUT = 8;
+
+	/**
+	 * The rate of the stream every relay forwards, in bytes per second
+	 */
+	public static final double DEFAULT_STREAM_RATE = 16 * 1024;
+
+	/**
+	 * How much sooner a peer has to get frames somewhere else before it is moved
+	 */
+	public static final double DEFAULT_HYSTERESIS = 0.2;
+
+	/**
+	 * How much sooner, in nanoseconds, a peer has to get frames somewhere else
+	 * before it is moved, so jitter in the measured round trip times does not
+	 * keep reshaping the tree
+	 */
+	public static final long DEFAULT_MIN_GAIN = 10000000;
+
+	/**
+	 * The most peers moved when rebalancing, other than those that have to be
+	 */
+	public static final int DEFAULT_MAX_MOVES = 4;
+
+	private int maxFanOut = DEFAULT_MAX_FAN_OUT;
+	private double streamRate = DEFAULT_STREAM_RATE;
+	private double hysteresis = DEFAULT_HYSTERESIS;
+	private long minGain = DEFAULT_MIN_GAIN;
+	private int maxMoves = DEFAULT_MAX_MOVES;
+
+	public void setMaxFanOut(int maxFanOut) {
+		if(maxFanOut < MIN_FAN_OUT)
+			throw new IllegalArgumentException("The fan-out must be at least " + MIN_FAN_OUT + ", got " + maxFanOut);
+		this.maxFanOut = maxFanOut;
+	}
+
+	public int getMaxFanOut() {
+		return maxFanOut;
+	}
+
+	/**
+	 * @param streamRate the rate of the stream every relay forwards, in bytes per second
+	 */
+	public void setStreamRate(double streamRate) {
+		if(streamRate <= 0)
+			throw new IllegalArgumentException("The stream rate must be positive, got " + streamRate);
+		this.streamRate = streamRate;
+	}
+
+	/**
+	 * @param hysteresis how much sooner, as a fraction, a peer has to get frames somewhere else before it is moved
+	 */
+	public void setHysteresis(double hysteresis) {
+		this.hysteresis = hysteresis;
+	}
+
+	/**
+	 * @param minGain how much sooner, in nanoseconds, a peer has to get frames somewhere else before it is moved
+	 */
+	public void setMinGain(long minGain) {
+		this.minGain = minGain;
+	}
+
+	/**
+	 * @param maxMoves the most peers moved when rebalancing, other than those that have to be
+	 */
+	public void setMaxMoves(int maxMoves) {
+		this.maxMoves = maxMoves;
+	}
+
+	/**
+	 * Builds a tree from scratch
+	 * @param root the root
+	 * @param peers the other peers
+	 * @param stats what has been measured about each peer. Peers without stats count as average
+	 * @return the tree
+	 */
+	public RelayTree build(Peer root, Collection<Peer> peers, Map<Peer, LinkStats> stats) {
+		return rebalance(null, root, peers, stats);
+	}
+
+	/**
+	 * Changes a tree as little as possible to fit the peers
+	 * @param old the current tree, or null to build one from scratch
+	 * @param root the root
+	 * @param peers the other peers, which may have joined or left since the old tree
+	 * @param stats what has been measured about each peer. Peers without stats count as average
+	 * @return the new tree
+	 */
+	public RelayTree rebalance(RelayTree old, Peer root, Collection<Peer> peers, Map<Peer, LinkStats> stats) {
+		Placement placement = new Placement(root, stats);
+
+		List<Peer> unplaced = new ArrayList<>();
+		for(Peer p : peers) {
+			if(p != root)
+				unplaced.add(p);
+		}
+		placement.sortByDistance(unplaced);
+
+		// keep everyone whose whole path to the root is still there
+		if(old != null && old.getRoot() == root) {
+			List<Peer> kept = new ArrayList<>();
+			for(Peer p : unplaced) {
+				if(isPathKept(old, root, p, peers))
+					kept.add(p);
+			}
+			Collections.sort(kept, placement.byDepthIn(old));
+			for(Peer p : kept) {
+				Peer parent = old.getParent(p);
+				if(placement.hasRoom(parent)) {
+					placement.place(p, parent);
+					unplaced.remove(p);
+				}
+			}
+		}
+
+		for(Peer p : unplaced) {
+			placement.place(p, placement.bestParentFor(p));
+		}
+
+		// move the peers that would gain the most, so the tree follows the latencies
+		if(old != null) {
+			for(int i = 0; i < maxMoves; i++) {
+				Peer best = null;
+				Peer bestParent = null;
+				double bestGain = 0;
+				for(Peer p : placement.parents.keySet()) {
+					Peer parent = placement.bestParentFor(p);
+					if(parent == null || parent == placement.parents.get(p))
+						continue;
+					double current = placement.arrival(p);
+					double moved = placement.arrivalUnder(p, parent);
+					double gain = current - moved;
+					if(gain > current * hysteresis && gain > minGain && gain > bestGain) {
+						best = p;
+						bestParent = parent;
+						bestGain = gain;
+					}
+				}
+				if(best == null)
+					break;
+				placement.move(best, bestParent);
+			}
+		}
+
+		return new RelayTree(root, placement.parents);
+	}
+
+	private static boolean isPathKept(RelayTree old, Peer root, Peer peer, Collection<Peer> peers) {
+		if(!old.contains(peer))
+			return false;
+		for(Peer p = old.getParent(peer); p != root; p = old.getParent(p)) {
+			if(p == null || !peers.contains(p))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * A tree that is being built
+	 */
+	private class Placement {
+		final Peer root;
+		final Map<Peer, LinkStats> stats;
+		final Map<Peer, Peer> parents;
+		final Map<Peer, List<Peer>> children;
+		final double averageDistance;
+
+		Placement(Peer root, Map<Peer, LinkStats> stats) {
+			this.root = root;
+			this.stats = stats;
+			parents = new HashMap<>();
+			children = new HashMap<>();
+			children.put(root, new ArrayList<Peer>());
+
+			double sum = 0;
+			int num = 0;
+			for(LinkStats s : stats.values()) {
+				if(s.hasRtt()) {
+					sum += s.getRtt() / 2.0;
+					num++;
+				}
+			}
+			averageDistance = num > 0 ? sum / num : 0;
+		}
+
+		/**
+		 * @return half the round trip time to the root, in nanoseconds
+		 */
+		double distance(Peer peer) {
+			if(peer == root)
+				return 0;
+			LinkStats s = stats.get(peer);
+			return s != null && s.hasRtt() ? s.getRtt() / 2.0 : averageDistance;
+		}
+
+		int capacity(Peer peer) {
+			LinkStats s = stats.get(peer);
+			double throughput = s != null ? s.getThroughput() : -1;
+			if(throughput < 0)
+				return maxFanOut;
+			return (int) Math.max(MIN_FAN_OUT, Math.min(maxFanOut, throughput / streamRate));
+		}
+
+		boolean hasRoom(Peer peer) {
+			List<Peer> list = children.get(peer);
+			return list != null && list.size() < capacity(peer);
+		}
+
+		/**
+		 * @return when frames from the root reach the peer, in nanoseconds after they were sent
+		 */
+		double arrival(Peer peer) {
+			double res = 0;
+			Peer p = peer;
+			for(Peer parent = parents.get(p); parent != null; p = parent, parent = parents.get(p)) {
+				res += hop(parent, p);
+			}
+			return res;
+		}
+
+		double arrivalUnder(Peer peer, Peer parent) {
+			return arrival(parent) + hop(parent, peer);
+		}
+
+		double hop(Peer from, Peer to) {
+			return distance(from) + distance(to);
+		}
+
+		boolean isInSubtree(Peer ancestor, Peer peer) {
+			for(Peer p = peer; p != null; p = parents.get(p)) {
+				if(p == ancestor)
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * @return the placed peer with room that gets frames to the peer soonest, or
+		 * null if there is none outside of the peers own subtree
+		 */
+		Peer bestParentFor(Peer peer) {
+			Peer best = null;
+			double bestArrival = Double.MAX_VALUE;
+			Peer current = parents.get(peer);
+			for(Peer candidate : children.keySet()) {
+				if(candidate == peer || (candidate != current && !hasRoom(candidate)))
+					continue;
+				if(parents.containsKey(peer) && isInSubtree(peer, candidate))
+					continue;
+				double arrival = arrivalUnder(peer, candidate);
+				if(arrival < bestArrival || (arrival == bestArrival && candidate == current)) {
+					best = candidate;
+					bestArrival = arrival;
+				}
+			}
+			return best;
+		}
+
+		void place(Peer peer, Peer parent) {
+			if(parent == null)
+				throw new IllegalStateException("No room in the tree for " + peer.getName());
+			parents.put(peer, parent);
+			children.get(parent).add(peer);
+			if(!children.containsKey(peer))
+				children.put(peer, new ArrayList<Peer>());
+		}
+
+		void move(Peer peer, Peer parent) {
+			children.get(parents.get(peer)).remove(peer);
+			parents.put(peer, parent);
+			children.get(parent).add(peer);
+		}
+
+		void sortByDistance(List<Peer> peers) {
+			Collections.sort(peers, new Comparator<Peer>() {
+				@Override
+				public int compare(Peer p1, Peer p2) {
+					int res = Double.compare(distance(p1), distance(p2));
+					return res != 0 ? res : Integer.compare(p1.getID(), p2.getID());
+				}
+			});
+		}
+
+		Comparator<Peer> byDepthIn(final RelayTree tree) {
+			return new Comparator<Peer>() {
+				@Override
+				public int compare(Peer p1, Peer p2) {
+					return Integer.compare(tree.getDepth(p1), tree.getDepth(p2));
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package me.timothy.dcrts.net.topology;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import me.timothy.dcrts.GameState;
+import me.timothy.dcrts.net.NetState;
+import me.timothy.dcrts.net.OutboundQueue;
+import me.timothy.dcrts.net.RttService;
+import me.timothy.dcrts.net.packets.ReconfigurePacket;
+import me.timothy.dcrts.packet.FrameBuffer;
+import me.timothy.dcrts.packet.PacketHeader;
+import me.timothy.dcrts.packet.PacketManager;
+import me.timothy.dcrts.peer.Peer;
+import me.timothy.dcrts.utils.BufferPool;
+import me.timothy.dcrts.utils.NetUtils;
+
+/**
+ * Runs on the broadcaster and keeps the relay tree fitted to the connections.
+ * The round trip times are read from the {@link RttService} of the net state,
+ * which pings every peer over its own connection without being relayed (see
+ * NetModule#isLinkLocal), and the outbound queues are watched for how fast they
+ * drain while backed up. Every so often the tree is rebalanced with a
+ * {@link RelayTreeBuilder}, and if any peer's place changed the whole tree is
+ * sent as the next reconfiguration epoch (see {@link RelayTopology#apply}). It is
+ * applied locally once sent, so it travels the tree it replaces.<br>
+ * <br>
+ * Peers that join or leave are placed or dropped by the next rebalance, without
+ * moving anyone else unless it gets frames much sooner.
+ *
+ * @author Timothy
+ */
+public class TopologyOptimizer extends Thread {
+	/**
+	 * How often the queues are sampled
+	 */
+	public static final long SAMPLE_INTERVAL_MS = 500;
+
+	/**
+	 * How often the tree is rebalanced
+	 */
+	public static final long REBALANCE_INTERVAL_MS = 5000;
+
+	private NetState netState;
+	private GameState gameState;
+	private RelayTopology topology;
+	private RelayTreeBuilder builder;
+
+	private Map<Peer, LinkStats> stats;
+	/**
+	 * The bytes flushed to and the time of the last sample of each backed up queue
+	 */
+	private Map<Peer, long[]> lastSamples;
+	private RelayTree tree;
+
+	private volatile boolean running;
+
+	public TopologyOptimizer(NetState netState, GameState gameState, RelayTopology topology) {
+		super("TopologyOptimizer");
+		setDaemon(true);
+		this.netState = netState;
+		this.gameState = gameState;
+		this.topology = topology;
+		builder = new RelayTreeBuilder();
+		stats = new ConcurrentHashMap<>();
+		lastSamples = new ConcurrentHashMap<>();
+	}
+
+	public RelayTreeBuilder getBuilder() {
+		return builder;
+	}
+
+	/**
+	 * @return the current tree, or null if there has not been one yet
+	 */
+	public RelayTree getTree() {
+		return tree;
+	}
+
+	/**
+	 * @param peer the peer
+	 * @return what has been measured about the connection to the peer, or null if nothing has
+	 */
+	public LinkStats getStats(Peer peer) {
+		return stats.get(peer);
+	}
+
+	@Override
+	public void start() {
+		running = true;
+		super.start();
+	}
+
+	/**
+	 * Stops the optimizer. The tree is left as it is
+	 */
+	public void shutdown() {
+		running = false;
+		interrupt();
+	}
+
+	@Override
+	public void run() {
+		long lastRebalance = System.currentTimeMillis();
+		while(running) {
+			try {
+				Thread.sleep(SAMPLE_INTERVAL_MS);
+			} catch (InterruptedException e) {
+				break;
+			}
+			List<Peer> peers = gameState.getConnectedPeers();
+			RttService rtt = netState.getRttService();
+			for(Peer peer : peers) {
+				if(rtt != null)
+					getOrCreateStats(peer).setRttStats(rtt.getStats(peer));
+				sampleThroughput(peer);
+			}
+
+			if(System.currentTimeMillis() - lastRebalance >= REBALANCE_INTERVAL_MS && allMeasured(peers)) {
+				rebalance(peers);
+				lastRebalance = System.currentTimeMillis();
+			}
+		}
+	}
+
+	/**
+	 * Records how fast the queue to the peer drained since the last sample, if it
+	 * was backed up at both samples
+	 */
+	private void sampleThroughput(Peer peer) {
+		OutboundQueue queue = peer.getOutboundQueue();
+		if(queue == null)
+			return;
+
+		if(queue.isEmpty()) {
+			lastSamples.remove(peer);
+			return;
+		}
+		long[] sample = new long[] { queue.getBytesFlushed(), System.nanoTime() };
+		long[] last = lastSamples.put(peer, sample);
+		if(last != null)
+			getOrCreateStats(peer).recordThroughput(sample[0] - last[0], sample[1] - last[1]);
+	}
+
+	private boolean allMeasured(List<Peer> peers) {
+		for(Peer peer : peers) {
+			if(netState.getSocketChannelOf(peer) == null)
+				continue;
+			LinkStats s = stats.get(peer);
+			if(s == null || !s.hasRtt())
+				return false;
+		}
+		return true;
+	}
+
+	private LinkStats getOrCreateStats(Peer peer) {
+		LinkStats res = stats.get(peer);
+		if(res == null) {
+			res = new LinkStats();
+			stats.put(peer, res);
+		}
+		return res;
+	}
+
+	/**
+	 * Rebalances the tree and tells every peer whose place changed
+	 *
+	 * @param peers the connected peers
+	 */
+	private void rebalance(List<Peer> peers) {
+		List<Peer> placeable = new ArrayList<>();
+		for(Peer peer : peers) {
+			if(netState.getSocketChannelOf(peer) != null)
+				placeable.add(peer);
+		}
+		stats.keySet().retainAll(placeable);
+		lastSamples.keySet().retainAll(placeable);
+
+		Peer local = gameState.getLocalPeer();
+		RelayTree newTree = builder.rebalance(tree, local, placeable, stats);
+		List<Peer> changes = newTree.getChanges(tree);
+		tree = newTree;
+		if(changes.isEmpty())
+			return;
+
+		System.out.println("[TopologyOptimizer] Moving " + changes.size() + " peers, tree is " + newTree.getHeight() + " high");
+		sendReconfiguration(newTree);
+	}
+
+	/**
+	 * Sends the tree to everyone as the next epoch, then applies it locally
+	 */
+	private void sendReconfiguration(RelayTree newTree) {
+		int epoch = topology.getEpoch() + 1;
+		ByteBuffer buffer = NetUtils.createBuffer(gameState.getLocalPeer().getID(), PacketHeader.RECONFIGURE);
+		try {
+			PacketManager.instance.send(PacketHeader.RECONFIGURE, buffer, epoch, newTree);
+			buffer.flip();
+			netState.getLocalNetModule().sendData(buffer);
+
+			ByteBuffer payload = buffer.duplicate();
+			payload.position(FrameBuffer.LENGTH_BYTES + 8);
+			topology.apply((ReconfigurePacket) PacketManager.instance.parse(PacketHeader.RECONFIGURE, payload));
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
+	}
+}
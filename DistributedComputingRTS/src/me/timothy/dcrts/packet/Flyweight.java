@@ -0,0 +1,18 @@
+package me.timothy.dcrts.packet;
+
+/**
+ * A parsed packet that may be reused. When the packet manager decodes in
+ * {@link PacketManager.DecodeMode#FLYWEIGHT} mode, the parser fills the same
+ * instance for every packet of its type read on a thread, so a handler only
+ * owns the packet until it returns. A handler that keeps the packet, or passes
+ * it to another thread, must keep what {@link #retain()} returns instead (or
+ * call {@link PacketManager#retain(ParsedPacket)}, which works for any packet).
+ * 
+ * @author Timothy
+ */
+public interface Flyweight extends ParsedPacket {
+	/**
+	 * @return a copy of this packet that is never reused
+	 */
+	public ParsedPacket retain();
+}
@@ -0,0 +1,186 @@
+package me.timothy.dcrts.packet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Every packet that is sent over the net is wrapped in a frame, which is
+ * the packet prefixed with a 4 byte length. The length is the number of bytes
+ * in the frame <i>following</i> the length. EG for a ping packet:
+ * <pre>
+ * [length=16] [peer id] [header=PING] [time sent (8 bytes)]
+ * </pre>
+ *
+ * TCP does not keep packet boundaries, so a single read may return half of
+ * a frame, or several frames at once. A frame buffer accumulates the bytes
+ * read from one connection and only hands out complete frames. Incomplete
+ * frames are kept (and moved to the front of the buffer) until the rest of
+ * the frame has been read. There must be one frame buffer per connection.
+ *
+ * Example:
+ * <pre>
+ * {@code
+ *   frames.readFrom(channel);
+ *   ByteBuffer frame;
+ *   while((frame = frames.nextFrame()) != null) {
+ *     int length = frame.getInt();
+ *     // ...
+ *   }
+ * }
+ * </pre>
+ *
+ * @author Timothy
+ */
+public class FrameBuffer {
+	/**
+	 * Number of bytes used for the length at the start of every frame
+	 */
+	public static final int LENGTH_BYTES = 4;
+
+	/**
+	 * Frames that claim to be larger than this are treated as a corrupt stream
+	 */
+	public static final int MAX_FRAME_SIZE = 64 * 1024;
+
+	/**
+	 * The shortest length a frame between peers may have, the id and the header.
+	 * Shorter frames are treated as a corrupt stream
+	 */
+	public static final int MIN_FRAME_SIZE = 8;
+
+	/**
+	 * The shortest length a frame on a direct connection may have, which has
+	 * only the header (see NetUtils#createBufferNoID)
+	 */
+	public static final int MIN_DIRECT_FRAME_SIZE = 4;
+
+	/**
+	 * Starting capacity of a frame buffer; large enough for many frames per read
+	 */
+	public static final int DEFAULT_CAPACITY = 8 * 1024;
+
+	private ByteBuffer data;
+	private ByteBuffer frame;
+	private int readPos;
+	private volatile int minFrameSize;
+
+	public FrameBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public FrameBuffer(int capacity) {
+		data = ByteBuffer.allocate(capacity);
+		frame = data.duplicate();
+		readPos = 0;
+		minFrameSize = MIN_FRAME_SIZE;
+	}
+
+	/**
+	 * Sets the shortest length a frame may have, {@link #MIN_FRAME_SIZE} by default
+	 *
+	 * @param minFrameSize the shortest length, not counting the length itself
+	 */
+	public void setMinFrameSize(int minFrameSize) {
+		if(minFrameSize < 0 || minFrameSize > MAX_FRAME_SIZE)
+			throw new IllegalArgumentException("Invalid minimum frame size " + minFrameSize);
+		this.minFrameSize = minFrameSize;
+	}
+
+	/**
+	 * Reads as many bytes as are available from the channel into this buffer.
+	 * Any frames returned from {@link #nextFrame()} before this call are no
+	 * longer valid afterwards.
+	 *
+	 * @param channel the channel to read from
+	 * @return the number of bytes read, or -1 if the channel has reached end-of-stream
+	 * @throws IOException if an i/o exception occurs
+	 */
+	public int readFrom(ReadableByteChannel channel) throws IOException {
+		compact();
+		return channel.read(data);
+	}
+
+	/**
+	 * Returns the next complete frame in this buffer, if there is one. The returned
+	 * buffer is positioned at the start of the frame (the length) and its limit is
+	 * the end of the frame. It shares its content with this frame buffer, and the same
+	 * instance is returned on every call, so it must be used before the next call.
+	 *
+	 * @return the next complete frame, or null if there isn't one yet
+	 * @throws IOException if the frame length is invalid (the stream is corrupt), such
+	 * as shorter than the id and header
+	 */
+	public ByteBuffer nextFrame() throws IOException {
+		int available = data.position() - readPos;
+		if(available < LENGTH_BYTES)
+			return null;
+
+		int length = data.getInt(readPos);
+		if(length < minFrameSize || length > MAX_FRAME_SIZE)
+			throw new IOException("Invalid frame length " + length + ", the stream is corrupt");
+
+		int frameSize = LENGTH_BYTES + length;
+		if(available < frameSize) {
+			ensureCapacity(frameSize);
+			return null;
+		}
+
+		frame.limit(readPos + frameSize);
+		frame.position(readPos);
+		readPos += frameSize;
+		return frame;
+	}
+
+	/**
+	 * Moves any unread bytes to the front of the buffer
+	 */
+	private void compact() {
+		if(readPos == 0)
+			return;
+		data.flip();
+		data.position(readPos);
+		data.compact();
+		readPos = 0;
+	}
+
+	/**
+	 * Grows the buffer if a frame of the specified size would not fit
+	 * in it, even after compacting.
+	 * @param frameSize the size of the frame, including the length
+	 */
+	private void ensureCapacity(int frameSize) {
+		if(frameSize <= data.capacity())
+			return;
+
+		ByteBuffer bigger = ByteBuffer.allocate(Math.max(frameSize, data.capacity() * 2));
+		data.flip();
+		data.position(readPos);
+		bigger.put(data);
+		data = bigger;
+		frame = data.duplicate();
+		readPos = 0;
+	}
+
+	/**
+	 * Writes the length of a frame that starts at the beginning of the buffer
+	 * and ends at the buffers current position. Used once a packet has been
+	 * completely written.
+	 *
+	 * @param buffer the buffer containing the frame, not yet flipped
+	 */
+	public static void writeLength(ByteBuffer buffer) {
+		buffer.putInt(0, buffer.position() - LENGTH_BYTES);
+	}
+
+	/**
+	 * Skips the rest of the current frame, for when a parser did not read the
+	 * entire packet.
+	 *
+	 * @param buffer the buffer, positioned anywhere inside the frame
+	 * @param frameStart the position of the frames length in the buffer
+	 */
+	public static void skipToEnd(ByteBuffer buffer, int frameStart) {
+		buffer.position(frameStart + LENGTH_BYTES + buffer.getInt(frameStart));
+	}
+}
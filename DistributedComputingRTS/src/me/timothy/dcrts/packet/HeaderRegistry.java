@@ -0,0 +1,242 @@
+package me.timothy.dcrts.packet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Knows every header that can appear on the wire, and the largest packet
+ * that may be sent with each. The headers in {@link PacketHeader} are always
+ * registered. Modules loaded at runtime can register their own headers here
+ * without them having to be added to the enum, EG:
+ * <pre>
+ * {@code
+ *   HeaderRegistry.Header UNIT_MOVE = HeaderRegistry.instance.register("UNIT_MOVE", 1001, 64);
+ * }
+ * </pre>
+ *
+ * Lookups happen for every frame that is read, so they never lock or allocate.
+ * Values from {@link #DENSE_MIN} up to {@link #DENSE_MAX} are found by indexing
+ * an array, and anything else (EG {@link PacketHeader#DESTROYING_CHANNEL}) is
+ * found in a small open addressed table. Registering a header replaces both
+ * with new copies, which is fine since it only happens when modules are loaded.
+ *
+ * @author Timothy
+ */
+public class HeaderRegistry {
+	public static final HeaderRegistry instance = new HeaderRegistry();
+
+	/**
+	 * The smallest value that is looked up by index
+	 */
+	public static final int DENSE_MIN = -8;
+
+	/**
+	 * The largest value that is looked up by index
+	 */
+	public static final int DENSE_MAX = 127;
+
+	/**
+	 * A header that has been registered
+	 */
+	public static class Header {
+		private final String name;
+		private final int value;
+		private final int maxPacketSize;
+		private final PacketHeader packetHeader;
+		private volatile boolean replaceable;
+
+		private Header(String name, int value, int maxPacketSize, PacketHeader packetHeader) {
+			this.name = name;
+			this.value = value;
+			this.maxPacketSize = maxPacketSize;
+			this.packetHeader = packetHeader;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getValue() {
+			return value;
+		}
+
+		public int getMaxPacketSize() {
+			return maxPacketSize;
+		}
+
+		/**
+		 * @return the enum constant for this header, or null if it was registered by a module
+		 */
+		public PacketHeader getPacketHeader() {
+			return packetHeader;
+		}
+
+		/**
+		 * @return if a newer packet with this header from the same peer makes an
+		 * older one pointless, so an outbound queue may replace the older one
+		 * (see me.timothy.dcrts.net.OutboundQueue.OverflowPolicy#COALESCE)
+		 */
+		public boolean isReplaceable() {
+			return replaceable;
+		}
+
+		/**
+		 * Marks whether only the latest packet with this header matters. False
+		 * by default, since most packets (EG chat) must all arrive in order
+		 *
+		 * @param replaceable if this header is replaceable
+		 */
+		public void setReplaceable(boolean replaceable) {
+			this.replaceable = replaceable;
+		}
+
+		@Override
+		public String toString() {
+			return name + "(" + value + ")";
+		}
+	}
+
+	/**
+	 * An immutable snapshot of the registered headers
+	 */
+	private static class Table {
+		final Header[] dense;
+		final int[] sparseKeys;
+		final Header[] sparseValues;
+		final int largestPacketSize;
+
+		Table(List<Header> headers) {
+			dense = new Header[DENSE_MAX - DENSE_MIN + 1];
+
+			int numSparse = 0;
+			int largest = 0;
+			for(Header h : headers) {
+				if(h.value < DENSE_MIN || h.value > DENSE_MAX)
+					numSparse++;
+				largest = Math.max(largest, h.maxPacketSize);
+			}
+			largestPacketSize = largest;
+
+			// at most half full, so probes stay short
+			int capacity = Integer.highestOneBit(Math.max(numSparse, 1) * 4);
+			sparseKeys = new int[capacity];
+			sparseValues = new Header[capacity];
+			for(Header h : headers) {
+				if(h.value >= DENSE_MIN && h.value <= DENSE_MAX) {
+					dense[h.value - DENSE_MIN] = h;
+					continue;
+				}
+				int slot = slotOf(h.value, capacity);
+				while(sparseValues[slot] != null)
+					slot = (slot + 1) & (capacity - 1);
+				sparseKeys[slot] = h.value;
+				sparseValues[slot] = h;
+			}
+		}
+
+		Header get(int value) {
+			if(value >= DENSE_MIN && value <= DENSE_MAX)
+				return dense[value - DENSE_MIN];
+
+			int mask = sparseKeys.length - 1;
+			int slot = slotOf(value, sparseKeys.length);
+			Header h;
+			while((h = sparseValues[slot]) != null) {
+				if(sparseKeys[slot] == value)
+					return h;
+				slot = (slot + 1) & mask;
+			}
+			return null;
+		}
+
+		private static int slotOf(int value, int capacity) {
+			int h = value * 0x9E3779B9;
+			return (h ^ (h >>> 16)) & (capacity - 1);
+		}
+	}
+
+	private final List<Header> headers;
+	private volatile Table table;
+
+	private HeaderRegistry() {
+		headers = new ArrayList<>();
+		for(PacketHeader ph : PacketHeader.values()) {
+			headers.add(new Header(ph.name(), ph.getValue(), ph.getMaxPacketSize(), ph));
+		}
+		table = new Table(headers);
+	}
+
+	/**
+	 * Registers a header for a module. Registering the same name with the same value
+	 * again (EG when a module is reloaded) updates its maximum packet size.
+	 *
+	 * @param name a unique name for the header
+	 * @param value the value sent on the wire
+	 * @param maxPacketSize the largest packet with this header, in bytes, not including the frame length
+	 * @return the header
+	 * @throws IllegalArgumentException if the value or name is already used by a different header
+	 */
+	public synchronized Header register(String name, int value, int maxPacketSize) {
+		if(name == null)
+			throw new IllegalArgumentException("name cannot be null");
+		if(maxPacketSize < 0 || maxPacketSize > FrameBuffer.MAX_FRAME_SIZE)
+			throw new IllegalArgumentException("Invalid maximum packet size " + maxPacketSize + " for " + name);
+
+		Header existing = null;
+		for(Header h : headers) {
+			if(h.value == value || h.name.equals(name)) {
+				if(h.value != value || !h.name.equals(name) || h.packetHeader != null)
+					throw new IllegalArgumentException("Cannot register " + name + "(" + value + "), conflicts with " + h);
+				existing = h;
+			}
+		}
+
+		Header header = new Header(name, value, maxPacketSize, null);
+		if(existing != null)
+			headers.remove(existing);
+		headers.add(header);
+		table = new Table(headers);
+		return header;
+	}
+
+	/**
+	 * Unregisters a header that was registered by a module. Headers from
+	 * {@link PacketHeader} cannot be unregistered.
+	 *
+	 * @param header the header
+	 * @return true if the header was registered
+	 */
+	public synchronized boolean unregister(Header header) {
+		if(header.packetHeader != null)
+			throw new IllegalArgumentException("Cannot unregister " + header);
+		if(!headers.remove(header))
+			return false;
+		table = new Table(headers);
+		return true;
+	}
+
+	/**
+	 * Finds the header with the specified value
+	 *
+	 * @param value the value sent on the wire
+	 * @return the header, or null if there is none
+	 */
+	public Header lookup(int value) {
+		return table.get(value);
+	}
+
+	/**
+	 * @return the largest maximum packet size of any registered header
+	 */
+	public int getLargestPacketSize() {
+		return table.largestPacketSize;
+	}
+
+	/**
+	 * @return every registered header
+	 */
+	public synchronized List<Header> getHeaders() {
+		return Collections.unmodifiableList(new ArrayList<>(headers));
+	}
+}
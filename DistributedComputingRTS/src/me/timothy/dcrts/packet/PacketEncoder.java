@@ -0,0 +1,55 @@
+package me.timothy.dcrts.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes packets of one header. Subclasses add typed write methods, such as
+ * <pre>{@code
+ *   public void write(ByteBuffer buffer, long timeSent);
+ * }</pre>
+ * that write the packet and the length of the frame straight from their
+ * parameters, so sending a packet does not box anything or build an argument
+ * array. The buffer is prepared the same way as for
+ * {@link PacketManager#send(PacketHeader, ByteBuffer, Object...)}.<br>
+ * <br>
+ * Encoders are registered with {@link PacketManager#registerEncoder(PacketEncoder)},
+ * and {@link #encode(ByteBuffer, Object[])} keeps PacketManager#send working
+ * for the header. Senders registered with
+ * {@link PacketManager#registerPacketSender(Object, String, PacketHeader)}
+ * are wrapped in an encoder that only has encode.
+ *
+ * @author Timothy
+ */
+public abstract class PacketEncoder {
+	private final PacketHeader header;
+
+	protected PacketEncoder(PacketHeader header) {
+		this.header = header;
+	}
+
+	/**
+	 * @return the header of the packets this writes
+	 */
+	public final PacketHeader getHeader() {
+		return header;
+	}
+
+	/**
+	 * Writes the packet from untyped arguments, for
+	 * {@link PacketManager#send(PacketHeader, ByteBuffer, Object...)}. The
+	 * length of the frame is written by the packet manager afterward.
+	 *
+	 * @param buffer the buffer, positioned after the header
+	 * @param args the arguments, as documented by the subclass
+	 */
+	public abstract void encode(ByteBuffer buffer, Object[] args);
+
+	/**
+	 * Writes the length of the frame, once the packet is written
+	 *
+	 * @param buffer the buffer, positioned at the end of the packet
+	 */
+	protected static void finish(ByteBuffer buffer) {
+		FrameBuffer.writeLength(buffer);
+	}
+}
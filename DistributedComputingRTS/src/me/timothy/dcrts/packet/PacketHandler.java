@@ -15,6 +15,9 @@ import java.lang.annotation.Target;
  * by methods that do <i>not</i> affect the gamestate in any way (i.e. they are
  * simply monitoring the result). Use 3 if you are not sure
  * 
+ * Handlers are usually called on the event loop that read the packet, so they
+ * must not block unless their header is marked with PacketManager#setBlocking
+ * 
  * Specified methods must have two parameters - Peer and ParsedPacket
  * @author Timothy
  */
@@ -15,7 +15,7 @@ public enum PacketHeader {
 	
 	// LOBBY PACKETS 
 	PING(1, 18), // just an average ping. This can be called to any connected peer at any time
-	RETURN_PING(2, 18), // what gets returned when you ping someone
+	RETURN_PING(2, 26), // what gets returned when you ping someone, with the clock of whoever answered
 	CONNECT(3, 256), // the first packet that should be sent after connecting. Can be sent as is to all players after an id is negotiated
 	ASSIGN_ID(4, 18), // assign an id to a peer
 	DISCONNECT(5, 256), // the packet to signal a graceful disconnect. Can be sent as is to all players
@@ -24,22 +24,21 @@ public enum PacketHeader {
 	UPDATE_SETTINGS(8, 256), // update game settings
 	SET_READY(9, 9), // set yourself to ready/not ready
 	BEGIN_GAME(10, 8), // begin the game!
-	SYNC_COUNTDOWN(11, 13), // get the current count-down ms.
-	BEGIN_COUNTDOWN(12, 8), // begin the count-down
+	BEGIN_COUNTDOWN(12, 24), // begin the count-down, to a deadline on the host's clock
 	INTERRUPT_READY(13, 8), // interrupt count-down
 	
-	SEND_NET_INFO(14, 256),
+	SEND_NET_INFO(14, 8192), // the id and address of every peer, 21 bytes each over IPv6
 	// END LOBBY PACKETS
 	
 	ALL_CHAT(15, 512),
 	WHISPER(16, 512), 
 	
 	CHANGE_MODULE(17, 128), // marks a change in a peers module
+	RECONFIGURE(18, 8192), // the whole relay tree at once, 9 bytes a peer
+	LOAD_REPORT(19, 16), // how much more logic work a peer can take, gossiped every second
 	
 	DESTROYING_CHANNEL(200, 4) // used to signify this channel is being destroyed (e.g. direct connections)
 	;
-	private static int largest = -1;
-	
 	private int value;
 	private int maxPacketSize;
 
@@ -56,24 +55,20 @@ public enum PacketHeader {
 		return maxPacketSize;
 	}
 
+	/**
+	 * Finds the header with the specified value. Constant time, see {@link HeaderRegistry}
+	 * @param header the value sent on the wire
+	 * @return the header, or null if there is none or it was registered by a module
+	 */
 	public static PacketHeader byValue(int header) {
-		PacketHeader[] arr = values();
-		for(PacketHeader ph : arr) {
-			if(ph.value == header)
-				return ph;
-		}
-		return null;
+		HeaderRegistry.Header registered = HeaderRegistry.instance.lookup(header);
+		return registered != null ? registered.getPacketHeader() : null;
 	}
 	
+	/**
+	 * @return the largest maximum packet size of any header, including those registered by modules
+	 */
 	public static int getLargestPacketSize() {
-		if(largest != -1)
-			return largest;
-		
-		PacketHeader[] arr = values();
-		for(PacketHeader ph : arr) {
-			if(ph.maxPacketSize > largest)
-				largest = ph.maxPacketSize;
-		}
-		return largest;
+		return HeaderRegistry.instance.getLargestPacketSize();
 	}
 }
@@ -1,13 +1,23 @@
 package me.timothy.dcrts.packet;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import me.timothy.dcrts.peer.Peer;
 import me.timothy.dcrts.utils.ErrorUtils;
@@ -94,11 +104,156 @@ import me.timothy.dcrts.utils.ErrorUtils;
  * Bar bar = new Bar();
  * packetManager.register(bar, "foo");
  * </pre></code>
+ * 
+ * By default the packet manager runs in {@link DispatchMode#COMPILED} mode. Every parser,
+ * sender and handler is turned into a method handle when it is registered, and those
+ * handles are stored in tables indexed by the header. Parsing, sending and broadcasting
+ * then index straight into the table rather than searching through the registered
+ * methods and calling Method.invoke. {@link DispatchMode#REFLECTIVE} keeps the original
+ * lookup-and-invoke behavior, and is also used for any method that could not be compiled.
+ * 
+ * Packets are written by {@link PacketEncoder}s, which have typed write methods so the
+ * common packets are sent without boxing their arguments. A sender registered with
+ * {@link #registerPacketSender(Object, String, PacketHeader)} is wrapped in an encoder,
+ * so {@link #send(PacketHeader, ByteBuffer, Object...)} works for every header either way.
+ * 
+ * By default packets are decoded in {@link DecodeMode#FLYWEIGHT} mode, where the parsers
+ * of the common packets fill one instance per reading thread instead of allocating one per
+ * packet. See {@link Flyweight} for what that means for handlers.
+ * 
+ * Packets read from the net are broadcast on the event loop that read them, so
+ * handlers must not block. Headers whose handlers do block, such as by hashing
+ * module jars or swapping modules, are marked with {@link #setBlocking(PacketHeader, boolean)}
+ * and broadcast on a thread of their own instead.
  * @author Timothy
  *
  */
 public class PacketManager {
 	
+	/**
+	 * How the packet manager finds and calls registered parsers, senders
+	 * and handlers.
+	 * 
+	 * @author Timothy
+	 */
+	public static enum DispatchMode {
+		/**
+		 * Search the registered methods on every call, and call them with
+		 * Method.invoke
+		 */
+		REFLECTIVE,
+		
+		/**
+		 * Use the method handles compiled at registration time, indexed by header
+		 */
+		COMPILED
+	}
+	
+	/**
+	 * How parsers create the packets they return. Parsers that do not
+	 * support flyweights always allocate.
+	 * 
+	 * @author Timothy
+	 */
+	public static enum DecodeMode {
+		/**
+		 * Every packet is a new object, which handlers may keep
+		 */
+		ALLOCATE,
+		
+		/**
+		 * Packets are {@link Flyweight}s that are reused for the next packet
+		 * of the same type read on the same thread
+		 */
+		FLYWEIGHT
+	}
+	
+	private static final MethodType PARSER_TYPE = MethodType.methodType(ParsedPacket.class, PacketHeader.class, ByteBuffer.class);
+	private static final MethodType SENDER_TYPE = MethodType.methodType(void.class, ByteBuffer.class, Object[].class);
+	private static final MethodType HANDLER_TYPE = MethodType.methodType(void.class, Peer.class, ParsedPacket.class);
+	
+	/**
+	 * A registered method that has been bound to the object it was registered
+	 * with. The handle has exactly the type of the dispatch table it is in, so
+	 * it can be called with invokeExact.
+	 * 
+	 * @author Timothy
+	 */
+	private static class CompiledMethod {
+		final Object object;
+		final Method method;
+		final MethodHandle handle;
+		
+		CompiledMethod(Object obj, Method meth, MethodHandle hand) {
+			object = obj;
+			method = meth;
+			handle = hand;
+		}
+	}
+	
+	/**
+	 * A registered packet handler. The handle is null if the method
+	 * could not be compiled, in which case the method is always invoked
+	 * reflectively.
+	 * 
+	 * @author Timothy
+	 */
+	private static class RegisteredHandler extends CompiledMethod {
+		final PacketHeader header;
+		final int priority;
+		final long order;
+		
+		RegisteredHandler(Object obj, Method meth, MethodHandle hand, PacketHandler annotation, long ord) {
+			super(obj, meth, hand);
+			header = annotation.header();
+			priority = annotation.priority();
+			order = ord;
+		}
+	}
+	
+	/**
+	 * Wraps a sender registered with registerPacketSender, which takes its
+	 * arguments as an object array. The handle is null if the method could
+	 * not be compiled, in which case it is invoked reflectively.
+	 * 
+	 * @author Timothy
+	 */
+	private static class SenderAdapter extends PacketEncoder {
+		final CompiledMethod sender;
+		
+		SenderAdapter(PacketHeader header, CompiledMethod sender) {
+			super(header);
+			this.sender = sender;
+		}
+		
+		@Override
+		public void encode(ByteBuffer buffer, Object[] args) {
+			try {
+				if(sender.handle != null)
+					sender.handle.invokeExact(buffer, args);
+				else
+					sender.method.invoke(sender.object, buffer, args);
+			} catch (Throwable e) {
+				e.printStackTrace();
+				System.err.println("Sender invalidly registered for " 
+				+ sender.object.getClass().getName() + "#" + sender.method.getName());
+			}
+		}
+	}
+	
+	/**
+	 * Lower priorities are called first, and handlers with the same
+	 * priority are called in the order they were registered
+	 */
+	private static final Comparator<RegisteredHandler> HANDLER_ORDER = new Comparator<RegisteredHandler>() {
+		@Override
+		public int compare(RegisteredHandler h1, RegisteredHandler h2) {
+			if(h1.priority != h2.priority)
+				return h1.priority < h2.priority ? -1 : 1;
+			return h1.order < h2.order ? -1 : (h1.order == h2.order ? 0 : 1);
+		}
+	};
+	
 	private class PacketParser {
 		Object object;
 		Map<Method, PacketHeader> methods;
@@ -197,12 +352,129 @@ public class PacketManager {
 	
 	private List<PacketParser> packetParsers;
 	private List<PacketSender> packetSenders;
-	private Map<PacketHeader, Map<Method, Object>> packetListeners;
+	private List<RegisteredHandler> packetListeners;
+	private long registrationCounter;
+	
+	private volatile DispatchMode dispatchMode;
+	private volatile DecodeMode decodeMode;
+	private volatile CompiledMethod[] parserTable;
+	private volatile PacketEncoder[] encoderTable;
+	private volatile RegisteredHandler[][] handlerChains;
+	private volatile boolean[] blockingHeaders;
+	private ExecutorService blockingDispatcher;
+	private volatile Thread blockingThread;
 	
 	public PacketManager() {
 		packetParsers = new ArrayList<>();
 		packetSenders = new ArrayList<>();
-		packetListeners = new HashMap<>();
+		packetListeners = new ArrayList<>();
+		
+		dispatchMode = DispatchMode.COMPILED;
+		decodeMode = DecodeMode.FLYWEIGHT;
+		int numHeaders = PacketHeader.values().length;
+		parserTable = new CompiledMethod[numHeaders];
+		encoderTable = new PacketEncoder[numHeaders];
+		handlerChains = new RegisteredHandler[numHeaders][];
+		blockingHeaders = new boolean[numHeaders];
+		for(int i = 0; i < numHeaders; i++) {
+			handlerChains[i] = new RegisteredHandler[0];
+		}
+	}
+	
+	/**
+	 * Sets how parsers, senders and handlers are called. The dispatch
+	 * tables are always kept up to date, so this may be changed at any time.
+	 * 
+	 * @param mode the new dispatch mode
+	 */
+	public void setDispatchMode(DispatchMode mode) {
+		if(mode == null)
+			ErrorUtils.nullPointer(new String[] { "mode" }, mode);
+		dispatchMode = mode;
+	}
+	
+	/**
+	 * @return how parsers, senders and handlers are currently called
+	 */
+	public DispatchMode getDispatchMode() {
+		return dispatchMode;
+	}
+	
+	/**
+	 * Sets how parsers create the packets they return. This may be changed at
+	 * any time, but packets already handed out in flyweight mode stay shared.
+	 * 
+	 * @param mode the new decode mode
+	 */
+	public void setDecodeMode(DecodeMode mode) {
+		if(mode == null)
+			ErrorUtils.nullPointer(new String[] { "mode" }, mode);
+		decodeMode = mode;
+	}
+	
+	/**
+	 * Parsers check this to decide whether to fill their flyweight or allocate
+	 * a new packet
+	 * 
+	 * @return if parsers should return flyweights
+	 */
+	public boolean isDecodingFlyweights() {
+		return decodeMode == DecodeMode.FLYWEIGHT;
+	}
+	
+	/**
+	 * @return how parsers create the packets they return
+	 */
+	public DecodeMode getDecodeMode() {
+		return decodeMode;
+	}
+	
+	/**
+	 * Marks whether the handlers of a header may block. Packets with a blocking
+	 * header are broadcast on a single thread shared by every blocking header, in
+	 * the order they were broadcast, rather than on the thread that broadcast them.
+	 * The whole chain of handlers runs on that thread, so their priorities still
+	 * hold, and the packet is retained first (see {@link Flyweight}).
+	 * 
+	 * @param header the header
+	 * @param blocking if its handlers may block
+	 */
+	public synchronized void setBlocking(PacketHeader header, boolean blocking) {
+		if(header == null)
+			ErrorUtils.nullPointer(new String[] { "header" }, header);
+		if(blocking && blockingDispatcher == null) {
+			blockingDispatcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "PacketManager-Blocking");
+					thread.setDaemon(true);
+					blockingThread = thread;
+					return thread;
+				}
+			});
+		}
+		boolean[] headers = blockingHeaders.clone();
+		headers[header.ordinal()] = blocking;
+		blockingHeaders = headers;
+	}
+	
+	/**
+	 * @param header the header
+	 * @return if the handlers of the header may block
+	 * @see #setBlocking(PacketHeader, boolean)
+	 */
+	public boolean isBlocking(PacketHeader header) {
+		return blockingHeaders[header.ordinal()];
+	}
+	
+	/**
+	 * Gets a packet that may be kept after the handler it was passed to returns
+	 * 
+	 * @param packet the packet
+	 * @return a copy of the packet if it is a {@link Flyweight}, otherwise the packet
+	 */
+	public static ParsedPacket retain(ParsedPacket packet) {
+		return packet instanceof Flyweight ? ((Flyweight) packet).retain() : packet;
 	}
 	
 	/**
@@ -245,6 +517,15 @@ public class PacketManager {
 		}
 		
 		pParser.methods.put(method, header);
+		
+		if(parserTable[header.ordinal()] == null) {
+			MethodHandle handle = compile(obj, method, PARSER_TYPE);
+			if(handle != null) {
+				CompiledMethod[] table = Arrays.copyOf(parserTable, parserTable.length);
+				table[header.ordinal()] = new CompiledMethod(obj, method, handle);
+				parserTable = table;
+			}
+		}
 	}
 	
 	/**
@@ -291,11 +572,52 @@ public class PacketManager {
 		}
 		
 		pSender.methods.put(method, header);
+		
+		if(encoderTable[header.ordinal()] == null) {
+			MethodHandle handle = compile(obj, method, SENDER_TYPE);
+			setEncoder(new SenderAdapter(header, new CompiledMethod(obj, method, handle)));
+		}
+	}
+	
+	/**
+	 * Registers the encoder for its header, in place of any sender registered
+	 * with {@link #registerPacketSender(Object, String, PacketHeader)}. Only one
+	 * encoder may be registered for a header.
+	 * 
+	 * @param encoder the encoder
+	 * @throws IllegalArgumentException if another encoder is registered for the header
+	 */
+	public synchronized void registerEncoder(PacketEncoder encoder) throws IllegalArgumentException {
+		if(encoder == null)
+			ErrorUtils.nullPointer(new String[] { "encoder" }, encoder);
+		
+		PacketEncoder registered = encoderTable[encoder.getHeader().ordinal()];
+		if(registered == encoder)
+			return;
+		if(registered != null && !(registered instanceof SenderAdapter))
+			throw new IllegalArgumentException("An encoder is already registered for " + encoder.getHeader().name());
+		setEncoder(encoder);
+	}
+	
+	/**
+	 * @param header the header
+	 * @return the encoder for the header, which is an adapter if the header only has
+	 * a sender registered, or null if there is neither
+	 */
+	public PacketEncoder getEncoder(PacketHeader header) {
+		return encoderTable[header.ordinal()];
+	}
+	
+	private synchronized void setEncoder(PacketEncoder encoder) {
+		PacketEncoder[] table = Arrays.copyOf(encoderTable, encoderTable.length);
+		table[encoder.getHeader().ordinal()] = encoder;
+		encoderTable = table;
 	}
 	
 	/**
 	 * Registers the specified method to recieve packet
-	 * events.
+	 * events. This may be called while packets are being
+	 * broadcast on other threads.
 	 * @param obj the object to invoke the method on
 	 * @param method the method to register
 	 */
@@ -303,10 +625,19 @@ public class PacketManager {
 		if(!method.isAnnotationPresent(PacketHandler.class))
 			throw new IllegalArgumentException("Method does not have packethandler annotation");
 		PacketHandler pHandler = method.getAnnotation(PacketHandler.class);
-		if(!packetListeners.containsKey(pHandler.header())) {
-			packetListeners.put(pHandler.header(), new HashMap<Method, Object>());
+		
+		synchronized(packetListeners) {
+			for(RegisteredHandler handler : packetListeners) {
+				if(handler.object == obj && handler.method.equals(method)) {
+					System.err.println("Warning - " + obj.getClass().getName() + "'s \"" + method.getName() + "\" was registered twice");
+					return;
+				}
+			}
+			
+			MethodHandle handle = compile(obj, method, HANDLER_TYPE);
+			packetListeners.add(new RegisteredHandler(obj, method, handle, pHandler, registrationCounter++));
+			rebuildHandlerChains();
 		}
-		packetListeners.get(pHandler.header()).put(method, obj);
 	}
 	
 	/**
@@ -352,6 +683,20 @@ public class PacketManager {
 		if(header == null || buffer == null)
 			ErrorUtils.nullPointer(new String[] { "header", "buffer" }, header, buffer);
 		
+		if(dispatchMode == DispatchMode.COMPILED) {
+			CompiledMethod compiled = parserTable[header.ordinal()];
+			if(compiled != null) {
+				try {
+					return (ParsedPacket) compiled.handle.invokeExact(header, buffer);
+				} catch (Throwable e) {
+					e.printStackTrace();
+					System.err.println("Parser invalidly registered for " 
+					+ compiled.object.getClass().getName() + "#" + compiled.method.getName());
+					return null;
+				}
+			}
+		}
+		
 		Object[] arr = getParserRegisteredFor(header);
 		
 		if(arr == null) {
@@ -382,16 +727,40 @@ public class PacketManager {
 	
 	/**
 	 * Writes a packet for the specified header into the specified buffer.
-	 * The buffer <b>must</b> already have the peer id it started from in it
+	 * The buffer <b>must</b> already have the peer id it started from in it,
+	 * and the frame must start at the beginning of the buffer (as it does for
+	 * buffers from NetUtils#createBuffer). Once the sender is done, the length
+	 * of the frame is written.<br>
+	 * <br>
+	 * This boxes every primitive argument, so the typed write methods of the
+	 * {@link PacketEncoder} for the header should be preferred where it has them.
 	 * 
 	 * @param header the header
 	 * @param buffer the buffer to write into
 	 * @param args the arguments to pass on
 	 */
 	public void send(PacketHeader header, ByteBuffer buffer, Object... args) {
+		invokeSender(header, buffer, args);
+		FrameBuffer.writeLength(buffer);
+	}
+	
+	private void invokeSender(PacketHeader header, ByteBuffer buffer, Object[] args) {
+		if(dispatchMode == DispatchMode.COMPILED && header != null && buffer != null && args != null) {
+			PacketEncoder encoder = encoderTable[header.ordinal()];
+			if(encoder != null) {
+				encoder.encode(buffer, args);
+				return;
+			}
+		}
+		
 		Object[] arr = getSenderRegisteredFor(header);
 		
 		if(arr == null) {
+			PacketEncoder encoder = header != null ? encoderTable[header.ordinal()] : null;
+			if(encoder != null && buffer != null && args != null) {
+				encoder.encode(buffer, args);
+				return;
+			}
 			throw new IllegalArgumentException("No sender registered for " + header.name() + "!");
 		}
 		
@@ -450,39 +819,101 @@ public class PacketManager {
 	
 	/**
 	 * Broadcasts the specified parsed packet to all of the
-	 * registered listeners for the header of {@code packet}
+	 * registered listeners for the header of {@code packet}, as
+	 * well as the listeners for {@link PacketHeader#ANY}. Listeners
+	 * are called in order of priority, lowest first.
+	 * 
+	 * This does not lock, so it is safe to call from reader threads
+	 * while listeners are being registered and unregistered. Packets
+	 * that are already being broadcast will finish with the listeners
+	 * that were registered when they started.
+	 * 
+	 * Packets with a blocking header are handed to the blocking thread
+	 * and this returns before they are handled, see {@link #setBlocking(PacketHeader, boolean)}
 	 * @param packet the packet to broadcast
 	 */
-	public void broadcastPacket(Peer peer, ParsedPacket packet) {
-		Map<Method, Object> registered = getRegistered(packet.getHeader());
+	public void broadcastPacket(final Peer peer, ParsedPacket packet) {
+		if(blockingHeaders[packet.getHeader().ordinal()] && Thread.currentThread() != blockingThread) {
+			final ParsedPacket retained = retain(packet);
+			blockingDispatcher.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						dispatch(peer, retained);
+					}catch(RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+			});
+			return;
+		}
+		dispatch(peer, packet);
+	}
+	
+	private void dispatch(Peer peer, ParsedPacket packet) {
+		RegisteredHandler[] chain = handlerChains[packet.getHeader().ordinal()];
 		
-		if(registered == null || registered.size() == 0) {
+		if(chain.length == 0) {
 			System.err.println("Packet broadcast with no listeners: " + packet.getHeader().name());
 			return;
 		}
 		
-		Set<Method> keySet = registered.keySet();
-		for(Method method : keySet) {
-			if(method == null)
-				return;
+		boolean compiled = dispatchMode == DispatchMode.COMPILED;
+		for(int i = 0; i < chain.length; i++) {
+			RegisteredHandler handler = chain[i];
 			try {
-				method.invoke(registered.get(method), peer, packet);
-			} catch (IllegalAccessException | IllegalArgumentException
-					| InvocationTargetException e) {
+				if(compiled && handler.handle != null)
+					handler.handle.invokeExact(peer, packet);
+				else
+					handler.method.invoke(handler.object, peer, packet);
+			} catch (Throwable e) {
 				throw new RuntimeException("Misconfigured method registered! (" + 
-					(registered.containsKey(method) ? registered.get(method).getClass().getName() : "unknown class") 
-					+ ")", e);
+						handler.object.getClass().getName() + ")", e);
 			}
 		}
 	}
-
-	private Map<Method, Object> getRegistered(PacketHeader header) {
-		Map<Method, Object> result = packetListeners.get(header);
-		if(result == null)
-			result = new HashMap<>();
-		if(packetListeners.containsKey(PacketHeader.ANY))
-			result.putAll(packetListeners.get(PacketHeader.ANY));
-		return result;
+	
+	/**
+	 * Rebuilds the listener chain for every header from packetListeners and publishes
+	 * it. Each chain contains the handlers for that header merged with the handlers
+	 * for {@link PacketHeader#ANY}, sorted by priority. Must be called while
+	 * synchronized on packetListeners.
+	 */
+	private void rebuildHandlerChains() {
+		PacketHeader[] headers = PacketHeader.values();
+		RegisteredHandler[][] chains = new RegisteredHandler[headers.length][];
+		List<RegisteredHandler> chain = new ArrayList<>();
+		for(PacketHeader header : headers) {
+			chain.clear();
+			for(RegisteredHandler handler : packetListeners) {
+				if(handler.header == header || handler.header == PacketHeader.ANY)
+					chain.add(handler);
+			}
+			Collections.sort(chain, HANDLER_ORDER);
+			chains[header.ordinal()] = chain.toArray(new RegisteredHandler[chain.size()]);
+		}
+		handlerChains = chains;
+	}
+	
+	/**
+	 * Binds the method to the object and adapts it to the specified type, so
+	 * that it can be called with invokeExact.
+	 * 
+	 * @param obj the object the method is registered with
+	 * @param method the method
+	 * @param type the type of the dispatch table the handle is for
+	 * @return the handle, or null if the method could not be compiled
+	 */
+	private static MethodHandle compile(Object obj, Method method, MethodType type) {
+		try {
+			if(!method.isAccessible())
+				method.setAccessible(true);
+			return MethodHandles.lookup().unreflect(method).asFixedArity().bindTo(obj).asType(type);
+		} catch (IllegalAccessException | RuntimeException e) {
+			System.err.println("Could not compile " + obj.getClass().getName() + "#" + method.getName() + ", it will be called reflectively");
+			e.printStackTrace();
+			return null;
+		}
 	}
 
 	/**
@@ -490,23 +921,17 @@ public class PacketManager {
 	 * @param listener the listener to unregister
 	 */
 	public void unregisterClass(PacketListener listener) {
-		Set<PacketHeader> keySet1 = packetListeners.keySet();
-		Map<PacketHeader, Method> toRemove = new HashMap<>();
-		for(PacketHeader pHeader : keySet1) {
-			Map<Method, Object> methodsForType = packetListeners.get(pHeader);
-			Set<Method> keySet2 = methodsForType.keySet();
-			
-			for(Method method : keySet2) {
-				Object obj = methodsForType.get(method);
-				if(obj == listener) {
-					toRemove.put(pHeader, method);
+		synchronized(packetListeners) {
+			boolean removed = false;
+			Iterator<RegisteredHandler> it = packetListeners.iterator();
+			while(it.hasNext()) {
+				if(it.next().object == listener) {
+					it.remove();
+					removed = true;
 				}
 			}
-		}
-		
-		Set<PacketHeader> keySet3 = toRemove.keySet();
-		for(PacketHeader pHeader : keySet3) {
-			packetListeners.get(pHeader).remove(toRemove.get(pHeader));
+			if(removed)
+				rebuildHandlerChains();
 		}
 	}
 }
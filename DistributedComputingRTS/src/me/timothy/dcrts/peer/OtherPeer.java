@@ -10,6 +10,7 @@ public class OtherPeer extends Peer {
 	
 	public OtherPeer(PartialPeer partPeer) {
 		this(partPeer.getName(), partPeer.getID());
+		outbound = partPeer.getOutboundQueue();
 	}
 
 	@Override
@@ -1,7 +1,9 @@
 package me.timothy.dcrts.peer;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import me.timothy.dcrts.net.OutboundQueue;
 
 /**
  * Represents another real player in the game.
@@ -14,12 +16,18 @@ public abstract class Peer {
 	protected int id;
 	protected boolean ready;
 	/**
-	 * Metadata about a peer. This is not saved
+	 * Metadata about a peer. This is not saved, and may be read and written
+	 * from any thread, so it cannot hold null values
 	 */
 	public Map<String, Object> metaData;
+	/**
+	 * The queue of data waiting to be written to this peer, if there is a
+	 * connection to this peer
+	 */
+	protected volatile OutboundQueue outbound;
 	
 	protected Peer() {
-		metaData = new HashMap<>();
+		metaData = new ConcurrentHashMap<>();
 	}
 	/**
 	 * @return the name of the peer
@@ -67,6 +75,37 @@ public abstract class Peer {
 		this.ready = ready;
 	}
 	
+	/**
+	 * @return the queue of data waiting to be sent to this peer, or null if there is no connection
+	 */
+	public OutboundQueue getOutboundQueue() {
+		return outbound;
+	}
+	
+	/**
+	 * Sets the queue of the connection to this peer
+	 * @param outbound the outbound queue, may be null
+	 */
+	public void setOutboundQueue(OutboundQueue outbound) {
+		this.outbound = outbound;
+	}
+	
+	/**
+	 * @return the number of buffers waiting to be sent to this peer
+	 */
+	public int getQueueDepth() {
+		OutboundQueue q = outbound;
+		return q == null ? 0 : q.getDepth();
+	}
+	
+	/**
+	 * @return the number of bytes sent to this peer that have not been written to the connection yet
+	 */
+	public int getBytesInFlight() {
+		OutboundQueue q = outbound;
+		return q == null ? 0 : q.getBytesInFlight();
+	}
+	
 	@Override
 	public String toString() {
 		return getName();
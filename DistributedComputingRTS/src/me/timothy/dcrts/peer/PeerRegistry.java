@@ -0,0 +1,306 @@
+package me.timothy.dcrts.peer;
+
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import me.timothy.dcrts.utils.IntMap;
+
+/**
+ * The peers that are connected, excluding the local peer, along with the
+ * channel each one is connected through (if it is directly connected). Peers
+ * are kept in the order they were added; ListenerModule depends on the first
+ * peer being the original host.
+ *
+ * Peers are looked up by id or by channel for every packet that is read, so
+ * lookups do not lock, scan or allocate. Every change replaces an immutable
+ * snapshot of the peers and their indexes, which is cheap since peers only
+ * join and leave a handful of times per game. Iterating over the registry
+ * iterates over the snapshot at the time, so no synchronization is needed and
+ * the registry may be changed while it is being iterated over.
+ *
+ * Peers with the same id (EG several PartialPeers that have not been assigned
+ * one yet) are all kept, but only the first is found by id.
+ *
+ * @author Timothy
+ */
+public class PeerRegistry implements Iterable<Peer> {
+	/**
+	 * A peer and the channel it is connected through, which may be null
+	 */
+	public static class Entry {
+		private final Peer peer;
+		private final SocketChannel channel;
+
+		private Entry(Peer peer, SocketChannel channel) {
+			this.peer = peer;
+			this.channel = channel;
+		}
+
+		public Peer getPeer() {
+			return peer;
+		}
+
+		public SocketChannel getChannel() {
+			return channel;
+		}
+
+		@Override
+		public String toString() {
+			return "Entry [peer=" + peer + ", channel=" + channel + "]";
+		}
+	}
+
+	private static class Snapshot {
+		final Entry[] entries;
+		final List<Peer> peers;
+		final IntMap<Entry> byId;
+		final Map<Peer, Entry> byPeer;
+		final Map<SocketChannel, Entry> byChannel;
+
+		Snapshot(Entry[] entries) {
+			this.entries = entries;
+			Peer[] peerArr = new Peer[entries.length];
+			byId = new IntMap<>(entries.length);
+			byPeer = new IdentityHashMap<>(entries.length);
+			byChannel = new HashMap<>();
+			for(int i = 0; i < entries.length; i++) {
+				Entry e = entries[i];
+				peerArr[i] = e.peer;
+				if(!byId.containsKey(e.peer.getID()))
+					byId.put(e.peer.getID(), e);
+				byPeer.put(e.peer, e);
+				if(e.channel != null)
+					byChannel.put(e.channel, e);
+			}
+			peers = Collections.unmodifiableList(Arrays.asList(peerArr));
+		}
+	}
+
+	private volatile Snapshot snapshot;
+
+	public PeerRegistry() {
+		snapshot = new Snapshot(new Entry[0]);
+	}
+
+	/**
+	 * Adds a peer that is not directly connected
+	 * @param peer the peer
+	 */
+	public void add(Peer peer) {
+		add(peer, null);
+	}
+
+	/**
+	 * Adds a peer to the end of the registry
+	 *
+	 * @param peer the peer
+	 * @param channel the channel the peer is connected through, may be null
+	 * @throws IllegalArgumentException if the peer is already registered
+	 */
+	public synchronized void add(Peer peer, SocketChannel channel) {
+		if(peer == null)
+			throw new IllegalArgumentException("peer cannot be null");
+		Snapshot snap = snapshot;
+		if(snap.byPeer.containsKey(peer))
+			throw new IllegalArgumentException(peer + " is already registered");
+
+		Entry[] entries = Arrays.copyOf(snap.entries, snap.entries.length + 1);
+		entries[entries.length - 1] = new Entry(peer, channel);
+		snapshot = new Snapshot(entries);
+	}
+
+	/**
+	 * Replaces a peer with another, keeping its position and channel. This
+	 * must also be called (with the same peer twice) after the id of a
+	 * registered peer changes, so it can be found by its new id.
+	 *
+	 * @param peer the registered peer
+	 * @param replacement the peer to replace it with
+	 * @return true if the peer was registered
+	 */
+	public synchronized boolean replace(Peer peer, Peer replacement) {
+		Snapshot snap = snapshot;
+		int ind = indexOf(snap, peer);
+		if(ind < 0)
+			return false;
+
+		Entry[] entries = snap.entries.clone();
+		entries[ind] = new Entry(replacement, entries[ind].channel);
+		snapshot = new Snapshot(entries);
+		return true;
+	}
+
+	/**
+	 * Sets the id of a registered peer and updates the index
+	 *
+	 * @param peer the peer
+	 * @param id the new id
+	 */
+	public synchronized void changeID(Peer peer, int id) {
+		peer.setID(id);
+		replace(peer, peer);
+	}
+
+	/**
+	 * Sets the channel a registered peer is connected through
+	 *
+	 * @param peer the peer
+	 * @param channel the channel, may be null
+	 * @return true if the peer was registered
+	 */
+	public synchronized boolean setChannel(Peer peer, SocketChannel channel) {
+		Snapshot snap = snapshot;
+		int ind = indexOf(snap, peer);
+		if(ind < 0)
+			return false;
+
+		Entry[] entries = snap.entries.clone();
+		entries[ind] = new Entry(entries[ind].peer, channel);
+		snapshot = new Snapshot(entries);
+		return true;
+	}
+
+	/**
+	 * Removes a peer
+	 *
+	 * @param peer the peer
+	 * @return the entry that was removed, or null if the peer was not registered
+	 */
+	public synchronized Entry remove(Peer peer) {
+		Snapshot snap = snapshot;
+		int ind = indexOf(snap, peer);
+		if(ind < 0)
+			return null;
+
+		Entry removed = snap.entries[ind];
+		Entry[] entries = new Entry[snap.entries.length - 1];
+		System.arraycopy(snap.entries, 0, entries, 0, ind);
+		System.arraycopy(snap.entries, ind + 1, entries, ind, entries.length - ind);
+		snapshot = new Snapshot(entries);
+		return removed;
+	}
+
+	/**
+	 * Removes every peer
+	 *
+	 * @return the entries that were removed, in order
+	 */
+	public synchronized List<Entry> clear() {
+		List<Entry> removed = Arrays.asList(snapshot.entries);
+		snapshot = new Snapshot(new Entry[0]);
+		return removed;
+	}
+
+	/**
+	 * @param id the id
+	 * @return the first peer with the id, or null if there is none
+	 */
+	public Peer getPeer(int id) {
+		Entry e = snapshot.byId.get(id);
+		return e != null ? e.peer : null;
+	}
+
+	/**
+	 * @param channel the channel
+	 * @return the peer connected through the channel, or null if there is none
+	 */
+	public Peer getPeer(SocketChannel channel) {
+		Entry e = snapshot.byChannel.get(channel);
+		return e != null ? e.peer : null;
+	}
+
+	/**
+	 * @param id the id
+	 * @return the entry for the first peer with the id, or null if there is none
+	 */
+	public Entry getEntry(int id) {
+		return snapshot.byId.get(id);
+	}
+
+	/**
+	 * @param peer the peer
+	 * @return the entry for the peer, or null if it is not registered
+	 */
+	public Entry getEntry(Peer peer) {
+		return entryOf(snapshot, peer);
+	}
+
+	/**
+	 * @param peer the peer
+	 * @return the channel the peer is connected through, or null if it is not
+	 * directly connected or not registered
+	 */
+	public SocketChannel getChannel(Peer peer) {
+		Entry e = getEntry(peer);
+		return e != null ? e.channel : null;
+	}
+
+	public boolean contains(Peer peer) {
+		return entryOf(snapshot, peer) != null;
+	}
+
+	public int size() {
+		return snapshot.entries.length;
+	}
+
+	public boolean isEmpty() {
+		return snapshot.entries.length == 0;
+	}
+
+	/**
+	 * @return the peers at this moment, in order. The list cannot be modified and does not change.
+	 */
+	public List<Peer> getPeers() {
+		return snapshot.peers;
+	}
+
+	/**
+	 * @return the entries at this moment, in order
+	 */
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(Arrays.asList(snapshot.entries));
+	}
+
+	@Override
+	public Iterator<Peer> iterator() {
+		return snapshot.peers.iterator();
+	}
+
+	/**
+	 * Finds the entry for a peer by identity, or failing that by equality
+	 */
+	private static Entry entryOf(Snapshot snap, Peer peer) {
+		if(peer == null)
+			return null;
+		Entry e = snap.byPeer.get(peer);
+		if(e == null) {
+			e = snap.byId.get(peer.getID());
+			if(e == null || !e.peer.equals(peer))
+				return null;
+		}
+		return e;
+	}
+
+	private static int indexOf(Snapshot snap, Peer peer) {
+		Entry e = entryOf(snap, peer);
+		if(e == null)
+			return -1;
+		for(int i = 0; i < snap.entries.length; i++) {
+			if(snap.entries[i] == e)
+				return i;
+		}
+		return -1;
+	}
+
+	@Override
+	public String toString() {
+		return "PeerRegistry " + new ArrayList<>(snapshot.peers);
+	}
+}
@@ -0,0 +1,34 @@
+package me.timothy.dcrts.resources;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Resources in a local directory, with the manifest at its root
+ *
+ * @author Timothy
+ */
+public class DirectoryResourceSource implements ResourceSource {
+	private File dir;
+
+	public DirectoryResourceSource(File dir) {
+		this.dir = dir;
+	}
+
+	@Override
+	public InputStream openManifest() throws IOException {
+		return new FileInputStream(new File(dir, MANIFEST_NAME));
+	}
+
+	@Override
+	public InputStream open(String path) throws IOException {
+		return new FileInputStream(new File(dir, path));
+	}
+
+	@Override
+	public String toString() {
+		return dir.getPath();
+	}
+}
@@ -0,0 +1,57 @@
+package me.timothy.dcrts.resources;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Resources on a file server, with the manifest at the base url
+ *
+ * @author Timothy
+ */
+public class HttpResourceSource implements ResourceSource {
+	/**
+	 * How long to wait to connect to and read from the server, in milliseconds
+	 */
+	public static final int TIMEOUT = 10000;
+
+	private String baseUrl;
+
+	/**
+	 * @param baseUrl the url the paths are relative to, ending in a slash
+	 */
+	public HttpResourceSource(String baseUrl) {
+		this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+	}
+
+	@Override
+	public InputStream openManifest() throws IOException {
+		return open(MANIFEST_NAME);
+	}
+
+	@Override
+	public InputStream open(String path) throws IOException {
+		final HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+		conn.setConnectTimeout(TIMEOUT);
+		conn.setReadTimeout(TIMEOUT);
+		int code = conn.getResponseCode();
+		if(code != HttpURLConnection.HTTP_OK) {
+			conn.disconnect();
+			throw new IOException("Failed to fetch " + baseUrl + path + " (" + code + ")");
+		}
+		return new FilterInputStream(conn.getInputStream()) {
+			@Override
+			public void close() throws IOException {
+				super.close();
+				conn.disconnect();
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return baseUrl;
+	}
+}
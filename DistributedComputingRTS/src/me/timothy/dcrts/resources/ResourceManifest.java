@@ -0,0 +1,194 @@
+package me.timothy.dcrts.resources;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lists every resource with its size and SHA-256 digest. Each line is
+ * <pre>
+ * &lt;digest in lowercase hex&gt; &lt;size in bytes&gt; &lt;path&gt;
+ * </pre>
+ * and blank lines and lines starting with '#' are skipped. The paths may
+ * contain spaces, but not line breaks.
+ *
+ * @author Timothy
+ */
+public class ResourceManifest {
+	/**
+	 * A single resource
+	 */
+	public static class Entry {
+		private final String path;
+		private final long size;
+		private final String digest;
+
+		/**
+		 * @param path the path of the resource
+		 * @param size its size in bytes
+		 * @param digest its SHA-256 digest in hex
+		 * @throws IllegalArgumentException if the size is negative or the digest is not 64 hex digits
+		 */
+		public Entry(String path, long size, String digest) {
+			digest = digest.toLowerCase();
+			if(size < 0)
+				throw new IllegalArgumentException("The size of " + path + " is negative: " + size);
+			if(!isDigest(digest))
+				throw new IllegalArgumentException("The digest of " + path + " is not 64 hex digits: " + digest);
+			this.path = path;
+			this.size = size;
+			this.digest = digest;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * @return the SHA-256 digest in lowercase hex
+		 */
+		public String getDigest() {
+			return digest;
+		}
+
+		@Override
+		public int hashCode() {
+			return path.hashCode() * 31 + digest.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj)
+				return true;
+			if(!(obj instanceof Entry))
+				return false;
+			Entry other = (Entry) obj;
+			return size == other.size && path.equals(other.path) && digest.equals(other.digest);
+		}
+	}
+
+	private Map<String, Entry> entries;
+
+	public ResourceManifest() {
+		entries = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Reads a manifest
+	 *
+	 * @param in the stream, which is not closed
+	 * @return the manifest
+	 * @throws IOException if the stream could not be read or is not a manifest
+	 */
+	public static ResourceManifest read(InputStream in) throws IOException {
+		ResourceManifest res = new ResourceManifest();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		String ln;
+		int lineNum = 0;
+		while((ln = reader.readLine()) != null) {
+			lineNum++;
+			ln = ln.trim();
+			if(ln.isEmpty() || ln.startsWith("#"))
+				continue;
+
+			String[] parts = ln.split(" ", 3);
+			if(parts.length != 3 || !isDigest(parts[0]))
+				throw new IOException("Malformed resource manifest at line " + lineNum + ": " + ln);
+			try {
+				res.add(new Entry(parts[2], Long.parseLong(parts[1]), parts[0]));
+			} catch (IllegalArgumentException e) { // includes NumberFormatException
+				throw new IOException("Malformed resource manifest at line " + lineNum + ": " + ln, e);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Writes the manifest, replacing the file only once it is completely written
+	 *
+	 * @param file the file
+	 * @throws IOException if the file could not be written
+	 */
+	public void write(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		try(Writer writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+			for(Entry e : entries.values()) {
+				writer.write(e.getDigest() + " " + e.getSize() + " " + e.getPath() + "\n");
+			}
+		}
+		ResourceStore.moveReplacing(tmp, file);
+	}
+
+	public void add(Entry entry) {
+		entries.put(entry.getPath(), entry);
+	}
+
+	/**
+	 * @param path the path of a resource
+	 * @return the entry, or null if it is not in the manifest
+	 */
+	public Entry get(String path) {
+		return entries.get(path);
+	}
+
+	public Collection<Entry> getEntries() {
+		return Collections.unmodifiableCollection(entries.values());
+	}
+
+	/**
+	 * @return the paths of every resource, in the order of the manifest
+	 */
+	public List<String> getPaths() {
+		return new ArrayList<>(entries.keySet());
+	}
+
+	/**
+	 * @param other another manifest, may be null
+	 * @return the entries in this manifest that are not exactly the same in the other one
+	 */
+	public List<Entry> getChanges(ResourceManifest other) {
+		List<Entry> res = new ArrayList<>();
+		for(Entry e : entries.values()) {
+			if(other == null || !e.equals(other.get(e.getPath())))
+				res.add(e);
+		}
+		return res;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * The digest names the file a resource is stored in, so anything but
+	 * 64 lowercase hex digits, such as "../", must never get that far
+	 *
+	 * @param str the string
+	 * @return if the string is a SHA-256 digest in lowercase hex
+	 */
+	static boolean isDigest(String str) {
+		if(str.length() != 64)
+			return false;
+		for(int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if((c < '0' || c > '9') && (c < 'a' || c > 'f'))
+				return false;
+		}
+		return true;
+	}
+}
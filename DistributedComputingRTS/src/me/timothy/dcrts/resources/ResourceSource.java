@@ -0,0 +1,35 @@
+package me.timothy.dcrts.resources;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Where the resources come from, see {@link ResourceStore}. Only the manifest
+ * is read on every startup, and only the resources whose contents changed
+ * are read after that.
+ *
+ * @author Timothy
+ */
+public interface ResourceSource {
+	/**
+	 * The name of the manifest, relative to the root of a source
+	 */
+	public static final String MANIFEST_NAME = "manifest.txt";
+
+	/**
+	 * Opens the manifest, see {@link ResourceManifest#read(InputStream)}
+	 *
+	 * @return the stream, which the caller closes
+	 * @throws IOException if the manifest could not be opened
+	 */
+	public InputStream openManifest() throws IOException;
+
+	/**
+	 * Opens a resource
+	 *
+	 * @param path the path of the resource, as in the manifest
+	 * @return the stream, which the caller closes
+	 * @throws IOException if the resource could not be opened
+	 */
+	public InputStream open(String path) throws IOException;
+}
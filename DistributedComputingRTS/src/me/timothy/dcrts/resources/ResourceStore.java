@@ -0,0 +1,262 @@
+package me.timothy.dcrts.resources;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import me.timothy.dcrts.utils.NetUtils;
+
+/**
+ * The resources on disk, stored by the SHA-256 digest of their contents, as
+ * in objects/ab/abcdef... A copy of the manifest from the last startup is kept
+ * in the objects folder with them.<br>
+ * <br>
+ * {@link #sync()} reads the manifest from the {@link ResourceSource} and
+ * compares it to the copy. Resources are fetched when they are first asked for
+ * and their contents are not in the store yet, so only the resources whose
+ * contents changed are ever fetched, and they are checked against the size
+ * and digest in the manifest before they are stored. Once the store is
+ * complete, a startup reads the manifest and nothing else from the source. If
+ * the source cannot be reached, the copy of the manifest is used, and if there
+ * is no copy yet the manifest and resources are read from the fallback source,
+ * such as the resources shipped with the game.
+ *
+ * @author Timothy
+ */
+public class ResourceStore {
+	public static final String OBJECT_FOLDER = "objects";
+
+	private File objects;
+	private File manifestFile;
+	private ResourceSource source;
+	private ResourceSource fallback;
+	private volatile ResourceManifest manifest;
+
+	/**
+	 * @param root the folder the store is kept in
+	 * @param source where resources are fetched from
+	 */
+	public ResourceStore(File root, ResourceSource source) {
+		this(root, source, null);
+	}
+
+	/**
+	 * @param root the folder the store is kept in
+	 * @param source where resources are fetched from
+	 * @param fallback where resources are fetched from when the source cannot be
+	 * reached, or null
+	 */
+	public ResourceStore(File root, ResourceSource source, ResourceSource fallback) {
+		this.source = source;
+		this.fallback = fallback;
+		objects = new File(root, OBJECT_FOLDER);
+		manifestFile = new File(objects, ResourceSource.MANIFEST_NAME);
+	}
+
+	/**
+	 * Reads the manifest from the source, keeping a copy of it if it changed
+	 *
+	 * @return the manifest
+	 * @throws IOException if neither the source nor the fallback could be read and there is no copy
+	 */
+	public synchronized ResourceManifest sync() throws IOException {
+		ResourceManifest local = readLocalManifest();
+		ResourceManifest remote;
+		try(InputStream in = source.openManifest()) {
+			remote = ResourceManifest.read(in);
+		} catch (IOException e) {
+			if(local != null) {
+				System.err.println("[ResourceStore] Could not read the manifest from " + source + ", using the copy from the last startup (" + e.getMessage() + ")");
+				manifest = local;
+				return local;
+			}
+			if(fallback == null)
+				throw e;
+			System.err.println("[ResourceStore] Could not read the manifest from " + source + ", using the one in " + fallback + " (" + e.getMessage() + ")");
+			try(InputStream in = fallback.openManifest()) {
+				remote = ResourceManifest.read(in);
+			} catch (IOException e2) {
+				e2.addSuppressed(e);
+				throw e2;
+			}
+		}
+
+		List<ResourceManifest.Entry> changes = remote.getChanges(local);
+		if(local == null || !changes.isEmpty() || local.size() != remote.size()) {
+			manifestFile.getParentFile().mkdirs();
+			remote.write(manifestFile);
+		}
+		System.out.println("[ResourceStore] " + remote.size() + " resources, " + changes.size() + " changed since the last startup");
+		manifest = remote;
+		return remote;
+	}
+
+	/**
+	 * @return the manifest from the last {@link #sync()}, or null if it has not been called
+	 */
+	public ResourceManifest getManifest() {
+		return manifest;
+	}
+
+	/**
+	 * Gets the file a resource is stored in, fetching it if its contents are not in the store
+	 *
+	 * @param path the path of the resource, as in the manifest
+	 * @return the file, which must not be modified
+	 * @throws IOException if the resource is not in the manifest, could not be
+	 * fetched, or did not match the manifest
+	 */
+	public File getFile(String path) throws IOException {
+		ResourceManifest m = manifest;
+		if(m == null)
+			throw new IllegalStateException("The resource store has not been synced");
+		ResourceManifest.Entry entry = m.get(path);
+		if(entry == null)
+			throw new FileNotFoundException(path + " is not in the resource manifest");
+
+		File file = getObjectFile(entry.getDigest());
+		if(!file.isFile() || file.length() != entry.getSize())
+			fetch(entry, file);
+		return file;
+	}
+
+	/**
+	 * Maps a resource into memory, fetching it first if necessary
+	 *
+	 * @param path the path of the resource, as in the manifest
+	 * @return the contents of the resource, read-only
+	 * @throws IOException see {@link #getFile(String)}
+	 */
+	public ByteBuffer map(String path) throws IOException {
+		File file = getFile(path);
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * Hashes every resource in the store again, removing the ones that do not
+	 * match the manifest so they are fetched the next time they are needed.
+	 * This reads everything, so it is not done on startup.
+	 *
+	 * @return the entries that were removed
+	 * @throws IOException if a resource could not be read
+	 */
+	public List<ResourceManifest.Entry> verify() throws IOException {
+		List<ResourceManifest.Entry> res = new ArrayList<>();
+		ResourceManifest m = manifest;
+		if(m == null)
+			return res;
+		for(ResourceManifest.Entry entry : m.getEntries()) {
+			File file = getObjectFile(entry.getDigest());
+			if(!file.isFile())
+				continue;
+			if(file.length() != entry.getSize() || !toHex(NetUtils.hash(file, NetUtils.SHA256)).equals(entry.getDigest())) {
+				file.delete();
+				res.add(entry);
+			}
+		}
+		return res;
+	}
+
+	private File getObjectFile(String digest) {
+		return new File(new File(objects, digest.substring(0, 2)), digest);
+	}
+
+	private ResourceManifest readLocalManifest() {
+		if(!manifestFile.isFile())
+			return null;
+		try(InputStream in = new FileInputStream(manifestFile)) {
+			return ResourceManifest.read(in);
+		} catch (IOException e) {
+			System.err.println("[ResourceStore] Ignoring the copy of the manifest (" + e.getMessage() + ")");
+			return null;
+		}
+	}
+
+	/**
+	 * Fetches a resource from the source, or from the fallback if that fails
+	 */
+	private void fetch(ResourceManifest.Entry entry, File file) throws IOException {
+		try {
+			fetch(source, entry, file);
+		} catch (IOException e) {
+			if(fallback == null)
+				throw e;
+			System.err.println("[ResourceStore] Could not fetch " + entry.getPath() + " from " + source + ", using " + fallback + " (" + e.getMessage() + ")");
+			try {
+				fetch(fallback, entry, file);
+			} catch (IOException e2) {
+				e2.addSuppressed(e);
+				throw e2;
+			}
+		}
+	}
+
+	/**
+	 * Fetches a resource into a temporary file, and moves it into place if it
+	 * matches the manifest
+	 */
+	private void fetch(ResourceSource from, ResourceManifest.Entry entry, File file) throws IOException {
+		file.getParentFile().mkdirs();
+		File tmp = File.createTempFile(entry.getDigest(), ".part", file.getParentFile());
+		try {
+			MessageDigest md;
+			try {
+				md = MessageDigest.getInstance(NetUtils.SHA256);
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException("MessageDigest does not know of " + NetUtils.SHA256 + "!");
+			}
+
+			long size;
+			try(InputStream in = new DigestInputStream(from.open(entry.getPath()), md)) {
+				size = Files.copy(in, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			String digest = toHex(md.digest());
+			if(size != entry.getSize() || !digest.equals(entry.getDigest())) {
+				throw new IOException(entry.getPath() + " from " + from + " does not match the manifest (" +
+						size + " bytes with digest " + digest + ", expected " + entry.getSize() + " bytes with digest " + entry.getDigest() + ")");
+			}
+			moveReplacing(tmp, file);
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Moves a file over another, atomically if the file system allows it
+	 */
+	static void moveReplacing(File from, File to) throws IOException {
+		try {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * @param bytes the bytes
+	 * @return the bytes in lowercase hex
+	 */
+	public static String toHex(byte[] bytes) {
+		StringBuilder res = new StringBuilder(bytes.length * 2);
+		for(byte b : bytes) {
+			res.append(Character.forDigit((b >> 4) & 0xF, 16));
+			res.append(Character.forDigit(b & 0xF, 16));
+		}
+		return res.toString();
+	}
+}
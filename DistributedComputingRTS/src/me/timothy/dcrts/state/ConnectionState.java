@@ -3,7 +3,6 @@ package me.timothy.dcrts.state;
 import java.awt.Point;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -23,14 +22,19 @@ import me.timothy.dcrts.net.event.CEventManager;
 import me.timothy.dcrts.net.event.EventType;
 import me.timothy.dcrts.net.module.ModuleHandler;
 import me.timothy.dcrts.net.packets.DirectConnectionPacket;
+import me.timothy.dcrts.net.packets.WhisperEncoder;
 import me.timothy.dcrts.net.packets.WhisperPacket;
+import me.timothy.dcrts.net.topology.RelayTopology;
+import me.timothy.dcrts.net.topology.TopologyOptimizer;
 import me.timothy.dcrts.packet.PacketHandler;
 import me.timothy.dcrts.packet.PacketHeader;
 import me.timothy.dcrts.packet.PacketListener;
 import me.timothy.dcrts.packet.PacketManager;
 import me.timothy.dcrts.packet.ParsedPacket;
 import me.timothy.dcrts.peer.Peer;
+import me.timothy.dcrts.peer.PeerRegistry;
 import me.timothy.dcrts.settings.GameSettings;
+import me.timothy.dcrts.utils.BufferPool;
 import me.timothy.dcrts.utils.GUtils;
 import me.timothy.dcrts.utils.NetUtils;
 
@@ -127,12 +131,10 @@ public class ConnectionState extends BasicGameState implements PacketListener {
 				List<Peer> peers = cHandler.getGameState().getConnectedPeers();
 				if(netType.equals("BroadcastModule")) {
 					boolean foundOtherBroadcastModule = false;
-					synchronized(peers) {
-						for(Peer p : peers) {
-							if(!p.equals(thePeer) && cHandler.getNetState().getNetTypeOf(p).getName().equals("BroadcastModule")) {
-								foundOtherBroadcastModule = true;
-								break;
-							}
+					for(Peer p : peers) {
+						if(!p.equals(thePeer) && cHandler.getNetState().getNetTypeOf(p).getName().equals("BroadcastModule")) {
+							foundOtherBroadcastModule = true;
+							break;
 						}
 					}
 					return foundOtherBroadcastModule;
@@ -146,11 +148,9 @@ public class ConnectionState extends BasicGameState implements PacketListener {
 				return !cHandler.getGameState().getLocalPeer().equals(thePeer);
 			default:
 				peers = cHandler.getGameState().getConnectedPeers();
-				synchronized(peers) {
-					for(Peer p : peers) {
-						if(p.getName().equals(str))
-							return true;
-					}
+				for(Peer p : peers) {
+					if(p.getName().equals(str))
+						return true;
 				}
 				return false;
 			}
@@ -315,16 +315,14 @@ public class ConnectionState extends BasicGameState implements PacketListener {
 	private void addPlayerNames(List<String> choices, Peer peer) {
 		List<Peer> peers = cHandler.getGameState().getConnectedPeers();
 		
-		synchronized(peers) {
-			if(!peer.equals(cHandler.getGameState().getLocalPeer())) {
-				choices.add(cHandler.getGameState().getLocalPeer().getName());
-			}
-			
-			for(Peer p : peers) {
-				if(p.equals(peer))
-					continue;
-				choices.add(p.getName());
-			}
+		if(!peer.equals(cHandler.getGameState().getLocalPeer())) {
+			choices.add(cHandler.getGameState().getLocalPeer().getName());
+		}
+		
+		for(Peer p : peers) {
+			if(p.equals(peer))
+				continue;
+			choices.add(p.getName());
 		}
 	}
 
@@ -352,25 +350,36 @@ public class ConnectionState extends BasicGameState implements PacketListener {
 	public int getID() {
 		return ID;
 	}
+	
+	/**
+	 * @return the handler of the game being connected, or null if {@link #prepare} was never called
+	 */
+	public ConnectingHandler getConnectingHandler() {
+		return cHandler;
+	}
 
-	public void prepare(Peer local, Peer origHostPeer, List<Peer> connectedPeers,
-			List<SocketChannel> connections, GameSettings settings) {
+	/**
+	 * Prepares the game state and net state for the game
+	 * @param local the local peer
+	 * @param origHostPeer the peer that hosted the lobby
+	 * @param peers the connected peers, each of which must have a channel
+	 * @param settings the game settings
+	 */
+	public void prepare(Peer local, Peer origHostPeer, PeerRegistry peers, GameSettings settings) {
 		NetState netState = new NetState();
 		boolean origHost = origHostPeer == local;
+		List<Peer> connectedPeers = peers.getPeers();
 		netState.setLocalPeer(local, 
 				origHost ? ModuleHandler.getBroadcastModule() : ModuleHandler.getListenerModule(),
 				ModuleHandler.getEmptyModule(), connectedPeers);
-		synchronized(connectedPeers) {
-			for(int i = 0; i < connectedPeers.size(); i++) {
-				Peer peer = connectedPeers.get(i);
-				SocketChannel ch = connections.get(i);
-				netState.registerPeer(peer, ch, 
-						origHostPeer == peer ? ModuleHandler.getBroadcastModule() : ModuleHandler.getListenerModule(),
-						ModuleHandler.getEmptyModule(), connectedPeers);
-			}
+		for(PeerRegistry.Entry entry : peers.getEntries()) {
+			Peer peer = entry.getPeer();
+			netState.registerPeer(peer, entry.getChannel(), 
+					ModuleHandler.getNetModuleType(origHostPeer == peer ? "BroadcastModule" : "ListenerModule"),
+					ModuleHandler.getLogicModuleType("EmptyModule"), connectedPeers);
 		}
 		
-		GameState gameState = new GameState(local, connectedPeers, settings);
+		GameState gameState = new GameState(local, peers, settings);
 		
 		NetModule netModule = netState.getLocalNetModule();
 		LogicModule logModule = netState.getLocalLogicModule();
@@ -379,7 +388,9 @@ public class ConnectionState extends BasicGameState implements PacketListener {
 		logModule.setResources(PacketManager.instance, netState, gameState);
 		
 		
-		cHandler = new ConnectingHandler(netModule, logModule, netState, gameState);
+		RelayTopology topology = new RelayTopology(netState, gameState);
+		TopologyOptimizer optimizer = origHost ? new TopologyOptimizer(netState, gameState, topology) : null;
+		cHandler = new ConnectingHandler(netModule, logModule, netState, gameState, topology, optimizer);
 	}
 
 	/**
@@ -393,8 +404,13 @@ public class ConnectionState extends BasicGameState implements PacketListener {
 		List<Peer> broadcastingPeers = cHandler.getNetState().getPeersWithNetModule("BroadcastModule");
 		createCircle(broadcastingPeers, broadcastPoints, new Point(120, 120), 10, true);
 		
-		List<Peer> other = cHandler.getNetState().getPeersWithNetModule("ListenerModule");
+		List<Peer> midnodes = cHandler.getNetState().getPeersWithNetModule("MidnodeModule");
 		List<GraphPoint> tmp = new ArrayList<>();
+		createCircle(midnodes, tmp, new Point(120, 120), 45, false);
+		tiers.add(tmp);
+		
+		List<Peer> other = cHandler.getNetState().getPeersWithNetModule("ListenerModule");
+		tmp = new ArrayList<>();
 		createCircle(other, tmp, new Point(120, 120), 80, false);
 		tiers.add(tmp);
 		
@@ -405,17 +421,36 @@ public class ConnectionState extends BasicGameState implements PacketListener {
 		}
 		
 		// others
+		for(Peer p : midnodes) {
+			addConnections(p, broadcastPoints, tiers);
+		}
 		for(Peer p : other) {
 			addConnections(p, broadcastPoints, tiers);
 		}
 	}
 	
+	/**
+	 * Connects the point of the peer to the peer above it in the relay tree, or
+	 * to everyone it is connected with if it is not in the tree
+	 */
 	protected void addConnections(Peer peer, List<GraphPoint> arr1, List<List<GraphPoint>> arr2) {
-		List<Peer> connections = cHandler.getNetState().getConnections(peer);
-		
 		GraphPoint gp = getGraphPoint(peer, arr1, arr2);
+		if(gp == null)
+			return;
+		
+		Peer parent = cHandler.getTopology().getParent(peer);
+		if(parent != null) {
+			GraphPoint parentPoint = getGraphPoint(parent, arr1, arr2);
+			if(parentPoint != null)
+				gp.addConnectedPoint(parentPoint);
+			return;
+		}
+		
+		List<Peer> connections = cHandler.getNetState().getConnections(peer);
 		for(Peer p : connections) {
-			gp.addConnectedPoint(getGraphPoint(p, arr1, arr2));
+			GraphPoint other = getGraphPoint(p, arr1, arr2);
+			if(other != null)
+				gp.addConnectedPoint(other);
 		}
 	}
 
@@ -516,14 +551,15 @@ public class ConnectionState extends BasicGameState implements PacketListener {
 			String msg = JOptionPane.showInputDialog("What do you want to send to " + peer.getName() + "?");
 			
 			ByteBuffer buffer = NetUtils.createBufferNoID(PacketHeader.WHISPER);
-			PacketManager.instance.send(PacketHeader.WHISPER, buffer, peer, msg); // This is located in ConnectionPackets or whatever
+			WhisperEncoder.INSTANCE.write(buffer, peer, msg);
 			buffer.flip();
 			try {
 				cHandler.getNetState().getLocalNetModule().ensureDirectConnection(peer);
 				cHandler.getNetState().getLocalNetModule().sendDirectly(peer, buffer);
-				cHandler.getNetState().getLocalNetModule().destroyUnnecessaryConnection(peer);
 			} catch (IOException e) {
 				e.printStackTrace();
+			} finally {
+				BufferPool.instance.release(buffer);
 			}
 			break;
 		default:
@@ -540,6 +576,13 @@ public class ConnectionState extends BasicGameState implements PacketListener {
 		recalculateNodeGraph();
 	}
 
+	@PacketHandler(header=PacketHeader.RECONFIGURE, priority=10) // don't do anything but monitor
+	public void onReconfigure(Peer peer, ParsedPacket parsedPacket) {
+		if(!enabled)
+			return;
+		recalculateNodeGraph();
+	}
+
 	@PacketHandler(header=PacketHeader.DIRECT_PACKET, priority=10) 
 	public void onWhispered(final Peer peer, ParsedPacket wrappedPacket) { // monitor
 		DirectConnectionPacket dcp = (DirectConnectionPacket) wrappedPacket;
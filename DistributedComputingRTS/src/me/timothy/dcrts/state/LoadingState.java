@@ -1,12 +1,11 @@
 package me.timothy.dcrts.state;
 
 import java.io.File;
-import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.Arrays;
-import java.util.List;
 
 import me.timothy.dcrts.DCRTSEntry;
-import me.timothy.dcrts.ResourceManager;
+import me.timothy.dcrts.StartupLoader;
 import me.timothy.dcrts.net.module.ModuleHandler;
 import me.timothy.dcrts.utils.GUtils;
 
@@ -18,75 +17,52 @@ import org.newdawn.slick.state.StateBasedGame;
 import org.newdawn.slick.state.transition.FadeInTransition;
 import org.newdawn.slick.state.transition.FadeOutTransition;
 
+/**
+ * Loads the modules and resources with a {@link StartupLoader}, showing the
+ * progress. Only the textures are uploaded here on the render thread, a few
+ * milliseconds a frame, and how long loading took is logged once it is done.
+ * 
+ * @author Timothy
+ */
 public class LoadingState extends BasicGameState {
 	public static final int ID = 0;
 	
-	private File[] toLoad;
-	private List<String> resourcesToLoad;
+	/**
+	 * Roughly how long to spend uploading textures each frame
+	 */
+	public static final long UPLOAD_MILLIS_PER_FRAME = 8;
 	
-	private int index;
-	private int maxIndex;
-	private boolean modules;
+	private StartupLoader loader;
+	private boolean finished;
 	
 	@Override
 	public void init(GameContainer container, StateBasedGame game)
 			throws SlickException {
-		index = 0;
-		toLoad = new File(ModuleHandler.MODULE_FOLDER).listFiles();
-		maxIndex = toLoad.length;
+		File[] toLoad = new File(ModuleHandler.MODULE_FOLDER).listFiles();
 		System.out.println("Modules: "+  Arrays.deepToString(toLoad));
-		modules = true;
+		loader = new StartupLoader(toLoad);
+		loader.start();
 	}
 
 	@Override
 	public void render(GameContainer container, StateBasedGame game, Graphics g)
 			throws SlickException {
-		if(toLoad != null && toLoad.length > 0)
-			GUtils.drawCenteredX(g, "Loading... " + ((index / (double) maxIndex) * 100) + "%",
-					null, container.getHeight() / 2 - g.getFont().getLineHeight() / 2);
+		GUtils.drawCenteredX(g, "Loading... " + (loader.getProgress() * 100) + "%",
+				null, container.getHeight() / 2 - g.getFont().getLineHeight() / 2);
 	}
 
 	@Override
 	public void update(GameContainer container, StateBasedGame game, int delta)
 			throws SlickException {
-		if(modules) {
-			File f = toLoad[index];
-			index++;
-			if(!f.getName().endsWith(".jar")) {
-				return;
-			}
-
-			try {
-				ModuleHandler.loadModule(f.toURI().toURL());
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-
-			if(index == toLoad.length) {
-				System.out.println("Finished loading modules");
-				modules = false;
-				try {
-					resourcesToLoad = ResourceManager.getAllResourceFiles();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-				index = 0;
-				maxIndex = resourcesToLoad.size();
-				System.out.println("Loading resources...");
-			}
-		}else {
-			String str = resourcesToLoad.get(index);
-			index++;
-			try {
-				ResourceManager.loadResource(str);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			
-			if(index == maxIndex) {
-				System.out.println("Finished loading resources");
-				DCRTSEntry.instance.enterState(MainMenuState.ID, new FadeOutTransition(), new FadeInTransition());
-			}
+		if(finished)
+			return;
+		
+		loader.uploadDecoded(UPLOAD_MILLIS_PER_FRAME);
+		if(loader.isFinished()) {
+			finished = true;
+			System.out.println("Loaded " + loader.getModuleCount() + " modules and " + loader.getResourceCount() + " resources in " + 
+					loader.getElapsedMillis() + " ms (" + ManagementFactory.getRuntimeMXBean().getUptime() + " ms since startup)");
+			DCRTSEntry.instance.enterState(MainMenuState.ID, new FadeOutTransition(), new FadeInTransition());
 		}
 	}
 
@@ -9,17 +9,11 @@ import java.util.List;
 import javax.swing.JOptionPane;
 
 import me.timothy.dcrts.DCRTSEntry;
-import me.timothy.dcrts.net.PingingThread;
+import me.timothy.dcrts.net.RttStats;
 import me.timothy.dcrts.net.lobby.ConnectedLobby;
 import me.timothy.dcrts.net.lobby.HostedLobby;
 import me.timothy.dcrts.net.lobby.Lobby;
 import me.timothy.dcrts.net.lobby.LobbyPackets;
-import me.timothy.dcrts.net.packets.CountdownChangedPacket;
-import me.timothy.dcrts.packet.PacketHandler;
-import me.timothy.dcrts.packet.PacketHeader;
-import me.timothy.dcrts.packet.PacketListener;
-import me.timothy.dcrts.packet.PacketManager;
-import me.timothy.dcrts.packet.ParsedPacket;
 import me.timothy.dcrts.peer.Peer;
 import me.timothy.dcrts.utils.GUtils;
 
@@ -32,28 +26,22 @@ import org.newdawn.slick.state.StateBasedGame;
 import org.newdawn.slick.state.transition.FadeInTransition;
 import org.newdawn.slick.state.transition.FadeOutTransition;
 
-public class LobbyState extends BasicGameState implements PacketListener {
+public class LobbyState extends BasicGameState {
 	public static final int ID = 2;
 	
 	private Lobby lobby;
-	private long lastPing;
 	private long lastButtonPress;
-	private boolean pinging;
-	private int countdown;
-	private PingingThread pingingThread;
 	
 	public LobbyState() {
 	}
 	
 	private static Rectangle[] BUTTON_LOCS = new Rectangle[] {
 		new Rectangle(-55, -50, 1, 1),
-		new Rectangle(-50, -25, 1, 1),
 		new Rectangle(10, -25, 1, 1)
 	};
 	
 	private static String[] BUTTON_TEXT = new String[] {
 		"Ready",
-		"Ping",
 		"Return"
 	};
 	
@@ -63,7 +51,6 @@ public class LobbyState extends BasicGameState implements PacketListener {
 	public void init(GameContainer container, StateBasedGame game)
 			throws SlickException {
 		LobbyPackets.init();
-		PacketManager.instance.registerClass(this);
 		playerNameRects = new ArrayList<>();
 		playerNameRects = Collections.synchronizedList(playerNameRects);
 	}
@@ -73,17 +60,15 @@ public class LobbyState extends BasicGameState implements PacketListener {
 			throws SlickException {
 		if(lobby != null) {
 			GUtils.draw(g, "Number of Players: " + lobby.numPeers(), null, 5, 5);
-			if(!pinging)
-				GUtils.draw(g, "Ping: " + lastPing, null, 5, 20);
-			else
-				GUtils.draw(g, "Pinging...", null, 5, 20);
 		}
 		boolean foundNonReady = false;
 		if(lobby != null) {
 			foundNonReady = !lobby.isEveryoneReady();
 			if(!foundNonReady) {
 				lobby.beginCountdown();
-				GUtils.drawCenteredX(g, Integer.toString(countdown), null, 240 - g.getFont().getHeight(Integer.toString(countdown)));
+				int countdown = lobby.getCountdown();
+				if(countdown >= 0)
+					GUtils.drawCenteredX(g, Integer.toString(countdown), null, 240 - g.getFont().getHeight(Integer.toString(countdown)));
 			}
 
 		}
@@ -110,19 +95,21 @@ public class LobbyState extends BasicGameState implements PacketListener {
 				}
 
 				List<Peer> connected = lobby.getConnected();
-				synchronized(connected) {
-					for(int i = 0; i < connected.size(); i++) {
-						y += 30;
-						Peer p = connected.get(i);
-						String name = p != null ? p.getName() : "null";
-						if(playerNameRects.size() < i + 2)
-							playerNameRects.add(new Rectangle(1, 1));
-						GUtils.draw(g, name, playerNameRects.get(i + 1), x, y);
-						if(p.isReady()) {
-							g.drawString("R", (float) playerNameRects.get(i + 1).getMaxX() + 5, (float) y);
-						}
+				for(int i = 0; i < connected.size(); i++) {
+					y += 30;
+					Peer p = connected.get(i);
+					String name = p != null ? p.getName() : "null";
+					if(playerNameRects.size() < i + 2)
+						playerNameRects.add(new Rectangle(1, 1));
+					GUtils.draw(g, name, playerNameRects.get(i + 1), x, y);
+					if(p.isReady()) {
+						g.drawString("R", (float) playerNameRects.get(i + 1).getMaxX() + 5, (float) y);
+					}
+					RttStats rtt = lobby.getRttStats(p);
+					if(rtt != null && rtt.hasRtt()) {
+						g.drawString(String.format("%.0f ms (p99 %.0f)", rtt.getSmoothed() / 1e6, rtt.getP99() / 1e6),
+								(float) playerNameRects.get(i + 1).getMaxX() + 25, (float) y);
 					}
-
 				}
 			}
 		}
@@ -193,14 +180,6 @@ public class LobbyState extends BasicGameState implements PacketListener {
 			
 			DCRTSEntry.instance.enterState(MainMenuState.ID, new FadeOutTransition(), new FadeInTransition());
 			break;
-		case "Ping":
-			if(pinging || lobby instanceof HostedLobby)
-				return;
-			pinging = true;
-			pingingThread = new PingingThread(this, lobby);
-			PacketManager.instance.registerClass(pingingThread);
-			pingingThread.start();
-			break;
 		default:
 			System.err.println("Nothing configured for that button (" + text + ")");
 			break;
@@ -211,17 +190,4 @@ public class LobbyState extends BasicGameState implements PacketListener {
 		String newName = JOptionPane.showInputDialog("What would you like to change your name to?", lobby.getLocalPeer().getName());
 		lobby.changeName(newName);
 	}
-	
-	public void setPingTime(long time) {
-		lastPing = time;
-		pinging = false;
-		PacketManager.instance.unregisterClass(pingingThread);
-		pingingThread = null;
-	}
-	
-	@PacketHandler(header=PacketHeader.SYNC_COUNTDOWN, priority=3)
-	public void syncCountdown(Peer peer, ParsedPacket packet) {
-		CountdownChangedPacket scp = (CountdownChangedPacket) packet;
-		countdown = scp.getCountdown();
-	}
 }
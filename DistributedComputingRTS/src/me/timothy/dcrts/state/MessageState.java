@@ -56,6 +56,13 @@ public class MessageState extends BasicGameState {
 		prepare(message, timeSeconds, nextId, new FadeOutTransition(), new FadeInTransition());
 	}
 	
+	/**
+	 * @return the message being displayed
+	 */
+	public String getMessage() {
+		return message;
+	}
+	
 	@Override
 	public void init(GameContainer cont, StateBasedGame game)
 			throws SlickException {
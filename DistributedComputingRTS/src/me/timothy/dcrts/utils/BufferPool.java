@@ -0,0 +1,258 @@
+package me.timothy.dcrts.utils;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct byte buffers for outgoing packets. Buffers are grouped in
+ * power-of-two size classes, so a small packet like a ping only takes a small
+ * buffer. Direct buffers are written to sockets without being copied into
+ * native memory first, but are expensive to allocate, which is why they are
+ * reused.
+ *
+ * Every buffer from {@link #acquire(int)} should be given back with
+ * {@link #release(ByteBuffer)} once it has been sent. Sending a buffer through
+ * the NetReactor copies whatever could not be written immediately, so a buffer
+ * may be released as soon as the write call returns. A buffer must not be used
+ * after it has been released. Releasing a buffer that is already free is
+ * reported and ignored, so two acquirers never share a buffer.
+ *
+ * Buffers that are never released are not lost (they are garbage collected
+ * like any other object), but they defeat the pool. With leak detection on,
+ * every buffer that is garbage collected without being released is reported
+ * along with where it was acquired.
+ *
+ * @author Timothy
+ */
+public class BufferPool {
+	public static final BufferPool instance = new BufferPool();
+
+	/**
+	 * The smallest size class, in bytes
+	 */
+	public static final int MIN_SIZE = 64;
+
+	/**
+	 * The largest size class, in bytes. Larger requests are allocated and not pooled.
+	 */
+	public static final int MAX_SIZE = 64 * 1024;
+
+	/**
+	 * The most free buffers kept for each size class
+	 */
+	public static final int MAX_FREE_PER_CLASS = 256;
+
+	private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+
+	private SizeClass[] free;
+	private AtomicLong allocated;
+	private AtomicLong reused;
+
+	private volatile boolean leakDetection;
+	private ReferenceQueue<ByteBuffer> collected;
+	private LinkedList<LeakReference> outstanding;
+	private AtomicLong leaks;
+
+	/**
+	 * The free buffers of one size class. The set holds the same buffers by
+	 * identity (ByteBuffer#equals compares contents), to catch double releases
+	 */
+	private static class SizeClass {
+		final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+		final Set<ByteBuffer> members = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+	}
+
+	/**
+	 * Remembers where a buffer was acquired, in case it is never released
+	 */
+	private static class LeakReference extends WeakReference<ByteBuffer> {
+		final Throwable acquiredAt;
+
+		LeakReference(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue) {
+			super(buffer, queue);
+			acquiredAt = new Throwable("Buffer of " + buffer.capacity() + " bytes acquired here");
+		}
+	}
+
+	private BufferPool() {
+		int numClasses = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+		free = new SizeClass[numClasses];
+		for(int i = 0; i < numClasses; i++) {
+			free[i] = new SizeClass();
+		}
+		allocated = new AtomicLong();
+		reused = new AtomicLong();
+
+		collected = new ReferenceQueue<>();
+		outstanding = new LinkedList<>();
+		leaks = new AtomicLong();
+	}
+
+	/**
+	 * Returns a cleared buffer with room for at least size bytes. Its limit is size.
+	 *
+	 * @param size the number of bytes needed
+	 * @return the buffer
+	 */
+	public ByteBuffer acquire(int size) {
+		if(size < 0)
+			throw new IllegalArgumentException("Negative buffer size " + size);
+		if(size > MAX_SIZE) {
+			allocated.incrementAndGet();
+			return track(ByteBuffer.allocateDirect(size));
+		}
+
+		int sizeClass = sizeClassOf(size);
+		SizeClass sc = free[sizeClass];
+		ByteBuffer buffer;
+		synchronized(sc) {
+			buffer = sc.buffers.poll();
+			if(buffer != null)
+				sc.members.remove(buffer);
+		}
+		if(buffer != null) {
+			reused.incrementAndGet();
+		}else {
+			buffer = ByteBuffer.allocateDirect(MIN_SIZE << sizeClass);
+			allocated.incrementAndGet();
+		}
+		buffer.clear();
+		buffer.limit(size);
+		return track(buffer);
+	}
+
+	/**
+	 * Gives a buffer back to the pool. Buffers that did not come from the pool
+	 * are ignored, and so are buffers that are already free, which is reported.
+	 *
+	 * @param buffer the buffer, which must not be used afterwards
+	 */
+	public void release(ByteBuffer buffer) {
+		if(buffer == null)
+			return;
+		if(leakDetection && !untrack(buffer)) {
+			System.err.println("[BufferPool] A buffer was released twice, or was not acquired from the pool");
+			new Throwable("Released here").printStackTrace();
+			return;
+		}
+
+		int capacity = buffer.capacity();
+		if(!buffer.isDirect() || buffer.isReadOnly() || capacity > MAX_SIZE || capacity < MIN_SIZE
+				|| Integer.bitCount(capacity) != 1)
+			return;
+
+		SizeClass sc = free[sizeClassOf(capacity)];
+		synchronized(sc) {
+			if(sc.members.contains(buffer)) {
+				System.err.println("[BufferPool] A buffer was released twice");
+				new Throwable("Released here").printStackTrace();
+				return;
+			}
+			if(sc.buffers.size() >= MAX_FREE_PER_CLASS)
+				return;
+			sc.members.add(buffer);
+			sc.buffers.add(buffer);
+		}
+	}
+
+	/**
+	 * Turns leak detection on or off. Leak detection remembers a stack trace for every
+	 * buffer that is acquired, so it should only be used while debugging. It should be
+	 * turned on before any buffers are acquired, otherwise releasing buffers acquired
+	 * earlier is reported as a double release.
+	 *
+	 * @param on whether to detect leaks
+	 */
+	public void setLeakDetection(boolean on) {
+		leakDetection = on;
+		if(!on) {
+			synchronized(outstanding) {
+				outstanding.clear();
+			}
+		}
+	}
+
+	public boolean isLeakDetection() {
+		return leakDetection;
+	}
+
+	/**
+	 * Reports any buffers that have been garbage collected without being released
+	 * since the last check. This is also done on every acquire while leak detection is on.
+	 *
+	 * @return the total number of leaks detected so far
+	 */
+	public long checkLeaks() {
+		LeakReference ref;
+		while((ref = (LeakReference) collected.poll()) != null) {
+			boolean leaked;
+			synchronized(outstanding) {
+				leaked = outstanding.remove(ref);
+			}
+			if(leaked) {
+				leaks.incrementAndGet();
+				System.err.println("[BufferPool] A buffer was garbage collected without being released");
+				ref.acquiredAt.printStackTrace();
+			}
+		}
+		return leaks.get();
+	}
+
+	/**
+	 * @return the number of buffers that have been allocated, rather than reused
+	 */
+	public long getAllocatedCount() {
+		return allocated.get();
+	}
+
+	/**
+	 * @return the number of times a free buffer was reused
+	 */
+	public long getReusedCount() {
+		return reused.get();
+	}
+
+	private ByteBuffer track(ByteBuffer buffer) {
+		if(!leakDetection)
+			return buffer;
+
+		checkLeaks();
+		LeakReference ref = new LeakReference(buffer, collected);
+		synchronized(outstanding) {
+			outstanding.add(ref);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Stops tracking a buffer that was released
+	 * @param buffer the buffer
+	 * @return false if the buffer was not being tracked
+	 */
+	private boolean untrack(ByteBuffer buffer) {
+		synchronized(outstanding) {
+			Iterator<LeakReference> iter = outstanding.descendingIterator();
+			while(iter.hasNext()) {
+				if(iter.next().get() == buffer) {
+					iter.remove();
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static int sizeClassOf(int size) {
+		if(size <= MIN_SIZE)
+			return 0;
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+	}
+}
@@ -0,0 +1,49 @@
+package me.timothy.dcrts.utils;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the remaining bytes of a buffer, such as a memory-mapped file,
+ * without copying it first
+ *
+ * @author Timothy
+ */
+public class ByteBufferInputStream extends InputStream {
+	private ByteBuffer buffer;
+
+	/**
+	 * @param buffer the buffer, whose position is advanced as it is read
+	 */
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	@Override
+	public int read() {
+		return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if(len == 0)
+			return 0;
+		if(!buffer.hasRemaining())
+			return -1;
+		int n = Math.min(len, buffer.remaining());
+		buffer.get(b, off, n);
+		return n;
+	}
+
+	@Override
+	public long skip(long n) {
+		int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + skipped);
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+}
@@ -0,0 +1,151 @@
+package me.timothy.dcrts.utils;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from ints to objects. Unlike a HashMap&lt;Integer, V&gt; the keys
+ * are never boxed, so {@link #get(int)} does not allocate. Uses open addressing
+ * with linear probing, and is not thread safe.
+ *
+ * @author Timothy
+ * @param <V> the value type
+ */
+public class IntMap<V> {
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private int[] keys;
+	private Object[] values;
+	private int size;
+
+	public IntMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param expected the number of entries expected, so the map does not have to grow
+	 */
+	public IntMap(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(expected, 2) * 2 - 1) * 2;
+		keys = new int[capacity];
+		values = new Object[capacity];
+	}
+
+	/**
+	 * @param key the key
+	 * @return the value for the key, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int mask = keys.length - 1;
+		int slot = slotOf(key, mask);
+		Object value;
+		while((value = values[slot]) != null) {
+			if(keys[slot] == key)
+				return (V) value;
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * @param key the key
+	 * @param value the value, not null
+	 * @return the previous value for the key, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if(value == null)
+			throw new IllegalArgumentException("IntMap does not accept null values");
+
+		int mask = keys.length - 1;
+		int slot = slotOf(key, mask);
+		Object existing;
+		while((existing = values[slot]) != null) {
+			if(keys[slot] == key) {
+				values[slot] = value;
+				return (V) existing;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		if(++size * 2 > keys.length)
+			grow();
+		return null;
+	}
+
+	/**
+	 * @param key the key
+	 * @return the value that was removed, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int mask = keys.length - 1;
+		int slot = slotOf(key, mask);
+		Object existing;
+		while((existing = values[slot]) != null) {
+			if(keys[slot] == key) {
+				closeGap(slot);
+				size--;
+				return (V) existing;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	/**
+	 * Moves entries back into the slot that was emptied, so that no probe
+	 * sequence is broken by the gap
+	 */
+	private void closeGap(int gap) {
+		int mask = keys.length - 1;
+		int slot = (gap + 1) & mask;
+		while(values[slot] != null) {
+			int ideal = slotOf(keys[slot], mask);
+			// the entry can fill the gap if the gap lies between its ideal slot and where it is
+			if(((slot - ideal) & mask) >= ((slot - gap) & mask)) {
+				keys[gap] = keys[slot];
+				values[gap] = values[slot];
+				gap = slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		values[gap] = null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void grow() {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new int[oldKeys.length * 2];
+		values = new Object[oldValues.length * 2];
+		size = 0;
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldValues[i] != null)
+				put(oldKeys[i], (V) oldValues[i]);
+		}
+	}
+
+	private static int slotOf(int key, int mask) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
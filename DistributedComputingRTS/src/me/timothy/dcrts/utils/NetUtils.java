@@ -1,17 +1,22 @@
 package me.timothy.dcrts.utils;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
 
-import me.timothy.dcrts.net.NetModule;
 import me.timothy.dcrts.net.connect.ConnectingHandler;
 import me.timothy.dcrts.net.module.ModuleHandler;
+import me.timothy.dcrts.net.packets.ChangeModuleEncoder;
+import me.timothy.dcrts.packet.FrameBuffer;
+import me.timothy.dcrts.packet.HeaderRegistry;
 import me.timothy.dcrts.packet.PacketHeader;
 import me.timothy.dcrts.packet.PacketManager;
 import me.timothy.dcrts.peer.Peer;
@@ -21,112 +26,237 @@ public class NetUtils {
 	public static final int INIT_ID = 1337;
 	public static final int PORT = 25994;
 	private static final int DIRECT_PORT = PORT - 1;
+	
+	public static final String SHA1 = "SHA-1";
+	public static final String SHA256 = "SHA-256";
+	
+	/**
+	 * The size of the buffer files and streams are hashed through
+	 */
+	public static final int HASH_BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * Files at least this large are memory-mapped to be hashed
+	 */
+	public static final long MAP_THRESHOLD = 1024 * 1024;
+	
+	private static final long MAX_MAPPED_BYTES = 64 * 1024 * 1024;
 
 	/**
-	 * Reads a string from the specified buffer of lengthCh length
+	 * Reads a string written by {@link #putString(ByteBuffer, String)}
 	 * @param buffer the buffer to read from
-	 * @param lengthCh the length (in characters)
 	 * @return the string
+	 * @see StringCodec
 	 */
-	public static String readString(ByteBuffer buffer, int lengthCh) {
-		StringBuilder res = new StringBuilder();
-		for(int i = 0; i < lengthCh; i++) {
-			res.append(buffer.getChar());
-		}
-		return res.toString();
+	public static String readString(ByteBuffer buffer) {
+		return StringCodec.readString(buffer);
 	}
 
+	/**
+	 * Writes the length of the string followed by the string itself
+	 * @param buffer the buffer to write to
+	 * @param string the string
+	 * @see StringCodec
+	 */
 	public static void putString(ByteBuffer buffer, String string) {
-		for(int i = 0; i < string.length(); i++) {
-			buffer.putChar(string.charAt(i));
-		}
+		StringCodec.putString(buffer, string);
 	}
 
-	public static Peer getPeerByID(List<Peer> arr, int peerId) {
-		synchronized(arr) {
-			for(Peer peer : arr) {
-				if(peer.getID() == peerId)
-					return peer;
-			}
-		}
-		return null;
+	/**
+	 * Creates a buffer for a packet sent from the specified peer, with room for the
+	 * frame length, the id and the header. The length is filled in by
+	 * {@link PacketManager#send(PacketHeader, ByteBuffer, Object...)}. The buffer
+	 * comes from the {@link BufferPool} and should be released once it is sent.
+	 * @param id the id of the peer the packet is from
+	 * @param header the header of the packet
+	 * @return the buffer, positioned after the header
+	 */
+	public static ByteBuffer createBuffer(int id, PacketHeader header) {
+		ByteBuffer buffer = BufferPool.instance.acquire(FrameBuffer.LENGTH_BYTES + header.getMaxPacketSize());
+		buffer.putInt(0);
+		buffer.putInt(id);
+		buffer.putInt(header.getValue());
+		return buffer;
 	}
 
-	public static ByteBuffer createBuffer(int id, PacketHeader header) {
-		ByteBuffer buffer = ByteBuffer.allocate(header.getMaxPacketSize());
+	/**
+	 * Creates a buffer for a packet with a header registered by a module
+	 * @param id the id of the peer the packet is from
+	 * @param header the header of the packet
+	 * @return the buffer, positioned after the header
+	 * @see #createBuffer(int, PacketHeader)
+	 */
+	public static ByteBuffer createBuffer(int id, HeaderRegistry.Header header) {
+		ByteBuffer buffer = BufferPool.instance.acquire(FrameBuffer.LENGTH_BYTES + header.getMaxPacketSize());
+		buffer.putInt(0);
 		buffer.putInt(id);
 		buffer.putInt(header.getValue());
 		return buffer;
 	}
 
+	/**
+	 * Hashes a file with SHA1
+	 * @param fileForModule the file
+	 * @return the SHA1 hash
+	 * @throws IOException if an i/o exception occurs
+	 * @see #hash(File, String)
+	 */
 	public static byte[] sha1Hash(File fileForModule) throws IOException {
-	    MessageDigest md;
+		return hash(fileForModule, SHA1);
+	}
+	
+	/**
+	 * Hashes everything left in a stream with SHA1. The stream is not closed.
+	 * @param in the stream
+	 * @return the SHA1 hash
+	 * @throws IOException if an i/o exception occurs
+	 */
+	public static byte[] sha1Hash(InputStream in) throws IOException {
+		return hash(in, SHA1);
+	}
+	
+	/**
+	 * Hashes a file. Files of at least {@link #MAP_THRESHOLD} bytes are memory-mapped
+	 * and the rest are read with a single large buffer.
+	 * @param file the file
+	 * @param algorithm the digest, such as {@link #SHA1} or {@link #SHA256}
+	 * @return the hash
+	 * @throws IOException if an i/o exception occurs
+	 */
+	public static byte[] hash(File file, String algorithm) throws IOException {
+		MessageDigest md = getDigest(algorithm);
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(size >= MAP_THRESHOLD) {
+				for(long pos = 0; pos < size; pos += MAX_MAPPED_BYTES) {
+					md.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAX_MAPPED_BYTES, size - pos)));
+				}
+			}else {
+				ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+				while(channel.read(buffer) != -1) {
+					buffer.flip();
+					md.update(buffer);
+					buffer.clear();
+				}
+			}
+		}
+		return md.digest();
+	}
+	
+	/**
+	 * Hashes everything left in a stream. The stream is not closed.
+	 * @param in the stream
+	 * @param algorithm the digest, such as {@link #SHA1} or {@link #SHA256}
+	 * @return the hash
+	 * @throws IOException if an i/o exception occurs
+	 */
+	public static byte[] hash(InputStream in, String algorithm) throws IOException {
+		MessageDigest md = getDigest(algorithm);
+		byte[] dataBytes = new byte[HASH_BUFFER_SIZE];
+		int nread;
+		while((nread = in.read(dataBytes)) != -1) {
+			md.update(dataBytes, 0, nread);
+		}
+		return md.digest();
+	}
+	
+	/**
+	 * Works out which digest made a hash from its length, so a peer can check a
+	 * hash without being told how it was made
+	 * @param hashLength the length of the hash in bytes
+	 * @return {@link #SHA1} or {@link #SHA256}, or null if neither makes hashes that long
+	 */
+	public static String getHashAlgorithm(int hashLength) {
+		switch(hashLength) {
+		case 20:
+			return SHA1;
+		case 32:
+			return SHA256;
+		default:
+			return null;
+		}
+	}
+	
+	private static MessageDigest getDigest(String algorithm) {
 		try {
-			md = MessageDigest.getInstance("SHA1");
+			return MessageDigest.getInstance(algorithm);
 		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException("MessageDigest does not know of SHA1!");
+			throw new RuntimeException("MessageDigest does not know of " + algorithm + "!");
 		}
-	    FileInputStream fis = new FileInputStream(fileForModule);
-	    byte[] dataBytes = new byte[1024];
-	 
-	    int nread = 0; 
-	 
-	    while ((nread = fis.read(dataBytes)) != -1) {
-	      md.update(dataBytes, 0, nread);
-	    };
-	 
-	    fis.close();
-		return md.digest();
 	}
 	
+	/**
+	 * Checks if two socket addresses are on the same machine. Compares the addresses
+	 * rather than host names, which would mean a reverse lookup for each.
+	 * @param addr1 the first address
+	 * @param addr2 the second address
+	 * @return if they are on the same machine, counting every loopback address as the same
+	 */
 	public static boolean addressMatches(InetSocketAddress addr1, InetSocketAddress addr2) {
-		String hName1 = addr1.getHostName();
-		String hName2 = addr2.getHostName();
-		if(hName1.equals("127.0.0.1"))
-			hName1 = "localhost";
-		if(hName2.equals("127.0.0.1"))
-			hName2 = "localhost";
-		
-		return hName1.equals(hName2);
+		InetAddress inet1 = addr1.getAddress();
+		InetAddress inet2 = addr2.getAddress();
+		if(inet1 == null || inet2 == null)
+			return addr1.getHostString().equals(addr2.getHostString()); // unresolved
+		if(inet1.isLoopbackAddress() && inet2.isLoopbackAddress())
+			return true;
+		return inet1.equals(inet2);
 	}
 	
 	public static int getDirectPort(int peerId) {
 		return (DIRECT_PORT - 1) - (peerId - INIT_ID);
 	}
 
+	/**
+	 * Creates a buffer for a packet without a peer id, such as those sent on
+	 * direct connections.
+	 * @param header the header of the packet
+	 * @return the buffer, positioned after the header
+	 * @see #createBuffer(int, PacketHeader)
+	 */
 	public static ByteBuffer createBufferNoID(PacketHeader header) {
-		ByteBuffer buffer = ByteBuffer.allocate(header.getMaxPacketSize());
+		ByteBuffer buffer = BufferPool.instance.acquire(FrameBuffer.LENGTH_BYTES + header.getMaxPacketSize());
+		buffer.putInt(0);
 		buffer.putInt(header.getValue());
 		
 		return buffer;
 	}
 
+	/**
+	 * Changes the net module of a peer, telling everyone else to do the same
+	 * @param cHandler the connecting handler
+	 * @param peer the peer whose module is changing
+	 * @param moduleName the name of the net module to change to
+	 */
 	public static void changeModule(ConnectingHandler cHandler, Peer peer, String moduleName) {
 		ByteBuffer buffer = NetUtils.createBuffer(cHandler.getGameState().getLocalPeer().getID(), PacketHeader.CHANGE_MODULE);
 		try {
-			PacketManager.instance.send(PacketHeader.CHANGE_MODULE, buffer, peer, true, "BroadcastModule");
+			ChangeModuleEncoder.INSTANCE.write(buffer, peer, true, moduleName, null);
 			buffer.flip();
 			cHandler.getNetState().getLocalNetModule().sendData(buffer);
 			
-			
-			NetModule netModule = ModuleHandler.getBroadcastModule();
 			if(peer.equals(cHandler.getNetState().getLocalPeer())) {
-				netModule.setResources(PacketManager.instance, cHandler.getNetState(), cHandler.getGameState());
+				cHandler.getNetState().setLocalNetModule(moduleName, PacketManager.instance, cHandler.getGameState());
+			}else {
+				cHandler.getNetState().setNetModuleOf(peer, ModuleHandler.getNetModuleType(moduleName));
 			}
-			cHandler.getNetState().setNetModuleOf(peer, netModule);
 		} catch (IOException e) {
 			e.printStackTrace();
+		} finally {
+			BufferPool.instance.release(buffer);
 		}
 	}
 	
+	/**
+	 * Removes the metadata that net modules use to find their neighbours
+	 * @param peers the peers
+	 */
 	public static void clearNetMeta(List<Peer> peers) {
-		synchronized(peers) {
-			for(Peer p : peers) {
-				p.metaData.put("directlyConnected", null);
-				p.metaData.put("parentNode", null);
-				p.metaData.put("abovePeer", null);
-				p.metaData.put("belowPeer", null);
-			}
+		for(Peer p : peers) {
+			p.metaData.remove("directlyConnected");
+			p.metaData.remove("parentNode");
+			p.metaData.remove("parent");
+			p.metaData.remove("abovePeer");
+			p.metaData.remove("belowPeer");
 		}
 	}
 }
@@ -0,0 +1,262 @@
+package me.timothy.dcrts.utils;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes and reads strings in packets. A string is written as its length in
+ * bytes, as a varint, followed by the string in UTF-8. EG "Host" is 5 bytes:
+ * <pre>
+ * [4] [H] [o] [s] [t]
+ * </pre>
+ *
+ * Short strings that are read often, such as peer and module names, are
+ * interned: reading the same bytes again returns the same String instance
+ * without decoding or allocating anything.
+ *
+ * @author Timothy
+ */
+public class StringCodec {
+	/**
+	 * Strings of up to this many bytes are interned when read
+	 */
+	public static final int MAX_INTERNED_BYTES = 32;
+
+	/**
+	 * Number of slots in the intern cache, must be a power of two
+	 */
+	private static final int INTERN_SLOTS = 512;
+
+	/**
+	 * An interned string and its encoding. Immutable, so slots can be
+	 * replaced by any thread without locking.
+	 */
+	private static class Interned {
+		final byte[] bytes;
+		final String value;
+
+		Interned(byte[] bytes, String value) {
+			this.bytes = bytes;
+			this.value = value;
+		}
+	}
+
+	private static final Interned[] interned = new Interned[INTERN_SLOTS];
+
+	private static final char REPLACEMENT = '\uFFFD';
+
+	/**
+	 * Writes an unsigned varint, 7 bits per byte with the high bit set on
+	 * every byte except the last
+	 * @param buffer the buffer
+	 * @param value the value, treated as unsigned
+	 */
+	public static void putVarInt(ByteBuffer buffer, int value) {
+		while((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Reads an unsigned varint written by {@link #putVarInt(ByteBuffer, int)}
+	 * @param buffer the buffer
+	 * @return the value
+	 * @throws IllegalArgumentException if the varint is longer than 5 bytes
+	 */
+	public static int getVarInt(ByteBuffer buffer) {
+		int result = 0;
+		for(int shift = 0; shift < 35; shift += 7) {
+			byte b = buffer.get();
+			result |= (b & 0x7F) << shift;
+			if(b >= 0)
+				return result;
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	/**
+	 * @param value the value
+	 * @return the number of bytes the value takes as a varint
+	 */
+	public static int varIntSize(int value) {
+		int size = 1;
+		while((value & ~0x7F) != 0) {
+			size++;
+			value >>>= 7;
+		}
+		return size;
+	}
+
+	/**
+	 * @param string the string
+	 * @return the number of bytes in the UTF-8 encoding of the string
+	 */
+	public static int utf8Length(String string) {
+		int len = string.length();
+		int bytes = len;
+		for(int i = 0; i < len; i++) {
+			char c = string.charAt(i);
+			if(c >= 0x80) {
+				if(c < 0x800) {
+					bytes++;
+				}else if(Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(string.charAt(i + 1))) {
+					bytes += 2; // 4 bytes for 2 chars
+					i++;
+				}else if(!Character.isSurrogate(c)) {
+					bytes += 2; // unpaired surrogates are written as '?', 1 byte
+				}
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * @param string the string
+	 * @return the number of bytes {@link #putString(ByteBuffer, String)} writes for the string
+	 */
+	public static int encodedSize(String string) {
+		int len = utf8Length(string);
+		return varIntSize(len) + len;
+	}
+
+	/**
+	 * Writes the length of the string and the string in UTF-8
+	 * @param buffer the buffer
+	 * @param string the string
+	 */
+	public static void putString(ByteBuffer buffer, String string) {
+		putVarInt(buffer, utf8Length(string));
+
+		int len = string.length();
+		for(int i = 0; i < len; i++) {
+			char c = string.charAt(i);
+			if(c < 0x80) {
+				buffer.put((byte) c);
+			}else if(c < 0x800) {
+				buffer.put((byte) (0xC0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}else if(Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(string.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, string.charAt(++i));
+				buffer.put((byte) (0xF0 | (cp >> 18)));
+				buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+				buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (cp & 0x3F)));
+			}else if(Character.isSurrogate(c)) {
+				buffer.put((byte) '?'); // unpaired surrogate, not valid in UTF-8
+			}else {
+				buffer.put((byte) (0xE0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	/**
+	 * Reads a string written by {@link #putString(ByteBuffer, String)}
+	 * @param buffer the buffer
+	 * @return the string
+	 * @throws BufferUnderflowException if the string is longer than the rest of the buffer
+	 */
+	public static String readString(ByteBuffer buffer) {
+		int numBytes = getVarInt(buffer);
+		if(numBytes < 0 || numBytes > buffer.remaining())
+			throw new BufferUnderflowException();
+
+		int start = buffer.position();
+		if(numBytes <= MAX_INTERNED_BYTES) {
+			int slot = hash(buffer, start, numBytes) & (INTERN_SLOTS - 1);
+			Interned cached = interned[slot];
+			if(cached != null && cached.bytes.length == numBytes && matches(cached.bytes, buffer, start)) {
+				buffer.position(start + numBytes);
+				return cached.value;
+			}
+
+			String value = decode(buffer, numBytes);
+			byte[] bytes = new byte[numBytes];
+			for(int i = 0; i < numBytes; i++) {
+				bytes[i] = buffer.get(start + i);
+			}
+			interned[slot] = new Interned(bytes, value);
+			return value;
+		}
+		return decode(buffer, numBytes);
+	}
+
+	/**
+	 * Decodes numBytes of UTF-8 starting at the buffers position. Malformed
+	 * sequences, including overlong encodings and encoded surrogates, are
+	 * replaced with U+FFFD.
+	 */
+	private static String decode(ByteBuffer buffer, int numBytes) {
+		char[] chars = new char[numBytes];
+		int numChars = 0;
+		int end = buffer.position() + numBytes;
+		while(buffer.position() < end) {
+			int b = buffer.get() & 0xFF;
+			if(b < 0x80) {
+				chars[numChars++] = (char) b;
+				continue;
+			}
+
+			int extra, cp, min;
+			if((b & 0xE0) == 0xC0) {
+				extra = 1;
+				cp = b & 0x1F;
+				min = 0x80;
+			}else if((b & 0xF0) == 0xE0) {
+				extra = 2;
+				cp = b & 0x0F;
+				min = 0x800;
+			}else if((b & 0xF8) == 0xF0) {
+				extra = 3;
+				cp = b & 0x07;
+				min = Character.MIN_SUPPLEMENTARY_CODE_POINT;
+			}else {
+				chars[numChars++] = REPLACEMENT;
+				continue;
+			}
+
+			if(buffer.position() + extra > end) {
+				buffer.position(end);
+				chars[numChars++] = REPLACEMENT;
+				break;
+			}
+			boolean valid = true;
+			for(int i = 0; i < extra; i++) {
+				int cont = buffer.get() & 0xFF;
+				if((cont & 0xC0) != 0x80)
+					valid = false;
+				cp = (cp << 6) | (cont & 0x3F);
+			}
+
+			if(!valid || cp < min || cp > Character.MAX_CODE_POINT
+					|| (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)) {
+				chars[numChars++] = REPLACEMENT;
+			}else if(cp >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+				chars[numChars++] = Character.highSurrogate(cp);
+				chars[numChars++] = Character.lowSurrogate(cp);
+			}else {
+				chars[numChars++] = (char) cp;
+			}
+		}
+		return new String(chars, 0, numChars);
+	}
+
+	private static int hash(ByteBuffer buffer, int start, int numBytes) {
+		int h = numBytes;
+		for(int i = 0; i < numBytes; i++) {
+			h = 31 * h + buffer.get(start + i);
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean matches(byte[] bytes, ByteBuffer buffer, int start) {
+		for(int i = 0; i < bytes.length; i++) {
+			if(bytes[i] != buffer.get(start + i))
+				return false;
+		}
+		return true;
+	}
+}
@@ -1,8 +1,6 @@
 package me.timothy.modules.empty;
 
-import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
 
 import me.timothy.dcrts.net.LogicModule;
 import me.timothy.dcrts.net.module.ModuleHandler;
@@ -13,7 +11,6 @@ import me.timothy.dcrts.packet.PacketListener;
 import me.timothy.dcrts.packet.ParsedPacket;
 import me.timothy.dcrts.peer.Peer;
 import me.timothy.dcrts.utils.ErrorUtils;
-import me.timothy.dcrts.utils.NetUtils;
 
 public class EmptyModule extends LogicModule implements PacketListener {
 
@@ -37,20 +34,19 @@ public class EmptyModule extends LogicModule implements PacketListener {
 		int peerId = cmp.getPeer();
 		Peer affectedPeer = cmp.getPeer() == gameState.getLocalPeer().getID() ?
 										 gameState.getLocalPeer() :
-										 NetUtils.getPeerByID(gameState.getConnectedPeers(), peerId);
+										 gameState.getPeerByID(peerId);
 		
-		File moduleLocation = ModuleHandler.getFileForModule(cmp.getModule());
-		byte[] sha1Hash;
+		boolean verified;
 		try {
-			sha1Hash = NetUtils.sha1Hash(moduleLocation);
+			verified = ModuleHandler.verifyModule(cmp.getModule(), cmp.getExpectedHash());
 		} catch (IOException e) {
-			System.err.println("Failed to parse sha1 hash of " + moduleLocation);
+			System.err.println("Failed to hash " + ModuleHandler.getFileForModule(cmp.getModule()));
 			e.printStackTrace();
 			return;
 		}
 		
-		if(!Arrays.equals(sha1Hash, cmp.getExpectedSHA1Hash())) {
-			System.err.println("SHA1 Hash of the requested module does NOT match the SHA1 hash of the module to change to!");
+		if(!verified) {
+			System.err.println("The hash of the requested module does NOT match the hash of the module to change to!");
 			System.err.println("To prevent a security breach, shutting down");
 			// TODO instead of shutting down, display a message & sync
 			System.exit(1);
@@ -59,9 +55,20 @@ public class EmptyModule extends LogicModule implements PacketListener {
 			ErrorUtils.nullPointer(new String[] { "affectedPeer", "cmp" }, affectedPeer, cmp);
 		System.out.println("Changing 1 module of " + affectedPeer.getName() + " (" + affectedPeer.getID() + ") to " + cmp.getModule());
 		if(cmp.isNetModule()) {
-			netState.setNetModuleOf(affectedPeer, ModuleHandler.getNetModuleByName(cmp.getModule()));
+			if(affectedPeer == gameState.getLocalPeer()) {
+				netState.setLocalNetModule(cmp.getModule(), pManager, gameState);
+			}else {
+				netState.setNetModuleOf(affectedPeer, ModuleHandler.getNetModuleType(cmp.getModule()));
+			}
 		}else {
-			netState.setLogicTypeOf(affectedPeer, ModuleHandler.getLogicModuleByName(cmp.getModule()));
+			LogicModule logicModule;
+			if(affectedPeer == gameState.getLocalPeer()) {
+				logicModule = ModuleHandler.getLogicModuleByName(cmp.getModule());
+				logicModule.setResources(pManager, netState, gameState);
+			}else {
+				logicModule = ModuleHandler.getLogicModuleType(cmp.getModule());
+			}
+			netState.setLogicTypeOf(affectedPeer, logicModule);
 		}
 	}
 }
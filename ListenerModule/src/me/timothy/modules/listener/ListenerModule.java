@@ -6,6 +6,7 @@ import java.nio.channels.SocketChannel;
 import java.util.List;
 
 import me.timothy.dcrts.net.NetModule;
+import me.timothy.dcrts.net.NetReactor;
 import me.timothy.dcrts.net.packets.ChangeModulePacket;
 import me.timothy.dcrts.packet.PacketHandler;
 import me.timothy.dcrts.packet.PacketHeader;
@@ -16,13 +17,14 @@ import me.timothy.dcrts.utils.ErrorUtils;
 /**
  * Very basic listening module, or effectively an end-node module. This
  * node should have one seriously connected peer, and should never have 
- * to send information outside of that peer.
+ * to send information outside of that peer. That peer is the one with
+ * the 'abovePeer' metadata if the peer is in a relay tree, and otherwise
+ * the broadcaster.
  * 
  * @author Timothy
  */
 public class ListenerModule extends NetModule {
-	private Peer reallyConnected;
-	private ReadThread readThread;
+	private volatile Peer reallyConnected;
 	
 	@Override
 	public void onActivate() {
@@ -32,9 +34,8 @@ public class ListenerModule extends NetModule {
 					gameState, (gameState != null ? gameState.getConnectedPeers() : null));
 		}
 		
-		reallyConnected = netState.getPeersWithNetModule("BroadcastModule").get(0);
-		readThread = new ReadThread(this, netState.getSocketChannelOf(reallyConnected));
-		readThread.start();
+		reallyConnected = findReallyConnected();
+		startReading(reallyConnected);
 		pManager.registerClass(this);
 
 		System.out.println("ListenerModule Activated");
@@ -43,17 +44,56 @@ public class ListenerModule extends NetModule {
 	@Override
 	public void onDeactivate() {
 		super.onDeactivate();
-		readThread.stopGracefully();
 
 		pManager.unregisterClass(this);
 		System.out.println("ListenerModule Deactivated");
 	}
+	
+	@Override
+	public void suspend() {
+		super.suspend();
+		
+		pManager.unregisterClass(this);
+		reallyConnected = null;
+	}
+	
+	/**
+	 * Reads from the peer above again, which {@link #onTopologyChanged()} finds
+	 */
+	@Override
+	public void resume() {
+		super.resume();
+		
+		pManager.registerClass(this);
+	}
 
 	@Override
 	public void sendData(ByteBuffer buffer, Peer... except) throws IOException {
 		SocketChannel sc = netState.getSocketChannelOf(reallyConnected);
 
-		sc.write(buffer);
+		NetReactor.instance.write(sc, buffer);
+	}
+
+	/**
+	 * Switches to the peer above if the relay tree moved this peer
+	 */
+	@Override
+	public void onTopologyChanged() {
+		Peer peer = findReallyConnected();
+		if(peer == reallyConnected)
+			return;
+		if(reallyConnected != null)
+			stopReading(reallyConnected);
+		reallyConnected = peer;
+		startReading(peer);
+	}
+	
+	private Peer findReallyConnected() {
+		for(Peer p : gameState.getConnectedPeers()) {
+			if(p.metaData.containsKey("abovePeer"))
+				return p;
+		}
+		return netState.getPeersWithNetModule("BroadcastModule").get(0);
 	}
 
 	@PacketHandler(header=PacketHeader.CHANGE_MODULE, priority=10)
@@ -63,12 +103,16 @@ public class ListenerModule extends NetModule {
 			
 			// oh man oh man oh man
 			ChangeModulePacket cmp = (ChangeModulePacket) packet;
+			if(cmp.getParent() != ChangeModulePacket.NO_PARENT)
+				return; // moved within the relay tree, see onTopologyChanged
 			if(cmp.isNetModule() && !cmp.getModule().equals("BroadcastModule")) {
 				List<Peer> broadcasters = netState.getPeersWithNetModule("BroadcastModule");
 				if(broadcasters.size() == 0) {
 					throw new IllegalArgumentException("No broadcasters to really be connected to!");
 				}
+				stopReading(reallyConnected);
 				reallyConnected = broadcasters.get(0);
+				startReading(reallyConnected);
 				System.out.println("Changing really connected peer!");
 			}
 	}
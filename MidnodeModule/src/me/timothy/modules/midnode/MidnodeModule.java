@@ -2,10 +2,13 @@ package me.timothy.modules.midnode;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.List;
 
 import me.timothy.dcrts.net.NetModule;
+import me.timothy.dcrts.net.NetReactor;
+import me.timothy.dcrts.packet.FrameBuffer;
 import me.timothy.dcrts.peer.Peer;
 
 /**
@@ -42,23 +45,161 @@ import me.timothy.dcrts.peer.Peer;
  * below this peer, or directly above this peer, that is 
  * specified above
  * 
+ * Every frame that is read is relayed to the peer above and the directly connected
+ * peers below, except the one it came from, and then handled locally. Peers that
+ * are not directly connected get it from the directly connected peer their
+ * 'parent' chain leads to, so each peer only writes to its own neighbours.
+ * 
  * @author Timothy
  */
 public class MidnodeModule extends NetModule {
 
+	private volatile Peer above;
+	private volatile Peer[] children = new Peer[0];
+	
 	public MidnodeModule() {}
 
 	@Override
 	public void onActivate() {
 		super.onActivate();
 
+		findNeighbours();
+		System.out.println("MidnodeModule activated! (" + children.length + " below" + (above != null ? ", 1 above)" : ")"));
+	}
+	
+	/**
+	 * Finds the neighbours again from the metadata
+	 */
+	@Override
+	public void onTopologyChanged() {
+		findNeighbours();
+	}
+	
+	/**
+	 * Reads the peer above and the directly connected peers below from the
+	 * metadata, and reads from exactly them
+	 */
+	private void findNeighbours() {
 		verifyMetadata();
+		
+		List<Peer> neighbours = new ArrayList<>();
+		Peer newAbove = null;
+		for(Peer p : gameState.getConnectedPeers()) {
+			if(p.metaData.containsKey("abovePeer"))
+				newAbove = p;
+			else if(p.metaData.containsKey("belowPeer") && p.metaData.containsKey("directlyConnected"))
+				neighbours.add(p);
+		}
+		children = neighbours.toArray(new Peer[neighbours.size()]);
+		above = newAbove;
+		
+		if(newAbove != null)
+			neighbours.add(newAbove);
+		setReading(neighbours);
+	}
+	
+	@Override
+	public void onDeactivate() {
+		super.onDeactivate();
+		System.out.println("MidnodeModule deactivated!");
+	}
+	
+	/**
+	 * Relays every frame to the other neighbours and then handles it locally. Like
+	 * the broadcast module, the frames are relayed as read-only views of the receive
+	 * buffer.
+	 */
+	@Override
+	public void handleRead(ByteBuffer buffer, Peer from) {
+		while(buffer.hasRemaining()) {
+			int frameStart = buffer.position();
+			int frameEnd = frameStart + FrameBuffer.LENGTH_BYTES + buffer.getInt(frameStart);
+			
+			ByteBuffer frame = buffer.duplicate();
+			frame.limit(frameEnd);
+			frame = frame.slice().asReadOnlyBuffer();
+			try {
+				sendData(frame, from);
+			} catch (IOException e) {
+				e.printStackTrace(); // still handled locally
+			}
+			
+			dispatchFrame(frame);
+			buffer.position(frameEnd);
+		}
 	}
 
-
+	/**
+	 * Sends the buffer to the peer above and every directly connected peer below, which
+	 * relay it on. A peer in except that is not a neighbour excludes the neighbour that
+	 * leads to it. The buffers position is not changed, and it may be reused as soon as
+	 * this returns. A neighbour whose connection fails or overflows is closed by the
+	 * reactor and skipped, so the others still get the buffer.
+	 */
 	@Override
 	public void sendData(ByteBuffer buffer, Peer... except) throws IOException {
-
+		Peer[] skip = except;
+		for(int i = 0; i < except.length; i++) {
+			Peer hop = getNextHop(except[i]);
+			if(hop != except[i]) {
+				if(skip == except)
+					skip = except.clone();
+				skip[i] = hop;
+			}
+		}
+		
+		Peer above = this.above;
+		if(above != null && !contains(skip, above))
+			write(above, buffer);
+		for(Peer child : children) {
+			if(!contains(skip, child))
+				write(child, buffer);
+		}
+	}
+	
+	/**
+	 * Finds the neighbour that packets to the specified peer go through. Peers below
+	 * that are not directly connected are reached by following their 'parent' chain up
+	 * to a directly connected peer, and everyone else is reached through the peer above.
+	 * 
+	 * @param peer the peer
+	 * @return the neighbour, or null if there is no way to the peer
+	 */
+	public Peer getNextHop(Peer peer) {
+		if(peer == null)
+			return null;
+		if(!peer.metaData.containsKey("belowPeer"))
+			return peer == above || peer.metaData.containsKey("abovePeer") ? peer : above;
+		
+		Peer hop = peer;
+		while(!hop.metaData.containsKey("directlyConnected")) {
+			hop = (Peer) hop.metaData.get("parent");
+			if(hop == null)
+				return null;
+		}
+		return hop;
+	}
+	
+	private void write(Peer peer, ByteBuffer buffer) {
+		SocketChannel sc = netState.getSocketChannelOf(peer);
+		if(sc == null) {
+			System.err.println("No socket channel detected for supposedly directly connected peer '" + peer.getName() + "' (" + peer.getID() + ")");
+			return;
+		}
+		try {
+			NetReactor.instance.write(sc, buffer.duplicate());
+		} catch (IOException e) {
+			// the reactor closes the connection; the others still get the frame
+			System.err.println("[MidnodeModule] Could not send to " + peer.getName() + " (" + e.getMessage() + ")");
+		}
+	}
+	
+	private static boolean contains(Peer[] peers, Peer peer) {
+		for(Peer p : peers) {
+			if(p == peer)
+				return true;
+		}
+		return false;
 	}
 
 	/**
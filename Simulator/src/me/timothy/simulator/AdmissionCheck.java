@@ -0,0 +1,225 @@
+package me.timothy.simulator;
+
+import java.util.Collections;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.timothy.dcrts.net.LogicModule;
+import me.timothy.dcrts.net.NetState;
+import me.timothy.dcrts.net.admission.AdmissionController;
+import me.timothy.dcrts.net.admission.FixedLoadMetrics;
+import me.timothy.dcrts.peer.OtherPeer;
+import me.timothy.dcrts.peer.Peer;
+import me.timothy.dcrts.utils.NetUtils;
+
+/**
+ * Checks the admission policy against load that is set rather than measured,
+ * so it can be run anywhere, Sigar or not. Prints each check that fails and
+ * exits with 1 if any did.
+ *
+ * <pre>
+ * java me.timothy.simulator.AdmissionCheck
+ * </pre>
+ *
+ * @author Timothy
+ */
+public class AdmissionCheck {
+	private static final double EPSILON = 1e-9;
+	private static final int CONCURRENT_ROUTERS = 16;
+	private static final int CONCURRENT_ROUNDS = 500;
+
+	private int failed;
+	private int checked;
+
+	private final Peer local = new OtherPeer("Local", NetUtils.INIT_ID + 1);
+	private final Peer busy = new OtherPeer("Busy", NetUtils.INIT_ID + 2);
+	private final Peer idle = new OtherPeer("Idle", NetUtils.INIT_ID + 3);
+
+	public static void main(String[] args) throws Exception {
+		AdmissionCheck check = new AdmissionCheck();
+		check.checkIdle();
+		check.checkUnknownCpu();
+		check.checkCpuLimit();
+		check.checkConcurrentRoutes();
+		check.checkQueueWait();
+		check.checkSmoothing();
+		check.checkLogicModule();
+		System.out.println(check.checked - check.failed + "/" + check.checked + " checks passed");
+		System.exit(check.failed == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Under the limits work stays here, whatever the others report
+	 */
+	private void checkIdle() {
+		AdmissionController ac = new AdmissionController(new FixedLoadMetrics(0.45));
+		ac.onReport(idle, 1, 0);
+		check(!ac.isOverloaded(), "idle: not overloaded");
+		check(near(ac.getCapacity(), 0.5), "idle: capacity is the cpu headroom, got " + ac.getCapacity());
+		check(ac.route(local) == local, "idle: work stays here");
+	}
+
+	/**
+	 * Without a cpu reading only the wait counts
+	 */
+	private void checkUnknownCpu() {
+		AdmissionController ac = new AdmissionController(new FixedLoadMetrics(-1));
+		check(ac.getCpuLoad() < 0, "unknown cpu: load is unknown");
+		check(!ac.isOverloaded(), "unknown cpu: not overloaded");
+		check(near(ac.getCapacity(), 1), "unknown cpu: capacity is 1, got " + ac.getCapacity());
+	}
+
+	/**
+	 * Over the cpu limit work goes to the peer with the most capacity, if it has
+	 * enough more, and each piece routed there lowers what it is thought to have
+	 */
+	private void checkCpuLimit() {
+		AdmissionController ac = new AdmissionController(new FixedLoadMetrics(0.95));
+		check(ac.isOverloaded(), "cpu limit: overloaded");
+		check(near(ac.getCapacity(), 0), "cpu limit: no capacity, got " + ac.getCapacity());
+
+		ac.onReport(busy, AdmissionController.ROUTE_MARGIN / 2, 4);
+		check(ac.route(local) == local, "cpu limit: work stays here when no peer has the margin");
+
+		ac.onReport(idle, 0.6, 0);
+		check(ac.route(local) == idle, "cpu limit: work goes to the peer with the most capacity");
+		check(near(ac.getCapacityOf(idle), 0.6 - AdmissionController.ROUTED_COST),
+				"cpu limit: routing lowers the capacity of the peer, got " + ac.getCapacityOf(idle));
+		check(ac.getQueueDepthOf(busy) == 4, "cpu limit: the queue depth reported is kept");
+
+		ac.retain(Collections.singleton(busy));
+		check(ac.getCapacityOf(idle) < 0, "cpu limit: forgotten peers have no capacity");
+		check(ac.route(local) == local, "cpu limit: forgotten peers are not routed to");
+	}
+
+	/**
+	 * Routes picked at once each take their capacity off, so they are routed
+	 * the same as if they were picked one after the other. A lost update only
+	 * shows up now and then, so this is tried many times.
+	 */
+	private void checkConcurrentRoutes() throws InterruptedException {
+		AdmissionController sequential = new AdmissionController(new FixedLoadMetrics(0.95));
+		sequential.onReport(idle, 1, 0);
+		int expected = 0;
+		for(int i = 0; i < CONCURRENT_ROUTERS * 2; i++) {
+			if(sequential.route(local) == idle)
+				expected++;
+		}
+
+		int lost = 0;
+		for(int round = 0; round < CONCURRENT_ROUNDS; round++) {
+			final AdmissionController ac = new AdmissionController(new FixedLoadMetrics(0.95));
+			ac.onReport(idle, 1, 0);
+			final AtomicInteger routed = new AtomicInteger();
+			final CyclicBarrier start = new CyclicBarrier(CONCURRENT_ROUTERS);
+			Thread[] routers = new Thread[CONCURRENT_ROUTERS];
+			for(int i = 0; i < routers.length; i++) {
+				routers[i] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							start.await();
+						} catch (InterruptedException | BrokenBarrierException e) {
+							return;
+						}
+						for(int j = 0; j < 2; j++) {
+							if(ac.route(local) == idle)
+								routed.incrementAndGet();
+						}
+					}
+				});
+				routers[i].start();
+			}
+			for(Thread router : routers) {
+				router.join();
+			}
+			if(routed.get() != expected)
+				lost++;
+		}
+		check(lost == 0, "concurrent routes: " + expected + " routed to the idle peer every time, wrong in " + lost + " of " + CONCURRENT_ROUNDS);
+	}
+
+	/**
+	 * Work waits for the tasks queued ahead of it, each taking the smoothed service time
+	 */
+	private void checkQueueWait() {
+		AdmissionController ac = new AdmissionController(new FixedLoadMetrics(0));
+		ac.onTaskFinished(20000000L);
+		ac.onTaskQueued();
+		ac.onTaskQueued();
+		check(!ac.isOverloaded(), "queue wait: 2 tasks of 20ms are under the limit");
+		ac.onTaskQueued();
+		check(ac.isOverloaded(), "queue wait: 3 tasks of 20ms are over the limit");
+		check(near(ac.getCapacity(), 1 / (1 + 60000000.0 / AdmissionController.DEFAULT_MAX_WAIT_NS)),
+				"queue wait: capacity falls with the wait, got " + ac.getCapacity());
+
+		ac.onTaskFinished(40000000L);
+		double expected = (20000000L + (40000000L - 20000000L) * AdmissionController.SERVICE_TIME_GAIN) * 2;
+		check(near(ac.getExpectedWait(), expected), "queue wait: service time is smoothed, got " + ac.getExpectedWait());
+	}
+
+	/**
+	 * The cpu load is read at most once per interval and smoothed
+	 */
+	private void checkSmoothing() throws InterruptedException {
+		FixedLoadMetrics metrics = new FixedLoadMetrics(0.2);
+		AdmissionController ac = new AdmissionController(metrics);
+		check(near(ac.getCpuLoad(), 0.2), "smoothing: the first reading is taken as is");
+		metrics.setCpuLoad(1);
+		check(near(ac.getCpuLoad(), 0.2), "smoothing: the load is not read again within the interval");
+		Thread.sleep(AdmissionController.SAMPLE_INTERVAL_NS / 1000000 + 10);
+		double expected = 0.2 + (1 - 0.2) * AdmissionController.CPU_GAIN;
+		check(near(ac.getCpuLoad(), expected), "smoothing: a spike is smoothed, got " + ac.getCpuLoad());
+		check(!ac.isOverloaded(), "smoothing: one spike does not overload");
+	}
+
+	/**
+	 * The logic module passes its cpu limit on, and rejects limits out of range
+	 * without changing the one it has
+	 */
+	private void checkLogicModule() {
+		LogicModule module = new LogicModule() {
+			@Override
+			public void onActivate() {
+			}
+
+			@Override
+			public void onDeactivate() {
+			}
+		};
+		module.setMaxCPU(50);
+
+		NetState netState = new NetState();
+		netState.setAdmissionController(new AdmissionController(new FixedLoadMetrics(0.6)));
+		module.setResources(null, netState, null);
+		check(near(netState.getAdmissionController().getMaxCpu(), 0.5), "logic module: the limit is applied when resourced");
+		check(!module.acceptingPackets(), "logic module: not accepting packets over its limit");
+
+		for(int max : new int[] { 0, -5, 101 }) {
+			try {
+				module.setMaxCPU(max);
+				check(false, "logic module: a limit of " + max + " is rejected");
+			} catch (IllegalArgumentException e) {
+				check(module.getMaxCPU() == 50, "logic module: a rejected limit of " + max + " leaves the limit");
+			}
+		}
+		check(near(netState.getAdmissionController().getMaxCpu(), 0.5), "logic module: a rejected limit is not applied");
+
+		module.setMaxCPU(80);
+		check(near(netState.getAdmissionController().getMaxCpu(), 0.8), "logic module: a new limit is applied");
+		check(module.acceptingPackets(), "logic module: accepting packets under its limit");
+	}
+
+	private void check(boolean ok, String what) {
+		checked++;
+		if(!ok) {
+			failed++;
+			System.out.println("FAILED " + what);
+		}
+	}
+
+	private static boolean near(double a, double b) {
+		return Math.abs(a - b) < EPSILON;
+	}
+}
@@ -0,0 +1,91 @@
+package me.timothy.simulator;
+
+import java.util.Arrays;
+
+/**
+ * The probes sent and delivered during a run. Every delivery's latency is
+ * kept, so percentiles are exact.
+ *
+ * @author Timothy
+ */
+public class DeliveryStats {
+	private long sent;
+	private long expected;
+	private long[] latencies = new long[4096];
+	private int delivered;
+	private long firstSent;
+	private long lastDelivered;
+	private boolean sorted;
+
+	/**
+	 * Records a probe being sent
+	 * @param receivers how many peers should get it
+	 */
+	public synchronized void sent(int receivers) {
+		if(sent == 0)
+			firstSent = System.nanoTime();
+		sent++;
+		expected += receivers;
+	}
+
+	/**
+	 * Records a probe being delivered
+	 * @param latency how long after sending it was delivered, in nanoseconds
+	 */
+	public synchronized void delivered(long latency) {
+		if(delivered == latencies.length)
+			latencies = Arrays.copyOf(latencies, latencies.length * 2);
+		latencies[delivered++] = latency;
+		lastDelivered = System.nanoTime();
+		sorted = false;
+	}
+
+	public synchronized long getSent() {
+		return sent;
+	}
+
+	public synchronized long getExpected() {
+		return expected;
+	}
+
+	public synchronized int getDelivered() {
+		return delivered;
+	}
+
+	/**
+	 * @return deliveries per second between the first probe being sent and the last one delivered
+	 */
+	public synchronized double getThroughput() {
+		if(delivered == 0)
+			return 0;
+		return delivered * 1e9 / Math.max(1, lastDelivered - firstSent);
+	}
+
+	/**
+	 * @param fraction between 0 and 1, such as 0.99 for the 99th percentile
+	 * @return the latency at that percentile, in nanoseconds, or -1 if nothing was delivered
+	 */
+	public synchronized long getPercentile(double fraction) {
+		if(delivered == 0)
+			return -1;
+		if(!sorted) {
+			Arrays.sort(latencies, 0, delivered);
+			sorted = true;
+		}
+		int index = (int) Math.ceil(fraction * delivered) - 1;
+		return latencies[Math.max(0, Math.min(delivered - 1, index))];
+	}
+
+	/**
+	 * @return the mean latency, in nanoseconds, or -1 if nothing was delivered
+	 */
+	public synchronized long getMean() {
+		if(delivered == 0)
+			return -1;
+		long sum = 0;
+		for(int i = 0; i < delivered; i++) {
+			sum += latencies[i];
+		}
+		return sum / delivered;
+	}
+}
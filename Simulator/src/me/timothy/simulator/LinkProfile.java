@@ -0,0 +1,116 @@
+package me.timothy.simulator;
+
+import java.util.Locale;
+
+/**
+ * How a simulated link between two hosts behaves in one direction. Latency
+ * and jitter are in nanoseconds, bandwidth in bytes per second (0 for
+ * unlimited) and loss is the chance that a segment has to be retransmitted.
+ *
+ * @author Timothy
+ */
+public class LinkProfile {
+	/**
+	 * No latency, no bandwidth limit and no loss
+	 */
+	public static final LinkProfile PERFECT = new LinkProfile(0, 0, 0, 0);
+
+	private final long latency;
+	private final long jitter;
+	private final long bandwidth;
+	private final double loss;
+
+	/**
+	 * @param latency the one way latency, in nanoseconds
+	 * @param jitter how far the latency of each write may be from latency, in nanoseconds
+	 * @param bandwidth the bandwidth, in bytes per second, or 0 for unlimited
+	 * @param loss the chance of a segment being lost, at least 0 and less than 1
+	 */
+	public LinkProfile(long latency, long jitter, long bandwidth, double loss) {
+		if(latency < 0 || jitter < 0 || bandwidth < 0 || loss < 0 || loss >= 1)
+			throw new IllegalArgumentException("Invalid link profile (latency=" + latency + ", jitter=" + jitter +
+					", bandwidth=" + bandwidth + ", loss=" + loss + ")");
+		this.latency = latency;
+		this.jitter = jitter;
+		this.bandwidth = bandwidth;
+		this.loss = loss;
+	}
+
+	public long getLatency() {
+		return latency;
+	}
+
+	public long getJitter() {
+		return jitter;
+	}
+
+	public long getBandwidth() {
+		return bandwidth;
+	}
+
+	public double getLoss() {
+		return loss;
+	}
+
+	/**
+	 * Parses a profile such as <code>latency=20,jitter=5,bandwidth=8000,loss=0.01</code>,
+	 * where latency and jitter are in milliseconds and bandwidth is in kilobits per
+	 * second. Anything left out is taken from the defaults.
+	 *
+	 * @param str the string to parse
+	 * @param defaults the profile to take missing values from
+	 * @return the profile
+	 */
+	public static LinkProfile parse(String str, LinkProfile defaults) {
+		long latency = defaults.latency;
+		long jitter = defaults.jitter;
+		long bandwidth = defaults.bandwidth;
+		double loss = defaults.loss;
+		for(String part : str.split(",")) {
+			String[] kv = part.split("=", 2);
+			if(kv.length != 2)
+				throw new IllegalArgumentException("Expected key=value in link profile, got " + part);
+			String key = kv[0].trim();
+			String value = kv[1].trim();
+			switch(key) {
+			case "latency":
+				latency = millisToNanos(value);
+				break;
+			case "jitter":
+				jitter = millisToNanos(value);
+				break;
+			case "bandwidth":
+				bandwidth = kilobitsToBytes(value);
+				break;
+			case "loss":
+				loss = Double.parseDouble(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown link profile key " + key);
+			}
+		}
+		return new LinkProfile(latency, jitter, bandwidth, loss);
+	}
+
+	/**
+	 * @param millis a number of milliseconds, which may have a fraction
+	 * @return the number of nanoseconds
+	 */
+	public static long millisToNanos(String millis) {
+		return Math.round(Double.parseDouble(millis) * 1000000);
+	}
+
+	/**
+	 * @param kilobits a number of kilobits per second
+	 * @return the number of bytes per second
+	 */
+	public static long kilobitsToBytes(String kilobits) {
+		return Math.round(Double.parseDouble(kilobits) * 1000 / 8);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT, "latency=%.1fms jitter=%.1fms bandwidth=%s loss=%.2f%%",
+				latency / 1e6, jitter / 1e6, bandwidth == 0 ? "unlimited" : (bandwidth * 8 / 1000) + "kbit/s", loss * 100);
+	}
+}
@@ -0,0 +1,86 @@
+package me.timothy.simulator;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads a separate copy of the game and its modules for one simulated host.
+ * The game keeps its state in singletons (the packet manager, the net reactor,
+ * the entry and its states), so every peer needs its own copies of those classes
+ * to run in the same JVM. Classes outside the game are shared, which includes
+ * the simulator itself and the libraries.
+ *
+ * @author Timothy
+ */
+public class PeerLoader extends URLClassLoader {
+	/**
+	 * The packages that get a copy per host
+	 */
+	private static final String[] ISOLATED = {
+		"me.timothy.dcrts.", "me.timothy.modules.", "me.timothy.simulator.peer."
+	};
+
+	/**
+	 * The class every host runs, which implements {@link SimPeer}
+	 */
+	public static final String DRIVER = "me.timothy.simulator.peer.PeerDriver";
+
+	private final SimHost host;
+
+	/**
+	 * @param host the host the classes are for
+	 * @param parent the loader of the simulator
+	 */
+	public PeerLoader(SimHost host, ClassLoader parent) {
+		super(classPath(), parent);
+		this.host = host;
+	}
+
+	public SimHost getHost() {
+		return host;
+	}
+
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+		if(!isIsolated(name))
+			return super.loadClass(name, resolve);
+
+		synchronized(getClassLoadingLock(name)) {
+			Class<?> cl = findLoadedClass(name);
+			if(cl == null)
+				cl = findClass(name);
+			if(resolve)
+				resolveClass(cl);
+			return cl;
+		}
+	}
+
+	private static boolean isIsolated(String name) {
+		for(String pkg : ISOLATED) {
+			if(name.startsWith(pkg))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the entries of the class path the simulator was started with
+	 */
+	private static URL[] classPath() {
+		List<URL> urls = new ArrayList<>();
+		for(String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+			if(entry.isEmpty())
+				continue;
+			try {
+				urls.add(new File(entry).toURI().toURL());
+			} catch (MalformedURLException e) {
+				throw new IllegalStateException("Invalid class path entry " + entry, e);
+			}
+		}
+		return urls.toArray(new URL[urls.size()]);
+	}
+}
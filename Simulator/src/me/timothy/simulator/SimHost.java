@@ -0,0 +1,165 @@
+package me.timothy.simulator;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A simulated machine with its own address, uplink and copy of the game. The
+ * game runs on the host's thread, and every thread it starts inherits the
+ * host's class loader, which is how the network knows which host opened a
+ * channel.
+ *
+ * @author Timothy
+ */
+public class SimHost {
+	/**
+	 * The first port handed out to channels that are not bound to one
+	 */
+	public static final int FIRST_EPHEMERAL_PORT = 49152;
+
+	private final int index;
+	private final InetAddress address;
+	private final PeerLoader loader;
+	private final ExecutorService executor;
+	private final SimPeer peer;
+
+	private int nextPort;
+	private long uplinkBandwidth;
+	private long uplinkFreeAt;
+
+	/**
+	 * Creates the host and loads its copy of the game
+	 * @param index the index of the host, which decides its address
+	 */
+	public SimHost(final int index) {
+		this.index = index;
+		int n = index + 1;
+		byte[] addr = new byte[] { 10, (byte) (n >> 16), (byte) (n >> 8), (byte) n };
+		String name = "10." + (addr[1] & 0xFF) + "." + (addr[2] & 0xFF) + "." + (addr[3] & 0xFF);
+		try {
+			address = InetAddress.getByAddress(name, addr); // named, so nothing does a reverse lookup
+		} catch (UnknownHostException e) {
+			throw new IllegalStateException(e);
+		}
+		nextPort = FIRST_EPHEMERAL_PORT;
+		loader = new PeerLoader(this, SimHost.class.getClassLoader());
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Host " + index);
+				thread.setContextClassLoader(loader);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		peer = call(new Callable<SimPeer>() {
+			@Override
+			public SimPeer call() throws Exception {
+				return (SimPeer) loader.loadClass(PeerLoader.DRIVER).newInstance();
+			}
+		});
+	}
+
+	/**
+	 * @return the host the calling thread belongs to, or null if it belongs to none
+	 */
+	public static SimHost current() {
+		ClassLoader cl = Thread.currentThread().getContextClassLoader();
+		if(cl instanceof PeerLoader)
+			return ((PeerLoader) cl).getHost();
+		return null;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	public SimPeer getPeer() {
+		return peer;
+	}
+
+	/**
+	 * @return a port nothing on this host has been given yet
+	 */
+	public synchronized int nextEphemeralPort() {
+		return nextPort++;
+	}
+
+	/**
+	 * Sets the bandwidth shared by everything this host sends
+	 * @param bandwidth in bytes per second, or 0 for unlimited
+	 */
+	public synchronized void setUplinkBandwidth(long bandwidth) {
+		uplinkBandwidth = bandwidth;
+	}
+
+	/**
+	 * Puts bytes on the uplink after everything sent before them
+	 * @param now the current time
+	 * @param bytes the number of bytes
+	 * @return when the last of the bytes has left the host
+	 */
+	public synchronized long sendOnUplink(long now, int bytes) {
+		if(uplinkBandwidth == 0)
+			return now;
+		uplinkFreeAt = Math.max(now, uplinkFreeAt) + bytes * 1000000000L / uplinkBandwidth;
+		return uplinkFreeAt;
+	}
+
+	/**
+	 * Runs a task on this host's thread
+	 * @param task the task
+	 */
+	public void execute(Runnable task) {
+		executor.execute(task);
+	}
+
+	/**
+	 * Runs a task on this host's thread
+	 * @param task the task
+	 * @return the result of the task, once it is done
+	 */
+	public <T> Future<T> submit(Callable<T> task) {
+		return executor.submit(task);
+	}
+
+	/**
+	 * Runs a task on this host's thread and waits for it
+	 * @param task the task
+	 * @return what the task returned
+	 * @throws IllegalStateException wrapping anything the task threw
+	 */
+	public <T> T call(Callable<T> task) {
+		try {
+			return submit(task).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting for " + this, e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(this + " failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Stops the host's thread. Threads the game started are left to the JVM.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	@Override
+	public String toString() {
+		return "Host " + index + " (" + address.getHostAddress() + ")";
+	}
+}
@@ -0,0 +1,355 @@
+package me.timothy.simulator;
+
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.timothy.simulator.nio.SimServerSocketChannel;
+
+/**
+ * The simulated network the in-memory channels run over. It knows the hosts
+ * and the listening server sockets, decides when each write arrives and wakes
+ * up whoever is waiting for it.
+ * <p>
+ * A write first waits for the sending host's uplink and then for the link to the
+ * other host, both of which pass bytes at their bandwidth. It then takes the link's
+ * latency, give or take its jitter. Each segment of the write may be lost, in which
+ * case it arrives a retransmission timeout later, and since streams are in order
+ * so does everything after it.
+ *
+ * @author Timothy
+ */
+public class SimNetwork {
+	public static final SimNetwork instance = new SimNetwork();
+
+	/**
+	 * The largest segment, which is the unit that is lost
+	 */
+	public static final int MSS = 1460;
+
+	/**
+	 * The least time before a lost segment is retransmitted, in nanoseconds
+	 */
+	public static final long MIN_RTO = 200000000L;
+
+	/**
+	 * One direction of the link between two hosts
+	 */
+	private class Link {
+		private final LinkProfile profile;
+		private final Random random;
+		private long busyUntil;
+
+		Link(LinkProfile profile, long seed) {
+			this.profile = profile;
+			random = new Random(seed);
+		}
+
+		/**
+		 * @param start when the first byte is ready to go on the link
+		 * @param bytes the number of bytes
+		 * @return when the bytes arrive
+		 */
+		synchronized long transmit(long start, int bytes) {
+			long t = start;
+			if(profile.getBandwidth() > 0) {
+				t = Math.max(t, busyUntil) + bytes * 1000000000L / profile.getBandwidth();
+				busyUntil = t;
+			}
+			return t + delay(bytes);
+		}
+
+		/**
+		 * @param bytes the number of bytes, or 0 for just the delay of the link
+		 * @return how long bytes that have left take to arrive
+		 */
+		synchronized long delay(int bytes) {
+			long delay = profile.getLatency();
+			if(profile.getJitter() > 0)
+				delay += (long) ((random.nextDouble() * 2 - 1) * profile.getJitter());
+
+			if(profile.getLoss() > 0 && bytes > 0) {
+				int segments = (bytes + MSS - 1) / MSS;
+				double chanceLost = 1 - Math.pow(1 - profile.getLoss(), segments);
+				long rto = Math.max(MIN_RTO, 2 * profile.getLatency() + 4 * profile.getJitter());
+				while(random.nextDouble() < chanceLost) {
+					delay += rto;
+					rto *= 2;
+					retransmissions.incrementAndGet();
+				}
+			}
+			return Math.max(0, delay);
+		}
+	}
+
+	/**
+	 * Something to run at a point in time
+	 */
+	private static class Wakeup implements Delayed {
+		private final long at;
+		private final Runnable task;
+
+		Wakeup(long at, Runnable task) {
+			this.at = at;
+			this.task = task;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(at - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			return Long.compare(at, ((Wakeup) o).at);
+		}
+	}
+
+	private final List<SimHost> hosts;
+	private final Map<InetAddress, SimHost> hostsByAddress;
+	private final ConcurrentHashMap<InetSocketAddress, SimServerSocketChannel> listeners;
+	private final Map<Long, LinkProfile> linkProfiles;
+	private final ConcurrentHashMap<Long, Link> links;
+	private volatile LinkProfile defaultProfile;
+	private long seed;
+
+	private final DelayQueue<Wakeup> wakeups;
+	private Thread wakeupThread;
+
+	private final AtomicLong bytesSent;
+	private final AtomicLong writes;
+	private final AtomicLong retransmissions;
+	private final AtomicLong connections;
+
+	private SimNetwork() {
+		hosts = new ArrayList<>();
+		hostsByAddress = new ConcurrentHashMap<>();
+		listeners = new ConcurrentHashMap<>();
+		linkProfiles = new ConcurrentHashMap<>();
+		links = new ConcurrentHashMap<>();
+		defaultProfile = LinkProfile.PERFECT;
+		wakeups = new DelayQueue<>();
+		bytesSent = new AtomicLong();
+		writes = new AtomicLong();
+		retransmissions = new AtomicLong();
+		connections = new AtomicLong();
+	}
+
+	/**
+	 * Creates a host with the next address
+	 * @return the host
+	 */
+	public synchronized SimHost createHost() {
+		SimHost host = new SimHost(hosts.size());
+		hosts.add(host);
+		hostsByAddress.put(host.getAddress(), host);
+		return host;
+	}
+
+	public synchronized List<SimHost> getHosts() {
+		return new ArrayList<>(hosts);
+	}
+
+	/**
+	 * @param address an address
+	 * @return the host with that address, or null if there is none
+	 */
+	public SimHost getHost(InetAddress address) {
+		return hostsByAddress.get(address);
+	}
+
+	/**
+	 * @return the host the calling thread belongs to
+	 * @throws IllegalStateException if the thread does not belong to a host
+	 */
+	public SimHost currentHost() {
+		SimHost host = SimHost.current();
+		if(host == null)
+			throw new IllegalStateException("Simulated channels may only be used on a simulated host (" +
+					Thread.currentThread().getName() + ")");
+		return host;
+	}
+
+	/**
+	 * Sets the profile of every link that has not been given one. Only links
+	 * created afterwards are affected, so this should be set up front.
+	 * @param profile the profile
+	 */
+	public void setDefaultProfile(LinkProfile profile) {
+		defaultProfile = profile;
+	}
+
+	public LinkProfile getDefaultProfile() {
+		return defaultProfile;
+	}
+
+	/**
+	 * Sets the profile of the link between two hosts, both ways
+	 * @param a the index of one host
+	 * @param b the index of the other
+	 * @param profile the profile
+	 */
+	public void setLinkProfile(int a, int b, LinkProfile profile) {
+		linkProfiles.put(key(a, b), profile);
+		linkProfiles.put(key(b, a), profile);
+	}
+
+	/**
+	 * Sets the seed the links' jitter and loss are taken from
+	 * @param seed the seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	private static long key(int from, int to) {
+		return ((long) from << 32) | (to & 0xFFFFFFFFL);
+	}
+
+	private Link link(SimHost from, SimHost to) {
+		long key = key(from.getIndex(), to.getIndex());
+		Link link = links.get(key);
+		if(link == null) {
+			LinkProfile profile = linkProfiles.get(key);
+			link = new Link(profile != null ? profile : defaultProfile, seed * 31 + key);
+			Link prev = links.putIfAbsent(key, link);
+			if(prev != null)
+				link = prev;
+		}
+		return link;
+	}
+
+	/**
+	 * Works out when a write arrives
+	 * @param from the sending host
+	 * @param to the receiving host
+	 * @param bytes the number of bytes
+	 * @param notBefore when the previous write on the same stream arrives, since streams are in order
+	 * @return when the write arrives
+	 */
+	public long transmit(SimHost from, SimHost to, int bytes, long notBefore) {
+		long now = System.nanoTime();
+		long arrival = link(from, to).transmit(from.sendOnUplink(now, bytes), bytes);
+		bytesSent.addAndGet(bytes);
+		writes.incrementAndGet();
+		return Math.max(arrival, notBefore);
+	}
+
+	/**
+	 * @param from the sending host
+	 * @param to the receiving host
+	 * @return how long a packet without data takes, such as a handshake or a close
+	 */
+	public long delay(SimHost from, SimHost to) {
+		return link(from, to).delay(0);
+	}
+
+	/**
+	 * Binds a server socket
+	 * @param channel the server socket
+	 * @param local the address asked for, which may be null, a wildcard or port 0
+	 * @return the address it is bound to
+	 * @throws BindException if the address is taken or belongs to another host
+	 */
+	public InetSocketAddress bind(SimServerSocketChannel channel, InetSocketAddress local) throws BindException {
+		SimHost host = currentHost();
+		InetAddress address = host.getAddress();
+		if(local != null && !local.getAddress().isAnyLocalAddress() && !local.getAddress().equals(address))
+			throw new BindException("Cannot assign requested address " + local);
+
+		int port = local == null || local.getPort() == 0 ? host.nextEphemeralPort() : local.getPort();
+		InetSocketAddress bound = new InetSocketAddress(address, port);
+		if(listeners.putIfAbsent(bound, channel) != null)
+			throw new BindException("Address already in use " + bound);
+		return bound;
+	}
+
+	/**
+	 * Frees the address of a server socket
+	 * @param channel the server socket
+	 * @param local the address it is bound to
+	 */
+	public void unbind(SimServerSocketChannel channel, InetSocketAddress local) {
+		listeners.remove(local, channel);
+	}
+
+	/**
+	 * @param remote an address
+	 * @return the server socket listening there
+	 * @throws ConnectException if nothing is listening there
+	 */
+	public SimServerSocketChannel getListener(InetSocketAddress remote) throws ConnectException {
+		SimServerSocketChannel listener = listeners.get(remote);
+		if(listener == null)
+			throw new ConnectException("Connection refused " + remote);
+		connections.incrementAndGet();
+		return listener;
+	}
+
+	/**
+	 * Runs a task at a point in time, on the network's thread. Tasks that are due
+	 * are run right away on the calling thread, which must not hold any locks.
+	 *
+	 * @param at when to run it, in terms of {@link System#nanoTime()}
+	 * @param task the task
+	 */
+	public void schedule(long at, Runnable task) {
+		if(at - System.nanoTime() <= 0) {
+			task.run();
+			return;
+		}
+		ensureWakeupThread();
+		wakeups.add(new Wakeup(at, task));
+	}
+
+	private synchronized void ensureWakeupThread() {
+		if(wakeupThread != null)
+			return;
+		wakeupThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while(true) {
+					Wakeup wakeup;
+					try {
+						wakeup = wakeups.take();
+					} catch (InterruptedException e) {
+						return;
+					}
+					try {
+						wakeup.task.run();
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}, "Simulated network");
+		wakeupThread.setDaemon(true);
+		wakeupThread.start();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	public long getWrites() {
+		return writes.get();
+	}
+
+	public long getRetransmissions() {
+		return retransmissions.get();
+	}
+
+	public long getConnections() {
+		return connections.get();
+	}
+}
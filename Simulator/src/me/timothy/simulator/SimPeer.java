@@ -0,0 +1,73 @@
+package me.timothy.simulator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * What the simulator can ask of the copy of the game running on a host. Every
+ * method is called on the host's own thread (see {@link SimHost#call}), and
+ * does what the lobby state would do when the player clicks through it.
+ *
+ * @author Timothy
+ */
+public interface SimPeer {
+	/**
+	 * Sets up the game without a window, and loads the modules from the class path
+	 * @param stats where probes that reach this peer are recorded
+	 */
+	public void init(DeliveryStats stats);
+
+	/**
+	 * Hosts a lobby, like the host button on the main menu
+	 */
+	public void host();
+
+	/**
+	 * Joins a lobby, like the join button on the main menu
+	 * @param address the address of the host
+	 */
+	public void join(InetSocketAddress address);
+
+	/**
+	 * @return the number of peers in the lobby, including this one
+	 */
+	public int lobbySize();
+
+	/**
+	 * Marks this peer as ready
+	 */
+	public void setReady();
+
+	/**
+	 * Starts the countdown if this peer is the host and everyone is ready, as the
+	 * lobby state does every frame
+	 * @return if everyone is ready
+	 */
+	public boolean tryBeginCountdown();
+
+	/**
+	 * @return if the game has started and the modules are active
+	 */
+	public boolean isInGame();
+
+	/**
+	 * @return where this peer is in the game, for finding out why it got stuck
+	 */
+	public String describeState();
+
+	/**
+	 * @return the name of the active net module, or null before the game starts
+	 */
+	public String getNetModule();
+
+	/**
+	 * Sends a probe to every other peer through the active net module
+	 * @throws IOException if an i/o exception occurs
+	 */
+	public void sendProbe() throws IOException;
+
+	/**
+	 * Deactivates the modules
+	 */
+	public void shutdown();
+}
@@ -0,0 +1,430 @@
+package me.timothy.simulator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+
+import me.timothy.dcrts.utils.NetUtils;
+import me.timothy.simulator.nio.SimSelectorProvider;
+
+/**
+ * Runs many peers of the game in one JVM over a simulated network, and
+ * measures how long probes sent through the net modules take to reach
+ * everyone. Each peer goes through the real lobby: the host creates it, the
+ * clients join and everyone readies up, and the game then starts the modules
+ * the same way it does with a window.
+ *
+ * <pre>
+ * java me.timothy.simulator.Simulator [options]
+ *   -peers n            peers including the host (default 16)
+ *   -latency ms         one way latency of every link (default 20)
+ *   -jitter ms          how far each write may be from the latency (default 2)
+ *   -bandwidth kbit/s   bandwidth of every link, 0 for unlimited (default 0)
+ *   -loss fraction      chance of losing a segment, which is then retransmitted (default 0)
+ *   -link a-b=profile   the link between peers a and b, such as 0-3=latency=150,loss=0.02
+ *   -uplink kbit/s      bandwidth shared by everything a peer sends, or i=kbit/s for peer i
+ *   -rate n             probes per second from each sender (default 20)
+ *   -duration s         how long to send probes for (default 10)
+ *   -sender host|all    who sends probes (default host)
+ *   -settle s           how long to wait after the game starts before sending probes,
+ *                       so the relay tree can be built (default 0)
+ *   -timeout s          how long each step of setting up may take (default 60)
+ *   -seed n             seed for jitter and loss (default 1)
+ *   -verbose            show what the game prints
+ * </pre>
+ *
+ * Peer 0 is the host. The game connects every pair of peers when it starts,
+ * so memory grows with the square of the number of peers; a few hundred
+ * peers need a heap of a couple of gigabytes. The JVM must not have opened
+ * any channel before the simulator starts.
+ *
+ * @author Timothy
+ */
+public class Simulator {
+	/**
+	 * How long to wait for probes still in flight after the last is sent, in milliseconds
+	 */
+	private static final long DRAIN_MILLIS = 5000;
+
+	private static final long POLL_MILLIS = 20;
+
+	private int numPeers = 16;
+	private LinkProfile profile = new LinkProfile(20000000, 2000000, 0, 0);
+	private final Map<String, String> linkOverrides = new TreeMap<>();
+	private final Map<Integer, Long> uplinks = new TreeMap<>();
+	private long defaultUplink;
+	private double rate = 20;
+	private double duration = 10;
+	private boolean allSend;
+	private double settle;
+	private long timeout = 60000;
+	private long seed = 1;
+	private boolean verbose;
+
+	private List<SimHost> hosts;
+	private final DeliveryStats stats = new DeliveryStats();
+	private PrintStream out;
+
+	public static void main(String[] args) throws Exception {
+		Simulator sim = new Simulator();
+		for(int i = 0; i < args.length; i++) {
+			switch(args[i]) {
+			case "-peers":
+				sim.numPeers = Integer.parseInt(args[++i]);
+				break;
+			case "-latency":
+				sim.profile = LinkProfile.parse("latency=" + args[++i], sim.profile);
+				break;
+			case "-jitter":
+				sim.profile = LinkProfile.parse("jitter=" + args[++i], sim.profile);
+				break;
+			case "-bandwidth":
+				sim.profile = LinkProfile.parse("bandwidth=" + args[++i], sim.profile);
+				break;
+			case "-loss":
+				sim.profile = LinkProfile.parse("loss=" + args[++i], sim.profile);
+				break;
+			case "-link":
+				String[] link = args[++i].split("=", 2);
+				sim.linkOverrides.put(link[0], link[1]);
+				break;
+			case "-uplink":
+				String uplink = args[++i];
+				int eq = uplink.indexOf('=');
+				if(eq < 0)
+					sim.defaultUplink = LinkProfile.kilobitsToBytes(uplink);
+				else
+					sim.uplinks.put(Integer.parseInt(uplink.substring(0, eq)), LinkProfile.kilobitsToBytes(uplink.substring(eq + 1)));
+				break;
+			case "-rate":
+				sim.rate = Double.parseDouble(args[++i]);
+				break;
+			case "-duration":
+				sim.duration = Double.parseDouble(args[++i]);
+				break;
+			case "-sender":
+				sim.allSend = args[++i].equals("all");
+				break;
+			case "-settle":
+				sim.settle = Double.parseDouble(args[++i]);
+				break;
+			case "-timeout":
+				sim.timeout = Long.parseLong(args[++i]) * 1000;
+				break;
+			case "-seed":
+				sim.seed = Long.parseLong(args[++i]);
+				break;
+			case "-verbose":
+				sim.verbose = true;
+				break;
+			default:
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+		if(sim.numPeers < 2) {
+			System.err.println("At least 2 peers are needed");
+			System.exit(1);
+		}
+
+		boolean ok = sim.run();
+		System.exit(ok ? 0 : 1); // the peers leave non-daemon threads behind
+	}
+
+	/**
+	 * Sets up the network and peers, starts the game, sends the probes and reports
+	 * @return if every peer made it into the game
+	 */
+	public boolean run() throws Exception {
+		out = System.out;
+		if(!verbose) {
+			System.setOut(new PrintStream(new OutputStream() {
+				@Override
+				public void write(int b) {
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+				}
+			}));
+		}
+
+		SimSelectorProvider.install();
+		SimNetwork network = SimNetwork.instance;
+		network.setSeed(seed);
+		network.setDefaultProfile(profile);
+		for(Map.Entry<String, String> e : linkOverrides.entrySet()) {
+			String[] ab = e.getKey().split("-");
+			network.setLinkProfile(Integer.parseInt(ab[0]), Integer.parseInt(ab[1]), LinkProfile.parse(e.getValue(), profile));
+		}
+
+		out.println("# " + numPeers + " peers, links " + profile + (linkOverrides.isEmpty() ? "" : " (" + linkOverrides.size() + " overridden)"));
+		hosts = new ArrayList<>();
+		for(int i = 0; i < numPeers; i++) {
+			SimHost host = network.createHost();
+			Long uplink = uplinks.get(i);
+			host.setUplinkBandwidth(uplink != null ? uplink : defaultUplink);
+			hosts.add(host);
+		}
+		onEveryPeer(new PeerTask() {
+			@Override
+			public Object run(SimPeer peer) {
+				peer.init(stats);
+				return null;
+			}
+		});
+
+		final SimPeer host = hosts.get(0).getPeer();
+		final InetSocketAddress hostAddress = new InetSocketAddress(hosts.get(0).getAddress(), NetUtils.PORT);
+		hosts.get(0).call(new Callable<Void>() {
+			@Override
+			public Void call() {
+				host.host();
+				return null;
+			}
+		});
+
+		// one at a time, like players do, since the lobby hands out ids one at a time
+		long start = System.nanoTime();
+		for(int i = 1; i < numPeers; i++) {
+			final SimPeer client = hosts.get(i).getPeer();
+			final int size = i + 1;
+			hosts.get(i).call(new Callable<Void>() {
+				@Override
+				public Void call() {
+					client.join(hostAddress);
+					return null;
+				}
+			});
+			if(!waitFor(hosts.get(i) + " to join the lobby", new Condition() {
+				@Override
+				public boolean isMet(SimPeer peer) {
+					return peer.lobbySize() == size;
+				}
+			}, hosts.subList(i, i + 1)))
+				return false;
+		}
+		if(!waitFor("everyone to join the lobby", new Condition() {
+			@Override
+			public boolean isMet(SimPeer peer) {
+				return peer.lobbySize() == numPeers;
+			}
+		}, hosts))
+			return false;
+		long joined = System.nanoTime();
+		out.println(String.format(Locale.ROOT, "Lobby joined in       %8.0f ms", (joined - start) / 1e6));
+
+		onEveryPeer(new PeerTask() {
+			@Override
+			public Object run(SimPeer peer) {
+				peer.setReady();
+				return null;
+			}
+		});
+		if(!waitFor("everyone to be ready", new Condition() {
+			@Override
+			public boolean isMet(SimPeer peer) {
+				return peer.tryBeginCountdown();
+			}
+		}, hosts.subList(0, 1)))
+			return false;
+		long ready = System.nanoTime();
+		if(!waitFor("everyone to start the game", new Condition() {
+			@Override
+			public boolean isMet(SimPeer peer) {
+				return peer.isInGame();
+			}
+		}, hosts))
+			return false;
+		long started = System.nanoTime();
+		out.println(String.format(Locale.ROOT, "Game started in       %8.0f ms after everyone was ready", (started - ready) / 1e6));
+		if(settle > 0)
+			sleep((long) (settle * 1000));
+
+		Map<String, Integer> modules = new TreeMap<>();
+		for(Object module : onEveryPeer(new PeerTask() {
+			@Override
+			public Object run(SimPeer peer) {
+				return peer.getNetModule();
+			}
+		})) {
+			Integer count = modules.get(module);
+			modules.put((String) module, count == null ? 1 : count + 1);
+		}
+		out.println("Net modules           " + modules);
+
+		sendProbes();
+		report();
+		return true;
+	}
+
+	/**
+	 * Sends probes at the rate from every sender for the duration, and waits for them to arrive
+	 */
+	private void sendProbes() {
+		List<SimHost> senders = allSend ? hosts : hosts.subList(0, 1);
+		long period = (long) (1e9 / rate);
+		long end = System.nanoTime() + (long) (duration * 1e9);
+		long next = System.nanoTime();
+		Runnable probe = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					SimHost.current().getPeer().sendProbe();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+
+		while(next - end < 0) {
+			for(SimHost sender : senders) {
+				stats.sent(numPeers - 1);
+				sender.execute(probe);
+			}
+			next += period;
+			LockSupport.parkNanos(next - System.nanoTime());
+		}
+
+		long drainEnd = System.nanoTime() + DRAIN_MILLIS * 1000000;
+		while(stats.getDelivered() < stats.getExpected() && System.nanoTime() - drainEnd < 0) {
+			sleep(POLL_MILLIS);
+		}
+	}
+
+	private void report() {
+		SimNetwork network = SimNetwork.instance;
+		out.println(String.format(Locale.ROOT, "Probes sent           %8d from %s at %.1f/s for %.1f s",
+				stats.getSent(), allSend ? "every peer" : "the host", rate, duration));
+		out.println(String.format(Locale.ROOT, "Deliveries            %8d / %d (%.2f%%)",
+				stats.getDelivered(), stats.getExpected(), stats.getDelivered() * 100.0 / Math.max(1, stats.getExpected())));
+		out.println(String.format(Locale.ROOT, "Latency (ms)          min %.2f, p50 %.2f, p90 %.2f, p99 %.2f, max %.2f, mean %.2f",
+				stats.getPercentile(0) / 1e6, stats.getPercentile(0.5) / 1e6, stats.getPercentile(0.9) / 1e6,
+				stats.getPercentile(0.99) / 1e6, stats.getPercentile(1) / 1e6, stats.getMean() / 1e6));
+		out.println(String.format(Locale.ROOT, "Throughput            %8.1f deliveries/s", stats.getThroughput()));
+		out.println(String.format(Locale.ROOT, "Network               %d connections, %d writes, %.1f KB, %d retransmissions",
+				network.getConnections(), network.getWrites(), network.getBytesSent() / 1024.0, network.getRetransmissions()));
+	}
+
+	/**
+	 * Something to do with a peer, on its host's thread
+	 */
+	private interface PeerTask {
+		Object run(SimPeer peer);
+	}
+
+	/**
+	 * Something to wait for on a peer, checked on its host's thread
+	 */
+	private interface Condition {
+		boolean isMet(SimPeer peer);
+	}
+
+	private List<Object> onEveryPeer(PeerTask task) throws InterruptedException {
+		return on(hosts, task);
+	}
+
+	/**
+	 * Runs a task on every host at once and waits for all of them
+	 * @return what the task returned on each host
+	 */
+	private static List<Object> on(List<SimHost> hosts, final PeerTask task) throws InterruptedException {
+		List<Future<Object>> futures = new ArrayList<>();
+		for(final SimHost host : hosts) {
+			futures.add(host.submit(new Callable<Object>() {
+				@Override
+				public Object call() {
+					return task.run(host.getPeer());
+				}
+			}));
+		}
+
+		List<Object> res = new ArrayList<>();
+		for(int i = 0; i < futures.size(); i++) {
+			try {
+				res.add(futures.get(i).get());
+			} catch (ExecutionException e) {
+				throw new IllegalStateException(hosts.get(i) + " failed", e.getCause());
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Waits until a condition is met on every host, or the timeout passes
+	 * @param what what is being waited for
+	 * @return if it was met
+	 */
+	private boolean waitFor(String what, final Condition condition, List<SimHost> on) throws InterruptedException {
+		long giveUp = System.nanoTime() + timeout * 1000000;
+		PeerTask check = new PeerTask() {
+			@Override
+			public Object run(SimPeer peer) {
+				return condition.isMet(peer);
+			}
+		};
+		List<SimHost> waiting = new ArrayList<>(on);
+		while(true) {
+			List<Object> met = on(waiting, check);
+			List<SimHost> still = new ArrayList<>();
+			for(int i = 0; i < met.size(); i++) {
+				if(!(Boolean) met.get(i))
+					still.add(waiting.get(i));
+			}
+			waiting = still;
+			if(waiting.isEmpty())
+				return true;
+
+			if(System.nanoTime() - giveUp > 0) {
+				out.println("Gave up waiting for " + what + ", " + waiting.size() + " peers did not make it:");
+				List<Object> states = on(waiting, new PeerTask() {
+					@Override
+					public Object run(SimPeer peer) {
+						return peer.describeState();
+					}
+				});
+				for(int i = 0; i < waiting.size(); i++) {
+					out.println("  " + waiting.get(i) + ": " + states.get(i));
+				}
+				if(verbose)
+					printThreads(waiting);
+				return false;
+			}
+			sleep(POLL_MILLIS);
+		}
+	}
+
+	/**
+	 * Prints what every thread the game started on the hosts is doing
+	 * @param on the hosts
+	 */
+	private void printThreads(List<SimHost> on) {
+		for(Map.Entry<Thread, StackTraceElement[]> entry : Thread.getAllStackTraces().entrySet()) {
+			ClassLoader cl = entry.getKey().getContextClassLoader();
+			if(!(cl instanceof PeerLoader) || !on.contains(((PeerLoader) cl).getHost()))
+				continue;
+			out.println("  \"" + entry.getKey().getName() + "\" on " + ((PeerLoader) cl).getHost());
+			for(StackTraceElement element : entry.getValue()) {
+				out.println("      at " + element);
+			}
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
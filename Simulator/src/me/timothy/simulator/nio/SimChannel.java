@@ -0,0 +1,19 @@
+package me.timothy.simulator.nio;
+
+/**
+ * A simulated channel that can be registered with a {@link SimSelector}
+ *
+ * @author Timothy
+ */
+interface SimChannel {
+	/**
+	 * Called by selectors while holding their own lock, so it must not wait on one
+	 * @param now the current time
+	 * @return the operations that would not block right now
+	 */
+	int readyOps(long now);
+
+	void addKey(SimSelectionKey key);
+
+	void removeKey(SimSelectionKey key);
+}
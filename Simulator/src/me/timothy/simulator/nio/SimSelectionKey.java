@@ -0,0 +1,78 @@
+package me.timothy.simulator.nio;
+
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.AbstractSelectionKey;
+
+/**
+ * The registration of a simulated channel with a {@link SimSelector}
+ *
+ * @author Timothy
+ */
+public class SimSelectionKey extends AbstractSelectionKey {
+	private final SimSelector selector;
+	private final SelectableChannel channel;
+	private volatile int interestOps;
+	private volatile int readyOps;
+
+	SimSelectionKey(SimSelector selector, SelectableChannel channel) {
+		this.selector = selector;
+		this.channel = channel;
+	}
+
+	@Override
+	public SelectableChannel channel() {
+		return channel;
+	}
+
+	@Override
+	public Selector selector() {
+		return selector;
+	}
+
+	SimChannel simChannel() {
+		return (SimChannel) channel;
+	}
+
+	@Override
+	public int interestOps() {
+		if(!isValid())
+			throw new CancelledKeyException();
+		return interestOps;
+	}
+
+	@Override
+	public SelectionKey interestOps(int ops) {
+		if(!isValid())
+			throw new CancelledKeyException();
+		if((ops & ~channel.validOps()) != 0)
+			throw new IllegalArgumentException("Invalid interest set " + ops);
+		interestOps = ops;
+		selector.signal();
+		return this;
+	}
+
+	/**
+	 * @return the interest set without checking the key is valid, for the selector
+	 */
+	int currentInterestOps() {
+		return interestOps;
+	}
+
+	@Override
+	public int readyOps() {
+		if(!isValid())
+			throw new CancelledKeyException();
+		return readyOps;
+	}
+
+	void setReadyOps(int ops) {
+		readyOps = ops;
+	}
+
+	int currentReadyOps() {
+		return readyOps;
+	}
+}
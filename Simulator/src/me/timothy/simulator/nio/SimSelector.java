@@ -0,0 +1,220 @@
+package me.timothy.simulator.nio;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.IllegalSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.AbstractSelectableChannel;
+import java.nio.channels.spi.AbstractSelector;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A selector over simulated channels. Channels signal the selectors they are
+ * registered with whenever something changes, and selecting checks every key
+ * again, so readiness is level triggered like the real thing.
+ *
+ * @author Timothy
+ */
+public class SimSelector extends AbstractSelector {
+	private final Set<SelectionKey> keys;
+	private final Set<SelectionKey> publicKeys;
+	private final Set<SelectionKey> selectedKeys;
+
+	private final Object lock;
+	private boolean signalled;
+	private boolean wokenUp;
+
+	SimSelector(SelectorProvider provider) {
+		super(provider);
+		keys = new HashSet<>();
+		publicKeys = Collections.unmodifiableSet(keys);
+		selectedKeys = new HashSet<>();
+		lock = new Object();
+	}
+
+	@Override
+	public Set<SelectionKey> keys() {
+		if(!isOpen())
+			throw new ClosedSelectorException();
+		return publicKeys;
+	}
+
+	@Override
+	public Set<SelectionKey> selectedKeys() {
+		if(!isOpen())
+			throw new ClosedSelectorException();
+		return selectedKeys;
+	}
+
+	@Override
+	public int selectNow() throws IOException {
+		return select(-1, false);
+	}
+
+	@Override
+	public int select(long timeout) throws IOException {
+		if(timeout < 0)
+			throw new IllegalArgumentException("Negative timeout");
+		return select(timeout, true);
+	}
+
+	@Override
+	public int select() throws IOException {
+		return select(0, true);
+	}
+
+	@Override
+	public Selector wakeup() {
+		synchronized(lock) {
+			wokenUp = true;
+			lock.notifyAll();
+		}
+		return this;
+	}
+
+	/**
+	 * Tells the selector something about one of its channels may have changed.
+	 * Must not be called while holding a channel's lock.
+	 */
+	void signal() {
+		synchronized(lock) {
+			signalled = true;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * @param timeout how long to wait, in milliseconds, or 0 to wait until something is ready
+	 * @param block if it should wait at all
+	 * @return the number of keys whose ready set changed
+	 */
+	private int select(long timeout, boolean block) throws IOException {
+		if(!isOpen())
+			throw new ClosedSelectorException();
+
+		long deadline = System.nanoTime() + timeout * 1000000;
+		try {
+			begin();
+			while(true) {
+				removeCancelledKeys();
+				synchronized(lock) {
+					signalled = false;
+					int updated = updateSelectedKeys();
+					if(updated > 0 || !block || wokenUp || !isOpen() || Thread.currentThread().isInterrupted()) {
+						wokenUp = false;
+						return updated;
+					}
+
+					long wait = 0;
+					if(timeout > 0) {
+						wait = (deadline - System.nanoTime()) / 1000000;
+						if(wait <= 0)
+							return 0;
+					}
+					if(!signalled)
+						lock.wait(wait);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return 0;
+		} finally {
+			end();
+		}
+	}
+
+	/**
+	 * Deregisters the cancelled keys. Deregistering takes the channel's key lock,
+	 * which is held while registering, so no other lock may be held.
+	 */
+	private void removeCancelledKeys() {
+		Set<SelectionKey> cancelled = cancelledKeys();
+		List<SelectionKey> removing;
+		synchronized(cancelled) {
+			if(cancelled.isEmpty())
+				return;
+			removing = new ArrayList<>(cancelled);
+			cancelled.clear();
+		}
+		for(SelectionKey key : removing) {
+			remove((SimSelectionKey) key);
+		}
+	}
+
+	/**
+	 * Adds the ready keys to the selected keys, or adds to their ready sets if they already are
+	 * @return the number of keys whose ready set changed
+	 */
+	private int updateSelectedKeys() {
+		List<SelectionKey> snapshot;
+		synchronized(keys) {
+			snapshot = new ArrayList<>(keys);
+		}
+
+		int updated = 0;
+		long now = System.nanoTime();
+		for(SelectionKey k : snapshot) {
+			SimSelectionKey key = (SimSelectionKey) k;
+			if(!key.isValid())
+				continue;
+			int ready = key.simChannel().readyOps(now) & key.currentInterestOps();
+			if(ready == 0)
+				continue;
+
+			if(selectedKeys.contains(key)) {
+				int prev = key.currentReadyOps();
+				if((prev | ready) != prev) {
+					key.setReadyOps(prev | ready);
+					updated++;
+				}
+			}else {
+				key.setReadyOps(ready);
+				selectedKeys.add(key);
+				updated++;
+			}
+		}
+		return updated;
+	}
+
+	private void remove(SimSelectionKey key) {
+		synchronized(keys) {
+			keys.remove(key);
+		}
+		selectedKeys.remove(key);
+		deregister(key);
+		key.simChannel().removeKey(key);
+	}
+
+	@Override
+	protected void implCloseSelector() throws IOException {
+		wakeup();
+		List<SelectionKey> all;
+		synchronized(keys) {
+			all = new ArrayList<>(keys);
+		}
+		for(SelectionKey key : all) {
+			remove((SimSelectionKey) key);
+		}
+	}
+
+	@Override
+	protected SelectionKey register(AbstractSelectableChannel ch, int ops, Object att) {
+		if(!(ch instanceof SimChannel))
+			throw new IllegalSelectorException();
+
+		SimSelectionKey key = new SimSelectionKey(this, ch);
+		key.attach(att);
+		synchronized(keys) {
+			keys.add(key);
+		}
+		((SimChannel) ch).addKey(key);
+		key.interestOps(ops);
+		return key;
+	}
+}
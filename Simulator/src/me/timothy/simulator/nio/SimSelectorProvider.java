@@ -0,0 +1,66 @@
+package me.timothy.simulator.nio;
+
+import java.io.IOException;
+import java.net.ProtocolFamily;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.AbstractSelector;
+import java.nio.channels.spi.SelectorProvider;
+
+import me.timothy.simulator.SimNetwork;
+
+/**
+ * Makes every socket channel and selector in the JVM a simulated one on the
+ * {@link SimNetwork}, so the game runs unchanged. Installed by setting the
+ * <code>java.nio.channels.spi.SelectorProvider</code> system property to this
+ * class before anything opens a channel. Only TCP is simulated.
+ *
+ * @author Timothy
+ */
+public class SimSelectorProvider extends SelectorProvider {
+	public SimSelectorProvider() {
+	}
+
+	/**
+	 * Installs this provider
+	 * @throws IllegalStateException if another provider is already in use
+	 */
+	public static void install() {
+		System.setProperty("java.nio.channels.spi.SelectorProvider", SimSelectorProvider.class.getName());
+		if(!(SelectorProvider.provider() instanceof SimSelectorProvider))
+			throw new IllegalStateException("Something opened a channel before the simulated network was installed (" +
+					SelectorProvider.provider().getClass().getName() + ")");
+	}
+
+	@Override
+	public DatagramChannel openDatagramChannel() throws IOException {
+		throw new UnsupportedOperationException("UDP is not simulated");
+	}
+
+	@Override
+	public DatagramChannel openDatagramChannel(ProtocolFamily family) throws IOException {
+		throw new UnsupportedOperationException("UDP is not simulated");
+	}
+
+	@Override
+	public Pipe openPipe() throws IOException {
+		throw new UnsupportedOperationException("Pipes are not simulated");
+	}
+
+	@Override
+	public AbstractSelector openSelector() throws IOException {
+		return new SimSelector(this);
+	}
+
+	@Override
+	public ServerSocketChannel openServerSocketChannel() throws IOException {
+		return new SimServerSocketChannel(this, SimNetwork.instance.currentHost());
+	}
+
+	@Override
+	public SocketChannel openSocketChannel() throws IOException {
+		return new SimSocketChannel(this, SimNetwork.instance.currentHost());
+	}
+}
@@ -0,0 +1,254 @@
+package me.timothy.simulator.nio;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.AlreadyBoundException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NotYetBoundException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnsupportedAddressTypeException;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import me.timothy.simulator.SimHost;
+import me.timothy.simulator.SimNetwork;
+
+/**
+ * A simulated listening socket. Connections wait in the backlog until their
+ * handshake completes, and are then handed out by {@link #accept()}.
+ *
+ * @author Timothy
+ */
+public class SimServerSocketChannel extends ServerSocketChannel implements SimChannel {
+	private static final Set<SocketOption<?>> OPTIONS = Collections.unmodifiableSet(new HashSet<SocketOption<?>>(
+			Arrays.<SocketOption<?>>asList(StandardSocketOptions.SO_RCVBUF, StandardSocketOptions.SO_REUSEADDR)));
+
+	/**
+	 * A connection in the backlog
+	 */
+	private static class Pending {
+		final SimSocketChannel channel;
+		final long readyAt;
+
+		Pending(SimSocketChannel channel, long readyAt) {
+			this.channel = channel;
+			this.readyAt = readyAt;
+		}
+	}
+
+	private final SimHost host;
+	private final Object lock;
+	private final List<Pending> backlog;
+	private final List<SimSelectionKey> keys;
+	private final Map<SocketOption<?>, Object> options;
+	private volatile InetSocketAddress local;
+
+	SimServerSocketChannel(SelectorProvider provider, SimHost host) {
+		super(provider);
+		this.host = host;
+		lock = new Object();
+		backlog = new ArrayList<>();
+		keys = new CopyOnWriteArrayList<>();
+		options = new HashMap<>();
+	}
+
+	public SimHost getHost() {
+		return host;
+	}
+
+	@Override
+	public ServerSocketChannel bind(SocketAddress local, int backlog) throws IOException {
+		if(!isOpen())
+			throw new ClosedChannelException();
+		if(local != null && !(local instanceof InetSocketAddress))
+			throw new UnsupportedAddressTypeException();
+		synchronized(lock) {
+			if(this.local != null)
+				throw new AlreadyBoundException();
+			this.local = SimNetwork.instance.bind(this, (InetSocketAddress) local);
+		}
+		return this;
+	}
+
+	@Override
+	public SocketAddress getLocalAddress() throws IOException {
+		if(!isOpen())
+			throw new ClosedChannelException();
+		return local;
+	}
+
+	@Override
+	public <T> ServerSocketChannel setOption(SocketOption<T> name, T value) throws IOException {
+		if(!OPTIONS.contains(name))
+			throw new UnsupportedOperationException("'" + name + "' not supported");
+		if(!isOpen())
+			throw new ClosedChannelException();
+		synchronized(options) {
+			options.put(name, value);
+		}
+		return this;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T getOption(SocketOption<T> name) throws IOException {
+		if(!OPTIONS.contains(name))
+			throw new UnsupportedOperationException("'" + name + "' not supported");
+		if(!isOpen())
+			throw new ClosedChannelException();
+		synchronized(options) {
+			return (T) options.get(name);
+		}
+	}
+
+	@Override
+	public Set<SocketOption<?>> supportedOptions() {
+		return OPTIONS;
+	}
+
+	@Override
+	public ServerSocket socket() {
+		throw new UnsupportedOperationException("The socket adaptor is not simulated");
+	}
+
+	/**
+	 * Adds a connection to the backlog, called by the connecting channel
+	 * @param channel this end of the connection
+	 * @param readyAt when the handshake completes
+	 * @throws IOException if this channel was closed in the meantime
+	 */
+	void enqueue(SimSocketChannel channel, long readyAt) throws IOException {
+		synchronized(lock) {
+			if(!isOpen())
+				throw new ConnectException("Connection refused " + local);
+			backlog.add(new Pending(channel, readyAt));
+		}
+		SimNetwork.instance.schedule(readyAt, new Runnable() {
+			@Override
+			public void run() {
+				synchronized(lock) {
+					lock.notifyAll();
+				}
+				signalSelectors();
+			}
+		});
+	}
+
+	/**
+	 * @return the connection in the backlog whose handshake completed first, or null if there is none yet
+	 */
+	private Pending takeReady(long now) {
+		Pending earliest = null;
+		for(Pending p : backlog) {
+			if(p.readyAt - now <= 0 && (earliest == null || p.readyAt - earliest.readyAt < 0))
+				earliest = p;
+		}
+		if(earliest != null)
+			backlog.remove(earliest);
+		return earliest;
+	}
+
+	@Override
+	public SocketChannel accept() throws IOException {
+		if(!isOpen())
+			throw new ClosedChannelException();
+		if(local == null)
+			throw new NotYetBoundException();
+
+		if(!isBlocking()) {
+			synchronized(lock) {
+				Pending ready = takeReady(System.nanoTime());
+				return ready == null ? null : ready.channel;
+			}
+		}
+
+		Pending ready = null;
+		try {
+			begin();
+			synchronized(lock) {
+				while(isOpen()) {
+					long now = System.nanoTime();
+					ready = takeReady(now);
+					if(ready != null)
+						break;
+
+					long next = Long.MAX_VALUE;
+					for(Pending p : backlog) {
+						next = Math.min(next, p.readyAt);
+					}
+					if(next == Long.MAX_VALUE)
+						lock.wait();
+					else
+						lock.wait(Math.max(1, (next - now) / 1000000));
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			end(ready != null);
+		}
+		return ready == null ? null : ready.channel;
+	}
+
+	@Override
+	public int readyOps(long now) {
+		synchronized(lock) {
+			for(Pending p : backlog) {
+				if(p.readyAt - now <= 0)
+					return SelectionKey.OP_ACCEPT;
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public void addKey(SimSelectionKey key) {
+		keys.add(key);
+	}
+
+	@Override
+	public void removeKey(SimSelectionKey key) {
+		keys.remove(key);
+	}
+
+	private void signalSelectors() {
+		for(SimSelectionKey key : keys) {
+			((SimSelector) key.selector()).signal();
+		}
+	}
+
+	@Override
+	protected void implCloseSelectableChannel() throws IOException {
+		List<Pending> refused;
+		synchronized(lock) {
+			if(local != null)
+				SimNetwork.instance.unbind(this, local);
+			refused = new ArrayList<>(backlog);
+			backlog.clear();
+			lock.notifyAll();
+		}
+		for(Pending p : refused) {
+			p.channel.close();
+		}
+		signalSelectors();
+	}
+
+	@Override
+	protected void implConfigureBlocking(boolean block) throws IOException {
+	}
+}
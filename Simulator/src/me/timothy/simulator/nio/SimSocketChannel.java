@@ -0,0 +1,497 @@
+package me.timothy.simulator.nio;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AlreadyBoundException;
+import java.nio.channels.AlreadyConnectedException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ConnectionPendingException;
+import java.nio.channels.NoConnectionPendingException;
+import java.nio.channels.NotYetConnectedException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.channels.UnsupportedAddressTypeException;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import me.timothy.simulator.SimHost;
+import me.timothy.simulator.SimNetwork;
+
+/**
+ * One end of a simulated TCP connection. Each end reads from one
+ * {@link SimStream} and writes to the other, and wakes up the other end's
+ * selectors and blocked threads when something it does concerns them.
+ *
+ * @author Timothy
+ */
+public class SimSocketChannel extends SocketChannel implements SimChannel {
+	private static final Set<SocketOption<?>> OPTIONS = Collections.unmodifiableSet(new HashSet<SocketOption<?>>(
+			Arrays.<SocketOption<?>>asList(StandardSocketOptions.SO_SNDBUF, StandardSocketOptions.SO_RCVBUF,
+					StandardSocketOptions.SO_KEEPALIVE, StandardSocketOptions.SO_REUSEADDR,
+					StandardSocketOptions.SO_LINGER, StandardSocketOptions.TCP_NODELAY)));
+
+	private static final int UNCONNECTED = 0;
+	private static final int PENDING = 1;
+	private static final int CONNECTED = 2;
+
+	private final SimHost host;
+	private final Object stateLock;
+	private final List<SimSelectionKey> keys;
+	private final Map<SocketOption<?>, Object> options;
+
+	private volatile int state;
+	private volatile long establishedAt;
+	private volatile InetSocketAddress local;
+	private volatile InetSocketAddress remote;
+	private SimStream in;
+	private SimStream out;
+	private SimSocketChannel other;
+	private volatile boolean inputShutdown;
+
+	SimSocketChannel(SelectorProvider provider, SimHost host) {
+		super(provider);
+		this.host = host;
+		stateLock = new Object();
+		keys = new CopyOnWriteArrayList<>();
+		options = new HashMap<>();
+	}
+
+	/**
+	 * Creates the accepting end of a connection
+	 */
+	private SimSocketChannel(SelectorProvider provider, SimHost host, InetSocketAddress local, InetSocketAddress remote,
+			SimStream in, SimStream out, long establishedAt) {
+		this(provider, host);
+		this.local = local;
+		this.remote = remote;
+		this.in = in;
+		this.out = out;
+		this.establishedAt = establishedAt;
+		state = CONNECTED;
+	}
+
+	public SimHost getHost() {
+		return host;
+	}
+
+	@Override
+	public SocketChannel bind(SocketAddress local) throws IOException {
+		if(!isOpen())
+			throw new ClosedChannelException();
+		if(local != null && !(local instanceof InetSocketAddress))
+			throw new UnsupportedAddressTypeException();
+		synchronized(stateLock) {
+			if(state != UNCONNECTED)
+				throw new AlreadyConnectedException();
+			if(this.local != null)
+				throw new AlreadyBoundException();
+			InetSocketAddress addr = (InetSocketAddress) local;
+			int port = addr == null || addr.getPort() == 0 ? host.nextEphemeralPort() : addr.getPort();
+			this.local = new InetSocketAddress(host.getAddress(), port);
+		}
+		return this;
+	}
+
+	@Override
+	public <T> SocketChannel setOption(SocketOption<T> name, T value) throws IOException {
+		if(!OPTIONS.contains(name))
+			throw new UnsupportedOperationException("'" + name + "' not supported");
+		if(!isOpen())
+			throw new ClosedChannelException();
+		synchronized(options) {
+			options.put(name, value);
+		}
+		return this;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T getOption(SocketOption<T> name) throws IOException {
+		if(!OPTIONS.contains(name))
+			throw new UnsupportedOperationException("'" + name + "' not supported");
+		if(!isOpen())
+			throw new ClosedChannelException();
+		synchronized(options) {
+			return (T) options.get(name);
+		}
+	}
+
+	@Override
+	public Set<SocketOption<?>> supportedOptions() {
+		return OPTIONS;
+	}
+
+	@Override
+	public Socket socket() {
+		throw new UnsupportedOperationException("The socket adaptor is not simulated");
+	}
+
+	@Override
+	public boolean isConnected() {
+		return state == CONNECTED;
+	}
+
+	@Override
+	public boolean isConnectionPending() {
+		return state == PENDING;
+	}
+
+	@Override
+	public boolean connect(SocketAddress remote) throws IOException {
+		if(!isOpen())
+			throw new ClosedChannelException();
+		if(!(remote instanceof InetSocketAddress))
+			throw new UnsupportedAddressTypeException();
+		InetSocketAddress addr = (InetSocketAddress) remote;
+		if(addr.isUnresolved())
+			throw new UnresolvedAddressException();
+
+		synchronized(stateLock) {
+			if(state == CONNECTED)
+				throw new AlreadyConnectedException();
+			if(state == PENDING)
+				throw new ConnectionPendingException();
+
+			SimServerSocketChannel listener = SimNetwork.instance.getListener(addr);
+			SimHost to = listener.getHost();
+			if(local == null)
+				local = new InetSocketAddress(host.getAddress(), host.nextEphemeralPort());
+			long established = System.nanoTime() + SimNetwork.instance.delay(host, to) + SimNetwork.instance.delay(to, host);
+
+			SimStream toServer = new SimStream(host, to, established);
+			SimStream toClient = new SimStream(to, host, established);
+			SimSocketChannel accepted = new SimSocketChannel(provider(), to, addr, local, toServer, toClient, established);
+			accepted.other = this;
+			this.remote = addr;
+			in = toClient;
+			out = toServer;
+			other = accepted;
+			establishedAt = established;
+			state = PENDING;
+			try {
+				listener.enqueue(accepted, established);
+			}catch(ConnectException e) {
+				state = UNCONNECTED;
+				this.remote = null;
+				in = out = null;
+				other = null;
+				throw e;
+			}
+		}
+		SimNetwork.instance.schedule(establishedAt, new Runnable() {
+			@Override
+			public void run() {
+				synchronized(stateLock) {
+					stateLock.notifyAll();
+				}
+				signalSelectors();
+			}
+		});
+
+		return finishConnect();
+	}
+
+	@Override
+	public boolean finishConnect() throws IOException {
+		if(!isOpen())
+			throw new ClosedChannelException();
+		if(state == CONNECTED)
+			return true;
+		if(state != PENDING)
+			throw new NoConnectionPendingException();
+
+		if(!isBlocking()) {
+			synchronized(stateLock) {
+				if(state == PENDING && establishedAt - System.nanoTime() <= 0)
+					state = CONNECTED;
+				return state == CONNECTED;
+			}
+		}
+
+		boolean connected = false;
+		try {
+			begin();
+			synchronized(stateLock) {
+				while(isOpen()) {
+					long wait = establishedAt - System.nanoTime();
+					if(wait <= 0) {
+						state = CONNECTED;
+						connected = true;
+						break;
+					}
+					stateLock.wait(Math.max(1, wait / 1000000));
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			end(connected);
+		}
+		return connected;
+	}
+
+	@Override
+	public SocketAddress getRemoteAddress() throws IOException {
+		if(!isOpen())
+			throw new ClosedChannelException();
+		return remote;
+	}
+
+	@Override
+	public SocketAddress getLocalAddress() throws IOException {
+		if(!isOpen())
+			throw new ClosedChannelException();
+		return local;
+	}
+
+	@Override
+	public SocketChannel shutdownInput() throws IOException {
+		if(!isOpen())
+			throw new ClosedChannelException();
+		if(state != CONNECTED)
+			throw new NotYetConnectedException();
+		inputShutdown = true;
+		synchronized(in) {
+			in.notifyAll();
+		}
+		signalSelectors();
+		return this;
+	}
+
+	@Override
+	public SocketChannel shutdownOutput() throws IOException {
+		if(!isOpen())
+			throw new ClosedChannelException();
+		if(state != CONNECTED)
+			throw new NotYetConnectedException();
+		long arrival;
+		synchronized(out) {
+			arrival = out.shutdown();
+		}
+		wakeReaderAt(arrival);
+		return this;
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		return (int) read(new ByteBuffer[] { dst }, 0, 1);
+	}
+
+	@Override
+	public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+		if(!isOpen())
+			throw new ClosedChannelException();
+		if(state != CONNECTED)
+			throw new NotYetConnectedException();
+		if(inputShutdown)
+			return -1;
+
+		long read = 0;
+		boolean hadRoom = true;
+		boolean completed = false;
+		try {
+			if(isBlocking())
+				begin();
+			synchronized(in) {
+				while(true) {
+					long now = System.nanoTime();
+					hadRoom = in.room() > 0;
+					read = in.read(dsts, offset, length, now);
+					if(read != 0 || !isBlocking() || !hasRemaining(dsts, offset, length)) {
+						completed = true;
+						break;
+					}
+					if(!isOpen() || inputShutdown) {
+						read = -1;
+						completed = inputShutdown;
+						break;
+					}
+
+					long next = in.nextArrival();
+					if(next == Long.MAX_VALUE)
+						in.wait();
+					else
+						in.wait(Math.max(1, (next - now) / 1000000));
+				}
+				if(read > 0 && !hadRoom)
+					in.notifyAll();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if(isBlocking())
+				end(completed);
+		}
+
+		if(read > 0 && !hadRoom)
+			other.signalSelectors(); // the writer has room again
+		return read;
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		return (int) write(new ByteBuffer[] { src }, 0, 1);
+	}
+
+	@Override
+	public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+		if(!isOpen())
+			throw new ClosedChannelException();
+		if(state != CONNECTED)
+			throw new NotYetConnectedException();
+
+		long written = 0;
+		long lastArrival = 0;
+		boolean completed = false;
+		try {
+			if(isBlocking())
+				begin();
+			synchronized(out) {
+				while(true) {
+					if(out.isShutdown())
+						throw new ClosedChannelException();
+					if(out.isReset())
+						throw new IOException("Connection reset by peer");
+
+					long before = remaining(srcs, offset, length);
+					long arrival = out.write(srcs, offset, length);
+					if(arrival != 0) {
+						written += before - remaining(srcs, offset, length);
+						lastArrival = arrival;
+					}
+					if(!isBlocking() || !hasRemaining(srcs, offset, length)) {
+						completed = true;
+						break;
+					}
+					if(!isOpen())
+						break;
+					out.wait();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if(isBlocking())
+				end(completed);
+		}
+
+		if(written > 0)
+			wakeReaderAt(lastArrival);
+		return written;
+	}
+
+	/**
+	 * Wakes the other end when something it is waiting for arrives
+	 * @param arrival when it arrives
+	 */
+	private void wakeReaderAt(long arrival) {
+		final SimStream stream = out;
+		final SimSocketChannel reader = other;
+		SimNetwork.instance.schedule(arrival, new Runnable() {
+			@Override
+			public void run() {
+				synchronized(stream) {
+					stream.notifyAll();
+				}
+				reader.signalSelectors();
+			}
+		});
+	}
+
+	private static boolean hasRemaining(ByteBuffer[] buffers, int offset, int length) {
+		for(int i = offset; i < offset + length; i++) {
+			if(buffers[i].hasRemaining())
+				return true;
+		}
+		return false;
+	}
+
+	private static long remaining(ByteBuffer[] buffers, int offset, int length) {
+		long remaining = 0;
+		for(int i = offset; i < offset + length; i++) {
+			remaining += buffers[i].remaining();
+		}
+		return remaining;
+	}
+
+	@Override
+	public int readyOps(long now) {
+		int s = state;
+		if(s == PENDING)
+			return establishedAt - now <= 0 ? SelectionKey.OP_CONNECT : 0;
+		if(s != CONNECTED)
+			return 0;
+
+		int ops = 0;
+		synchronized(in) {
+			if(inputShutdown || in.isReadable(now))
+				ops |= SelectionKey.OP_READ;
+		}
+		synchronized(out) {
+			if(out.isWritable())
+				ops |= SelectionKey.OP_WRITE;
+		}
+		return ops;
+	}
+
+	@Override
+	public void addKey(SimSelectionKey key) {
+		keys.add(key);
+	}
+
+	@Override
+	public void removeKey(SimSelectionKey key) {
+		keys.remove(key);
+	}
+
+	void signalSelectors() {
+		for(SimSelectionKey key : keys) {
+			((SimSelector) key.selector()).signal();
+		}
+	}
+
+	@Override
+	protected void implCloseSelectableChannel() throws IOException {
+		synchronized(stateLock) {
+			stateLock.notifyAll();
+		}
+		if(out == null)
+			return;
+
+		long arrival;
+		synchronized(out) {
+			arrival = out.shutdown();
+			out.notifyAll();
+		}
+		synchronized(in) {
+			in.reset();
+			in.notifyAll();
+		}
+		wakeReaderAt(arrival);
+		other.signalSelectors(); // its writes fail from now on
+		signalSelectors();
+	}
+
+	@Override
+	protected void implConfigureBlocking(boolean block) throws IOException {
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + local + " -> " + remote + "]";
+	}
+}
@@ -0,0 +1,180 @@
+package me.timothy.simulator.nio;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import me.timothy.simulator.SimHost;
+import me.timothy.simulator.SimNetwork;
+
+/**
+ * One direction of a simulated connection: the bytes one end has written and
+ * the other end has not read, each write stamped with when it arrives. Reads
+ * free up room, which is how a slow reader pushes back on the writer like a
+ * TCP window does. Every method must be called while holding the stream's lock.
+ *
+ * @author Timothy
+ */
+class SimStream {
+	/**
+	 * How many bytes may be written and not read, like a send and receive buffer together
+	 */
+	static final int CAPACITY = 256 * 1024;
+
+	private static class Segment {
+		final byte[] data;
+		final long arrival;
+		int pos;
+
+		Segment(byte[] data, long arrival) {
+			this.data = data;
+			this.arrival = arrival;
+		}
+	}
+
+	final SimHost from;
+	final SimHost to;
+	private final ArrayDeque<Segment> segments;
+	private int unread;
+	private long lastArrival;
+
+	private boolean shutdown;
+	private long shutdownArrival;
+	private boolean reset;
+
+	/**
+	 * @param from the host that writes
+	 * @param to the host that reads
+	 * @param established when the connection is established, before which nothing arrives
+	 */
+	SimStream(SimHost from, SimHost to, long established) {
+		this.from = from;
+		this.to = to;
+		segments = new ArrayDeque<>();
+		lastArrival = established;
+	}
+
+	/**
+	 * @return how many bytes can be written right now
+	 */
+	int room() {
+		return CAPACITY - unread;
+	}
+
+	/**
+	 * @return if a write would not block, either because there is room or because it would fail
+	 */
+	boolean isWritable() {
+		return reset || shutdown || unread < CAPACITY;
+	}
+
+	/**
+	 * @param now the current time
+	 * @return if a read would not block, either because data arrived or because the stream ended
+	 */
+	boolean isReadable(long now) {
+		Segment head = segments.peek();
+		if(head != null)
+			return head.arrival - now <= 0;
+		return shutdown && shutdownArrival - now <= 0;
+	}
+
+	/**
+	 * @return when the next thing a reader waits for arrives, or Long.MAX_VALUE if nothing is coming
+	 */
+	long nextArrival() {
+		Segment head = segments.peek();
+		if(head != null)
+			return head.arrival;
+		return shutdown ? shutdownArrival : Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return if the reader has gone away, so writing fails
+	 */
+	boolean isReset() {
+		return reset;
+	}
+
+	boolean isShutdown() {
+		return shutdown;
+	}
+
+	/**
+	 * Writes as much of the buffers as there is room for
+	 * @return when the write arrives, or 0 if nothing was written
+	 */
+	long write(ByteBuffer[] srcs, int offset, int length) {
+		long remaining = 0;
+		for(int i = offset; i < offset + length; i++) {
+			remaining += srcs[i].remaining();
+		}
+		int n = (int) Math.min(room(), remaining);
+		if(n <= 0)
+			return 0;
+
+		byte[] data = new byte[n];
+		int pos = 0;
+		for(int i = offset; i < offset + length && pos < n; i++) {
+			int count = Math.min(srcs[i].remaining(), n - pos);
+			srcs[i].get(data, pos, count);
+			pos += count;
+		}
+
+		lastArrival = SimNetwork.instance.transmit(from, to, n, lastArrival);
+		segments.add(new Segment(data, lastArrival));
+		unread += n;
+		return lastArrival;
+	}
+
+	/**
+	 * Reads whatever has arrived into the buffers
+	 * @param now the current time
+	 * @return the number of bytes read, or -1 at the end of the stream
+	 */
+	long read(ByteBuffer[] dsts, int offset, int length, long now) {
+		long read = 0;
+		int i = offset;
+		while(i < offset + length) {
+			Segment head = segments.peek();
+			if(head == null || head.arrival - now > 0)
+				break;
+			ByteBuffer dst = dsts[i];
+			if(!dst.hasRemaining()) {
+				i++;
+				continue;
+			}
+			int count = Math.min(dst.remaining(), head.data.length - head.pos);
+			dst.put(head.data, head.pos, count);
+			head.pos += count;
+			read += count;
+			if(head.pos == head.data.length)
+				segments.poll();
+		}
+		unread -= read;
+
+		if(read == 0 && segments.isEmpty() && shutdown && shutdownArrival - now <= 0)
+			return -1;
+		return read;
+	}
+
+	/**
+	 * Ends the stream after everything written so far
+	 * @return when the end arrives
+	 */
+	long shutdown() {
+		if(!shutdown) {
+			shutdown = true;
+			shutdownArrival = Math.max(lastArrival, System.nanoTime() + SimNetwork.instance.delay(from, to));
+		}
+		return shutdownArrival;
+	}
+
+	/**
+	 * Throws away everything unread because the reader went away, so further writes fail
+	 */
+	void reset() {
+		reset = true;
+		segments.clear();
+		unread = 0;
+	}
+}
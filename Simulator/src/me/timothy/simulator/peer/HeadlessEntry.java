@@ -0,0 +1,94 @@
+package me.timothy.simulator.peer;
+
+import me.timothy.dcrts.DCRTSEntry;
+import me.timothy.dcrts.state.ConnectionState;
+import me.timothy.dcrts.state.MainMenuState;
+import me.timothy.dcrts.state.MessageState;
+import me.timothy.simulator.SimHost;
+
+import org.newdawn.slick.SlickException;
+import org.newdawn.slick.state.transition.Transition;
+
+/**
+ * Stands in for the game window. Entering the connection state initializes
+ * and enters it, which activates the modules, and every other state is only
+ * remembered since nothing is drawn. Like Slick, states are entered later on
+ * the host's own thread rather than by whoever asked.
+ *
+ * @author Timothy
+ */
+public class HeadlessEntry extends DCRTSEntry {
+	private final SimHost host;
+	private volatile int stateId = -1;
+	private volatile boolean inGame;
+	private boolean connectionStateInitialized;
+
+	public HeadlessEntry() {
+		host = SimHost.current();
+	}
+
+	@Override
+	public void enterState(int id) {
+		enter(id);
+	}
+
+	@Override
+	public void enterState(int id, Transition leave, Transition enter) {
+		enter(id);
+	}
+
+	private void enter(final int id) {
+		stateId = id;
+		host.execute(new Runnable() {
+			@Override
+			public void run() {
+				if(id != ConnectionState.ID)
+					return;
+
+				ConnectionState state = (ConnectionState) GAME_STATES[ConnectionState.ID];
+				try {
+					if(!connectionStateInitialized) {
+						state.init(null, HeadlessEntry.this);
+						connectionStateInitialized = true;
+					}
+					state.enter(null, HeadlessEntry.this);
+				} catch (SlickException e) {
+					throw new IllegalStateException(e);
+				}
+				inGame = true;
+			}
+		});
+	}
+
+	/**
+	 * @return the id of the state the game is in
+	 */
+	public int getStateId() {
+		return stateId;
+	}
+
+	/**
+	 * @return if the connection state was entered and the modules activated
+	 */
+	public boolean isInGame() {
+		return inGame;
+	}
+
+	/**
+	 * @return what the state the game is in says, for finding out why a peer got stuck
+	 */
+	public String describeState() {
+		switch(stateId) {
+		case ConnectionState.ID:
+			return inGame ? "in game" : "entering game";
+		case MessageState.ID:
+			return "message \"" + ((MessageState) GAME_STATES[MessageState.ID]).getMessage() + "\"";
+		case MainMenuState.ID:
+			return "main menu";
+		case -1:
+			return "not started";
+		default:
+			return "state " + stateId;
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package me.timothy.simulator.peer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import me.timothy.dcrts.DCRTSEntry;
+import me.timothy.dcrts.net.NetModule;
+import me.timothy.dcrts.net.connect.ConnectingHandler;
+import me.timothy.dcrts.net.lobby.ConnectedLobby;
+import me.timothy.dcrts.net.lobby.HostedLobby;
+import me.timothy.dcrts.net.lobby.Lobby;
+import me.timothy.dcrts.net.lobby.LobbyPackets;
+import me.timothy.dcrts.net.module.ModuleHandler;
+import me.timothy.dcrts.net.packets.WhisperEncoder;
+import me.timothy.dcrts.net.packets.WhisperPacket;
+import me.timothy.dcrts.packet.PacketHandler;
+import me.timothy.dcrts.packet.PacketHeader;
+import me.timothy.dcrts.packet.PacketListener;
+import me.timothy.dcrts.packet.PacketManager;
+import me.timothy.dcrts.packet.ParsedPacket;
+import me.timothy.dcrts.peer.Peer;
+import me.timothy.dcrts.state.ConnectionState;
+import me.timothy.dcrts.utils.BufferPool;
+import me.timothy.dcrts.utils.NetUtils;
+import me.timothy.modules.broadcast.BroadcastModule;
+import me.timothy.modules.empty.EmptyModule;
+import me.timothy.modules.listener.ListenerModule;
+import me.timothy.modules.midnode.MidnodeModule;
+import me.timothy.simulator.DeliveryStats;
+import me.timothy.simulator.SimPeer;
+
+/**
+ * Plays one peer's copy of the game, doing what the main menu and lobby
+ * states do when the player clicks through them. Probes are whispers to
+ * everyone holding the time they were sent, since the net modules relay
+ * them through the whole tree. Pings are not relayed, as they measure a
+ * single connection.
+ *
+ * @author Timothy
+ */
+public class PeerDriver implements SimPeer, PacketListener {
+	private static final String PROBE_PREFIX = "probe ";
+
+	private HeadlessEntry entry;
+	private Lobby lobby;
+	private DeliveryStats stats;
+
+	@Override
+	public void init(DeliveryStats stats) {
+		this.stats = stats;
+		DCRTSEntry.instance = entry = new HeadlessEntry();
+		LobbyPackets.init();
+
+		// the same as their description.yml, without the jars
+		ModuleHandler.registerModule(BroadcastModule.class, "net", "BroadcastModule");
+		ModuleHandler.registerModule(ListenerModule.class, "net", "ListenerModule");
+		ModuleHandler.registerModule(MidnodeModule.class, "net", "MidnodeModule");
+		ModuleHandler.registerModule(EmptyModule.class, "logic", "EmptyModule");
+
+		PacketManager.instance.registerClass(this);
+	}
+
+	@Override
+	public void host() {
+		lobby = new HostedLobby();
+		lobby.begin();
+	}
+
+	@Override
+	public void join(InetSocketAddress address) {
+		ConnectedLobby connected = new ConnectedLobby();
+		connected.setAddress(address);
+		lobby = connected;
+		lobby.begin();
+	}
+
+	@Override
+	public int lobbySize() {
+		return lobby.numPeers();
+	}
+
+	@Override
+	public void setReady() {
+		lobby.setReady(true);
+	}
+
+	@Override
+	public boolean tryBeginCountdown() {
+		if(!lobby.isEveryoneReady())
+			return false;
+		lobby.beginCountdown();
+		return true;
+	}
+
+	@Override
+	public boolean isInGame() {
+		return entry.isInGame();
+	}
+
+	@Override
+	public String describeState() {
+		return entry.describeState();
+	}
+
+	@Override
+	public String getNetModule() {
+		NetModule module = getLocalNetModule();
+		return module != null ? module.getName() : null;
+	}
+
+	private NetModule getLocalNetModule() {
+		if(!entry.isInGame())
+			return null;
+		ConnectingHandler handler = ((ConnectionState) DCRTSEntry.GAME_STATES[ConnectionState.ID]).getConnectingHandler();
+		return handler.getNetState().getLocalNetModule();
+	}
+
+	@Override
+	public void sendProbe() throws IOException {
+		NetModule module = getLocalNetModule();
+		if(module == null)
+			throw new IllegalStateException("Cannot send probes before the game starts");
+
+		ByteBuffer buffer = NetUtils.createBuffer(lobby.getLocalPeer().getID(), PacketHeader.WHISPER);
+		try {
+			WhisperEncoder.INSTANCE.write(buffer, lobby.getLocalPeer(), PROBE_PREFIX + System.nanoTime());
+			buffer.flip();
+			module.sendData(buffer);
+		} finally {
+			BufferPool.instance.release(buffer);
+		}
+	}
+
+	@PacketHandler(header=PacketHeader.WHISPER, priority=3)
+	public void onProbe(Peer peer, ParsedPacket packet) {
+		String msg = ((WhisperPacket) packet).getMessage();
+		if(entry.isInGame() && msg.startsWith(PROBE_PREFIX))
+			stats.delivered(System.nanoTime() - Long.parseLong(msg.substring(PROBE_PREFIX.length())));
+	}
+
+	@Override
+	public void shutdown() {
+		if(entry.isInGame())
+			((ConnectionState) DCRTSEntry.GAME_STATES[ConnectionState.ID]).getConnectingHandler().destroy();
+	}
+}